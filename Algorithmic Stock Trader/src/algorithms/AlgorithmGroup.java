@@ -0,0 +1,55 @@
+package algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import stocks.Portfolio;
+import trade_types.OrderKind;
+import trade_types.OrderNetter;
+import trade_types.Trade;
+
+/**
+ * Runs several algorithms on one Portfolio as if they were one.
+ *
+ * Each cycle every algorithm is evaluated and their market Trades are netted per stock,
+ * so two algorithms that disagree about a stock send one order, or none, instead of two.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class AlgorithmGroup implements Algorithm {
+
+	private final List<Algorithm> algorithms;
+	private final OrderNetter netter = new OrderNetter(OrderKind.MARKET);
+
+	public AlgorithmGroup(Algorithm... algorithms) {
+		this.algorithms = new ArrayList<Algorithm>(Arrays.asList(algorithms));
+	}
+
+	@Override
+	public void setup(Portfolio portfolio) {
+		for (Algorithm curAlgorithm : algorithms) {
+			curAlgorithm.setup(portfolio);
+		}
+	}
+
+	@Override
+	public Trade[] evaluate() {
+		for (Algorithm curAlgorithm : algorithms) {
+			netter.add(curAlgorithm.evaluate());
+		}
+
+		return netter.net();
+	}
+
+	/**
+	 * Gets the algorithms in the group
+	 *
+	 * @return
+	 */
+	public List<Algorithm> getAlgorithms() {
+		return algorithms;
+	}
+}
@@ -1,9 +1,7 @@
 package algorithms;
 
-import java.util.ArrayList;
-
-
 import stocks.Portfolio;
+import stocks.WatchList;
 import trade_types.Trade;
 
 /**
@@ -18,7 +16,7 @@ public class AlgorithmTemplate implements Algorithm {
 
 	// Portfolio and watch list for a trader
 	private Portfolio myPortfolio;
-	private ArrayList<String> watchList;
+	private WatchList watchList;
 	
 	@Override
 	public void setup(Portfolio portfolio) {
@@ -0,0 +1,99 @@
+package algorithms;
+
+/**
+ * Tuning constants used by the Fibonacci Retracement algorithm.
+ * Kept separate from the algorithm so that the values can be swept by the optimizer.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class FibParameters {
+
+	// Values the algorithm was originally written with
+	public static final FibParameters DEFAULT = new FibParameters(5, 10, 10, .007, .0009, .10);
+
+	// Number of stocks in each group
+	private final int specStockNumber;
+	private final int smallStockNumber;
+	private final int largeStockNumber;
+
+	// Days range (as a fraction of the price) below which the averages are used as the levels
+	private final double hlavgSwitch;
+
+	// Threshold (as a fraction of the price) used with the days high and low
+	private final double hdailyThreshold;
+
+	// Price band (as a fraction of the price paid) inside which an owned stock is not bought again
+	private final double rebuyThreshold;
+
+	public FibParameters(int specStockNumber, int smallStockNumber, int largeStockNumber,
+			double hlavgSwitch, double hdailyThreshold, double rebuyThreshold) {
+		this.specStockNumber = specStockNumber;
+		this.smallStockNumber = smallStockNumber;
+		this.largeStockNumber = largeStockNumber;
+		this.hlavgSwitch = hlavgSwitch;
+		this.hdailyThreshold = hdailyThreshold;
+		this.rebuyThreshold = rebuyThreshold;
+	}
+
+	/**
+	 * Gets the number of speculative stocks that can be held
+	 *
+	 * @return
+	 */
+	public int getSpecStockNumber() {
+		return specStockNumber;
+	}
+
+	/**
+	 * Gets the number of small cap stocks that can be held
+	 *
+	 * @return
+	 */
+	public int getSmallStockNumber() {
+		return smallStockNumber;
+	}
+
+	/**
+	 * Gets the number of large cap stocks that can be held
+	 *
+	 * @return
+	 */
+	public int getLargeStockNumber() {
+		return largeStockNumber;
+	}
+
+	/**
+	 * Gets the days range fraction that switches to the HLAVG levels
+	 *
+	 * @return
+	 */
+	public double getHlavgSwitch() {
+		return hlavgSwitch;
+	}
+
+	/**
+	 * Gets the threshold fraction used with the HDAILY levels
+	 *
+	 * @return
+	 */
+	public double getHdailyThreshold() {
+		return hdailyThreshold;
+	}
+
+	/**
+	 * Gets the rebuy band as a fraction of the price paid
+	 *
+	 * @return
+	 */
+	public double getRebuyThreshold() {
+		return rebuyThreshold;
+	}
+
+	@Override
+	public String toString() {
+		return "spec=" + specStockNumber + " small=" + smallStockNumber + " large=" + largeStockNumber
+				+ " hlavg=" + hlavgSwitch + " hdaily=" + hdailyThreshold + " rebuy=" + rebuyThreshold;
+	}
+}
@@ -1,11 +1,13 @@
 package algorithms;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 
+import risk_management.CapGroups;
 import stocks.Portfolio;
+import stocks.PortfolioSnapshot;
 import stocks.Stock;
+import stocks.WatchList;
 import trade_types.MarketTrade;
 import trade_types.Trade;
 import utilities.AlgorithmToolKit;
@@ -64,21 +66,49 @@ public class FibRetracement implements Algorithm {
 
 	// Portfolio and watch list for a trader
 	private Portfolio myPortfolio;
-	private ArrayList<String> watchList;
+	private WatchList watchList;
+
+	// Tuning constants for the algorithm
+	private final FibParameters parameters;
 
 	// Number of stocks in each group
-	private final int specStockNumber = 5;
-	private final int smallStockNumber = 10;
-	private final int largeStockNumber = 10;
+	private final int specStockNumber;
+	private final int smallStockNumber;
+	private final int largeStockNumber;
 	
 	// Indicates the dollar amount for each stock group
-	private final double specStockAmount = 350000000;
-	private final double smallStockAmount = 2000000000;
+	private static final double specStockAmount = 350000000;
+	private static final double smallStockAmount = 2000000000;
+
+	// Stock groups returned by capGroup
+	public static final int SPEC_GROUP = 0;
+	public static final int SMALL_GROUP = 1;
+	public static final int LARGE_GROUP = 2;
 	
 	// Allocated money for each stock group
 	private double allowedSpecMoneyAmount;
 	private double allowedSmallMoneyAmount;
 	private double allowedLargeMoneyAmount;
+
+	public FibRetracement() {
+		this(FibParameters.DEFAULT);
+	}
+
+	public FibRetracement(FibParameters parameters) {
+		this.parameters = parameters;
+		specStockNumber = parameters.getSpecStockNumber();
+		smallStockNumber = parameters.getSmallStockNumber();
+		largeStockNumber = parameters.getLargeStockNumber();
+	}
+
+	/**
+	 * Gets the tuning constants used by this algorithm
+	 * 
+	 * @return the parameters
+	 */
+	public FibParameters getParameters() {
+		return parameters;
+	}
 	
 	@Override
 	public void setup(Portfolio portfolio){
@@ -97,11 +127,23 @@ public class FibRetracement implements Algorithm {
 
 	@Override
 	public Trade[] evaluate() {
-		Trade[] toReturn = new Trade[watchList.size()];
+		// Copies the watch list, so it can change while the moves are fetched
+		String[] symbols;
+		myPortfolio.beginWrite();
+		try {
+			symbols = new String[watchList.size()];
+			for (int i = 0; i < symbols.length; i++) {
+				symbols[i] = watchList.get(i).symbol;
+			}
+		} finally {
+			myPortfolio.endWrite();
+		}
+
+		Trade[] toReturn = new Trade[symbols.length];
 
 		// Makes move for each stock in watch list
 		int counter = 0;
-		for (String stock : watchList) {
+		for (String stock : symbols) {
 			toReturn[counter] = determineFibonacciMove(stock);
 			counter++;
 		}
@@ -116,7 +158,7 @@ public class FibRetracement implements Algorithm {
 	 * @return the trade (null if no move).
 	 */
 	private Trade determineFibonacciMove(String symbol) {
-		System.out.println("\nMaking move for " + symbol);
+		report("\nMaking move for " + symbol);
 		Trade move = null;
 
 		// Verification that the Stock Market is open
@@ -128,10 +170,10 @@ public class FibRetracement implements Algorithm {
 			// Computes Values to be used as the high and low for the Fibonacci Retracement calculation
 			// If the days high and low are close, use the averages instead
 			String[] fibonacciCompVals;
-			if ((daysHigh - daysLow) <= (curPrice * .007)) {
+			if ((daysHigh - daysLow) <= (curPrice * parameters.getHlavgSwitch())) {
 				fibonacciCompVals = AlgorithmToolKit.calculateHighAndLow_HLAVG(symbol);
 			} else {
-				fibonacciCompVals = AlgorithmToolKit.calculateHighAndLow_HDAILY(symbol);
+				fibonacciCompVals = AlgorithmToolKit.calculateHighAndLow_HDAILY(symbol, parameters.getHdailyThreshold());
 			}
 
 			double low = Double.parseDouble(fibonacciCompVals[0]);
@@ -142,56 +184,30 @@ public class FibRetracement implements Algorithm {
 			int sharesToBuy = 0;
 			
 			// Calculates Fibonacci Retracement values
-			ArrayList<Double> levels = AlgorithmToolKit.calcFibRetrace(high, low);
+			double[] levels = AlgorithmToolKit.calcFibRetrace(high, low, new double[AlgorithmToolKit.FIB_LEVEL_COUNT]);
 			double approximateVolume = AlgorithmToolKit.approximateVolume(symbol);
 			
 			// Retrieves the Stock's average daily volume over a period of 10 days
 			double tenDayVolAvg = Double.parseDouble(GeneralToolKit.fetcher.getAverageDailyVolume(symbol));
 
-			System.out.println("Current Price: " + curPrice);
-			System.out.println("Threshold of " + threshold);
-
-			// For each level, determine if the Stock's current price is within the threshold.
-			// If it is, it then determines if it has heavy or light volume by the time the market is closed.
-			// It then determines a move based on the volume.
-			for (int i = 0; i < levels.size(); i++) {
-				// Support Case
-				if (curPrice >= levels.get(i)) {
-
-					if (curPrice <= (levels.get(i) + threshold)) {
-						System.out.println("Potential Support at: " + levels.get(i) + " within threshold");
-
-						if (approximateVolume >= tenDayVolAvg) {
-							System.out.println("Heavy Volume. Should sell.");
-							sharesToSell = determineShares(symbol);
-						} else {
-							System.out.println("Light Volume. Should buy.");
-							sharesToBuy = determineShares(symbol);
-						}
-					} else {
-						System.out.println("Potential Support at: " + levels.get(i) + " not within threshold");
-						System.out.println("Not doing anythng.");
-					}
-					// Resistance Case
-				} else if (curPrice <= levels.get(i)) {
-
-					if (curPrice >= (levels.get(i) - threshold)) {
-						System.out.println("Potential Resistance at: " + levels.get(i) + " within threshold");
-
-						if (approximateVolume >= tenDayVolAvg) {
-							System.out.println("Heavy volume. Should buy.");
-							sharesToBuy = determineShares(symbol);
-						} else {
-							System.out.println("Light volume. Should sell.");
-							sharesToSell = determineShares(symbol);
-						}
-					} else {
-						System.out.println("Potential Resistance at: " + levels.get(i) + " not within threshold");
-						System.out.println("Not doing anything.");
-					}
-				} else {
-					System.out.println("Unknown Level: " + levels.get(i));
-				}
+			report("Current Price: " + curPrice);
+			report("Threshold of " + threshold);
+			report("Levels: " + Arrays.toString(levels));
+			report((approximateVolume >= tenDayVolAvg ? "Heavy" : "Light") + " volume.");
+
+			// Determines if the Stock's current price is within the threshold of a level
+			// and whether the volume makes it a support or a resistance
+			int signal = AlgorithmToolKit.fibonacciSignal(curPrice, levels, threshold, approximateVolume, tenDayVolAvg);
+			if ((signal & AlgorithmToolKit.BUY_SIGNAL) != 0) {
+				report("Should buy.");
+				sharesToBuy = determineShares(symbol);
+			}
+			if ((signal & AlgorithmToolKit.SELL_SIGNAL) != 0) {
+				report("Should sell.");
+				sharesToSell = determineShares(symbol);
+			}
+			if (signal == 0) {
+				report("No level within threshold. Not doing anything.");
 			}
 
 			// If there is a trade to be made, construct Trade object
@@ -206,6 +222,17 @@ public class FibRetracement implements Algorithm {
 		return move;
 	}
 
+	/**
+	 * Prints a line of the move's reasoning when the Portfolio prints its fills
+	 * 
+	 * @param line the line
+	 */
+	private void report(String line) {
+		if (myPortfolio.isVerbose()) {
+			System.out.println(line);
+		}
+	}
+
 	/**
 	 * Dynamically determines number of shares to buy based on which
 	 * group the stock is in as well as how much money is allocated to that group.
@@ -214,26 +241,19 @@ public class FibRetracement implements Algorithm {
 	 * @return the number of shares
 	 */
 	private int determineShares(String symbol) {
-		String group = getGroup(symbol);
-		List<Trade> stocks = new ArrayList<Trade>();
-		int currentNumberInGroup;
+		int group = CapGroups.lookup(Stock.get(symbol));
+		int currentNumberInGroup = countGroup(group);
 		int shareAmount = 0;
 
 		// If there is room for another stock of that type in the portfolio
-		if (group.equals("spec")) {
-			stocks = getSpecStocks();
-			currentNumberInGroup = stocks.size();
-
+		if (group == SPEC_GROUP) {
 			if (currentNumberInGroup < specStockNumber) {
 				double allowedMoneyPerStock = allowedSpecMoneyAmount / specStockNumber;
 				double curPrice = Double.parseDouble(GeneralToolKit.fetcher.getLastTradePriceOnly(symbol));
 				
 				shareAmount = (int) (allowedMoneyPerStock / curPrice);
 			}
-		} else if (group.equals("small")) {
-			stocks = getSmallCapStocks();
-			currentNumberInGroup = stocks.size();
-
+		} else if (group == SMALL_GROUP) {
 			if (currentNumberInGroup < smallStockNumber) {
 				double allowedMoneyPerStock = allowedSmallMoneyAmount / smallStockNumber;
 				double curPrice = Double.parseDouble(GeneralToolKit.fetcher.getLastTradePriceOnly(symbol));
@@ -241,9 +261,6 @@ public class FibRetracement implements Algorithm {
 				shareAmount = (int) (allowedMoneyPerStock / curPrice);
 			}
 		} else {
-			stocks = getLargeCapStocks();
-			currentNumberInGroup = stocks.size();
-
 			if (currentNumberInGroup < largeStockNumber) {
 				double allowedMoneyPerStock = allowedLargeMoneyAmount / largeStockNumber;
 				double curPrice = Double.parseDouble(GeneralToolKit.fetcher.getLastTradePriceOnly(symbol));
@@ -255,81 +272,43 @@ public class FibRetracement implements Algorithm {
 	}
 
 	/**
-	 * Gets the group of a stock.
+	 * Gets the group for a market capitalization.
 	 * The three groups are: Speculative, Small Cap, and Large Cap
 	 * 
-	 * @param symbol
-	 * @return
+	 * @param marketcap how much the company is worth
+	 * @return SPEC_GROUP, SMALL_GROUP or LARGE_GROUP
 	 */
-	private String getGroup(String symbol) {
-		double marketcap = AlgorithmToolKit.getMarketCapAmount(symbol);
-
+	public static int capGroup(double marketcap) {
 		if (marketcap <= specStockAmount) {
-			return "spec";
+			return SPEC_GROUP;
 		} else if (marketcap <= smallStockAmount) {
-			return "small";
+			return SMALL_GROUP;
 		} else {
-			return "large";
-		}
-	}
-
-	/**
-	 * Gets all of the Stocks that are in the Speculative group
-	 * 
-	 * @return a list of Speculative Stocks
-	 */
-	private List<Trade> getSpecStocks() {
-		List<Trade> stocks = myPortfolio.getStocks();
-		List<Trade> specStocks = new ArrayList<Trade>();
-
-		for (Trade curTrade : stocks) {
-			String symbol = curTrade.getSymbol().symbol;
-			String group = getGroup(symbol);
-
-			if (group.equals("spec")) {
-				specStocks.add(curTrade);
-			}
+			return LARGE_GROUP;
 		}
-		return specStocks;
 	}
 
 	/**
-	 * Gets all of the Stocks that are in the Small Cap group
+	 * Counts the held Stocks in a group, from the Portfolio's snapshot so no write is needed.
+	 * Only groups CapGroups already knows are counted; the others are looked up in the background.
 	 * 
-	 * @return a list of Small Cap Stocks
+	 * @param group SPEC_GROUP, SMALL_GROUP or LARGE_GROUP
+	 * @return the number of Stocks held in the group
 	 */
-	private List<Trade> getSmallCapStocks() {
-		List<Trade> stocks = myPortfolio.getStocks();
-		List<Trade> smallCapStocks = new ArrayList<Trade>();
-
-		for (Trade curTrade : stocks) {
-			String symbol = curTrade.getSymbol().symbol;
-			String group = getGroup(symbol);
-
-			if (group.equals("small")) {
-				smallCapStocks.add(curTrade);
-			}
-		}
-		return smallCapStocks;
-	}
-
-	/**
-	 * Gets all of the Stocks that are in the Large Cap group
-	 * 
-	 * @return a list of Large Cap Stocks
-	 */
-	private List<Trade> getLargeCapStocks() {
-		List<Trade> stocks = myPortfolio.getStocks();
-		List<Trade> largeCapStocks = new ArrayList<Trade>();
-
-		for (Trade curTrade : stocks) {
-			String symbol = curTrade.getSymbol().symbol;
-			String group = getGroup(symbol);
-
-			if (group.equals("large")) {
-				largeCapStocks.add(curTrade);
+	private int countGroup(int group) {
+		PortfolioSnapshot held = myPortfolio.snapshot();
+		int count = 0;
+
+		for (int i = 0; i < held.getPositionCount(); i++) {
+			Stock stock = held.getStock(i);
+			int stockGroup = CapGroups.get(stock);
+
+			if (stockGroup == CapGroups.UNKNOWN) {
+				CapGroups.lookupLater(stock);
+			} else if (stockGroup == group) {
+				count++;
 			}
 		}
-		return largeCapStocks;
+		return count;
 	}
 }
\ No newline at end of file
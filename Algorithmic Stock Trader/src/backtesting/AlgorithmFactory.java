@@ -0,0 +1,23 @@
+package backtesting;
+
+import algorithms.Algorithm;
+import algorithms.FibParameters;
+
+/**
+ * Creates an Algorithm that trades with a set of tuning constants
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public interface AlgorithmFactory {
+
+	/**
+	 * Creates a new Algorithm
+	 *
+	 * @param parameters the tuning constants to trade with
+	 * @return the algorithm, not yet set up
+	 */
+	public Algorithm create(FibParameters parameters);
+
+}
@@ -0,0 +1,98 @@
+package backtesting;
+
+import algorithms.FibParameters;
+
+/**
+ * Metrics for a single backtest run
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class BacktestResult {
+
+	private final FibParameters parameters;
+	private final double finalEquity;
+	private final double totalReturn;
+	private final double maxDrawdown;
+	private final double sharpeRatio;
+	private final int tradeCount;
+	private final int winningTrades;
+
+	public BacktestResult(FibParameters parameters, double finalEquity, double totalReturn, double maxDrawdown,
+			double sharpeRatio, int tradeCount, int winningTrades) {
+		this.parameters = parameters;
+		this.finalEquity = finalEquity;
+		this.totalReturn = totalReturn;
+		this.maxDrawdown = maxDrawdown;
+		this.sharpeRatio = sharpeRatio;
+		this.tradeCount = tradeCount;
+		this.winningTrades = winningTrades;
+	}
+
+	/**
+	 * Determines if this run is at least as good as another in both return and drawdown
+	 * and strictly better in one of them
+	 *
+	 * @param other the run to compare against
+	 * @return if this run dominates the other
+	 */
+	public boolean dominates(BacktestResult other) {
+		return totalReturn >= other.totalReturn && maxDrawdown <= other.maxDrawdown
+				&& (totalReturn > other.totalReturn || maxDrawdown < other.maxDrawdown);
+	}
+
+	public FibParameters getParameters() {
+		return parameters;
+	}
+
+	public double getFinalEquity() {
+		return finalEquity;
+	}
+
+	/**
+	 * Gets the return over the run as a fraction of the starting funds
+	 *
+	 * @return
+	 */
+	public double getTotalReturn() {
+		return totalReturn;
+	}
+
+	/**
+	 * Gets the largest peak to trough fall in equity as a fraction of the peak
+	 *
+	 * @return
+	 */
+	public double getMaxDrawdown() {
+		return maxDrawdown;
+	}
+
+	/**
+	 * Gets the annualized Sharpe ratio of the daily returns
+	 *
+	 * @return
+	 */
+	public double getSharpeRatio() {
+		return sharpeRatio;
+	}
+
+	/**
+	 * Gets the number of completed sells
+	 *
+	 * @return
+	 */
+	public int getTradeCount() {
+		return tradeCount;
+	}
+
+	public int getWinningTrades() {
+		return winningTrades;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("return %8.2f%%  drawdown %6.2f%%  sharpe %6.2f  trades %5d  wins %5d  [%s]",
+				totalReturn * 100, maxDrawdown * 100, sharpeRatio, tradeCount, winningTrades, parameters);
+	}
+}
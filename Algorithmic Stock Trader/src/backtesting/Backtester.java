@@ -0,0 +1,266 @@
+package backtesting;
+
+import incoming_data_sources.BarDataSet;
+import outgoing_data_sources.FillModel;
+import outgoing_data_sources.LastPriceFill;
+import outgoing_data_sources.MarketSnapshot;
+import outgoing_data_sources.MatchingEngine;
+import algorithms.FibParameters;
+import algorithms.FibRetracement;
+import utilities.AlgorithmToolKit;
+
+/**
+ * Replays the Fibonacci Retracement algorithm over daily bars.
+ *
+ * The decisions mirror FibRetracement and AlgorithmToolKit.processTradeResults
+ * but read the data set instead of Yahoo! Finance and keep all account state in
+ * primitive arrays local to a run, so one Backtester can be shared by many threads.
+ * Each bar is evaluated at its close, so the close is the current price and the
+ * bar's volume is the end of day volume. A sell closes the whole position and,
+ * unlike FibRetracement, is not blocked when the stock's group is full.
+ *
+ * Orders are filled by a FillModel against the bar, which has no quote. Without one
+ * they fill in full at the close.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class Backtester {
+
+	// Buy and Sell Commission charged on each sell
+	private static final double COMMISSION = 20.0;
+
+	private static final int TRADING_DAYS = 252;
+
+	private final BarDataSet data;
+	private final BarIndicators indicators;
+	private final double startingFunds;
+	private final int[] groups;
+	private final FillModel fillModel;
+	private final FillModel fills;
+
+	public Backtester(BarDataSet data, BarIndicators indicators, double startingFunds) {
+		this(data, indicators, startingFunds, null);
+	}
+
+	/**
+	 * @param fillModel decides how much of each order fills and its price, shared by every run,
+	 *                  or null to fill in full at the close
+	 */
+	public Backtester(BarDataSet data, BarIndicators indicators, double startingFunds, FillModel fillModel) {
+		this.data = data;
+		this.indicators = indicators;
+		this.startingFunds = startingFunds;
+		this.fillModel = fillModel;
+		fills = fillModel != null ? fillModel : new LastPriceFill();
+
+		groups = new int[data.getSymbolCount()];
+		for (int symbol = 0; symbol < groups.length; symbol++) {
+			groups[symbol] = FibRetracement.capGroup(data.getMarketCap(symbol));
+		}
+	}
+
+	/**
+	 * Runs a backtest over every bar after the warmup period
+	 *
+	 * @param parameters the algorithm's tuning constants
+	 * @return the metrics of the run
+	 */
+	public BacktestResult run(FibParameters parameters) {
+		return run(parameters, BarIndicators.warmupBars(data), data.getBarCount());
+	}
+
+	/**
+	 * Runs a backtest over a range of bars
+	 *
+	 * @param parameters the algorithm's tuning constants
+	 * @param startBar   first bar to trade (inclusive)
+	 * @param endBar     last bar to trade (exclusive)
+	 * @return the metrics of the run
+	 */
+	public BacktestResult run(FibParameters parameters, int startBar, int endBar) {
+		int symbolCount = data.getSymbolCount();
+		int[] shares = new int[symbolCount];
+		double[] pricePaid = new double[symbolCount];
+		double[] levels = new double[AlgorithmToolKit.FIB_LEVEL_COUNT];
+		MarketSnapshot market = new MarketSnapshot();
+
+		// Sets up the allotted money per stock for each group like FibRetracement.setup
+		int[] groupLimits = { parameters.getSpecStockNumber(), parameters.getSmallStockNumber(),
+				parameters.getLargeStockNumber() };
+		int totalStocks = groupLimits[0] + groupLimits[1] + groupLimits[2];
+		double[] moneyPerStock = new double[3];
+		for (int group = 0; group < 3; group++) {
+			moneyPerStock[group] = groupLimits[group] == 0 ? 0
+					: startingFunds * ((float) groupLimits[group] / totalStocks) / groupLimits[group];
+		}
+		int[] groupHeld = new int[3];
+
+		double availableFunds = startingFunds;
+		double peak = startingFunds;
+		double previousEquity = startingFunds;
+		double maxDrawdown = 0;
+		double returnSum = 0;
+		double returnSquares = 0;
+		int tradeCount = 0;
+		int winningTrades = 0;
+
+		for (int bar = startBar; bar < endBar; bar++) {
+			for (int symbol = 0; symbol < symbolCount; symbol++) {
+				double curPrice = data.getClose(symbol, bar);
+				if (curPrice <= 0) {
+					continue;
+				}
+
+				int signal = signal(parameters, symbol, bar, curPrice, levels);
+				if (signal == 0) {
+					continue;
+				}
+
+				int group = groups[symbol];
+				boolean owned = shares[symbol] != 0;
+				market.set(curPrice, 0, 0, 0, 0, data.getHigh(symbol, bar), data.getLow(symbol, bar),
+						data.getVolume(symbol, bar));
+
+				if ((signal & AlgorithmToolKit.BUY_SIGNAL) != 0 && groupHeld[group] < groupLimits[group]) {
+					// Shares are determined from the money allotted to the stock's group
+					int shareAmount = fills.fillableShares(MatchingEngine.BUY, (int) (moneyPerStock[group] / curPrice), market);
+					double transactionCost = fills.fillPrice(MatchingEngine.BUY, shareAmount, market) * shareAmount;
+
+					// Owned stocks are only bought again outside the rebuy band
+					boolean inBand = owned
+							&& Math.abs(curPrice - pricePaid[symbol]) < pricePaid[symbol] * parameters.getRebuyThreshold();
+
+					if (shareAmount > 0 && !inBand && (availableFunds - transactionCost) > 0) {
+						availableFunds -= transactionCost;
+						pricePaid[symbol] = ((pricePaid[symbol] * shares[symbol]) + transactionCost)
+								/ (shares[symbol] + shareAmount);
+						shares[symbol] += shareAmount;
+
+						if (!owned) {
+							groupHeld[group]++;
+						}
+					}
+				} else if ((signal & AlgorithmToolKit.SELL_SIGNAL) != 0 && owned) {
+					// Sells the whole position, or as much of it as fills
+					int shareAmount = fills.fillableShares(MatchingEngine.SELL, shares[symbol], market);
+					if (shareAmount <= 0) {
+						continue;
+					}
+
+					double salePrice = fills.fillPrice(MatchingEngine.SELL, shareAmount, market);
+					double result = (salePrice - pricePaid[symbol]) * shareAmount - COMMISSION;
+					availableFunds += salePrice * shareAmount - COMMISSION;
+
+					tradeCount++;
+					if (result > 0) {
+						winningTrades++;
+					}
+
+					shares[symbol] -= shareAmount;
+					if (shares[symbol] == 0) {
+						pricePaid[symbol] = 0;
+						groupHeld[group]--;
+					}
+				}
+			}
+
+			// Marks the account to the bar's close
+			double equity = availableFunds;
+			for (int symbol = 0; symbol < symbolCount; symbol++) {
+				if (shares[symbol] != 0) {
+					equity += shares[symbol] * data.getClose(symbol, bar);
+				}
+			}
+
+			if (equity > peak) {
+				peak = equity;
+			} else if (peak > 0 && (peak - equity) / peak > maxDrawdown) {
+				maxDrawdown = (peak - equity) / peak;
+			}
+
+			double dailyReturn = previousEquity == 0 ? 0 : (equity - previousEquity) / previousEquity;
+			returnSum += dailyReturn;
+			returnSquares += dailyReturn * dailyReturn;
+			previousEquity = equity;
+		}
+
+		return new BacktestResult(parameters, previousEquity, (previousEquity - startingFunds) / startingFunds,
+				maxDrawdown, sharpeRatio(returnSum, returnSquares, endBar - startBar), tradeCount, winningTrades);
+	}
+
+	/**
+	 * Annualizes the Sharpe ratio of daily returns, with no risk free rate
+	 *
+	 * @param returnSum     the sum of the daily returns
+	 * @param returnSquares the sum of their squares
+	 * @param days          the number of daily returns
+	 * @return the Sharpe ratio, 0 with fewer than two days or no variance
+	 */
+	static double sharpeRatio(double returnSum, double returnSquares, int days) {
+		if (days <= 1) {
+			return 0;
+		}
+
+		double mean = returnSum / days;
+		double variance = (returnSquares - days * mean * mean) / (days - 1);
+		return variance > 0 ? mean / Math.sqrt(variance) * Math.sqrt(TRADING_DAYS) : 0;
+	}
+
+	/**
+	 * Computes the Fibonacci Retracement move for a stock at a bar
+	 * the same way FibRetracement does with live data
+	 */
+	private int signal(FibParameters parameters, int symbol, int bar, double curPrice, double[] levels) {
+		double daysHigh = data.getHigh(symbol, bar);
+		double daysLow = data.getLow(symbol, bar);
+		double low;
+		double high;
+		double threshold;
+
+		// If the days high and low are close, use the averages instead
+		if ((daysHigh - daysLow) <= (curPrice * parameters.getHlavgSwitch())) {
+			double fiftyday = indicators.getFiftyDayAverage(symbol, bar);
+
+			if (curPrice > fiftyday) {
+				low = fiftyday;
+				high = indicators.getYearHigh(symbol, bar);
+			} else {
+				low = indicators.getYearLow(symbol, bar);
+				high = fiftyday;
+			}
+			threshold = (high - low) / 50;
+		} else {
+			low = daysLow;
+			high = daysHigh;
+			threshold = curPrice * parameters.getHdailyThreshold();
+		}
+
+		AlgorithmToolKit.calcFibRetrace(high, low, levels);
+
+		return AlgorithmToolKit.fibonacciSignal(curPrice, levels, threshold, data.getVolume(symbol, bar),
+				indicators.getAverageVolume(symbol, bar));
+	}
+
+	public BarDataSet getData() {
+		return data;
+	}
+
+	public BarIndicators getIndicators() {
+		return indicators;
+	}
+
+	public double getStartingFunds() {
+		return startingFunds;
+	}
+
+	/**
+	 * Gets the model the Backtester was given
+	 *
+	 * @return the model, or null if it fills in full at the close
+	 */
+	public FillModel getFillModel() {
+		return fillModel;
+	}
+}
@@ -0,0 +1,119 @@
+package backtesting;
+
+import incoming_data_sources.BarDataSet;
+
+/**
+ * Daily indicators derived from a BarDataSet that the Fibonacci Retracement
+ * algorithm reads from Yahoo! Finance when trading live.
+ *
+ * They do not depend on any algorithm parameter, so they are computed once
+ * and shared read-only by every backtest over the same data.
+ * Each value only uses the bars before the one it belongs to.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class BarIndicators {
+
+	private static final int MOVING_AVERAGE_BARS = 50;
+	private static final int YEAR_BARS = 252;
+	private static final int VOLUME_AVERAGE_BARS = 10;
+
+	private final double[][] fiftyDayAverage;
+	private final double[][] yearHigh;
+	private final double[][] yearLow;
+	private final double[][] averageVolume;
+
+	public BarIndicators(BarDataSet data) {
+		int symbolCount = data.getSymbolCount();
+		int barCount = data.getBarCount();
+
+		fiftyDayAverage = new double[symbolCount][barCount];
+		yearHigh = new double[symbolCount][barCount];
+		yearLow = new double[symbolCount][barCount];
+		averageVolume = new double[symbolCount][barCount];
+
+		for (int symbol = 0; symbol < symbolCount; symbol++) {
+			computeAverage(data, BarDataSet.CLOSE, symbol, MOVING_AVERAGE_BARS, fiftyDayAverage[symbol]);
+			computeAverage(data, BarDataSet.VOLUME, symbol, VOLUME_AVERAGE_BARS, averageVolume[symbol]);
+			computeExtreme(data, BarDataSet.HIGH, symbol, true, yearHigh[symbol]);
+			computeExtreme(data, BarDataSet.LOW, symbol, false, yearLow[symbol]);
+		}
+	}
+
+	/**
+	 * Computes a trailing average of a field with a running sum
+	 */
+	private static void computeAverage(BarDataSet data, int field, int symbol, int window, double[] out) {
+		double sum = 0;
+
+		for (int bar = 0; bar < out.length; bar++) {
+			int count = Math.min(bar, window);
+
+			// The first bar has no history, so it uses its own value
+			out[bar] = count == 0 ? data.get(field, symbol, bar) : sum / count;
+
+			sum += data.get(field, symbol, bar);
+			if (bar >= window) {
+				sum -= data.get(field, symbol, bar - window);
+			}
+		}
+	}
+
+	/**
+	 * Computes a trailing 52 week high or low with a monotonic queue of bar indexes
+	 */
+	private static void computeExtreme(BarDataSet data, int field, int symbol, boolean max, double[] out) {
+		int[] queue = new int[out.length];
+		int head = 0;
+		int tail = 0;
+
+		for (int bar = 0; bar < out.length; bar++) {
+			// Drops bars that left the window
+			while (head < tail && queue[head] < bar - YEAR_BARS) {
+				head++;
+			}
+
+			out[bar] = head == tail ? data.get(field, symbol, bar) : data.get(field, symbol, queue[head]);
+
+			// Adds the current bar, dropping bars it beats
+			double value = data.get(field, symbol, bar);
+			while (head < tail) {
+				double last = data.get(field, symbol, queue[tail - 1]);
+				if (max ? last <= value : last >= value) {
+					tail--;
+				} else {
+					break;
+				}
+			}
+			queue[tail++] = bar;
+		}
+	}
+
+	public double getFiftyDayAverage(int symbol, int bar) {
+		return fiftyDayAverage[symbol][bar];
+	}
+
+	public double getYearHigh(int symbol, int bar) {
+		return yearHigh[symbol][bar];
+	}
+
+	public double getYearLow(int symbol, int bar) {
+		return yearLow[symbol][bar];
+	}
+
+	public double getAverageVolume(int symbol, int bar) {
+		return averageVolume[symbol][bar];
+	}
+
+	/**
+	 * Gets the first bar with a full 50 day moving average behind it
+	 *
+	 * @param data the data set
+	 * @return the bar index
+	 */
+	public static int warmupBars(BarDataSet data) {
+		return Math.min(MOVING_AVERAGE_BARS, data.getBarCount());
+	}
+}
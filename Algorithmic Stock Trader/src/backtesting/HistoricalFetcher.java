@@ -0,0 +1,208 @@
+package backtesting;
+
+import incoming_data_sources.BarDataSet;
+import incoming_data_sources.YahooFetcher;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serves stock data from a BarDataSet in the same string format Yahoo! Finance uses,
+ * so algorithms written against GeneralToolKit.fetcher can be replayed over history.
+ *
+ * The fetcher answers for one bar at a time; the replay moves it with setBar.
+ * Quotes are taken at the bar's close. Unknown symbols return N/A like Yahoo! Finance.
+ * An instance belongs to a single replay thread.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class HistoricalFetcher extends YahooFetcher {
+
+	private static final String NOT_AVAILABLE = "N/A\n";
+
+	private final BarDataSet data;
+	private final BarIndicators indicators;
+	private final Map<String, Integer> symbols = new HashMap<String, Integer>();
+	private int bar;
+
+	public HistoricalFetcher(BarDataSet data, BarIndicators indicators) {
+		this.data = data;
+		this.indicators = indicators;
+
+		// Stock symbols are stored in lower case
+		for (int i = 0; i < data.getSymbolCount(); i++) {
+			symbols.put(data.getSymbol(i).toLowerCase(), i);
+		}
+	}
+
+	/**
+	 * Moves the replay to a bar
+	 *
+	 * @param bar index of the bar
+	 */
+	public void setBar(int bar) {
+		this.bar = bar;
+	}
+
+	public int getBar() {
+		return bar;
+	}
+
+	/**
+	 * Gets the index of a symbol in the data set
+	 *
+	 * @param symbol the stock symbol
+	 * @return the index, or -1 if the data set does not contain it
+	 */
+	private int indexOf(String symbol) {
+		Integer index = symbols.get(symbol.trim().toLowerCase());
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Formats a bar value like a Yahoo! Finance response
+	 */
+	private String value(String symbol, int field) {
+		int index = indexOf(symbol);
+		return index < 0 ? NOT_AVAILABLE : data.get(field, index, bar) + "\n";
+	}
+
+	/**
+	 * Answers a batch request one line per symbol. Only the last trade, open,
+	 * previous close, day's high, day's low and volume tags are known.
+	 */
+	@Override
+	public String getMultipleSymbolData(String[] symbols, String[] tags) {
+		StringBuilder response = new StringBuilder();
+
+		for (String symbol : symbols) {
+			for (int i = 0; i < tags.length; i++) {
+				String tagValue;
+
+				if (tags[i].equals("l1")) {
+					tagValue = getLastTradePriceOnly(symbol);
+				} else if (tags[i].equals("o")) {
+					tagValue = getOpen(symbol);
+				} else if (tags[i].equals("p")) {
+					tagValue = getPreviousClose(symbol);
+				} else if (tags[i].equals("h")) {
+					tagValue = getDaysHigh(symbol);
+				} else if (tags[i].equals("g")) {
+					tagValue = getDaysLow(symbol);
+				} else if (tags[i].equals("v")) {
+					tagValue = getVolume(symbol);
+				} else {
+					tagValue = NOT_AVAILABLE;
+				}
+
+				// Values are comma separated with a line per symbol
+				response.append(tagValue, 0, tagValue.length() - 1);
+				response.append(i == tags.length - 1 ? "\n" : ",");
+			}
+		}
+
+		return response.toString();
+	}
+
+	@Override
+	public String getLastTradePriceOnly(String symbol) {
+		return value(symbol, BarDataSet.CLOSE);
+	}
+
+	@Override
+	public String getLastTradeWithTime(String symbol) {
+		// The bar is evaluated at the close
+		int index = indexOf(symbol);
+		return index < 0 ? NOT_AVAILABLE : "\"16:00 - <b>" + data.getClose(index, bar) + "</b>\"\n";
+	}
+
+	@Override
+	public String getOpen(String symbol) {
+		return value(symbol, BarDataSet.OPEN);
+	}
+
+	@Override
+	public String getPreviousClose(String symbol) {
+		int index = indexOf(symbol);
+		return index < 0 ? NOT_AVAILABLE : data.getClose(index, Math.max(0, bar - 1)) + "\n";
+	}
+
+	@Override
+	public String getDaysHigh(String symbol) {
+		return value(symbol, BarDataSet.HIGH);
+	}
+
+	@Override
+	public String getDaysLow(String symbol) {
+		return value(symbol, BarDataSet.LOW);
+	}
+
+	@Override
+	public String getVolume(String symbol) {
+		return value(symbol, BarDataSet.VOLUME);
+	}
+
+	@Override
+	public String getBid(String symbol) {
+		return value(symbol, BarDataSet.CLOSE);
+	}
+
+	@Override
+	public String getAskPrice(String symbol) {
+		return value(symbol, BarDataSet.CLOSE);
+	}
+
+	@Override
+	public String getBidSize(String symbol) {
+		return NOT_AVAILABLE;
+	}
+
+	@Override
+	public String getAskSize(String symbol) {
+		return NOT_AVAILABLE;
+	}
+
+	@Override
+	public String get50DayMovingAverage(String symbol) {
+		int index = indexOf(symbol);
+		return index < 0 ? NOT_AVAILABLE : indicators.getFiftyDayAverage(index, bar) + "\n";
+	}
+
+	@Override
+	public String get52WeekHigh(String symbol) {
+		int index = indexOf(symbol);
+		return index < 0 ? NOT_AVAILABLE : indicators.getYearHigh(index, bar) + "\n";
+	}
+
+	@Override
+	public String get52WeekLow(String symbol) {
+		int index = indexOf(symbol);
+		return index < 0 ? NOT_AVAILABLE : indicators.getYearLow(index, bar) + "\n";
+	}
+
+	@Override
+	public String getAverageDailyVolume(String symbol) {
+		int index = indexOf(symbol);
+		return index < 0 ? NOT_AVAILABLE : indicators.getAverageVolume(index, bar) + "\n";
+	}
+
+	@Override
+	public String getMarketCapilization(String symbol) {
+		int index = indexOf(symbol);
+		if (index < 0) {
+			return NOT_AVAILABLE;
+		}
+
+		// Formats the market cap with a magnitude like 1.5B
+		double marketcap = data.getMarketCap(index);
+		if (marketcap >= 1000000000000L) {
+			return (marketcap / 1000000000000L) + "T\n";
+		} else if (marketcap >= 1000000000) {
+			return (marketcap / 1000000000) + "B\n";
+		} else {
+			return (marketcap / 1000000) + "M\n";
+		}
+	}
+}
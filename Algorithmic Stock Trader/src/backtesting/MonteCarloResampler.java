@@ -0,0 +1,309 @@
+package backtesting;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import stocks.Stock;
+import stocks.TradeLog;
+import trade_types.Side;
+import trade_types.Trade;
+
+/**
+ * Bootstrap resampling of a trade history to estimate the spread of returns and drawdowns.
+ *
+ * Resamples are split across a fork-join pool. Every task gets its own SplittableRandom
+ * split from the seed, so a run is repeatable regardless of how the tasks are scheduled,
+ * and the inner loop only touches primitive arrays.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class MonteCarloResampler {
+
+	// Buy and Sell Commission charged on each sell
+	private static final double COMMISSION = 20.0;
+
+	// Number of resamples a task runs before it stops splitting
+	private static final int RESAMPLES_PER_TASK = 256;
+
+	private final ForkJoinPool pool;
+
+	public MonteCarloResampler() {
+		this(new ForkJoinPool());
+	}
+
+	public MonteCarloResampler(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Computes the dollar result of each sell in a Portfolio's trade history.
+	 * Each sell is measured against the share weighted average price paid for the stock.
+	 *
+	 * @param tradeHistory the trades, oldest first
+	 * @return the result of each sell, in order
+	 */
+	public static double[] tradeResults(List<Trade> tradeHistory) {
+		Map<Stock, double[]> holdings = new HashMap<Stock, double[]>();
+		double[] results = new double[tradeHistory.size()];
+		int count = 0;
+
+		for (Trade curTrade : tradeHistory) {
+			// holding[0] is the share count, holding[1] the total price paid
+			double[] holding = holdings.get(curTrade.getSymbol());
+			if (holding == null) {
+				holding = new double[2];
+				holdings.put(curTrade.getSymbol(), holding);
+			}
+
+			int shares = curTrade.getShares();
+			if (curTrade.getSide() == Side.BUY) {
+				holding[0] += shares;
+				holding[1] += shares * curTrade.getPrice();
+			} else if (curTrade.getSide() == Side.SELL && holding[0] > 0) {
+				double sold = Math.min(shares, holding[0]);
+				double averagePrice = holding[1] / holding[0];
+
+				results[count++] = (curTrade.getPrice() - averagePrice) * sold - COMMISSION;
+
+				holding[1] -= averagePrice * sold;
+				holding[0] -= sold;
+			}
+		}
+
+		double[] trimmed = new double[count];
+		System.arraycopy(results, 0, trimmed, 0, count);
+		return trimmed;
+	}
+
+	/**
+	 * Computes the dollar result of each sell in a Portfolio's trade log.
+	 * Each sell is measured against the share weighted average price paid for the stock.
+	 *
+	 * @param tradeLog the Portfolio's trade history
+	 * @return the result of each sell, in order
+	 */
+	public static double[] tradeResults(TradeLog tradeLog) {
+		Map<Stock, double[]> holdings = new HashMap<Stock, double[]>();
+		double[] results = new double[(int) tradeLog.size()];
+		int count = 0;
+
+		// Reads the columns a row at a time instead of building a Trade per row
+		for (long row = 0; row < tradeLog.size(); row++) {
+			Stock stock = tradeLog.getStock(row);
+			double[] holding = holdings.get(stock);
+			if (holding == null) {
+				holding = new double[2];
+				holdings.put(stock, holding);
+			}
+
+			int shares = tradeLog.getShares(row);
+			Side side = tradeLog.getSide(row);
+			if (side == Side.BUY) {
+				holding[0] += shares;
+				holding[1] += shares * tradeLog.getPrice(row);
+			} else if (side == Side.SELL && holding[0] > 0) {
+				double sold = Math.min(shares, holding[0]);
+				double averagePrice = holding[1] / holding[0];
+
+				results[count++] = (tradeLog.getPrice(row) - averagePrice) * sold - COMMISSION;
+
+				holding[1] -= averagePrice * sold;
+				holding[0] -= sold;
+			}
+		}
+
+		double[] trimmed = new double[count];
+		System.arraycopy(results, 0, trimmed, 0, count);
+		return trimmed;
+	}
+
+	/**
+	 * Resamples the order of trade results with replacement and replays them on an account
+	 *
+	 * @param tradeResults   dollar result of each trade
+	 * @param startingEquity equity before the first trade
+	 * @param resamples      number of sequences to build
+	 * @param seed           seed so a run can be repeated
+	 * @return the distribution of returns and drawdowns
+	 */
+	public MonteCarloResult resampleTrades(double[] tradeResults, double startingEquity, int resamples, long seed) {
+		double[] returns = new double[resamples];
+		double[] drawdowns = new double[resamples];
+
+		if (tradeResults.length > 0) {
+			pool.invoke(new TradeTask(tradeResults, startingEquity, returns, drawdowns, 0, resamples,
+					new SplittableRandom(seed)));
+		}
+
+		return new MonteCarloResult(returns, drawdowns);
+	}
+
+	/**
+	 * Builds synthetic equity paths by resampling blocks of daily returns with replacement.
+	 * Sampling blocks instead of single days keeps some of the day to day dependence.
+	 *
+	 * @param dailyReturns daily returns of a price series or equity curve
+	 * @param pathLength   number of days in each path
+	 * @param blockLength  number of consecutive days drawn at a time
+	 * @param resamples    number of paths to build
+	 * @param seed         seed so a run can be repeated
+	 * @return the distribution of returns and drawdowns
+	 */
+	public MonteCarloResult resamplePaths(double[] dailyReturns, int pathLength, int blockLength, int resamples,
+			long seed) {
+		double[] returns = new double[resamples];
+		double[] drawdowns = new double[resamples];
+
+		if (dailyReturns.length > 0) {
+			int block = Math.max(1, Math.min(blockLength, dailyReturns.length));
+			pool.invoke(new PathTask(dailyReturns, pathLength, block, returns, drawdowns, 0, resamples,
+					new SplittableRandom(seed)));
+		}
+
+		return new MonteCarloResult(returns, drawdowns);
+	}
+
+	/**
+	 * Computes the daily returns of a price series
+	 *
+	 * @param prices the prices, oldest first
+	 * @return one return for each price after the first
+	 */
+	public static double[] dailyReturns(double[] prices) {
+		double[] returns = new double[Math.max(0, prices.length - 1)];
+
+		for (int i = 1; i < prices.length; i++) {
+			returns[i - 1] = prices[i - 1] == 0 ? 0 : (prices[i] - prices[i - 1]) / prices[i - 1];
+		}
+
+		return returns;
+	}
+
+	/**
+	 * Replays resampled trade results for a range of resamples
+	 */
+	@SuppressWarnings("serial")
+	private static class TradeTask extends RecursiveAction {
+
+		private final double[] tradeResults;
+		private final double startingEquity;
+		private final double[] returns;
+		private final double[] drawdowns;
+		private final int from;
+		private final int to;
+		private final SplittableRandom random;
+
+		TradeTask(double[] tradeResults, double startingEquity, double[] returns, double[] drawdowns, int from,
+				int to, SplittableRandom random) {
+			this.tradeResults = tradeResults;
+			this.startingEquity = startingEquity;
+			this.returns = returns;
+			this.drawdowns = drawdowns;
+			this.from = from;
+			this.to = to;
+			this.random = random;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > RESAMPLES_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new TradeTask(tradeResults, startingEquity, returns, drawdowns, from, middle, random.split()),
+						new TradeTask(tradeResults, startingEquity, returns, drawdowns, middle, to, random));
+				return;
+			}
+
+			int tradeCount = tradeResults.length;
+			for (int resample = from; resample < to; resample++) {
+				double equity = startingEquity;
+				double peak = startingEquity;
+				double maxDrawdown = 0;
+
+				for (int i = 0; i < tradeCount; i++) {
+					equity += tradeResults[random.nextInt(tradeCount)];
+
+					if (equity > peak) {
+						peak = equity;
+					} else if ((peak - equity) / peak > maxDrawdown) {
+						maxDrawdown = (peak - equity) / peak;
+					}
+				}
+
+				returns[resample] = (equity - startingEquity) / startingEquity;
+				drawdowns[resample] = maxDrawdown;
+			}
+		}
+	}
+
+	/**
+	 * Builds block bootstrapped equity paths for a range of resamples
+	 */
+	@SuppressWarnings("serial")
+	private static class PathTask extends RecursiveAction {
+
+		private final double[] dailyReturns;
+		private final int pathLength;
+		private final int blockLength;
+		private final double[] returns;
+		private final double[] drawdowns;
+		private final int from;
+		private final int to;
+		private final SplittableRandom random;
+
+		PathTask(double[] dailyReturns, int pathLength, int blockLength, double[] returns, double[] drawdowns,
+				int from, int to, SplittableRandom random) {
+			this.dailyReturns = dailyReturns;
+			this.pathLength = pathLength;
+			this.blockLength = blockLength;
+			this.returns = returns;
+			this.drawdowns = drawdowns;
+			this.from = from;
+			this.to = to;
+			this.random = random;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > RESAMPLES_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new PathTask(dailyReturns, pathLength, blockLength, returns, drawdowns, from, middle,
+						random.split()),
+						new PathTask(dailyReturns, pathLength, blockLength, returns, drawdowns, middle, to, random));
+				return;
+			}
+
+			int blockStarts = dailyReturns.length - blockLength + 1;
+			for (int resample = from; resample < to; resample++) {
+				double equity = 1;
+				double peak = 1;
+				double maxDrawdown = 0;
+				int day = 0;
+
+				while (day < pathLength) {
+					int start = random.nextInt(blockStarts);
+					int end = Math.min(start + blockLength, start + pathLength - day);
+
+					for (int i = start; i < end; i++) {
+						equity *= 1 + dailyReturns[i];
+
+						if (equity > peak) {
+							peak = equity;
+						} else if ((peak - equity) / peak > maxDrawdown) {
+							maxDrawdown = (peak - equity) / peak;
+						}
+					}
+					day += end - start;
+				}
+
+				returns[resample] = equity - 1;
+				drawdowns[resample] = maxDrawdown;
+			}
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package backtesting;
+
+import java.util.Arrays;
+
+/**
+ * Distribution of returns and drawdowns over many resampled trade sequences
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class MonteCarloResult {
+
+	private final double[] returns;
+	private final double[] drawdowns;
+
+	/**
+	 * Takes ownership of the arrays and sorts them
+	 *
+	 * @param returns   final return of each resample as a fraction of the starting equity
+	 * @param drawdowns max drawdown of each resample as a fraction of the peak
+	 */
+	public MonteCarloResult(double[] returns, double[] drawdowns) {
+		this.returns = returns;
+		this.drawdowns = drawdowns;
+
+		Arrays.sort(this.returns);
+		Arrays.sort(this.drawdowns);
+	}
+
+	/**
+	 * Gets the return below which a fraction of the resamples fall
+	 *
+	 * @param percentile between 0 and 1
+	 * @return the return
+	 */
+	public double getReturnPercentile(double percentile) {
+		return percentile(returns, percentile);
+	}
+
+	/**
+	 * Gets the drawdown below which a fraction of the resamples fall
+	 *
+	 * @param percentile between 0 and 1
+	 * @return the drawdown
+	 */
+	public double getDrawdownPercentile(double percentile) {
+		return percentile(drawdowns, percentile);
+	}
+
+	/**
+	 * Gets the fraction of resamples that lost money
+	 *
+	 * @return
+	 */
+	public double getProbabilityOfLoss() {
+		int index = Arrays.binarySearch(returns, 0);
+		if (index < 0) {
+			index = -index - 1;
+		}
+
+		// Steps back over returns equal to zero
+		while (index > 0 && returns[index - 1] >= 0) {
+			index--;
+		}
+
+		return returns.length == 0 ? 0 : (double) index / returns.length;
+	}
+
+	public double getMeanReturn() {
+		double sum = 0;
+		for (double value : returns) {
+			sum += value;
+		}
+		return returns.length == 0 ? 0 : sum / returns.length;
+	}
+
+	public int getResampleCount() {
+		return returns.length;
+	}
+
+	/**
+	 * Gets the sorted returns of every resample
+	 *
+	 * @return
+	 */
+	public double[] getReturns() {
+		return returns;
+	}
+
+	/**
+	 * Gets the sorted drawdowns of every resample
+	 *
+	 * @return
+	 */
+	public double[] getDrawdowns() {
+		return drawdowns;
+	}
+
+	private static double percentile(double[] sorted, double percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+
+		int index = (int) Math.round(percentile * (sorted.length - 1));
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	/**
+	 * Prints the distribution's percentiles
+	 */
+	public void printReport() {
+		double[] percentiles = { .05, .25, .50, .75, .95 };
+
+		System.out.println(returns.length + " resamples");
+		System.out.println("Mean return: " + (getMeanReturn() * 100) + "%");
+		System.out.println("Probability of loss: " + (getProbabilityOfLoss() * 100) + "%");
+
+		for (double percentile : percentiles) {
+			System.out.println(String.format("%3.0f%%: return %8.2f%%  drawdown %6.2f%%", percentile * 100,
+					getReturnPercentile(percentile) * 100, getDrawdownPercentile(percentile) * 100));
+		}
+	}
+}
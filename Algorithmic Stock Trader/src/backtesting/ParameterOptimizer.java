@@ -0,0 +1,209 @@
+package backtesting;
+
+import incoming_data_sources.BarDataSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import outgoing_data_sources.FillModel;
+import outgoing_data_sources.FillModels;
+import algorithms.FibParameters;
+
+/**
+ * Searches the Fibonacci Retracement tuning constants by running many backtests
+ * in parallel on a fork-join pool. Every worker reads the same memory mapped
+ * BarDataSet and shared BarIndicators.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class ParameterOptimizer {
+
+	// Number of backtests a task runs before it stops splitting
+	private static final int RUNS_PER_TASK = 8;
+
+	private final Backtester backtester;
+	private final ForkJoinPool pool;
+
+	public ParameterOptimizer(Backtester backtester) {
+		this(backtester, new ForkJoinPool());
+	}
+
+	public ParameterOptimizer(Backtester backtester, ForkJoinPool pool) {
+		this.backtester = backtester;
+		this.pool = pool;
+	}
+
+	/**
+	 * Backtests each parameter set over every bar after the warmup period
+	 *
+	 * @param candidates the parameter sets
+	 * @return one result per parameter set, in the same order
+	 */
+	public List<BacktestResult> optimize(List<FibParameters> candidates) {
+		return optimize(candidates, BarIndicators.warmupBars(backtester.getData()), backtester.getData().getBarCount());
+	}
+
+	/**
+	 * Backtests each parameter set over a range of bars
+	 *
+	 * @param candidates the parameter sets
+	 * @param startBar   first bar to trade (inclusive)
+	 * @param endBar     last bar to trade (exclusive)
+	 * @return one result per parameter set, in the same order
+	 */
+	public List<BacktestResult> optimize(List<FibParameters> candidates, int startBar, int endBar) {
+		FibParameters[] parameters = candidates.toArray(new FibParameters[candidates.size()]);
+		BacktestResult[] results = new BacktestResult[parameters.length];
+
+		pool.invoke(new SweepTask(parameters, results, 0, parameters.length, startBar, endBar));
+
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Finds the runs that no other run beats in both return and drawdown
+	 *
+	 * @param results the runs
+	 * @return the Pareto frontier, ordered by increasing drawdown
+	 */
+	public static List<BacktestResult> paretoFrontier(List<BacktestResult> results) {
+		List<BacktestResult> sorted = new ArrayList<BacktestResult>(results);
+
+		// Lowest drawdown first, highest return first among equal drawdowns
+		Collections.sort(sorted, new Comparator<BacktestResult>() {
+			@Override
+			public int compare(BacktestResult a, BacktestResult b) {
+				int byDrawdown = Double.compare(a.getMaxDrawdown(), b.getMaxDrawdown());
+				return byDrawdown != 0 ? byDrawdown : Double.compare(b.getTotalReturn(), a.getTotalReturn());
+			}
+		});
+
+		// Only a run before it can dominate a run, and the last run on the frontier has the best return of them
+		List<BacktestResult> frontier = new ArrayList<BacktestResult>();
+		for (BacktestResult result : sorted) {
+			if (frontier.isEmpty() || !frontier.get(frontier.size() - 1).dominates(result)) {
+				frontier.add(result);
+			}
+		}
+
+		return frontier;
+	}
+
+	/**
+	 * Finds the run with the highest return
+	 *
+	 * @param results the runs
+	 * @return the best run, or null if there are none
+	 */
+	public static BacktestResult best(List<BacktestResult> results) {
+		BacktestResult best = null;
+
+		for (BacktestResult result : results) {
+			if (best == null || result.getTotalReturn() > best.getTotalReturn()) {
+				best = result;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Prints the metrics of every run followed by the Pareto frontier
+	 *
+	 * @param results the runs
+	 */
+	public static void printReport(List<BacktestResult> results) {
+		System.out.println("Runs:");
+		System.out.println("-----");
+		for (BacktestResult result : results) {
+			System.out.println(result);
+		}
+
+		System.out.println("\nPareto frontier (return vs drawdown):");
+		System.out.println("-------------------------------------");
+		for (BacktestResult result : paretoFrontier(results)) {
+			System.out.println(result);
+		}
+	}
+
+	/**
+	 * Splits the parameter sets in half until a task is small enough to run directly
+	 */
+	@SuppressWarnings("serial")
+	private class SweepTask extends RecursiveAction {
+
+		private final FibParameters[] parameters;
+		private final BacktestResult[] results;
+		private final int from;
+		private final int to;
+		private final int startBar;
+		private final int endBar;
+
+		SweepTask(FibParameters[] parameters, BacktestResult[] results, int from, int to, int startBar, int endBar) {
+			this.parameters = parameters;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.startBar = startBar;
+			this.endBar = endBar;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= RUNS_PER_TASK) {
+				for (int i = from; i < to; i++) {
+					results[i] = backtester.run(parameters[i], startBar, endBar);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new SweepTask(parameters, results, from, middle, startBar, endBar),
+						new SweepTask(parameters, results, middle, to, startBar, endBar));
+			}
+		}
+	}
+
+	/**
+	 * Runs a parameter sweep from the command line
+	 *
+	 * Usage: ParameterOptimizer <bar data file> [starting funds] [random run count] [fill model]
+	 * Without a random run count, or with 0, every combination of the default space is run.
+	 * The fill model is one of FillModels.NAMES, filling in full at the close by default.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: ParameterOptimizer <bar data file> [starting funds] [random run count] [fill model]");
+			System.out.println("Fill models: " + FillModels.NAMES);
+			return;
+		}
+
+		BarDataSet data = BarDataSet.open(new File(args[0]));
+		double funds = args.length > 1 ? Double.parseDouble(args[1]) : 100000;
+		ParameterSpace space = ParameterSpace.defaultSpace();
+
+		List<FibParameters> candidates;
+		if (args.length > 2 && Integer.parseInt(args[2]) > 0) {
+			candidates = space.random(Integer.parseInt(args[2]), System.nanoTime());
+		} else {
+			candidates = space.grid();
+		}
+
+		FillModel fillModel = args.length > 3 ? FillModels.forName(args[3]) : null;
+		ParameterOptimizer optimizer = new ParameterOptimizer(new Backtester(data, new BarIndicators(data), funds, fillModel));
+
+		long start = System.currentTimeMillis();
+		List<BacktestResult> results = optimizer.optimize(candidates);
+		long elapsed = System.currentTimeMillis() - start;
+
+		printReport(results);
+		System.out.println("\n" + results.size() + " backtests in " + elapsed + " ms");
+	}
+}
@@ -0,0 +1,108 @@
+package backtesting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import algorithms.FibParameters;
+
+/**
+ * Candidate values for each of the Fibonacci Retracement tuning constants
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class ParameterSpace {
+
+	private final int[] specStockNumbers;
+	private final int[] smallStockNumbers;
+	private final int[] largeStockNumbers;
+	private final double[] hlavgSwitches;
+	private final double[] hdailyThresholds;
+	private final double[] rebuyThresholds;
+
+	public ParameterSpace(int[] specStockNumbers, int[] smallStockNumbers, int[] largeStockNumbers,
+			double[] hlavgSwitches, double[] hdailyThresholds, double[] rebuyThresholds) {
+		this.specStockNumbers = specStockNumbers;
+		this.smallStockNumbers = smallStockNumbers;
+		this.largeStockNumbers = largeStockNumbers;
+		this.hlavgSwitches = hlavgSwitches;
+		this.hdailyThresholds = hdailyThresholds;
+		this.rebuyThresholds = rebuyThresholds;
+	}
+
+	/**
+	 * Builds a space around the values FibRetracement was written with
+	 *
+	 * @return the parameter space
+	 */
+	public static ParameterSpace defaultSpace() {
+		return new ParameterSpace(
+				new int[] { 3, 5, 8 },
+				new int[] { 5, 10, 15 },
+				new int[] { 5, 10, 15 },
+				new double[] { .003, .005, .007, .01 },
+				new double[] { .0005, .0009, .0015 },
+				new double[] { .05, .10, .15 });
+	}
+
+	/**
+	 * Gets the number of parameter sets in a full grid search
+	 *
+	 * @return
+	 */
+	public int size() {
+		return specStockNumbers.length * smallStockNumbers.length * largeStockNumbers.length
+				* hlavgSwitches.length * hdailyThresholds.length * rebuyThresholds.length;
+	}
+
+	/**
+	 * Builds every combination of the candidate values
+	 *
+	 * @return the parameter sets
+	 */
+	public List<FibParameters> grid() {
+		List<FibParameters> grid = new ArrayList<FibParameters>(size());
+
+		for (int spec : specStockNumbers) {
+			for (int small : smallStockNumbers) {
+				for (int large : largeStockNumbers) {
+					for (double hlavg : hlavgSwitches) {
+						for (double hdaily : hdailyThresholds) {
+							for (double rebuy : rebuyThresholds) {
+								grid.add(new FibParameters(spec, small, large, hlavg, hdaily, rebuy));
+							}
+						}
+					}
+				}
+			}
+		}
+
+		return grid;
+	}
+
+	/**
+	 * Picks random combinations of the candidate values
+	 *
+	 * @param count number of parameter sets
+	 * @param seed  seed so a search can be repeated
+	 * @return the parameter sets
+	 */
+	public List<FibParameters> random(int count, long seed) {
+		Random random = new Random(seed);
+		List<FibParameters> sets = new ArrayList<FibParameters>(count);
+
+		for (int i = 0; i < count; i++) {
+			sets.add(new FibParameters(
+					specStockNumbers[random.nextInt(specStockNumbers.length)],
+					smallStockNumbers[random.nextInt(smallStockNumbers.length)],
+					largeStockNumbers[random.nextInt(largeStockNumbers.length)],
+					hlavgSwitches[random.nextInt(hlavgSwitches.length)],
+					hdailyThresholds[random.nextInt(hdailyThresholds.length)],
+					rebuyThresholds[random.nextInt(rebuyThresholds.length)]));
+		}
+
+		return sets;
+	}
+}
@@ -0,0 +1,275 @@
+package backtesting;
+
+import incoming_data_sources.BarDataSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import market_time.SimulatedClock;
+import outgoing_data_sources.DummyService;
+import outgoing_data_sources.FillModel;
+import outgoing_data_sources.FillModels;
+
+import stocks.Portfolio;
+import trade_types.Trade;
+import utilities.AlgorithmToolKit;
+import utilities.GeneralToolKit;
+import algorithms.Algorithm;
+import algorithms.FibParameters;
+import algorithms.FibRetracement;
+
+/**
+ * Walk-forward analysis of an algorithm.
+ *
+ * History is cut into rolling windows. The tuning constants are optimized on each
+ * window's train slice with the fast Backtester, then the real Algorithm trades the
+ * following test slice through a Portfolio with GeneralToolKit.fetcher routed to the
+ * bar data and a simulated clock set to each bar's session. Windows run concurrently
+ * on a fork-join pool and share one preloaded BarDataSet and its BarIndicators.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class WalkForwardAnalyzer {
+
+	// Creates the built in Fibonacci Retracement algorithm
+	public static final AlgorithmFactory FIB_RETRACEMENT = new AlgorithmFactory() {
+		@Override
+		public Algorithm create(FibParameters parameters) {
+			return new FibRetracement(parameters);
+		}
+	};
+
+	private static final long HALF_DAY = 12 * 60 * 60 * 1000L;
+
+	private final Backtester backtester;
+	private final AlgorithmFactory factory;
+	private final List<FibParameters> candidates;
+	private final ForkJoinPool pool;
+	private final ParameterOptimizer optimizer;
+
+	public WalkForwardAnalyzer(Backtester backtester, AlgorithmFactory factory, List<FibParameters> candidates) {
+		this(backtester, factory, candidates, new ForkJoinPool());
+	}
+
+	public WalkForwardAnalyzer(Backtester backtester, AlgorithmFactory factory, List<FibParameters> candidates,
+			ForkJoinPool pool) {
+		this.backtester = backtester;
+		this.factory = factory;
+		this.candidates = candidates;
+		this.pool = pool;
+		optimizer = new ParameterOptimizer(backtester, pool);
+	}
+
+	/**
+	 * Runs the analysis over every bar after the warmup period
+	 *
+	 * @param trainBars number of bars to optimize on
+	 * @param testBars  number of bars to trade after each train slice, also the step between windows
+	 * @return the windows in order
+	 */
+	public List<WalkForwardWindow> run(int trainBars, int testBars) {
+		BarDataSet data = backtester.getData();
+		List<WindowTask> tasks = new ArrayList<WindowTask>();
+
+		for (int start = BarIndicators.warmupBars(data); start + trainBars + testBars <= data.getBarCount(); start += testBars) {
+			tasks.add(new WindowTask(start, start + trainBars, start + trainBars + testBars));
+		}
+
+		pool.invoke(new RecursiveTask<Void>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected Void compute() {
+				ForkJoinTask.invokeAll(tasks);
+				return null;
+			}
+		});
+
+		List<WalkForwardWindow> windows = new ArrayList<WalkForwardWindow>();
+		for (WindowTask task : tasks) {
+			windows.add(task.getRawResult());
+		}
+
+		return windows;
+	}
+
+	/**
+	 * Trades an Algorithm over a range of bars through a new Portfolio
+	 * whose watch list holds every stock in the data set
+	 *
+	 * @param parameters the tuning constants to trade with
+	 * @param startBar   first bar to trade (inclusive)
+	 * @param endBar     last bar to trade (exclusive)
+	 * @return the metrics of the run
+	 */
+	public BacktestResult evaluate(FibParameters parameters, int startBar, int endBar) {
+		BarDataSet data = backtester.getData();
+		HistoricalFetcher history = new HistoricalFetcher(data, backtester.getIndicators());
+		history.setBar(startBar);
+		SimulatedClock clock = new SimulatedClock(data.getTimestamp(startBar));
+
+		// Out of sample orders fill with the backtests' model when they were given one, and against the matching engine otherwise
+		FillModel previousModel = DummyService.getFillModel();
+		DummyService.setFillModel(backtester.getFillModel());
+
+		GeneralToolKit.fetcher.route(history);
+		GeneralToolKit.routeClock(clock);
+		try {
+			double startingFunds = backtester.getStartingFunds();
+			Portfolio portfolio = new Portfolio("Walk Forward", startingFunds);
+			String[] symbols = new String[data.getSymbolCount()];
+			for (int symbol = 0; symbol < symbols.length; symbol++) {
+				symbols[symbol] = data.getSymbol(symbol);
+			}
+			portfolio.addToWatchList(symbols);
+
+			Algorithm algorithm = factory.create(parameters);
+			algorithm.setup(portfolio);
+
+			double peak = startingFunds;
+			double maxDrawdown = 0;
+			double equity = startingFunds;
+			double previousEquity = startingFunds;
+			double returnSum = 0;
+			double returnSquares = 0;
+			int tradeCount = 0;
+			int winningTrades = 0;
+
+			for (int bar = startBar; bar < endBar; bar++) {
+				// Bars are stamped at midnight in the exchange's time zone, so noon is inside the session
+				// The bar is traded a minute before the close, when the day's data is almost final
+				long close = GeneralToolKit.calendar.sessionClose(data.getTimestamp(bar) + HALF_DAY);
+				clock.setTime(close == -1 ? data.getTimestamp(bar) : close - 60 * 1000);
+
+				history.setBar(bar);
+				Trade[] newTrades = algorithm.evaluate();
+
+				// Processes trades one at a time so each sell's result can be counted
+				if (newTrades != null) {
+					for (Trade curTrade : newTrades) {
+						if (curTrade == null) {
+							continue;
+						}
+
+						double netWorth = portfolio.getNetWorth();
+						AlgorithmToolKit.processTradeResults(portfolio, new Trade[] { curTrade },
+								parameters.getRebuyThreshold());
+
+						if (portfolio.getNetWorth() != netWorth) {
+							tradeCount++;
+							if (portfolio.getNetWorth() > netWorth) {
+								winningTrades++;
+							}
+						}
+					}
+				}
+
+				// Market on close trades the algorithm queued execute at the bar's close
+				AlgorithmToolKit.processCloseAuction(portfolio);
+
+				// Marks the account to the bar's close, with the shorts at what it costs to cover them
+				portfolio.beginWrite();
+				try {
+					equity = portfolio.getAvailableFunds() + portfolio.getMarginHeld();
+					for (Trade position : portfolio.getStocks()) {
+						equity += position.getShares() * Double.parseDouble(history.getLastTradePriceOnly(position.getSymbol().symbol));
+					}
+					for (Trade position : portfolio.getShortPositions()) {
+						equity -= position.getShares() * Double.parseDouble(history.getLastTradePriceOnly(position.getSymbol().symbol));
+					}
+				} finally {
+					portfolio.endWrite();
+				}
+
+				if (equity > peak) {
+					peak = equity;
+				} else if (peak > 0 && (peak - equity) / peak > maxDrawdown) {
+					maxDrawdown = (peak - equity) / peak;
+				}
+
+				double dailyReturn = previousEquity == 0 ? 0 : (equity - previousEquity) / previousEquity;
+				returnSum += dailyReturn;
+				returnSquares += dailyReturn * dailyReturn;
+				previousEquity = equity;
+			}
+
+			return new BacktestResult(parameters, equity, (equity - startingFunds) / startingFunds, maxDrawdown,
+					Backtester.sharpeRatio(returnSum, returnSquares, endBar - startBar), tradeCount, winningTrades);
+		} finally {
+			GeneralToolKit.fetcher.clearRoute();
+			GeneralToolKit.clearClockRoute();
+			DummyService.setFillModel(previousModel);
+		}
+	}
+
+	/**
+	 * Prints every window followed by the combined out of sample return
+	 *
+	 * @param windows the windows of a run
+	 */
+	public static void printReport(List<WalkForwardWindow> windows) {
+		double combined = 1;
+
+		for (WalkForwardWindow window : windows) {
+			System.out.println(window);
+			combined *= 1 + window.getOutOfSample().getTotalReturn();
+		}
+
+		System.out.println("\nCombined out of sample return: " + ((combined - 1) * 100) + "%");
+	}
+
+	/**
+	 * Optimizes on a train slice and trades the best parameters on the test slice
+	 */
+	@SuppressWarnings("serial")
+	private class WindowTask extends RecursiveTask<WalkForwardWindow> {
+
+		private final int trainStart;
+		private final int testStart;
+		private final int testEnd;
+
+		WindowTask(int trainStart, int testStart, int testEnd) {
+			this.trainStart = trainStart;
+			this.testStart = testStart;
+			this.testEnd = testEnd;
+		}
+
+		@Override
+		protected WalkForwardWindow compute() {
+			BacktestResult inSample = ParameterOptimizer.best(optimizer.optimize(candidates, trainStart, testStart));
+			BacktestResult outOfSample = evaluate(inSample.getParameters(), testStart, testEnd);
+
+			return new WalkForwardWindow(trainStart, testStart, testEnd, inSample, outOfSample);
+		}
+	}
+
+	/**
+	 * Runs a walk-forward analysis of FibRetracement from the command line
+	 *
+	 * Usage: WalkForwardAnalyzer <bar data file> <train bars> <test bars> [starting funds] [fill model]
+	 * The fill model is one of FillModels.NAMES, the matching engine by default.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.out.println("Usage: WalkForwardAnalyzer <bar data file> <train bars> <test bars> [starting funds] [fill model]");
+			System.out.println("Fill models: " + FillModels.NAMES);
+			return;
+		}
+
+		BarDataSet data = BarDataSet.open(new File(args[0]));
+		double funds = args.length > 3 ? Double.parseDouble(args[3]) : 100000;
+		FillModel fillModel = args.length > 4 ? FillModels.forName(args[4]) : null;
+		Backtester backtester = new Backtester(data, new BarIndicators(data), funds, fillModel);
+
+		WalkForwardAnalyzer analyzer = new WalkForwardAnalyzer(backtester, FIB_RETRACEMENT,
+				ParameterSpace.defaultSpace().grid());
+		printReport(analyzer.run(Integer.parseInt(args[1]), Integer.parseInt(args[2])));
+	}
+}
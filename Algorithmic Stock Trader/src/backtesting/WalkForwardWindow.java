@@ -0,0 +1,89 @@
+package backtesting;
+
+import algorithms.FibParameters;
+
+/**
+ * One train and test slice of a walk-forward analysis
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class WalkForwardWindow {
+
+	private final int trainStart;
+	private final int testStart;
+	private final int testEnd;
+	private final BacktestResult inSample;
+	private final BacktestResult outOfSample;
+
+	public WalkForwardWindow(int trainStart, int testStart, int testEnd, BacktestResult inSample,
+			BacktestResult outOfSample) {
+		this.trainStart = trainStart;
+		this.testStart = testStart;
+		this.testEnd = testEnd;
+		this.inSample = inSample;
+		this.outOfSample = outOfSample;
+	}
+
+	/**
+	 * Gets the first bar of the train slice
+	 *
+	 * @return
+	 */
+	public int getTrainStart() {
+		return trainStart;
+	}
+
+	/**
+	 * Gets the first bar of the test slice, which is also the end of the train slice
+	 *
+	 * @return
+	 */
+	public int getTestStart() {
+		return testStart;
+	}
+
+	/**
+	 * Gets the bar after the test slice
+	 *
+	 * @return
+	 */
+	public int getTestEnd() {
+		return testEnd;
+	}
+
+	/**
+	 * Gets the parameters chosen on the train slice
+	 *
+	 * @return
+	 */
+	public FibParameters getParameters() {
+		return inSample.getParameters();
+	}
+
+	/**
+	 * Gets the best backtest on the train slice
+	 *
+	 * @return
+	 */
+	public BacktestResult getInSample() {
+		return inSample;
+	}
+
+	/**
+	 * Gets the result of trading the chosen parameters on the test slice
+	 *
+	 * @return
+	 */
+	public BacktestResult getOutOfSample() {
+		return outOfSample;
+	}
+
+	@Override
+	public String toString() {
+		return "train [" + trainStart + ", " + testStart + ") test [" + testStart + ", " + testEnd + ")\n"
+				+ "  in sample:     " + inSample + "\n"
+				+ "  out of sample: " + outOfSample;
+	}
+}
@@ -0,0 +1,152 @@
+package event_bus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ring buffer event bus connecting one producer to a graph of stages.
+ *
+ * Stages are added in order, each after the stages whose work it needs. A stage
+ * added after no other stage reads events as soon as they are published, so several
+ * stages can read the same events in parallel. Every stage runs on its own thread
+ * and the bus never locks: stages only wait on the sequences before them.
+ *
+ * Only one thread may publish.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class EventBus {
+
+	private final RingBuffer ring;
+	private final List<EventProcessor> stages = new ArrayList<EventProcessor>();
+	private final List<EventProcessor> lastStages = new ArrayList<EventProcessor>();
+	private final List<Thread> threads = new ArrayList<Thread>();
+	private Sequence[] lastSequences = new Sequence[0];
+
+	/**
+	 * @param size number of events the bus holds, a power of two
+	 */
+	public EventBus(int size) {
+		ring = new RingBuffer(size);
+	}
+
+	/**
+	 * Adds a stage
+	 *
+	 * @param name    name used in the statistics
+	 * @param handler the stage's work
+	 * @param after   stages that must finish an event before this stage sees it
+	 * @return the stage
+	 */
+	public EventProcessor addStage(String name, EventHandler handler, EventProcessor... after) {
+		if (!threads.isEmpty()) {
+			throw new IllegalStateException("Stages must be added before the bus starts");
+		}
+
+		Sequence[] dependents = new Sequence[after.length];
+		for (int i = 0; i < after.length; i++) {
+			dependents[i] = after[i].getSequence();
+			lastStages.remove(after[i]);
+		}
+
+		EventProcessor stage = new EventProcessor(name, ring, new SequenceBarrier(ring.getCursor(), dependents), handler);
+		stages.add(stage);
+		lastStages.add(stage);
+
+		return stage;
+	}
+
+	/**
+	 * Starts every stage. The producer may not lap the last stages.
+	 */
+	public void start() {
+		lastSequences = new Sequence[lastStages.size()];
+		for (int i = 0; i < lastSequences.length; i++) {
+			lastSequences[i] = lastStages.get(i).getSequence();
+		}
+		ring.setGatingSequences(lastSequences);
+
+		for (EventProcessor stage : stages) {
+			Thread thread = new Thread(stage, "Event Bus " + stage.getName());
+			thread.setDaemon(true);
+			threads.add(thread);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Publishes a quote
+	 *
+	 * @param symbolId the Stock id
+	 * @param price    the price
+	 * @return the sequence of the event
+	 */
+	public long publishQuote(int symbolId, double price) {
+		long sequence = ring.next();
+		ring.get(sequence).setQuote(symbolId, price);
+		ring.publish(sequence);
+
+		return sequence;
+	}
+
+	/**
+	 * Publishes the end of a cycle, after the cycle's quotes
+	 *
+	 * @return the sequence of the event
+	 */
+	public long publishCycle() {
+		long sequence = ring.next();
+		ring.get(sequence).setCycle();
+		ring.publish(sequence);
+
+		return sequence;
+	}
+
+	/**
+	 * Waits until every stage has finished an event
+	 *
+	 * @param sequence the event's sequence
+	 */
+	public void awaitProcessed(long sequence) {
+		while (Sequence.minimum(lastSequences, sequence) < sequence) {
+			LockSupport.parkNanos(50000);
+		}
+	}
+
+	/**
+	 * Lets the stages finish every published event, then stops them
+	 *
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void shutdown() throws InterruptedException {
+		awaitProcessed(ring.getCursor().get());
+
+		for (EventProcessor stage : stages) {
+			stage.halt();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	/**
+	 * Gets the stages in the order they were added
+	 *
+	 * @return
+	 */
+	public List<EventProcessor> getStages() {
+		return stages;
+	}
+
+	/**
+	 * Prints each stage's queue depth and latency
+	 */
+	public void printStats() {
+		for (EventProcessor stage : stages) {
+			System.out.println(stage);
+		}
+	}
+}
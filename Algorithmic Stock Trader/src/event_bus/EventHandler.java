@@ -0,0 +1,22 @@
+package event_bus;
+
+/**
+ * Work a stage does with each event
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public interface EventHandler {
+
+	/**
+	 * Handles an event. The event may be changed for the stages after this one,
+	 * but must not be kept, since its slot is reused.
+	 *
+	 * @param event      the event
+	 * @param sequence   the event's sequence
+	 * @param endOfBatch if no more events are available yet
+	 */
+	public void onEvent(TradingEvent event, long sequence, boolean endOfBatch);
+
+}
@@ -0,0 +1,159 @@
+package event_bus;
+
+/**
+ * Runs one stage of the bus on its own thread.
+ *
+ * The stage handles every available event as a batch, then moves its sequence past
+ * the batch so the stages after it can proceed. It records how many events it handled,
+ * how long events took from being published until the stage finished them, and how far
+ * it fell behind the producer.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class EventProcessor implements Runnable {
+
+	private final String name;
+	private final RingBuffer ring;
+	private final SequenceBarrier barrier;
+	private final EventHandler handler;
+	private final Sequence sequence = new Sequence(-1);
+	private volatile boolean running = true;
+
+	// Written by the stage's thread only
+	private volatile long processed = 0;
+	private volatile long totalLatencyNanos = 0;
+	private volatile long maxLatencyNanos = 0;
+	private volatile long maxDepth = 0;
+
+	public EventProcessor(String name, RingBuffer ring, SequenceBarrier barrier, EventHandler handler) {
+		this.name = name;
+		this.ring = ring;
+		this.barrier = barrier;
+		this.handler = handler;
+	}
+
+	@Override
+	public void run() {
+		long next = sequence.get() + 1;
+
+		while (true) {
+			long available = barrier.waitFor(next);
+			if (available < next) {
+				// Alerted with nothing left to handle
+				if (!running) {
+					return;
+				}
+				continue;
+			}
+
+			long depth = ring.getCursor().get() - next + 1;
+			if (depth > maxDepth) {
+				maxDepth = depth;
+			}
+
+			long latency = 0;
+			long maxLatency = maxLatencyNanos;
+			for (; next <= available; next++) {
+				TradingEvent event = ring.get(next);
+
+				try {
+					handler.onEvent(event, next, next == available);
+				} catch (RuntimeException e) {
+					// One bad event does not stop the stage
+					e.printStackTrace();
+				}
+
+				long eventLatency = System.nanoTime() - event.getPublishNanos();
+				latency += eventLatency;
+				if (eventLatency > maxLatency) {
+					maxLatency = eventLatency;
+				}
+			}
+
+			processed += available - sequence.get();
+			totalLatencyNanos += latency;
+			maxLatencyNanos = maxLatency;
+			sequence.set(available);
+		}
+	}
+
+	/**
+	 * Stops the stage once it has handled what is available
+	 */
+	public void halt() {
+		running = false;
+		barrier.alert();
+	}
+
+	/**
+	 * Gets the stage's name
+	 *
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the sequence of the last event the stage finished
+	 *
+	 * @return
+	 */
+	public Sequence getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Gets the number of published events the stage has not finished
+	 *
+	 * @return
+	 */
+	public long getDepth() {
+		return ring.getCursor().get() - sequence.get();
+	}
+
+	/**
+	 * Gets the most events the stage has been behind
+	 *
+	 * @return
+	 */
+	public long getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Gets the number of events the stage has handled
+	 *
+	 * @return
+	 */
+	public long getProcessedCount() {
+		return processed;
+	}
+
+	/**
+	 * Gets the average time from publishing an event to the stage finishing it
+	 *
+	 * @return nanoseconds, 0 if nothing has been handled
+	 */
+	public double getMeanLatencyNanos() {
+		long count = processed;
+		return count == 0 ? 0 : totalLatencyNanos / (double) count;
+	}
+
+	/**
+	 * Gets the longest time from publishing an event to the stage finishing it
+	 *
+	 * @return nanoseconds
+	 */
+	public long getMaxLatencyNanos() {
+		return maxLatencyNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-10s processed %10d  depth %6d (max %6d)  latency mean %10.0f ns  max %10d ns", name,
+				getProcessedCount(), getDepth(), getMaxDepth(), getMeanLatencyNanos(), getMaxLatencyNanos());
+	}
+}
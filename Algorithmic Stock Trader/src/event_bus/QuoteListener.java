@@ -0,0 +1,20 @@
+package event_bus;
+
+/**
+ * Receives the quotes a TradingPipeline publishes
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public interface QuoteListener {
+
+	/**
+	 * Called for each quote, after the quote has been given to the Portfolio
+	 *
+	 * @param symbolId the Stock id
+	 * @param price    the price
+	 */
+	public void onQuote(int symbolId, double price);
+
+}
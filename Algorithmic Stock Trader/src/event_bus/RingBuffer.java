@@ -0,0 +1,109 @@
+package event_bus;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated ring of TradingEvents written by a single producer.
+ *
+ * The producer claims the next sequence, fills the slot it maps to and publishes it.
+ * A claim waits while the slot still holds an event the last stages have not finished,
+ * so the ring never overwrites unprocessed events.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class RingBuffer {
+
+	private final TradingEvent[] events;
+	private final int mask;
+	private final Sequence cursor = new Sequence(-1);
+	private volatile Sequence[] gatingSequences = new Sequence[0];
+
+	// Only the producer thread touches these
+	private long nextSequence = -1;
+	private long cachedGate = -1;
+
+	/**
+	 * @param size number of slots, a power of two
+	 */
+	public RingBuffer(int size) {
+		if (size < 1 || Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException("Ring buffer size must be a power of two: " + size);
+		}
+
+		events = new TradingEvent[size];
+		for (int i = 0; i < size; i++) {
+			events[i] = new TradingEvent();
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Claims the next slot, waiting until the slowest stage has moved past it
+	 *
+	 * @return the sequence of the slot
+	 */
+	public long next() {
+		long next = nextSequence + 1;
+		long wrapPoint = next - events.length;
+
+		if (wrapPoint > cachedGate) {
+			long minimum;
+			while (wrapPoint > (minimum = Sequence.minimum(gatingSequences, nextSequence))) {
+				LockSupport.parkNanos(1000);
+			}
+			cachedGate = minimum;
+		}
+
+		nextSequence = next;
+		return next;
+	}
+
+	/**
+	 * Gets the slot of a sequence
+	 *
+	 * @param sequence
+	 * @return
+	 */
+	public TradingEvent get(long sequence) {
+		return events[(int) (sequence & mask)];
+	}
+
+	/**
+	 * Makes a claimed slot visible to the stages
+	 *
+	 * @param sequence
+	 */
+	public void publish(long sequence) {
+		get(sequence).setPublishNanos(System.nanoTime());
+		cursor.set(sequence);
+	}
+
+	/**
+	 * Sets the stages the producer may not lap
+	 *
+	 * @param sequences
+	 */
+	public void setGatingSequences(Sequence... sequences) {
+		gatingSequences = sequences.clone();
+	}
+
+	/**
+	 * Gets the sequence of the last published event
+	 *
+	 * @return
+	 */
+	public Sequence getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * Gets the number of slots
+	 *
+	 * @return
+	 */
+	public int getSize() {
+		return events.length;
+	}
+}
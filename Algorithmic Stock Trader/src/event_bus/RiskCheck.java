@@ -0,0 +1,30 @@
+package event_bus;
+
+import trade_types.Trade;
+
+/**
+ * Pre-trade check between the algorithm and the gateway stages of a TradingPipeline
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public interface RiskCheck {
+
+	/**
+	 * Decides which of a cycle's Trades may be sent
+	 *
+	 * @param trades the Trades, which may contain nulls
+	 * @return the Trades that pass, with rejected ones set to null
+	 */
+	public Trade[] approve(Trade[] trades);
+
+	/**
+	 * Receives each quote before the cycle's Trades
+	 *
+	 * @param symbolId the Stock id
+	 * @param price    the price
+	 */
+	public void onQuote(int symbolId, double price);
+
+}
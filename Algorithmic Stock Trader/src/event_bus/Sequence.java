@@ -0,0 +1,79 @@
+package event_bus;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Position of a producer or stage in the ring buffer.
+ *
+ * The value is padded on both sides so sequences written by different threads
+ * never share a cache line. Only the owning thread writes a sequence.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class Sequence extends RightPadding {
+
+	private static final AtomicLongFieldUpdater<Value> updater = AtomicLongFieldUpdater.newUpdater(Value.class, "value");
+
+	public Sequence(long initialValue) {
+		value = initialValue;
+	}
+
+	/**
+	 * Gets the sequence
+	 *
+	 * @return
+	 */
+	public long get() {
+		return value;
+	}
+
+	/**
+	 * Sets the sequence. Writes made before it are visible to any thread that reads the new value.
+	 *
+	 * @param newValue
+	 */
+	public void set(long newValue) {
+		updater.lazySet(this, newValue);
+	}
+
+	/**
+	 * Gets the smallest of several sequences
+	 *
+	 * @param sequences the sequences
+	 * @param maximum   returned when there are no sequences
+	 * @return
+	 */
+	public static long minimum(Sequence[] sequences, long maximum) {
+		long minimum = maximum;
+
+		for (int i = 0; i < sequences.length; i++) {
+			minimum = Math.min(minimum, sequences[i].get());
+		}
+		return minimum;
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(get());
+	}
+}
+
+/**
+ * Cache line padding before the value
+ */
+abstract class LeftPadding {
+	protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+abstract class Value extends LeftPadding {
+	protected volatile long value;
+}
+
+/**
+ * Cache line padding after the value
+ */
+abstract class RightPadding extends Value {
+	protected long p9, p10, p11, p12, p13, p14, p15;
+}
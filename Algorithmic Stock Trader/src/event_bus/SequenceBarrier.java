@@ -0,0 +1,69 @@
+package event_bus;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Tells a stage how far it may read: up to the producer's cursor,
+ * and no further than the slowest of the stages it comes after.
+ *
+ * Waiting spins first, then yields, then parks, so an idle stage does not hold a core.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class SequenceBarrier {
+
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 100;
+	private static final long PARK_NANOS = 50000;
+
+	private final Sequence cursor;
+	private final Sequence[] dependents;
+	private volatile boolean alerted = false;
+
+	public SequenceBarrier(Sequence cursor, Sequence[] dependents) {
+		this.cursor = cursor;
+		this.dependents = dependents.clone();
+	}
+
+	/**
+	 * Waits until a sequence is available
+	 *
+	 * @param sequence the sequence the stage needs next
+	 * @return the highest available sequence, which may be past the one asked for,
+	 *         or lower than it if the barrier was alerted
+	 */
+	public long waitFor(long sequence) {
+		int tries = 0;
+		long available;
+
+		while ((available = available()) < sequence) {
+			if (alerted) {
+				return available;
+			}
+
+			if (tries < SPIN_TRIES) {
+				tries++;
+			} else if (tries < SPIN_TRIES + YIELD_TRIES) {
+				tries++;
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+		}
+
+		return available;
+	}
+
+	private long available() {
+		return Sequence.minimum(dependents, cursor.get());
+	}
+
+	/**
+	 * Wakes a waiting stage so it can stop
+	 */
+	public void alert() {
+		alerted = true;
+	}
+}
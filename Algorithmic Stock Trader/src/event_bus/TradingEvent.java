@@ -0,0 +1,176 @@
+package event_bus;
+
+import java.util.Arrays;
+
+import trade_types.Trade;
+
+/**
+ * Slot of the ring buffer. Slots are created once and reused for every event that
+ * passes through them, so publishing a quote does not allocate. The fills of a cycle are
+ * kept in arrays the slot grows as needed and reuses.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class TradingEvent {
+
+	// Event types
+	public static final int QUOTE = 0;
+	public static final int CYCLE = 1;
+
+	private int type;
+	private int symbolId;
+	private double price;
+	private Trade[] trades;
+	private long publishNanos;
+
+	// Fills the gateway stage reported for a cycle, kept between uses of the slot
+	private Trade[] fillTrades = new Trade[8];
+	private double[] fillPrices = new double[8];
+	private int[] fillShares = new int[8];
+	private int fillCount;
+
+	/**
+	 * Gets the event type, QUOTE or CYCLE
+	 *
+	 * @return
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Gets the Stock id of a quote
+	 *
+	 * @return
+	 */
+	public int getSymbolId() {
+		return symbolId;
+	}
+
+	/**
+	 * Gets the price of a quote
+	 *
+	 * @return
+	 */
+	public double getPrice() {
+		return price;
+	}
+
+	/**
+	 * Gets the Trades a stage attached to a cycle
+	 *
+	 * @return the Trades, or null if there are none
+	 */
+	public Trade[] getTrades() {
+		return trades;
+	}
+
+	/**
+	 * Attaches Trades to a cycle for the stages after this one
+	 *
+	 * @param trades
+	 */
+	public void setTrades(Trade[] trades) {
+		this.trades = trades;
+	}
+
+	/**
+	 * Gets the number of fills the gateway stage reported for a cycle
+	 *
+	 * @return
+	 */
+	public int getFillCount() {
+		return fillCount;
+	}
+
+	/**
+	 * Gets the Trade of a fill
+	 *
+	 * @param index the fill, from 0 to getFillCount()
+	 * @return
+	 */
+	public Trade getFillTrade(int index) {
+		return fillTrades[index];
+	}
+
+	/**
+	 * Gets the average price of a fill
+	 *
+	 * @param index the fill, from 0 to getFillCount()
+	 * @return
+	 */
+	public double getFillPrice(int index) {
+		return fillPrices[index];
+	}
+
+	/**
+	 * Gets the shares of a fill
+	 *
+	 * @param index the fill, from 0 to getFillCount()
+	 * @return
+	 */
+	public int getFillShares(int index) {
+		return fillShares[index];
+	}
+
+	/**
+	 * Records a fill for the stages after the gateway
+	 */
+	void addFill(Trade trade, double price, int shares) {
+		if (fillCount == fillTrades.length) {
+			fillTrades = Arrays.copyOf(fillTrades, fillCount * 2);
+			fillPrices = Arrays.copyOf(fillPrices, fillCount * 2);
+			fillShares = Arrays.copyOf(fillShares, fillCount * 2);
+		}
+
+		fillTrades[fillCount] = trade;
+		fillPrices[fillCount] = price;
+		fillShares[fillCount] = shares;
+		fillCount++;
+	}
+
+	/**
+	 * Forgets the fills of the last cycle in the slot
+	 */
+	void clearFills() {
+		Arrays.fill(fillTrades, 0, fillCount, null);
+		fillCount = 0;
+	}
+
+	/**
+	 * Gets when the event was published, from System.nanoTime()
+	 *
+	 * @return
+	 */
+	public long getPublishNanos() {
+		return publishNanos;
+	}
+
+	/**
+	 * Fills the slot with a quote
+	 */
+	void setQuote(int symbolId, double price) {
+		type = QUOTE;
+		this.symbolId = symbolId;
+		this.price = price;
+		trades = null;
+		clearFills();
+	}
+
+	/**
+	 * Fills the slot with the end of a cycle
+	 */
+	void setCycle() {
+		type = CYCLE;
+		symbolId = -1;
+		price = 0;
+		trades = null;
+		clearFills();
+	}
+
+	void setPublishNanos(long publishNanos) {
+		this.publishNanos = publishNanos;
+	}
+}
@@ -0,0 +1,493 @@
+package event_bus;
+
+import incoming_data_sources.YahooFetcher;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import market_time.MarketClock;
+import outgoing_data_sources.DummyService;
+import outgoing_data_sources.OrderEventListener;
+import outgoing_data_sources.OrderGateway;
+import stocks.Portfolio;
+import stocks.PortfolioManager;
+import stocks.Stock;
+import stocks.WatchList;
+import stocks.WatchListListener;
+import trade_types.OrderKind;
+import trade_types.OrderNetter;
+import trade_types.Trade;
+import utilities.AlgorithmToolKit;
+import utilities.GeneralToolKit;
+import algorithms.Algorithm;
+import algorithms.FibParameters;
+
+/**
+ * Runs an Algorithm on a Portfolio through an EventBus.
+ *
+ * Each cycle the caller's thread is the feed: it fetches the watch list and every stock
+ * with working orders in one request and publishes a quote for each, then the end of
+ * the cycle. Five stages follow one another:
+ *
+ *   algorithm  evaluates the Algorithm at the end of each cycle
+ *   netting    nets the cycle's market Trades per stock
+ *   risk       checks working orders against each quote and passes it to the Portfolio's
+ *              RiskCheck, then checks the triggered and the cycle's Trades against the
+ *              funds and positions and has the RiskCheck approve them. With a
+ *              PortfolioManager the quotes go to every account following their stock,
+ *              and the other accounts' triggered Trades are executed as each cycle ends
+ *   gateway    sends the approved Trades through the OrderGateway and attaches the fills
+ *              it reports to the cycle
+ *   portfolio  passes the quotes to the QuoteListeners and settles the cycle's fills in the Portfolio
+ *
+ * The stocks fetched for the watch list are kept as a set the watch list's events add
+ * to and remove from. The stocks, symbols and prices of a cycle are kept in arrays that
+ * are only rebuilt when the watch list or the unwatched stocks with working orders change.
+ *
+ * Cycles do not overlap, so the Algorithm never reads the Portfolio while the portfolio
+ * stage is changing it. Stages run on their own threads with the fetcher and clock
+ * routes of the thread that last ran a cycle.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class TradingPipeline {
+
+	private final Algorithm algorithm;
+	private final Portfolio portfolio;
+	private final EventBus bus;
+
+	// Watch list stocks the feed fetches, locked to change or read
+	private final WatchList subscription = new WatchList();
+	private final WatchListListener subscriber = new Subscriber();
+	private boolean subscriptionChanged = true;
+
+	// Stocks with working orders that are not watched, as of the last cycle and being found for this one
+	private WatchList unwatched = new WatchList();
+	private WatchList spareUnwatched = new WatchList();
+
+	// What the feed fetched last cycle, only touched by the thread running cycles
+	private Stock[] feedStocks = new Stock[0];
+	private String[] feedSymbols = new String[0];
+	private double[] feedPrices = new double[0];
+
+	private OrderGateway gateway;
+	private volatile PortfolioManager manager;
+	private volatile double rebuyThreshold = FibParameters.DEFAULT.getRebuyThreshold();
+	private final Collector collector = new Collector();
+	private final List<QuoteListener> quoteListeners = new CopyOnWriteArrayList<QuoteListener>();
+
+	// How long the gateway stage waits for the fills of a cycle
+	private static final long FILL_TIMEOUT_MILLIS = 60 * 1000L;
+
+	// Routes of the thread that last ran a cycle
+	private volatile YahooFetcher fetcherRoute;
+	private volatile MarketClock clockRoute;
+
+	/**
+	 * @param algorithm the Algorithm, already set up with the Portfolio
+	 * @param portfolio the Portfolio to trade
+	 * @param size      number of events the bus holds, a power of two
+	 */
+	public TradingPipeline(Algorithm algorithm, Portfolio portfolio, int size) {
+		this.algorithm = algorithm;
+		this.portfolio = portfolio;
+		bus = new EventBus(size);
+
+		EventProcessor algorithmStage = bus.addStage("algorithm", new AlgorithmHandler());
+		EventProcessor nettingStage = bus.addStage("netting", new NettingHandler(), algorithmStage);
+		EventProcessor riskStage = bus.addStage("risk", new RiskHandler(), nettingStage);
+		EventProcessor gatewayStage = bus.addStage("gateway", new GatewayHandler(), riskStage);
+		bus.addStage("portfolio", new PortfolioHandler(), gatewayStage);
+
+		// Subscribing from inside a write, so no change slips in between the copy and the events
+		portfolio.beginWrite();
+		try {
+			synchronized (subscription) {
+				for (Stock curStock : portfolio.getWatchList()) {
+					subscription.add(curStock);
+				}
+			}
+			portfolio.getWatchList().addListener(subscriber);
+		} finally {
+			portfolio.endWrite();
+		}
+	}
+
+	/**
+	 * Sets the Portfolio's RiskCheck, which every order passes in the pipeline and out of it
+	 *
+	 * @param riskCheck the check, or null to send orders unchecked
+	 */
+	public void setRiskCheck(RiskCheck riskCheck) {
+		portfolio.setRiskCheck(riskCheck);
+	}
+
+	/**
+	 * Sets the fraction of the price paid inside which the algorithm does not buy an owned stock again
+	 *
+	 * @param rebuyThreshold the threshold, such as the algorithm's FibParameters.getRebuyThreshold()
+	 */
+	public void setRebuyThreshold(double rebuyThreshold) {
+		this.rebuyThreshold = rebuyThreshold;
+	}
+
+	/**
+	 * Gives the quotes to the accounts of a PortfolioManager that follow their stock instead of
+	 * to the Portfolio alone, and executes the working orders that trigger in the other accounts.
+	 * The Portfolio must be one of its accounts.
+	 *
+	 * @param manager the manager, or null to quote the Portfolio alone
+	 */
+	public void setPortfolioManager(PortfolioManager manager) {
+		this.manager = manager;
+	}
+
+	/**
+	 * Starts giving a listener the quotes, such as PortfolioAnalytics
+	 *
+	 * @param listener the listener
+	 */
+	public void addQuoteListener(QuoteListener listener) {
+		quoteListeners.add(listener);
+	}
+
+	/**
+	 * Stops giving a listener the quotes
+	 *
+	 * @param listener the listener
+	 */
+	public void removeQuoteListener(QuoteListener listener) {
+		quoteListeners.remove(listener);
+	}
+
+	/**
+	 * Sets the gateway the pipeline sends its orders through, before it is started
+	 *
+	 * @param gateway the gateway
+	 */
+	public void setOrderGateway(OrderGateway gateway) {
+		this.gateway = gateway;
+	}
+
+	/**
+	 * Starts the stages, sending orders through a DummyService unless another gateway was set
+	 */
+	public void start() {
+		if (gateway == null) {
+			gateway = new DummyService();
+		}
+		gateway.setListener(collector);
+		bus.start();
+	}
+
+	/**
+	 * Publishes a cycle and waits until every stage has finished it
+	 */
+	public void runCycle() {
+		fetcherRoute = GeneralToolKit.fetcher.getRoute();
+		clockRoute = GeneralToolKit.getClockRoute();
+
+		// Working orders are only read inside a write, and the subscription after it
+		portfolio.beginWrite();
+		try {
+			synchronized (subscription) {
+				if (findUnwatched(portfolio.getWorkingOrders()) || subscriptionChanged) {
+					subscriptionChanged = false;
+					rebuildFeed();
+				}
+			}
+		} finally {
+			portfolio.endWrite();
+		}
+
+		GeneralToolKit.getLastTradePrices(feedSymbols, feedPrices);
+		for (int i = 0; i < feedStocks.length; i++) {
+			bus.publishQuote(feedStocks[i].getId(), feedPrices[i]);
+		}
+
+		bus.awaitProcessed(bus.publishCycle());
+	}
+
+	/**
+	 * Finishes the published events and stops the stages
+	 *
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void shutdown() throws InterruptedException {
+		portfolio.getWatchList().removeListener(subscriber);
+		bus.shutdown();
+
+		if (gateway != null) {
+			gateway.shutdown();
+		}
+	}
+
+	/**
+	 * Prints each stage's queue depth and latency
+	 */
+	public void printStats() {
+		bus.printStats();
+	}
+
+	/**
+	 * Gets the bus the pipeline runs on
+	 *
+	 * @return
+	 */
+	public EventBus getBus() {
+		return bus;
+	}
+
+	/**
+	 * Finds the stocks with working orders that are not watched
+	 *
+	 * @param workingOrders the Portfolio's working orders
+	 * @return if they are not the same as last cycle's
+	 */
+	private boolean findUnwatched(List<Trade> workingOrders) {
+		WatchList found = spareUnwatched;
+		found.clear();
+
+		boolean changed = false;
+		for (int i = 0; i < workingOrders.size(); i++) {
+			Stock curStock = workingOrders.get(i).getSymbol();
+			if (!subscription.contains(curStock) && found.add(curStock) && !unwatched.contains(curStock)) {
+				changed = true;
+			}
+		}
+
+		if (changed || found.size() != unwatched.size()) {
+			spareUnwatched = unwatched;
+			unwatched = found;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Lays out the watched and then the unwatched stocks for the feed
+	 */
+	private void rebuildFeed() {
+		int count = subscription.size() + unwatched.size();
+		feedStocks = new Stock[count];
+		feedSymbols = new String[count];
+		feedPrices = new double[count];
+
+		for (int i = 0; i < count; i++) {
+			Stock curStock = i < subscription.size() ? subscription.get(i) : unwatched.get(i - subscription.size());
+			feedStocks[i] = curStock;
+			feedSymbols[i] = curStock.symbol;
+		}
+	}
+
+	/**
+	 * Routes the stage's thread the same way as the thread running cycles
+	 */
+	private void routeStage() {
+		YahooFetcher curFetcher = fetcherRoute;
+		MarketClock curClock = clockRoute;
+
+		if (curFetcher != null) {
+			GeneralToolKit.fetcher.route(curFetcher);
+		} else {
+			GeneralToolKit.fetcher.clearRoute();
+		}
+		if (curClock != null) {
+			GeneralToolKit.routeClock(curClock);
+		} else {
+			GeneralToolKit.clearClockRoute();
+		}
+	}
+
+	private class Subscriber implements WatchListListener {
+		@Override
+		public void onAdded(Stock stock) {
+			synchronized (subscription) {
+				subscriptionChanged |= subscription.add(stock);
+			}
+		}
+
+		@Override
+		public void onRemoved(Stock stock) {
+			synchronized (subscription) {
+				subscriptionChanged |= subscription.remove(stock);
+			}
+		}
+	}
+
+	private class AlgorithmHandler implements EventHandler {
+		@Override
+		public void onEvent(TradingEvent event, long sequence, boolean endOfBatch) {
+			if (event.getType() == TradingEvent.CYCLE) {
+				routeStage();
+				event.setTrades(algorithm.evaluate());
+			}
+		}
+	}
+
+	private class NettingHandler implements EventHandler {
+
+		private final OrderNetter netter = new OrderNetter(OrderKind.MARKET);
+
+		@Override
+		public void onEvent(TradingEvent event, long sequence, boolean endOfBatch) {
+			if (event.getType() == TradingEvent.CYCLE && event.getTrades() != null) {
+				netter.add(event.getTrades());
+				int orderCount = netter.getOrderCount();
+
+				event.setTrades(netter.net());
+				if (event.getTrades().length < orderCount) {
+					System.out.println("Netted " + orderCount + " orders into " + event.getTrades().length);
+				}
+			}
+		}
+	}
+
+	private class RiskHandler implements EventHandler {
+		@Override
+		public void onEvent(TradingEvent event, long sequence, boolean endOfBatch) {
+			routeStage();
+			RiskCheck curCheck = portfolio.getRiskCheck();
+
+			PortfolioManager curManager = manager;
+
+			if (event.getType() == TradingEvent.QUOTE) {
+				// Accounts that do not follow the stock are not written
+				if (curManager != null) {
+					curManager.onQuote(Stock.get(event.getSymbolId()), event.getPrice());
+				} else {
+					portfolio.onQuote(Stock.get(event.getSymbolId()), event.getPrice());
+				}
+				if (curCheck != null) {
+					curCheck.onQuote(event.getSymbolId(), event.getPrice());
+				}
+			} else {
+				// The other accounts send their own orders, the Portfolio's are taken below
+				if (curManager != null) {
+					for (Portfolio curAccount : curManager.takeTriggeredAccounts()) {
+						if (curAccount != portfolio) {
+							AlgorithmToolKit.processTriggeredOrders(curAccount, curAccount.takeTriggeredOrders());
+						}
+					}
+				}
+
+				// Checked together, so the triggered orders and the cycle's share the funds
+				Trade[] trades = AlgorithmToolKit.checkOrders(portfolio, portfolio.takeTriggeredOrders(), event.getTrades(),
+						rebuyThreshold);
+				event.setTrades(trades == null ? null : portfolio.approve(trades));
+			}
+		}
+	}
+
+	private class GatewayHandler implements EventHandler {
+		@Override
+		public void onEvent(TradingEvent event, long sequence, boolean endOfBatch) {
+			if (event.getType() != TradingEvent.CYCLE || event.getTrades() == null) {
+				return;
+			}
+			routeStage();
+
+			collector.expect(event, event.getTrades());
+
+			boolean submitted = false;
+			for (Trade curTrade : event.getTrades()) {
+				if (curTrade != null) {
+					gateway.submit(curTrade);
+					submitted = true;
+				}
+			}
+
+			if (submitted) {
+				gateway.flush();
+			}
+			collector.await();
+		}
+	}
+
+	private class PortfolioHandler implements EventHandler {
+		@Override
+		public void onEvent(TradingEvent event, long sequence, boolean endOfBatch) {
+			if (event.getType() == TradingEvent.QUOTE) {
+				for (QuoteListener curListener : quoteListeners) {
+					curListener.onQuote(event.getSymbolId(), event.getPrice());
+				}
+				return;
+			}
+			routeStage();
+
+			for (int i = 0; i < event.getFillCount(); i++) {
+				portfolio.settleFill(event.getFillTrade(i), event.getFillPrice(i), event.getFillShares(i));
+			}
+			event.setTrades(null);
+		}
+	}
+
+	/**
+	 * Attaches the gateway's fills to the cycle that sent them. Fills of orders the gateway
+	 * stage stopped waiting for are settled when they arrive.
+	 */
+	private class Collector implements OrderEventListener {
+
+		// Orders of the current cycle that have not been filled or rejected, reused every cycle
+		private final Set<Trade> pending = Collections.newSetFromMap(new IdentityHashMap<Trade, Boolean>());
+		private TradingEvent current;
+
+		synchronized void expect(TradingEvent event, Trade[] trades) {
+			current = event;
+			for (Trade curTrade : trades) {
+				if (curTrade != null) {
+					pending.add(curTrade);
+				}
+			}
+		}
+
+		synchronized void await() {
+			long deadline = System.currentTimeMillis() + FILL_TIMEOUT_MILLIS;
+
+			try {
+				for (long left = FILL_TIMEOUT_MILLIS; !pending.isEmpty() && left > 0; left = deadline - System.currentTimeMillis()) {
+					wait(left);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			if (!pending.isEmpty()) {
+				System.out.println(pending.size() + " orders were not filled in time and will be settled when they are");
+				pending.clear();
+			}
+			current = null;
+		}
+
+		@Override
+		public void onAcknowledge(Trade trade) {
+		}
+
+		@Override
+		public void onFill(Trade trade, double price, int shares) {
+			synchronized (this) {
+				if (pending.remove(trade)) {
+					current.addFill(trade, price, shares);
+					notifyAll();
+					return;
+				}
+			}
+			portfolio.settleFill(trade, price, shares);
+		}
+
+		@Override
+		public synchronized void onReject(Trade trade, String reason) {
+			System.out.println("Order to " + trade.getOrderType().toLowerCase() + " " + trade.getShares() + " shares of "
+					+ trade.getSymbol().symbol + " was rejected: " + reason);
+
+			if (pending.remove(trade)) {
+				notifyAll();
+			}
+		}
+	}
+}
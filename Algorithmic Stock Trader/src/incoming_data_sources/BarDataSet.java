@@ -0,0 +1,334 @@
+package incoming_data_sources;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Read-only set of daily bars for several stocks, memory mapped from a file.
+ *
+ * The file is laid out column by column so a backtest walking one field of one
+ * stock reads contiguous memory. Every stock has a bar for every timestamp.
+ * A single instance can be shared by any number of threads since it only
+ * uses absolute reads.
+ *
+ * Layout:
+ *  int magic, int version, int symbol count, int bar count
+ *  long[bar count] timestamps
+ *  double[field count][symbol count][bar count] bars
+ *  symbol count * (UTF symbol, double market cap)
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class BarDataSet {
+
+	private static final int MAGIC = 0x41535442; // "ASTB"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+
+	// Fields stored for each bar
+	public static final int OPEN = 0;
+	public static final int HIGH = 1;
+	public static final int LOW = 2;
+	public static final int CLOSE = 3;
+	public static final int VOLUME = 4;
+	private static final int FIELD_COUNT = 5;
+
+	private final ByteBuffer buffer;
+	private final int symbolCount;
+	private final int barCount;
+	private final String[] symbols;
+	private final double[] marketCaps;
+	private final Map<String, Integer> symbolIndex = new HashMap<String, Integer>();
+	private final int columnOffset;
+
+	private BarDataSet(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a bar data file");
+		} else if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported bar data version " + buffer.getInt(4));
+		}
+
+		symbolCount = buffer.getInt(8);
+		barCount = buffer.getInt(12);
+		columnOffset = HEADER_SIZE + barCount * 8;
+
+		// Reads the symbol table at the end of the file
+		symbols = new String[symbolCount];
+		marketCaps = new double[symbolCount];
+
+		ByteBuffer table = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		table.position(columnOffset + FIELD_COUNT * symbolCount * barCount * 8);
+		for (int i = 0; i < symbolCount; i++) {
+			byte[] name = new byte[table.getShort()];
+			table.get(name);
+			symbols[i] = new String(name, "UTF-8");
+			marketCaps[i] = table.getDouble();
+			symbolIndex.put(symbols[i], i);
+		}
+	}
+
+	/**
+	 * Maps a bar data file into memory
+	 *
+	 * @param file the file written by write
+	 * @return the data set
+	 * @throws IOException if the file can not be read
+	 */
+	public static BarDataSet open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			mapped.load();
+
+			return new BarDataSet(mapped);
+		} finally {
+			// The mapping stays valid after the file is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes a bar data file
+	 *
+	 * @param file       where to write
+	 * @param symbols    the stock symbols
+	 * @param marketCaps the market capitalization of each stock
+	 * @param timestamps the time of each bar in milliseconds
+	 * @param bars       bars[field][symbol][bar] using the OPEN to VOLUME field indexes
+	 * @throws IOException if the file can not be written
+	 */
+	public static void write(File file, String[] symbols, double[] marketCaps, long[] timestamps, double[][][] bars)
+			throws IOException {
+		int symbolCount = symbols.length;
+		int barCount = timestamps.length;
+		long tableSize = 0;
+
+		for (String symbol : symbols) {
+			tableSize += 2 + symbol.getBytes("UTF-8").length + 8;
+		}
+
+		long size = HEADER_SIZE + (long) barCount * 8 + (long) FIELD_COUNT * symbolCount * barCount * 8 + tableSize;
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Bar data too large for a single mapping");
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(size);
+			MappedByteBuffer out = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(symbolCount);
+			out.putInt(barCount);
+
+			for (long timestamp : timestamps) {
+				out.putLong(timestamp);
+			}
+
+			for (int field = 0; field < FIELD_COUNT; field++) {
+				for (int symbol = 0; symbol < symbolCount; symbol++) {
+					for (int bar = 0; bar < barCount; bar++) {
+						out.putDouble(bars[field][symbol][bar]);
+					}
+				}
+			}
+
+			for (int i = 0; i < symbolCount; i++) {
+				byte[] name = symbols[i].getBytes("UTF-8");
+				out.putShort((short) name.length);
+				out.put(name);
+				out.putDouble(marketCaps[i]);
+			}
+
+			out.force();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Builds a bar data file from Yahoo! Finance historical price files
+	 * (Date,Open,High,Low,Close,Volume,Adj Close).
+	 *
+	 * The dates of the first file are used for every stock. A stock missing a date
+	 * repeats its previous close with no volume.
+	 *
+	 * @param file       where to write
+	 * @param symbols    the stock symbols
+	 * @param marketCaps the market capitalization of each stock
+	 * @param csvFiles   one historical price file per symbol
+	 * @throws IOException if a file can not be read or written
+	 */
+	public static void importCsv(File file, String[] symbols, double[] marketCaps, File[] csvFiles) throws IOException {
+		List<Map<Long, double[]>> rows = new ArrayList<Map<Long, double[]>>();
+
+		for (File csv : csvFiles) {
+			rows.add(readCsv(csv));
+		}
+
+		List<Long> dates = new ArrayList<Long>(rows.get(0).keySet());
+		Collections.sort(dates);
+
+		long[] timestamps = new long[dates.size()];
+		double[][][] bars = new double[FIELD_COUNT][symbols.length][dates.size()];
+
+		for (int bar = 0; bar < timestamps.length; bar++) {
+			timestamps[bar] = dates.get(bar);
+		}
+
+		for (int symbol = 0; symbol < symbols.length; symbol++) {
+			Map<Long, double[]> symbolRows = rows.get(symbol);
+			double lastClose = 0;
+
+			for (int bar = 0; bar < timestamps.length; bar++) {
+				double[] row = symbolRows.get(timestamps[bar]);
+
+				if (row != null) {
+					for (int field = 0; field < FIELD_COUNT; field++) {
+						bars[field][symbol][bar] = row[field];
+					}
+					lastClose = row[CLOSE];
+				} else {
+					bars[OPEN][symbol][bar] = lastClose;
+					bars[HIGH][symbol][bar] = lastClose;
+					bars[LOW][symbol][bar] = lastClose;
+					bars[CLOSE][symbol][bar] = lastClose;
+				}
+			}
+		}
+
+		write(file, symbols, marketCaps, timestamps, bars);
+	}
+
+	/**
+	 * Reads a Yahoo! Finance historical price file
+	 *
+	 * @param csv the file
+	 * @return bar values by date
+	 * @throws IOException if the file can not be read
+	 */
+	private static Map<Long, double[]> readCsv(File csv) throws IOException {
+		Map<Long, double[]> rows = new HashMap<Long, double[]>();
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+		format.setTimeZone(TimeZone.getTimeZone("America/New_York"));
+
+		BufferedReader reader = new BufferedReader(new FileReader(csv));
+		try {
+			String line = reader.readLine(); // Header
+
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split(",");
+				if (parts.length < 6) {
+					continue;
+				}
+
+				double[] row = new double[FIELD_COUNT];
+				row[OPEN] = Double.parseDouble(parts[1]);
+				row[HIGH] = Double.parseDouble(parts[2]);
+				row[LOW] = Double.parseDouble(parts[3]);
+				row[CLOSE] = Double.parseDouble(parts[4]);
+				row[VOLUME] = Double.parseDouble(parts[5]);
+
+				try {
+					rows.put(format.parse(parts[0]).getTime(), row);
+				} catch (ParseException e) {
+					throw new IOException("Invalid date in " + csv + ": " + parts[0]);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		return rows;
+	}
+
+	/**
+	 * Gets a value of a bar
+	 *
+	 * @param field  OPEN, HIGH, LOW, CLOSE or VOLUME
+	 * @param symbol index of the stock
+	 * @param bar    index of the bar
+	 * @return the value
+	 */
+	public double get(int field, int symbol, int bar) {
+		return buffer.getDouble(columnOffset + (((field * symbolCount) + symbol) * barCount + bar) * 8);
+	}
+
+	public double getOpen(int symbol, int bar) {
+		return get(OPEN, symbol, bar);
+	}
+
+	public double getHigh(int symbol, int bar) {
+		return get(HIGH, symbol, bar);
+	}
+
+	public double getLow(int symbol, int bar) {
+		return get(LOW, symbol, bar);
+	}
+
+	public double getClose(int symbol, int bar) {
+		return get(CLOSE, symbol, bar);
+	}
+
+	public double getVolume(int symbol, int bar) {
+		return get(VOLUME, symbol, bar);
+	}
+
+	/**
+	 * Gets the time of a bar
+	 *
+	 * @param bar index of the bar
+	 * @return time in milliseconds
+	 */
+	public long getTimestamp(int bar) {
+		return buffer.getLong(HEADER_SIZE + bar * 8);
+	}
+
+	/**
+	 * Gets the index of a stock
+	 *
+	 * @param symbol the stock symbol
+	 * @return the index, or -1 if the stock is not in the data set
+	 */
+	public int indexOf(String symbol) {
+		Integer index = symbolIndex.get(symbol);
+		return index == null ? -1 : index;
+	}
+
+	public String getSymbol(int symbol) {
+		return symbols[symbol];
+	}
+
+	public double getMarketCap(int symbol) {
+		return marketCaps[symbol];
+	}
+
+	public int getSymbolCount() {
+		return symbolCount;
+	}
+
+	public int getBarCount() {
+		return barCount;
+	}
+}
@@ -0,0 +1,155 @@
+package incoming_data_sources;
+
+/**
+ * Yahoo! Finance fetcher that can be replaced per thread.
+ *
+ * Algorithms read stock data through GeneralToolKit.fetcher. A thread that routes
+ * this fetcher to another one (such as a replay of historical data) sees that data
+ * instead, while every other thread keeps using Yahoo! Finance. Only the data
+ * the trading engine reads is routed.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class RoutedFetcher extends YahooFetcher {
+
+	private final ThreadLocal<YahooFetcher> route = new ThreadLocal<YahooFetcher>();
+
+	/**
+	 * Sends the current thread's requests to another fetcher
+	 *
+	 * @param fetcher the fetcher to use
+	 */
+	public void route(YahooFetcher fetcher) {
+		route.set(fetcher);
+	}
+
+	/**
+	 * Sends the current thread's requests back to Yahoo! Finance
+	 */
+	public void clearRoute() {
+		route.remove();
+	}
+
+	/**
+	 * Gets the fetcher the current thread is routed to, so work handed
+	 * to another thread can be routed the same way
+	 *
+	 * @return the fetcher, or null if the thread uses Yahoo! Finance
+	 */
+	public YahooFetcher getRoute() {
+		return route.get();
+	}
+
+	/**
+	 * Determines if the current thread is using another fetcher
+	 *
+	 * @return
+	 */
+	public boolean isRouted() {
+		return route.get() != null;
+	}
+
+	@Override
+	public String getMultipleSymbolData(String[] symbols, String[] tags) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.getMultipleSymbolData(symbols, tags) : fetcher.getMultipleSymbolData(symbols, tags);
+	}
+
+	@Override
+	public String getLastTradePriceOnly(String symbol) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.getLastTradePriceOnly(symbol) : fetcher.getLastTradePriceOnly(symbol);
+	}
+
+	@Override
+	public String getLastTradeWithTime(String symbol) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.getLastTradeWithTime(symbol) : fetcher.getLastTradeWithTime(symbol);
+	}
+
+	@Override
+	public String getOpen(String symbol) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.getOpen(symbol) : fetcher.getOpen(symbol);
+	}
+
+	@Override
+	public String getPreviousClose(String symbol) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.getPreviousClose(symbol) : fetcher.getPreviousClose(symbol);
+	}
+
+	@Override
+	public String getDaysHigh(String symbol) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.getDaysHigh(symbol) : fetcher.getDaysHigh(symbol);
+	}
+
+	@Override
+	public String getDaysLow(String symbol) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.getDaysLow(symbol) : fetcher.getDaysLow(symbol);
+	}
+
+	@Override
+	public String get50DayMovingAverage(String symbol) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.get50DayMovingAverage(symbol) : fetcher.get50DayMovingAverage(symbol);
+	}
+
+	@Override
+	public String get52WeekHigh(String symbol) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.get52WeekHigh(symbol) : fetcher.get52WeekHigh(symbol);
+	}
+
+	@Override
+	public String get52WeekLow(String symbol) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.get52WeekLow(symbol) : fetcher.get52WeekLow(symbol);
+	}
+
+	@Override
+	public String getVolume(String symbol) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.getVolume(symbol) : fetcher.getVolume(symbol);
+	}
+
+	@Override
+	public String getAverageDailyVolume(String symbol) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.getAverageDailyVolume(symbol) : fetcher.getAverageDailyVolume(symbol);
+	}
+
+	@Override
+	public String getMarketCapilization(String symbol) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.getMarketCapilization(symbol) : fetcher.getMarketCapilization(symbol);
+	}
+
+	@Override
+	public String getBid(String symbol) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.getBid(symbol) : fetcher.getBid(symbol);
+	}
+
+	@Override
+	public String getAskPrice(String symbol) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.getAskPrice(symbol) : fetcher.getAskPrice(symbol);
+	}
+
+	@Override
+	public String getBidSize(String symbol) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.getBidSize(symbol) : fetcher.getBidSize(symbol);
+	}
+
+	@Override
+	public String getAskSize(String symbol) {
+		YahooFetcher fetcher = route.get();
+		return fetcher == null ? super.getAskSize(symbol) : fetcher.getAskSize(symbol);
+	}
+}
@@ -0,0 +1,294 @@
+package market_time;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Trading sessions of the United States stock market.
+ *
+ * Every session from the first to the last year is computed once, in the exchange's
+ * time zone, into sorted arrays of open and close times. Questions about a point in
+ * time are then a binary search instead of a trip through java.util.Calendar.
+ *
+ * The regular NYSE holidays are skipped and the days before Independence Day and
+ * Christmas and the day after Thanksgiving close early. One-off closures (such as
+ * national days of mourning) are not known to the calendar.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class ExchangeCalendar {
+
+	public static final TimeZone EXCHANGE_TIME_ZONE = TimeZone.getTimeZone("America/New_York");
+
+	private static final int OPEN_HOUR = 9;
+	private static final int OPEN_MINUTE = 30;
+	private static final int CLOSE_HOUR = 16;
+	private static final int EARLY_CLOSE_HOUR = 13;
+
+	private static final ExchangeCalendar defaultCalendar = new ExchangeCalendar(1990, 2040);
+
+	// Open and close time of each session, oldest first
+	private final long[] opens;
+	private final long[] closes;
+
+	public ExchangeCalendar(int firstYear, int lastYear) {
+		Calendar day = Calendar.getInstance(EXCHANGE_TIME_ZONE);
+		day.clear();
+		day.set(firstYear, Calendar.JANUARY, 1);
+
+		long[] opens = new long[(lastYear - firstYear + 1) * 262];
+		long[] closes = new long[opens.length];
+		int count = 0;
+
+		while (day.get(Calendar.YEAR) <= lastYear) {
+			int dayOfWeek = day.get(Calendar.DAY_OF_WEEK);
+
+			if (dayOfWeek != Calendar.SATURDAY && dayOfWeek != Calendar.SUNDAY && !isHoliday(day)) {
+				opens[count] = timeOfDay(day, OPEN_HOUR, OPEN_MINUTE);
+				closes[count] = timeOfDay(day, isEarlyClose(day) ? EARLY_CLOSE_HOUR : CLOSE_HOUR, 0);
+				count++;
+			}
+
+			day.add(Calendar.DAY_OF_MONTH, 1);
+		}
+
+		this.opens = new long[count];
+		this.closes = new long[count];
+		System.arraycopy(opens, 0, this.opens, 0, count);
+		System.arraycopy(closes, 0, this.closes, 0, count);
+	}
+
+	/**
+	 * Gets the calendar covering 1990 through 2040
+	 *
+	 * @return
+	 */
+	public static ExchangeCalendar getDefault() {
+		return defaultCalendar;
+	}
+
+	/**
+	 * Determines if a weekday is an exchange holiday
+	 * 
+	 * @param day the day in the exchange's time zone
+	 * @return if the market is closed all day
+	 */
+	private static boolean isHoliday(Calendar day) {
+		int year = day.get(Calendar.YEAR);
+		int month = day.get(Calendar.MONTH);
+		int date = day.get(Calendar.DAY_OF_MONTH);
+		int dayOfWeek = day.get(Calendar.DAY_OF_WEEK);
+
+		switch (month) {
+		case Calendar.JANUARY:
+			// New Year's Day, moved to Monday when it falls on a Sunday
+			if (date == 1 || (date == 2 && dayOfWeek == Calendar.MONDAY)) {
+				return true;
+			}
+			// Martin Luther King Jr. Day, third Monday since 1998
+			return year >= 1998 && isNthWeekday(day, Calendar.MONDAY, 3);
+		case Calendar.FEBRUARY:
+			// Washington's Birthday, third Monday
+			return isNthWeekday(day, Calendar.MONDAY, 3);
+		case Calendar.MARCH:
+		case Calendar.APRIL:
+			// Good Friday
+			return isGoodFriday(day);
+		case Calendar.MAY:
+			// Memorial Day, last Monday
+			return dayOfWeek == Calendar.MONDAY && date + 7 > 31;
+		case Calendar.JUNE:
+			// Juneteenth since 2022
+			return year >= 2022 && isObserved(date, dayOfWeek, 19);
+		case Calendar.JULY:
+			// Independence Day
+			return isObserved(date, dayOfWeek, 4);
+		case Calendar.SEPTEMBER:
+			// Labor Day, first Monday
+			return isNthWeekday(day, Calendar.MONDAY, 1);
+		case Calendar.NOVEMBER:
+			// Thanksgiving Day, fourth Thursday
+			return isNthWeekday(day, Calendar.THURSDAY, 4);
+		case Calendar.DECEMBER:
+			// Christmas Day
+			return isObserved(date, dayOfWeek, 25);
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Determines if a trading day closes at 1:00 pm
+	 * 
+	 * @param day the day in the exchange's time zone
+	 * @return if the session closes early
+	 */
+	private static boolean isEarlyClose(Calendar day) {
+		int month = day.get(Calendar.MONTH);
+		int date = day.get(Calendar.DAY_OF_MONTH);
+		int dayOfWeek = day.get(Calendar.DAY_OF_WEEK);
+
+		if (month == Calendar.JULY && date == 3) {
+			// Day before Independence Day, unless it is the observed holiday
+			return dayOfWeek != Calendar.FRIDAY;
+		} else if (month == Calendar.NOVEMBER && dayOfWeek == Calendar.FRIDAY) {
+			// Day after Thanksgiving
+			return date >= 23 && date <= 29;
+		} else if (month == Calendar.DECEMBER && date == 24) {
+			// Christmas Eve, unless it is the observed holiday
+			return dayOfWeek != Calendar.FRIDAY;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Determines if a weekday is the observed day of a fixed date holiday.
+	 * A holiday on Saturday is observed on Friday and one on Sunday on Monday.
+	 */
+	private static boolean isObserved(int date, int dayOfWeek, int holiday) {
+		return date == holiday
+				|| (date == holiday - 1 && dayOfWeek == Calendar.FRIDAY)
+				|| (date == holiday + 1 && dayOfWeek == Calendar.MONDAY);
+	}
+
+	/**
+	 * Determines if a day is the nth of its weekday in its month
+	 */
+	private static boolean isNthWeekday(Calendar day, int weekday, int n) {
+		return day.get(Calendar.DAY_OF_WEEK) == weekday && (day.get(Calendar.DAY_OF_MONTH) - 1) / 7 == n - 1;
+	}
+
+	/**
+	 * Determines if a day is Good Friday using the anonymous Gregorian Easter algorithm
+	 */
+	private static boolean isGoodFriday(Calendar day) {
+		int year = day.get(Calendar.YEAR);
+		int a = year % 19;
+		int b = year / 100;
+		int c = year % 100;
+		int d = b / 4;
+		int e = b % 4;
+		int f = (b + 8) / 25;
+		int g = (b - f + 1) / 3;
+		int h = (19 * a + b - d - g + 15) % 30;
+		int i = c / 4;
+		int k = c % 4;
+		int l = (32 + 2 * e + 2 * i - h - k) % 7;
+		int m = (a + 11 * h + 22 * l) / 451;
+		int easterMonth = (h + l - 7 * m + 114) / 31;
+		int easterDate = ((h + l - 7 * m + 114) % 31) + 1;
+
+		// Two days before Easter Sunday
+		Calendar goodFriday = Calendar.getInstance(EXCHANGE_TIME_ZONE);
+		goodFriday.clear();
+		goodFriday.set(year, easterMonth - 1, easterDate);
+		goodFriday.add(Calendar.DAY_OF_MONTH, -2);
+
+		return goodFriday.get(Calendar.MONTH) == day.get(Calendar.MONTH)
+				&& goodFriday.get(Calendar.DAY_OF_MONTH) == day.get(Calendar.DAY_OF_MONTH);
+	}
+
+	/**
+	 * Gets the time of a clock time on a day in the exchange's time zone
+	 */
+	private static long timeOfDay(Calendar day, int hour, int minute) {
+		Calendar time = (Calendar) day.clone();
+		time.set(Calendar.HOUR_OF_DAY, hour);
+		time.set(Calendar.MINUTE, minute);
+
+		return time.getTimeInMillis();
+	}
+
+	/**
+	 * Finds the latest session that opened at or before a time
+	 *
+	 * @param time milliseconds since the epoch
+	 * @return index of the session, or -1 if the time is before the first session
+	 */
+	private int sessionIndex(long time) {
+		int low = 0;
+		int high = opens.length - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+
+			if (opens[middle] <= time) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		return high;
+	}
+
+	/**
+	 * Determines if the market is open at a time
+	 *
+	 * @param time milliseconds since the epoch
+	 * @return if the time is inside a session
+	 */
+	public boolean isOpen(long time) {
+		int index = sessionIndex(time);
+		return index >= 0 && time < closes[index];
+	}
+
+	/**
+	 * Gets the open of the session a time is in
+	 *
+	 * @param time milliseconds since the epoch
+	 * @return the open, or -1 if the market is closed
+	 */
+	public long sessionOpen(long time) {
+		int index = sessionIndex(time);
+		return index >= 0 && time < closes[index] ? opens[index] : -1;
+	}
+
+	/**
+	 * Gets the close of the session a time is in
+	 *
+	 * @param time milliseconds since the epoch
+	 * @return the close, or -1 if the market is closed
+	 */
+	public long sessionClose(long time) {
+		int index = sessionIndex(time);
+		return index >= 0 && time < closes[index] ? closes[index] : -1;
+	}
+
+	/**
+	 * Gets the first open after a time
+	 *
+	 * @param time milliseconds since the epoch
+	 * @return the open, or -1 if the calendar has no later session
+	 */
+	public long nextOpen(long time) {
+		int index = sessionIndex(time) + 1;
+		return index < opens.length ? opens[index] : -1;
+	}
+
+	/**
+	 * Gets the first close after a time, which is the current session's close if the market is open
+	 *
+	 * @param time milliseconds since the epoch
+	 * @return the close, or -1 if the calendar has no later session
+	 */
+	public long nextClose(long time) {
+		int index = sessionIndex(time);
+		if (index < 0 || time >= closes[index]) {
+			index++;
+		}
+		return index < closes.length ? closes[index] : -1;
+	}
+
+	/**
+	 * Gets the number of sessions in the calendar
+	 *
+	 * @return
+	 */
+	public int getSessionCount() {
+		return opens.length;
+	}
+}
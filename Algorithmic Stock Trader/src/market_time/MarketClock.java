@@ -0,0 +1,30 @@
+package market_time;
+
+/**
+ * Source of the current time for the trading engine.
+ *
+ * Live trading uses the wall clock, while backtests and replays use a
+ * simulated clock that moves instantly when the engine sleeps.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public interface MarketClock {
+
+	/**
+	 * Gets the current time
+	 * 
+	 * @return milliseconds since the epoch
+	 */
+	public long currentTimeMillis();
+
+	/**
+	 * Waits until an amount of time has passed on this clock
+	 * 
+	 * @param millis how long to wait
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void sleep(long millis) throws InterruptedException;
+
+}
@@ -0,0 +1,106 @@
+package market_time;
+
+/**
+ * Paces the simulation loop.
+ *
+ * While the market is open the engine is woken every poll interval. Once the session
+ * is over the scheduler sleeps straight through to the next open, so nights,
+ * weekends and holidays cost a single sleep instead of a poll every few seconds.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class SessionScheduler {
+
+	private final ExchangeCalendar calendar;
+	private final long pollMillis;
+
+	public SessionScheduler(ExchangeCalendar calendar, long pollMillis) {
+		this.calendar = calendar;
+		this.pollMillis = pollMillis;
+	}
+
+	/**
+	 * Gets when the engine should next run
+	 *
+	 * @param now milliseconds since the epoch
+	 * @return the time of the next cycle, or -1 if the calendar has no later session
+	 */
+	public long nextCycle(long now) {
+		long close = calendar.sessionClose(now);
+
+		if (close != -1 && now + pollMillis < close) {
+			return now + pollMillis;
+		}
+
+		return calendar.nextOpen(now);
+	}
+
+	/**
+	 * Determines if a cycle is the last one of its session, when the closing auction runs
+	 *
+	 * @param now milliseconds since the epoch
+	 * @return if the market is open and the next cycle is after the close
+	 */
+	public boolean isLastCycle(long now) {
+		long close = calendar.sessionClose(now);
+		return close != -1 && nextCycle(now) >= close;
+	}
+
+	/**
+	 * Gets when the closing auction should next run, on the last cycle of a session
+	 *
+	 * @param now milliseconds since the epoch
+	 * @return now if it is in the last cycle of the session, else the start of the next
+	 *         session's last cycle, or -1 if the calendar has no later session
+	 */
+	public long nextLastCycle(long now) {
+		long close = calendar.nextClose(now);
+		return close == -1 ? -1 : Math.max(now, close - pollMillis);
+	}
+
+	/**
+	 * Sleeps on a clock until the next cycle
+	 *
+	 * @param clock    the clock to sleep on
+	 * @param deadline time after which no cycle should run
+	 * @return if a cycle is due, false if the next cycle would be past the deadline
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public boolean awaitNextCycle(MarketClock clock, long deadline) throws InterruptedException {
+		long now = clock.currentTimeMillis();
+		long next = nextCycle(now);
+
+		if (next == -1 || next > deadline) {
+			return false;
+		}
+
+		clock.sleep(next - now);
+		return true;
+	}
+
+	/**
+	 * Sleeps on a clock until the market is open
+	 *
+	 * @param clock    the clock to sleep on
+	 * @param deadline time after which the wait is abandoned
+	 * @return if the market is open, false if it does not open before the deadline
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public boolean awaitOpen(MarketClock clock, long deadline) throws InterruptedException {
+		long now = clock.currentTimeMillis();
+
+		if (calendar.isOpen(now)) {
+			return true;
+		}
+
+		long open = calendar.nextOpen(now);
+		if (open == -1 || open > deadline) {
+			return false;
+		}
+
+		clock.sleep(open - now);
+		return true;
+	}
+}
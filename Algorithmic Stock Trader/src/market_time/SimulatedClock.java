@@ -0,0 +1,48 @@
+package market_time;
+
+/**
+ * Clock that only moves when it is told to.
+ * Sleeping advances the clock instead of waiting, so replays run as fast as they can be computed.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class SimulatedClock implements MarketClock {
+
+	private volatile long time;
+
+	public SimulatedClock(long startTime) {
+		time = startTime;
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		return time;
+	}
+
+	@Override
+	public void sleep(long millis) {
+		if (millis > 0) {
+			advance(millis);
+		}
+	}
+
+	/**
+	 * Moves the clock to a time
+	 * 
+	 * @param time milliseconds since the epoch
+	 */
+	public void setTime(long time) {
+		this.time = time;
+	}
+
+	/**
+	 * Moves the clock forward
+	 * 
+	 * @param millis how far to move
+	 */
+	public synchronized void advance(long millis) {
+		time += millis;
+	}
+}
@@ -1,25 +1,335 @@
 package outgoing_data_sources;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import market_time.MarketClock;
+import trade_types.LimitTrade;
+import trade_types.OrderKind;
 import trade_types.Trade;
 import utilities.GeneralToolKit;
 
 /**
  * Represents the transmission of outgoing stock transactions to a service such as a brokerage.
- * 
+ *
+ * Orders are filled by a local MatchingEngine against the stock's current bid and ask,
+ * or by a FillModel when the service or the thread has one. Each thread has its own engine
+ * and model, so replays on separate threads do not share books. A limit Trade fills only the
+ * shares that can be had at its limit price or better, and the rest of it is dropped.
+ *
+ * As an OrderGateway the service is synchronous: flush fills the calling thread's
+ * queued Trades right away and delivers their events on that thread. An order of which no
+ * shares fill is rejected.
+ *
  * @author Steven Shaw
  * @email  sps5688@rit.edu
  *
  */
-public class DummyService {
-	
+public class DummyService implements OrderGateway {
+
+	private static final double TICK_SIZE = 0.01;
+
+	// Fill prices past a limit by rounding alone still count as inside it
+	private static final double LIMIT_TOLERANCE = 1e-9;
+
+	// Quote fields asked for in one request, and where each comes back
+	private static final String[] QUOTE_TAGS = { "l1", "b", "a", "b6", "a5", "h", "g", "v" };
+	private static final int LAST = 0;
+	private static final int BID = 1;
+	private static final int ASK = 2;
+	private static final int BID_SIZE = 3;
+	private static final int ASK_SIZE = 4;
+	private static final int HIGH = 5;
+	private static final int LOW = 6;
+	private static final int VOLUME = 7;
+
+	// Reads the clock of whichever thread is using the engine
+	private static final MarketClock toolKitClock = new MarketClock() {
+		@Override
+		public long currentTimeMillis() {
+			return GeneralToolKit.clock().currentTimeMillis();
+		}
+
+		@Override
+		public void sleep(long millis) throws InterruptedException {
+			GeneralToolKit.clock().sleep(millis);
+		}
+	};
+
+	private static final ThreadLocal<Execution> executions = new ThreadLocal<Execution>() {
+		@Override
+		protected Execution initialValue() {
+			return new Execution();
+		}
+	};
+
+	private volatile OrderEventListener listener;
+
+	// Fills every thread's orders in place of the thread's model when set
+	private final FillModel fillModel;
+
+	/**
+	 * Creates a service that fills with the thread's model, or the matching engine
+	 */
+	public DummyService() {
+		this(null);
+	}
+
+	/**
+	 * @param fillModel the model that fills every order, or null to use the thread's
+	 */
+	public DummyService(FillModel fillModel) {
+		this.fillModel = fillModel;
+	}
+
+	/**
+	 * Sets the model that fills the current thread's orders
+	 *
+	 * @param fillModel the model, or null to fill against the matching engine
+	 */
+	public static void setFillModel(FillModel fillModel) {
+		executions.get().fillModel = fillModel;
+	}
+
+	/**
+	 * Gets the model that fills the current thread's orders
+	 *
+	 * @return the model, or null if the matching engine fills them
+	 */
+	public static FillModel getFillModel() {
+		return executions.get().fillModel;
+	}
+
+	/**
+	 * Gets the current thread's matching engine
+	 *
+	 * @return
+	 */
+	public static MatchingEngine getEngine() {
+		return executions.get().engine;
+	}
+
 	public Trade executeOrder(Trade curTrade) {
-		// Retrieves up to date stock price and updates Trade
-		String price = GeneralToolKit.fetcher.getLastTradePriceOnly(curTrade.getSymbol().symbol);
-		curTrade.setPrice(Double.parseDouble(price));
+		// Market on close trades were already filled in the closing auction
+		if (curTrade.getKind() == OrderKind.MARKET_ON_CLOSE) {
+			return curTrade;
+		}
+
+		Execution execution = executions.get();
+		MatchingEngine engine = execution.engine;
+		int symbolId = curTrade.getSymbol().getId();
+		String symbol = curTrade.getSymbol().symbol;
+
+		// Retrieves up to date stock price and quote, 0 when not available
+		double[] quote = fetchQuote(symbol, execution.quote);
+		double last = quote[LAST];
+		double bid = quote[BID];
+		double ask = quote[ASK];
+		int bidSize = (int) quote[BID_SIZE];
+		int askSize = (int) quote[ASK_SIZE];
+
+		int side = curTrade.getSide().isBuy() ? MatchingEngine.BUY : MatchingEngine.SELL;
+		double limit = curTrade.getKind() == OrderKind.LIMIT ? ((LimitTrade) curTrade).getLimitPrice() : 0;
+
+		FillModel model = fillModel != null ? fillModel : execution.fillModel;
+		if (model != null) {
+			return fillWithModel(curTrade, side, limit, model, execution,
+					execution.market.set(last, bid, bidSize, ask, askSize, quote[HIGH], quote[LOW], quote[VOLUME]));
+		}
+
+		// Without a quote the last price is the quote, and without a quoted size the whole order can fill at it
+		bid = bid == 0 ? last : bid;
+		ask = ask == 0 ? last : ask;
+		bidSize = bidSize == 0 ? curTrade.getShares() : bidSize;
+		askSize = askSize == 0 ? curTrade.getShares() : askSize;
+
+		engine.onTrade(symbolId, last);
+		engine.setQuote(symbolId, bid, bidSize, ask, askSize);
+
+		// The only other orders in the book are the quotes, so every fill on the order's side is the order's
+		execution.start(side);
+		int order = engine.submit(symbolId, side, limit > 0 ? MatchingEngine.LIMIT : MatchingEngine.MARKET, curTrade.getShares(), limit, 0);
+		engine.processPending();
+
+		// Shares the quote could not absorb are assumed to fill at the last trade price, if it is inside the limit
+		int unfilled = curTrade.getShares() - execution.filled;
+		if (limit > 0) {
+			engine.cancel(order);
+			if (!withinLimit(side, last, limit)) {
+				unfilled = 0;
+				curTrade.setShares(execution.filled);
+			}
+		}
+
+		double cost = execution.cost + unfilled * last;
+		if (curTrade.getShares() > 0) {
+			curTrade.setPrice(cost / curTrade.getShares());
+		}
 
 		// Will eventually send to outside broker service
-		
+
 		return curTrade;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Fills an order with a FillModel. Shares the model does not fill are taken off the order,
+	 * and a limit order only fills as many as the model prices inside its limit.
+	 */
+	private static Trade fillWithModel(Trade curTrade, int side, double limit, FillModel model, Execution execution, MarketSnapshot market) {
+		String symbol = curTrade.getSymbol().symbol;
+		int shares = Math.max(model.fillableShares(side, curTrade.getShares(), market), 0);
+
+		// Fills get no better as they grow, so the largest one inside the limit is searched for
+		if (limit > 0 && shares > 0 && !withinLimit(side, model.fillPrice(side, shares, market), limit)) {
+			int low = 0;
+			int high = shares - 1;
+			while (low < high) {
+				int mid = (low + high + 1) >>> 1;
+				if (withinLimit(side, model.fillPrice(side, mid, market), limit)) {
+					low = mid;
+				} else {
+					high = mid - 1;
+				}
+			}
+			shares = low;
+		}
+		if (shares < curTrade.getShares()) {
+			System.out.println("Only " + shares + " of " + curTrade.getShares() + " shares of " + symbol + " filled");
+			curTrade.setShares(shares);
+		}
+		curTrade.setPrice(model.fillPrice(side, shares, market));
+
+		return curTrade;
+	}
+
+	@Override
+	public void submit(Trade trade) {
+		executions.get().queued.add(trade);
+	}
+
+	@Override
+	public void flush() {
+		List<Trade> queued = executions.get().queued;
+		OrderEventListener curListener = listener;
+
+		// Trades submitted by the listener wait for the next flush
+		Trade[] batch = queued.toArray(new Trade[queued.size()]);
+		queued.clear();
+
+		for (Trade curTrade : batch) {
+			if (curListener != null) {
+				curListener.onAcknowledge(curTrade);
+			}
+
+			try {
+				executeOrder(curTrade);
+			} catch (RuntimeException e) {
+				if (curListener != null) {
+					curListener.onReject(curTrade, "Could not price " + curTrade.getSymbol().symbol + ": " + e.getMessage());
+				}
+				continue;
+			}
+
+			if (curListener == null) {
+				continue;
+			}
+			if (curTrade.getShares() > 0) {
+				curListener.onFill(curTrade, curTrade.getPrice(), curTrade.getShares());
+			} else {
+				curListener.onReject(curTrade, "No shares of " + curTrade.getSymbol().symbol + " could be filled");
+			}
+		}
+	}
+
+	@Override
+	public void setListener(OrderEventListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void shutdown() {
+		flush();
+	}
+
+	/**
+	 * Fetches a stock's last trade, quote, day's range and volume in one request, 0 for the
+	 * fields not available. A last trade missing from the response is asked for alone.
+	 */
+	private static double[] fetchQuote(String symbol, double[] quote) {
+		String response = GeneralToolKit.fetcher.getMultipleSymbolData(new String[] { symbol }, QUOTE_TAGS);
+		String[] fields = response == null ? new String[0] : response.trim().split(",");
+
+		for (int i = 0; i < quote.length; i++) {
+			quote[i] = i < fields.length ? parse(fields[i], 0) : 0;
+		}
+		if (quote[LAST] == 0) {
+			quote[LAST] = Double.parseDouble(GeneralToolKit.fetcher.getLastTradePriceOnly(symbol));
+		}
+		return quote;
+	}
+
+	/**
+	 * Checks if a price is at a limit or better for the side, where a limit of 0 is no limit
+	 */
+	private static boolean withinLimit(int side, double price, double limit) {
+		if (limit <= 0) {
+			return true;
+		}
+		return side == MatchingEngine.BUY ? price <= limit + LIMIT_TOLERANCE : price >= limit - LIMIT_TOLERANCE;
+	}
+
+	/**
+	 * Parses a fetched number, falling back to a default when it is not available
+	 */
+	private static double parse(String value, double notAvailable) {
+		if (value == null) {
+			return notAvailable;
+		}
+
+		value = value.replace(",", "").trim();
+		try {
+			double parsed = Double.parseDouble(value);
+			return parsed > 0 ? parsed : notAvailable;
+		} catch (NumberFormatException e) {
+			return notAvailable;
+		}
+	}
+
+	/**
+	 * A thread's engine and fill model, its queued Trades and the fills of the order it is executing
+	 */
+	private static class Execution implements MatchingEngine.OrderListener {
+
+		final MatchingEngine engine = new MatchingEngine(TICK_SIZE, toolKitClock);
+		final List<Trade> queued = new ArrayList<Trade>();
+		final MarketSnapshot market = new MarketSnapshot();
+		final double[] quote = new double[QUOTE_TAGS.length];
+		FillModel fillModel;
+		int side;
+		int filled;
+		double cost;
+
+		Execution() {
+			engine.setListener(this);
+		}
+
+		void start(int side) {
+			this.side = side;
+			filled = 0;
+			cost = 0;
+		}
+
+		@Override
+		public void onFill(int orderId, int symbol, int side, double price, int quantity, int remaining) {
+			if (side == this.side) {
+				filled += quantity;
+				cost += price * quantity;
+			}
+		}
+
+		@Override
+		public void onCancel(int orderId, int symbol, int remaining) {
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+package outgoing_data_sources;
+
+/**
+ * Decides how much of a market order fills and at what price.
+ *
+ * Models only read the snapshot they are given and keep no state, so one model can be
+ * shared by every thread of a parameter sweep.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public interface FillModel {
+
+	/**
+	 * Gets the number of shares of an order that fill
+	 *
+	 * @param side   MatchingEngine.BUY or MatchingEngine.SELL
+	 * @param shares the shares ordered
+	 * @param market the market at the time of the order
+	 * @return the shares filled, at most the shares ordered
+	 */
+	public int fillableShares(int side, int shares, MarketSnapshot market);
+
+	/**
+	 * Gets the average price of a fill
+	 *
+	 * @param side   MatchingEngine.BUY or MatchingEngine.SELL
+	 * @param shares the shares filled
+	 * @param market the market at the time of the order
+	 * @return the average price paid or received per share
+	 */
+	public double fillPrice(int side, int shares, MarketSnapshot market);
+
+}
@@ -0,0 +1,58 @@
+package outgoing_data_sources;
+
+/**
+ * Chooses a FillModel by name, such as from the command line or a menu.
+ *
+ * A name may be followed by a colon and the model's number, as in impact:0.5.
+ *
+ *   engine   the DummyService's matching engine, which is no model
+ *   last     LastPriceFill
+ *   quote    QuoteCrossingFill with the tick size, .01 by default
+ *   impact   SquareRootImpactFill with the coefficient, 1 by default
+ *   capped   ParticipationCapFill of the volume fraction, .10 by default, priced by impact
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class FillModels {
+
+	// Names forName accepts, for usage messages
+	public static final String NAMES = "engine, last, quote[:tick], impact[:coefficient], capped[:participation]";
+
+	private FillModels() {
+	}
+
+	/**
+	 * Creates the model a name stands for
+	 *
+	 * @param name one of NAMES, in any case
+	 * @return the model, or null for the matching engine
+	 * @throws IllegalArgumentException if the name or its number is not known
+	 */
+	public static FillModel forName(String name) {
+		String[] parts = name.trim().toLowerCase().split(":", 2);
+		String model = parts[0];
+		double number;
+
+		try {
+			number = parts.length > 1 ? Double.parseDouble(parts[1]) : Double.NaN;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Fill model " + name + " does not have a number after the colon");
+		}
+
+		if (model.equals("engine")) {
+			return null;
+		} else if (model.equals("last")) {
+			return new LastPriceFill();
+		} else if (model.equals("quote")) {
+			return new QuoteCrossingFill(Double.isNaN(number) ? .01 : number);
+		} else if (model.equals("impact")) {
+			return new SquareRootImpactFill(Double.isNaN(number) ? 1 : number);
+		} else if (model.equals("capped")) {
+			return new ParticipationCapFill(Double.isNaN(number) ? .10 : number, new SquareRootImpactFill(1));
+		}
+
+		throw new IllegalArgumentException("Unknown fill model " + name + ", expected one of " + NAMES);
+	}
+}
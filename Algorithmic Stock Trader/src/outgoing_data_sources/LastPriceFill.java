@@ -0,0 +1,21 @@
+package outgoing_data_sources;
+
+/**
+ * Fills every order in full at the last trade price
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class LastPriceFill implements FillModel {
+
+	@Override
+	public int fillableShares(int side, int shares, MarketSnapshot market) {
+		return shares;
+	}
+
+	@Override
+	public double fillPrice(int side, int shares, MarketSnapshot market) {
+		return market.last;
+	}
+}
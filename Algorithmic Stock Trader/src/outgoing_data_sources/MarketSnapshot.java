@@ -0,0 +1,61 @@
+package outgoing_data_sources;
+
+/**
+ * The market a FillModel fills an order against.
+ *
+ * Fields that are not known are 0: a bar has no quote, and Yahoo! Finance does not
+ * always have sizes. A snapshot is meant to be reused for every order, so filling
+ * does not allocate.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class MarketSnapshot {
+
+	public double last;
+	public double bid;
+	public int bidSize;
+	public double ask;
+	public int askSize;
+	public double high;
+	public double low;
+	public double volume;
+
+	/**
+	 * Sets every field
+	 *
+	 * @return this snapshot
+	 */
+	public MarketSnapshot set(double last, double bid, int bidSize, double ask, int askSize, double high, double low,
+			double volume) {
+		this.last = last;
+		this.bid = bid;
+		this.bidSize = bidSize;
+		this.ask = ask;
+		this.askSize = askSize;
+		this.high = high;
+		this.low = low;
+		this.volume = volume;
+
+		return this;
+	}
+
+	/**
+	 * Determines if both sides of the quote are known
+	 *
+	 * @return
+	 */
+	public boolean hasQuote() {
+		return bid > 0 && ask > 0 && ask >= bid;
+	}
+
+	/**
+	 * Gets the middle of the quote, or the last price without a quote
+	 *
+	 * @return
+	 */
+	public double getMid() {
+		return hasQuote() ? (bid + ask) / 2 : last;
+	}
+}
@@ -0,0 +1,701 @@
+package outgoing_data_sources;
+
+import market_time.MarketClock;
+
+/**
+ * Local simulated exchange with a limit order book per stock.
+ *
+ * Each book keeps its price levels in sorted primitive arrays with the best price at
+ * the end, and the orders at a level in a FIFO queue linked through the order arrays.
+ * Market, limit, stop and stop limit orders are supported. Orders fill partially
+ * against the levels they cross; the rest of a limit order rests in the book and
+ * the rest of a market order is cancelled. Stops wait in their own sorted arrays and
+ * trigger when the last trade reaches them.
+ *
+ * Orders can be delayed by a latency on the engine's clock before they reach the book,
+ * and taking fills can be moved against the taker by a number of ticks of slippage.
+ * Liquidity from outside the simulation is provided with setQuote.
+ *
+ * Order ids are slots in the order arrays and are reused once an order is filled or
+ * cancelled. The engine is single threaded and does not allocate once its arrays have grown.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class MatchingEngine {
+
+	// Order sides
+	public static final int BUY = 0;
+	public static final int SELL = 1;
+
+	// Order types
+	public static final int MARKET = 0;
+	public static final int LIMIT = 1;
+	public static final int STOP = 2;
+	public static final int STOP_LIMIT = 3;
+
+	// Order states
+	private static final byte FREE = 0;
+	private static final byte PENDING = 1;
+	private static final byte WAITING = 2;
+	private static final byte RESTING = 3;
+	private static final byte CANCELLED = 4;
+
+	private static final int INITIAL_ORDERS = 1024;
+	private static final int INITIAL_LEVELS = 16;
+
+	/**
+	 * Receives the results of orders
+	 */
+	public interface OrderListener {
+
+		/**
+		 * Called for each side of every fill
+		 *
+		 * @param orderId   the order that filled
+		 * @param symbol    the stock id
+		 * @param side      BUY or SELL
+		 * @param price     price of the fill
+		 * @param quantity  shares filled
+		 * @param remaining shares of the order left open
+		 */
+		public void onFill(int orderId, int symbol, int side, double price, int quantity, int remaining);
+
+		/**
+		 * Called when an order is cancelled, including the unfilled rest of a market order
+		 *
+		 * @param orderId   the order
+		 * @param symbol    the stock id
+		 * @param remaining shares that were not filled
+		 */
+		public void onCancel(int orderId, int symbol, int remaining);
+
+	}
+
+	private final double tickSize;
+	private final MarketClock clock;
+	private OrderListener listener;
+	private long latencyMillis;
+	private long slippageTicks;
+
+	// Orders, indexed by order id
+	private byte[] state = new byte[INITIAL_ORDERS];
+	private int[] side = new int[INITIAL_ORDERS];
+	private int[] type = new int[INITIAL_ORDERS];
+	private int[] symbol = new int[INITIAL_ORDERS];
+	private int[] remaining = new int[INITIAL_ORDERS];
+	private long[] limit = new long[INITIAL_ORDERS];
+	private long[] stop = new long[INITIAL_ORDERS];
+	private long[] activeAt = new long[INITIAL_ORDERS];
+	private int[] next = new int[INITIAL_ORDERS];
+	private int[] previous = new int[INITIAL_ORDERS];
+	private int freeHead = -1;
+	private int used = 0;
+
+	// Orders waiting out the latency, in submission order
+	private int[] pending = new int[INITIAL_ORDERS];
+	private int pendingHead = 0;
+	private int pendingCount = 0;
+
+	private OrderBook[] books = new OrderBook[16];
+
+	/**
+	 * Order book of a single stock.
+	 * Prices are stored as keys that sort the best price last on both sides:
+	 * the bid price, the negated ask price, the negated buy stop and the sell stop.
+	 */
+	private static final class OrderBook {
+		final long[][] levelKey = new long[2][INITIAL_LEVELS];
+		final int[][] levelHead = new int[2][INITIAL_LEVELS];
+		final int[][] levelTail = new int[2][INITIAL_LEVELS];
+		final int[] levelCount = new int[2];
+
+		final long[][] stopKey = new long[2][INITIAL_LEVELS];
+		final int[][] stopOrder = new int[2][INITIAL_LEVELS];
+		final int[] stopCount = new int[2];
+
+		final int[] quoteOrder = { -1, -1 };
+		long lastTrade;
+		boolean traded;
+	}
+
+	public MatchingEngine(double tickSize, MarketClock clock) {
+		this.tickSize = tickSize;
+		this.clock = clock;
+	}
+
+	public void setListener(OrderListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets how long an order takes to reach the book
+	 *
+	 * @param latencyMillis milliseconds on the engine's clock
+	 */
+	public void setLatency(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * Sets how many ticks each taking fill is moved against the taker
+	 *
+	 * @param slippageTicks
+	 */
+	public void setSlippage(long slippageTicks) {
+		this.slippageTicks = slippageTicks;
+	}
+
+	/**
+	 * Submits an order
+	 *
+	 * @param symbolId   the stock id
+	 * @param orderSide  BUY or SELL
+	 * @param orderType  MARKET, LIMIT, STOP or STOP_LIMIT
+	 * @param quantity   number of shares
+	 * @param limitPrice limit price for LIMIT and STOP_LIMIT orders
+	 * @param stopPrice  trigger price for STOP and STOP_LIMIT orders
+	 * @return the order id
+	 */
+	public int submit(int symbolId, int orderSide, int orderType, int quantity, double limitPrice, double stopPrice) {
+		processPending();
+
+		int order = allocate();
+		side[order] = orderSide;
+		type[order] = orderType;
+		symbol[order] = symbolId;
+		remaining[order] = quantity;
+		limit[order] = toTicks(limitPrice);
+		stop[order] = toTicks(stopPrice);
+		book(symbolId);
+
+		if (latencyMillis > 0) {
+			state[order] = PENDING;
+			activeAt[order] = clock.currentTimeMillis() + latencyMillis;
+			enqueuePending(order);
+		} else {
+			activate(order);
+		}
+
+		return order;
+	}
+
+	/**
+	 * Cancels an order that has not been filled
+	 *
+	 * @param order the order id
+	 * @return if the order was open
+	 */
+	public boolean cancel(int order) {
+		OrderBook book;
+
+		switch (state[order]) {
+		case PENDING:
+			// Released when it leaves the pending queue
+			state[order] = CANCELLED;
+			break;
+		case WAITING:
+			book = books[symbol[order]];
+			removeStop(book, side[order], order);
+			release(order);
+			break;
+		case RESTING:
+			book = books[symbol[order]];
+			unlink(book, side[order], order);
+			release(order);
+
+			if (book.quoteOrder[side[order]] == order) {
+				book.quoteOrder[side[order]] = -1;
+			}
+			break;
+		default:
+			return false;
+		}
+
+		if (listener != null) {
+			listener.onCancel(order, symbol[order], remaining[order]);
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces the liquidity quoted from outside the simulation with a new bid and ask
+	 *
+	 * @param symbolId the stock id
+	 * @param bid      bid price
+	 * @param bidSize  shares wanted at the bid, 0 for none
+	 * @param ask      ask price
+	 * @param askSize  shares offered at the ask, 0 for none
+	 */
+	public void setQuote(int symbolId, double bid, int bidSize, double ask, int askSize) {
+		processPending();
+		OrderBook book = book(symbolId);
+
+		for (int quoteSide = BUY; quoteSide <= SELL; quoteSide++) {
+			int order = book.quoteOrder[quoteSide];
+			if (order != -1) {
+				unlink(book, quoteSide, order);
+				release(order);
+				book.quoteOrder[quoteSide] = -1;
+			}
+		}
+
+		if (bidSize > 0) {
+			book.quoteOrder[BUY] = rest(symbolId, BUY, bidSize, toTicks(bid));
+		}
+		if (askSize > 0) {
+			book.quoteOrder[SELL] = rest(symbolId, SELL, askSize, toTicks(ask));
+		}
+	}
+
+	/**
+	 * Records a trade that happened outside the simulation, triggering any stops it reaches
+	 *
+	 * @param symbolId the stock id
+	 * @param price    the trade price
+	 */
+	public void onTrade(int symbolId, double price) {
+		processPending();
+		OrderBook book = book(symbolId);
+
+		book.lastTrade = toTicks(price);
+		book.traded = true;
+		triggerStops(book);
+	}
+
+	/**
+	 * Moves every order whose latency has passed into its book
+	 */
+	public void processPending() {
+		if (pendingCount == 0) {
+			return;
+		}
+
+		long now = clock.currentTimeMillis();
+		while (pendingCount > 0) {
+			int order = pending[pendingHead];
+			if (state[order] == PENDING && activeAt[order] > now) {
+				break;
+			}
+
+			pendingHead = (pendingHead + 1) % pending.length;
+			pendingCount--;
+
+			if (state[order] == CANCELLED) {
+				release(order);
+			} else {
+				activate(order);
+			}
+		}
+	}
+
+	/**
+	 * Sends an order that reached the exchange to its book
+	 */
+	private void activate(int order) {
+		OrderBook book = books[symbol[order]];
+
+		if (type[order] == STOP || type[order] == STOP_LIMIT) {
+			// Stops already reached trigger right away
+			if (book.traded && stopReached(side[order], stop[order], book.lastTrade)) {
+				execute(order);
+			} else {
+				state[order] = WAITING;
+				addStop(book, side[order], order);
+				return;
+			}
+		} else {
+			execute(order);
+		}
+
+		triggerStops(book);
+	}
+
+	/**
+	 * Matches an order against the opposite side, then rests or cancels what is left
+	 */
+	private void execute(int order) {
+		int orderSide = side[order];
+		int opposite = 1 - orderSide;
+		int symbolId = symbol[order];
+		OrderBook book = books[symbolId];
+		boolean market = type[order] == MARKET || type[order] == STOP;
+		long limitKey = key(orderSide, limit[order]);
+
+		long[] keys = book.levelKey[opposite];
+		int[] heads = book.levelHead[opposite];
+
+		while (remaining[order] > 0 && book.levelCount[opposite] > 0) {
+			int level = book.levelCount[opposite] - 1;
+			long levelPrice = price(opposite, keys[level]);
+
+			// The taker's key for the level is the negated opposite key
+			if (!market && -keys[level] > limitKey) {
+				break;
+			}
+
+			int maker = heads[level];
+			int quantity = Math.min(remaining[order], remaining[maker]);
+			remaining[order] -= quantity;
+			remaining[maker] -= quantity;
+
+			book.lastTrade = levelPrice;
+			book.traded = true;
+
+			if (listener != null) {
+				long takerPrice = orderSide == BUY ? levelPrice + slippageTicks : levelPrice - slippageTicks;
+				listener.onFill(maker, symbolId, opposite, toPrice(levelPrice), quantity, remaining[maker]);
+				listener.onFill(order, symbolId, orderSide, toPrice(takerPrice), quantity, remaining[order]);
+			}
+
+			if (remaining[maker] == 0) {
+				unlink(book, opposite, maker);
+				release(maker);
+
+				if (book.quoteOrder[opposite] == maker) {
+					book.quoteOrder[opposite] = -1;
+				}
+			}
+		}
+
+		if (remaining[order] == 0) {
+			release(order);
+		} else if (market) {
+			// Market orders do not rest
+			if (listener != null) {
+				listener.onCancel(order, symbolId, remaining[order]);
+			}
+			release(order);
+		} else {
+			state[order] = RESTING;
+			link(book, orderSide, order, limit[order]);
+		}
+	}
+
+	/**
+	 * Executes every stop the last trade has reached, including stops reached by those executions
+	 */
+	private void triggerStops(OrderBook book) {
+		if (!book.traded) {
+			return;
+		}
+
+		boolean triggered = true;
+		while (triggered) {
+			triggered = false;
+
+			for (int stopSide = BUY; stopSide <= SELL; stopSide++) {
+				int count = book.stopCount[stopSide];
+				if (count > 0) {
+					int order = book.stopOrder[stopSide][count - 1];
+
+					if (stopReached(stopSide, stop[order], book.lastTrade)) {
+						book.stopCount[stopSide]--;
+						execute(order);
+						triggered = true;
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean stopReached(int stopSide, long stopTicks, long lastTrade) {
+		return stopSide == BUY ? lastTrade >= stopTicks : lastTrade <= stopTicks;
+	}
+
+	/**
+	 * Adds a synthetic resting order for a quote
+	 */
+	private int rest(int symbolId, int orderSide, int quantity, long priceTicks) {
+		int order = allocate();
+		side[order] = orderSide;
+		type[order] = LIMIT;
+		symbol[order] = symbolId;
+		remaining[order] = quantity;
+		limit[order] = priceTicks;
+		state[order] = RESTING;
+
+		link(books[symbolId], orderSide, order, priceTicks);
+		return order;
+	}
+
+	/**
+	 * Adds an order to the back of the queue at its price, creating the level if needed
+	 */
+	private void link(OrderBook book, int orderSide, int order, long priceTicks) {
+		long levelKey = key(orderSide, priceTicks);
+		int count = book.levelCount[orderSide];
+		int level = search(book.levelKey[orderSide], count, levelKey);
+
+		if (level < 0) {
+			level = -level - 1;
+
+			if (count == book.levelKey[orderSide].length) {
+				book.levelKey[orderSide] = grow(book.levelKey[orderSide]);
+				book.levelHead[orderSide] = grow(book.levelHead[orderSide]);
+				book.levelTail[orderSide] = grow(book.levelTail[orderSide]);
+			}
+
+			// Levels better than the new one move up, which is cheap since new levels are usually near the top
+			System.arraycopy(book.levelKey[orderSide], level, book.levelKey[orderSide], level + 1, count - level);
+			System.arraycopy(book.levelHead[orderSide], level, book.levelHead[orderSide], level + 1, count - level);
+			System.arraycopy(book.levelTail[orderSide], level, book.levelTail[orderSide], level + 1, count - level);
+
+			book.levelKey[orderSide][level] = levelKey;
+			book.levelHead[orderSide][level] = -1;
+			book.levelTail[orderSide][level] = -1;
+			book.levelCount[orderSide]++;
+		}
+
+		int tail = book.levelTail[orderSide][level];
+		previous[order] = tail;
+		next[order] = -1;
+
+		if (tail == -1) {
+			book.levelHead[orderSide][level] = order;
+		} else {
+			next[tail] = order;
+		}
+		book.levelTail[orderSide][level] = order;
+	}
+
+	/**
+	 * Removes a resting order from its level, removing the level if it empties
+	 */
+	private void unlink(OrderBook book, int orderSide, int order) {
+		int count = book.levelCount[orderSide];
+		int level = search(book.levelKey[orderSide], count, key(orderSide, limit[order]));
+
+		if (previous[order] == -1) {
+			book.levelHead[orderSide][level] = next[order];
+		} else {
+			next[previous[order]] = next[order];
+		}
+
+		if (next[order] == -1) {
+			book.levelTail[orderSide][level] = previous[order];
+		} else {
+			previous[next[order]] = previous[order];
+		}
+
+		if (book.levelHead[orderSide][level] == -1) {
+			System.arraycopy(book.levelKey[orderSide], level + 1, book.levelKey[orderSide], level, count - level - 1);
+			System.arraycopy(book.levelHead[orderSide], level + 1, book.levelHead[orderSide], level, count - level - 1);
+			System.arraycopy(book.levelTail[orderSide], level + 1, book.levelTail[orderSide], level, count - level - 1);
+			book.levelCount[orderSide]--;
+		}
+	}
+
+	/**
+	 * Adds a stop order in trigger order, behind stops with the same price
+	 */
+	private void addStop(OrderBook book, int stopSide, int order) {
+		long stopKey = stopSide == BUY ? -stop[order] : stop[order];
+		int count = book.stopCount[stopSide];
+
+		if (count == book.stopKey[stopSide].length) {
+			book.stopKey[stopSide] = grow(book.stopKey[stopSide]);
+			book.stopOrder[stopSide] = grow(book.stopOrder[stopSide]);
+		}
+
+		// Earlier stops at the same price stay closer to the end so they trigger first
+		int position = search(book.stopKey[stopSide], count, stopKey);
+		position = position < 0 ? -position - 1 : position;
+		while (position > 0 && book.stopKey[stopSide][position - 1] == stopKey) {
+			position--;
+		}
+
+		System.arraycopy(book.stopKey[stopSide], position, book.stopKey[stopSide], position + 1, count - position);
+		System.arraycopy(book.stopOrder[stopSide], position, book.stopOrder[stopSide], position + 1, count - position);
+		book.stopKey[stopSide][position] = stopKey;
+		book.stopOrder[stopSide][position] = order;
+		book.stopCount[stopSide]++;
+	}
+
+	private void removeStop(OrderBook book, int stopSide, int order) {
+		int count = book.stopCount[stopSide];
+
+		for (int i = count - 1; i >= 0; i--) {
+			if (book.stopOrder[stopSide][i] == order) {
+				System.arraycopy(book.stopKey[stopSide], i + 1, book.stopKey[stopSide], i, count - i - 1);
+				System.arraycopy(book.stopOrder[stopSide], i + 1, book.stopOrder[stopSide], i, count - i - 1);
+				book.stopCount[stopSide]--;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Binary search of the first count keys
+	 *
+	 * @return the index of the key, or -(insertion point) - 1 if it is not there
+	 */
+	private static int search(long[] keys, int count, long key) {
+		int low = 0;
+		int high = count - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+
+			if (keys[middle] < key) {
+				low = middle + 1;
+			} else if (keys[middle] > key) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+
+		return -(low + 1);
+	}
+
+	private static long key(int orderSide, long priceTicks) {
+		return orderSide == BUY ? priceTicks : -priceTicks;
+	}
+
+	private static long price(int orderSide, long levelKey) {
+		return orderSide == BUY ? levelKey : -levelKey;
+	}
+
+	private OrderBook book(int symbolId) {
+		if (symbolId >= books.length) {
+			OrderBook[] grown = new OrderBook[Math.max(books.length * 2, symbolId + 1)];
+			System.arraycopy(books, 0, grown, 0, books.length);
+			books = grown;
+		}
+
+		if (books[symbolId] == null) {
+			books[symbolId] = new OrderBook();
+		}
+		return books[symbolId];
+	}
+
+	private int allocate() {
+		int order;
+
+		if (freeHead != -1) {
+			order = freeHead;
+			freeHead = next[order];
+		} else {
+			if (used == state.length) {
+				growOrders();
+			}
+			order = used++;
+		}
+
+		next[order] = -1;
+		previous[order] = -1;
+		return order;
+	}
+
+	private void release(int order) {
+		state[order] = FREE;
+		next[order] = freeHead;
+		freeHead = order;
+	}
+
+	private void enqueuePending(int order) {
+		if (pendingCount == pending.length) {
+			int[] grown = new int[pending.length * 2];
+			for (int i = 0; i < pendingCount; i++) {
+				grown[i] = pending[(pendingHead + i) % pending.length];
+			}
+			pending = grown;
+			pendingHead = 0;
+		}
+
+		pending[(pendingHead + pendingCount) % pending.length] = order;
+		pendingCount++;
+	}
+
+	private void growOrders() {
+		int size = state.length * 2;
+		byte[] grownState = new byte[size];
+		System.arraycopy(state, 0, grownState, 0, state.length);
+		state = grownState;
+
+		side = grow(side, size);
+		type = grow(type, size);
+		symbol = grow(symbol, size);
+		remaining = grow(remaining, size);
+		next = grow(next, size);
+		previous = grow(previous, size);
+		limit = grow(limit, size);
+		stop = grow(stop, size);
+		activeAt = grow(activeAt, size);
+	}
+
+	private static int[] grow(int[] array) {
+		return grow(array, array.length * 2);
+	}
+
+	private static long[] grow(long[] array) {
+		return grow(array, array.length * 2);
+	}
+
+	private static int[] grow(int[] array, int size) {
+		int[] grown = new int[size];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static long[] grow(long[] array, int size) {
+		long[] grown = new long[size];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private long toTicks(double price) {
+		return Math.round(price / tickSize);
+	}
+
+	private double toPrice(long ticks) {
+		return ticks * tickSize;
+	}
+
+	/**
+	 * Gets the highest bid in a book
+	 *
+	 * @param symbolId the stock id
+	 * @return the price, or NaN if there are no bids
+	 */
+	public double getBestBid(int symbolId) {
+		OrderBook book = book(symbolId);
+		int count = book.levelCount[BUY];
+		return count == 0 ? Double.NaN : toPrice(price(BUY, book.levelKey[BUY][count - 1]));
+	}
+
+	/**
+	 * Gets the lowest ask in a book
+	 *
+	 * @param symbolId the stock id
+	 * @return the price, or NaN if there are no asks
+	 */
+	public double getBestAsk(int symbolId) {
+		OrderBook book = book(symbolId);
+		int count = book.levelCount[SELL];
+		return count == 0 ? Double.NaN : toPrice(price(SELL, book.levelKey[SELL][count - 1]));
+	}
+
+	/**
+	 * Gets the price of the last trade in a book
+	 *
+	 * @param symbolId the stock id
+	 * @return the price, or NaN if nothing has traded
+	 */
+	public double getLastTrade(int symbolId) {
+		OrderBook book = book(symbolId);
+		return book.traded ? toPrice(book.lastTrade) : Double.NaN;
+	}
+
+	/**
+	 * Gets the number of shares left on an open order
+	 *
+	 * @param order the order id
+	 * @return the shares, 0 if the order is not open
+	 */
+	public int getRemaining(int order) {
+		return state[order] == FREE || state[order] == CANCELLED ? 0 : remaining[order];
+	}
+}
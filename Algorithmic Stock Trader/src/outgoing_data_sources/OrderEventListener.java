@@ -0,0 +1,38 @@
+package outgoing_data_sources;
+
+import trade_types.Trade;
+
+/**
+ * Receives the results of Trades sent through an OrderGateway
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public interface OrderEventListener {
+
+	/**
+	 * Called when the broker accepts a Trade
+	 *
+	 * @param trade the Trade
+	 */
+	public void onAcknowledge(Trade trade);
+
+	/**
+	 * Called when a Trade is filled. The Trade's price is set to the fill price.
+	 *
+	 * @param trade  the Trade
+	 * @param price  average price of the fill
+	 * @param shares shares filled
+	 */
+	public void onFill(Trade trade, double price, int shares);
+
+	/**
+	 * Called when the broker could not fill a Trade
+	 *
+	 * @param trade  the Trade
+	 * @param reason why it was rejected
+	 */
+	public void onReject(Trade trade, String reason);
+
+}
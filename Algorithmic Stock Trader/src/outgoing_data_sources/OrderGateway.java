@@ -0,0 +1,44 @@
+package outgoing_data_sources;
+
+import trade_types.Trade;
+
+/**
+ * Path that outgoing Trades take to a broker.
+ *
+ * Trades are queued by submit and sent in a batch by flush. A gateway may also flush
+ * on its own, such as when enough Trades are queued or on a timer. The results come
+ * back as events, which may arrive on another thread.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public interface OrderGateway {
+
+	/**
+	 * Queues a Trade to be sent with the next batch
+	 *
+	 * @param trade the Trade to send
+	 */
+	public void submit(Trade trade);
+
+	/**
+	 * Sends every queued Trade as one batch
+	 */
+	public void flush();
+
+	/**
+	 * Sets where acknowledgements and fills are delivered
+	 *
+	 * @param listener
+	 */
+	public void setListener(OrderEventListener listener);
+
+	/**
+	 * Sends the queued Trades and waits for every batch to finish
+	 *
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void shutdown() throws InterruptedException;
+
+}
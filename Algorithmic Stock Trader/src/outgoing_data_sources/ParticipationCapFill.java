@@ -0,0 +1,39 @@
+package outgoing_data_sources;
+
+/**
+ * Limits an order to a share of the day's volume and prices it with another model.
+ * The shares over the limit do not fill. Without a known volume the order is not limited.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class ParticipationCapFill implements FillModel {
+
+	private final double maxParticipation;
+	private final FillModel pricing;
+
+	/**
+	 * @param maxParticipation largest fraction of the volume one order may take
+	 * @param pricing          model that prices the shares that fill
+	 */
+	public ParticipationCapFill(double maxParticipation, FillModel pricing) {
+		this.maxParticipation = maxParticipation;
+		this.pricing = pricing;
+	}
+
+	@Override
+	public int fillableShares(int side, int shares, MarketSnapshot market) {
+		int fillable = pricing.fillableShares(side, shares, market);
+
+		if (market.volume > 0) {
+			fillable = (int) Math.min(fillable, market.volume * maxParticipation);
+		}
+		return fillable;
+	}
+
+	@Override
+	public double fillPrice(int side, int shares, MarketSnapshot market) {
+		return pricing.fillPrice(side, shares, market);
+	}
+}
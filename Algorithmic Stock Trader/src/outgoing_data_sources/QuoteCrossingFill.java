@@ -0,0 +1,49 @@
+package outgoing_data_sources;
+
+/**
+ * Fills buys at the ask and sells at the bid.
+ *
+ * The quoted size fills at the quote. Beyond it the book is taken to repeat the quoted
+ * size at every further spread away, so a large order pays a spread more for each
+ * quoted size it takes. Without a quote the order fills at the last trade price.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class QuoteCrossingFill implements FillModel {
+
+	private final double tickSize;
+
+	/**
+	 * @param tickSize smallest spread assumed between price levels
+	 */
+	public QuoteCrossingFill(double tickSize) {
+		this.tickSize = tickSize;
+	}
+
+	@Override
+	public int fillableShares(int side, int shares, MarketSnapshot market) {
+		return shares;
+	}
+
+	@Override
+	public double fillPrice(int side, int shares, MarketSnapshot market) {
+		if (!market.hasQuote() || shares <= 0) {
+			return market.last;
+		}
+
+		double spread = Math.max(market.ask - market.bid, tickSize);
+		double quote = side == MatchingEngine.BUY ? market.ask : market.bid;
+		int size = side == MatchingEngine.BUY ? market.askSize : market.bidSize;
+
+		// Average distance past the quote of shares spread evenly over the deeper levels
+		double beyond = 0;
+		if (size > 0 && shares > size) {
+			double excess = shares - size;
+			beyond = spread * excess * excess / (2.0 * size * shares);
+		}
+
+		return side == MatchingEngine.BUY ? quote + beyond : quote - beyond;
+	}
+}
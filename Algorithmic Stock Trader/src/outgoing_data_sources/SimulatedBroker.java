@@ -0,0 +1,258 @@
+package outgoing_data_sources;
+
+import incoming_data_sources.YahooFetcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import market_time.MarketClock;
+import trade_types.Trade;
+import utilities.GeneralToolKit;
+
+/**
+ * Asynchronous stand-in for a real broker.
+ *
+ * Submitting only queues a Trade. Batches are sent when the caller flushes, when the
+ * batch size is reached or every flush interval, and are filled in order on the broker's
+ * own thread by a DummyService. Events are delivered on the broker's thread.
+ *
+ * A batch is filled with the fetcher and clock routes of the thread that last submitted,
+ * so a replay sees its own history even though the fills happen elsewhere.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class SimulatedBroker implements OrderGateway {
+
+	private final DummyService service;
+	private final ConcurrentLinkedQueue<Trade> queued = new ConcurrentLinkedQueue<Trade>();
+	private final AtomicInteger queuedCount = new AtomicInteger();
+	private final int batchSize;
+	private final ExecutorService broker;
+	private final ScheduledExecutorService timer;
+	private volatile OrderEventListener listener;
+
+	// Routes of the thread that last submitted
+	private volatile YahooFetcher fetcherRoute;
+	private volatile MarketClock clockRoute;
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong filled = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+
+	/**
+	 * Creates a broker that only sends batches when they fill up or are flushed
+	 *
+	 * @param batchSize number of queued Trades that sends a batch
+	 */
+	public SimulatedBroker(int batchSize) {
+		this(batchSize, 0);
+	}
+
+	/**
+	 * @param batchSize  number of queued Trades that sends a batch
+	 * @param flushMillis how often queued Trades are sent, 0 to never send them on a timer
+	 */
+	public SimulatedBroker(int batchSize, long flushMillis) {
+		this(batchSize, flushMillis, null);
+	}
+
+	/**
+	 * @param batchSize   number of queued Trades that sends a batch
+	 * @param flushMillis how often queued Trades are sent, 0 to never send them on a timer
+	 * @param fillModel   the model that fills the Trades, or null for the matching engine
+	 */
+	public SimulatedBroker(int batchSize, long flushMillis, FillModel fillModel) {
+		this.batchSize = batchSize;
+		service = new DummyService(fillModel);
+		service.setListener(new Forwarder());
+		broker = Executors.newSingleThreadExecutor(daemonThreads("Simulated Broker"));
+
+		if (flushMillis > 0) {
+			timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("Simulated Broker Flush"));
+			timer.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+		} else {
+			timer = null;
+		}
+	}
+
+	@Override
+	public void submit(Trade trade) {
+		fetcherRoute = GeneralToolKit.fetcher.getRoute();
+		clockRoute = GeneralToolKit.getClockRoute();
+		queued.add(trade);
+		submitted.incrementAndGet();
+
+		if (queuedCount.incrementAndGet() >= batchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Sends the queued Trades as one batch. Flushes from the submitter and the timer take
+	 * turns, so batches reach the broker's thread in the order their Trades were submitted.
+	 */
+	@Override
+	public synchronized void flush() {
+		List<Trade> batch = new ArrayList<Trade>();
+
+		for (Trade curTrade; (curTrade = queued.poll()) != null;) {
+			queuedCount.decrementAndGet();
+			batch.add(curTrade);
+		}
+
+		if (!batch.isEmpty()) {
+			batches.incrementAndGet();
+			broker.execute(new Batch(batch, fetcherRoute, clockRoute));
+		}
+	}
+
+	@Override
+	public void setListener(OrderEventListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void shutdown() throws InterruptedException {
+		if (timer != null) {
+			timer.shutdown();
+			timer.awaitTermination(1, TimeUnit.MINUTES);
+		}
+
+		flush();
+		broker.shutdown();
+		broker.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Fills a batch on the broker's thread
+	 */
+	private class Batch implements Runnable {
+
+		private final List<Trade> trades;
+		private final YahooFetcher fetcherRoute;
+		private final MarketClock clockRoute;
+
+		Batch(List<Trade> trades, YahooFetcher fetcherRoute, MarketClock clockRoute) {
+			this.trades = trades;
+			this.fetcherRoute = fetcherRoute;
+			this.clockRoute = clockRoute;
+		}
+
+		@Override
+		public void run() {
+			if (fetcherRoute != null) {
+				GeneralToolKit.fetcher.route(fetcherRoute);
+			}
+			if (clockRoute != null) {
+				GeneralToolKit.routeClock(clockRoute);
+			}
+
+			try {
+				for (Trade curTrade : trades) {
+					service.submit(curTrade);
+				}
+				service.flush();
+			} finally {
+				GeneralToolKit.fetcher.clearRoute();
+				GeneralToolKit.clearClockRoute();
+			}
+		}
+	}
+
+	/**
+	 * Counts the service's events and passes them on to the listener
+	 */
+	private class Forwarder implements OrderEventListener {
+
+		@Override
+		public void onAcknowledge(Trade trade) {
+			OrderEventListener curListener = listener;
+			if (curListener != null) {
+				curListener.onAcknowledge(trade);
+			}
+		}
+
+		@Override
+		public void onFill(Trade trade, double price, int shares) {
+			filled.incrementAndGet();
+
+			OrderEventListener curListener = listener;
+			if (curListener != null) {
+				curListener.onFill(trade, price, shares);
+			}
+		}
+
+		@Override
+		public void onReject(Trade trade, String reason) {
+			rejected.incrementAndGet();
+
+			OrderEventListener curListener = listener;
+			if (curListener != null) {
+				curListener.onReject(trade, reason);
+			}
+		}
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Gets the number of Trades submitted
+	 *
+	 * @return
+	 */
+	public long getSubmittedCount() {
+		return submitted.get();
+	}
+
+	/**
+	 * Gets the number of Trades filled
+	 *
+	 * @return
+	 */
+	public long getFilledCount() {
+		return filled.get();
+	}
+
+	/**
+	 * Gets the number of Trades rejected
+	 *
+	 * @return
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * Gets the number of batches sent
+	 *
+	 * @return
+	 */
+	public long getBatchCount() {
+		return batches.get();
+	}
+}
@@ -0,0 +1,43 @@
+package outgoing_data_sources;
+
+/**
+ * Fills at the middle of the quote plus half the spread and a square root market impact.
+ *
+ * The impact of an order is coefficient * volatility * sqrt(shares / volume) of the
+ * price, with the day's range over the last price standing in for the volatility.
+ * Without a quote the last price is the middle and there is no spread, and without
+ * a volume there is no impact.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class SquareRootImpactFill implements FillModel {
+
+	private final double coefficient;
+
+	/**
+	 * @param coefficient impact per unit of volatility at the whole day's volume, usually near 1
+	 */
+	public SquareRootImpactFill(double coefficient) {
+		this.coefficient = coefficient;
+	}
+
+	@Override
+	public int fillableShares(int side, int shares, MarketSnapshot market) {
+		return shares;
+	}
+
+	@Override
+	public double fillPrice(int side, int shares, MarketSnapshot market) {
+		double mid = market.getMid();
+		double cost = market.hasQuote() ? (market.ask - market.bid) / 2 : 0;
+
+		if (market.volume > 0 && market.last > 0 && market.high > market.low) {
+			double volatility = (market.high - market.low) / market.last;
+			cost += mid * coefficient * volatility * Math.sqrt(shares / market.volume);
+		}
+
+		return side == MatchingEngine.BUY ? mid + cost : mid - cost;
+	}
+}
@@ -0,0 +1,451 @@
+package persistence;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import stocks.Portfolio;
+import stocks.PortfolioJournal;
+import stocks.Stock;
+import trade_types.Side;
+
+/**
+ * Write-ahead journal of a Portfolio with periodic snapshots.
+ *
+ * Every fill and balance change is appended to the journal file as it happens. Records
+ * are buffered and forced to disk in batches: when the buffer is full, when a record is
+ * written SYNC_MILLIS after the last force, and from a background thread so a quiet
+ * account loses at most SYNC_MILLIS of records in a crash. After snapshotInterval records
+ * the Portfolio is written to the snapshot file, which is replaced in one rename, and the
+ * journal is emptied.
+ *
+ * Recovery loads the snapshot and replays the records after it. Each record has a
+ * sequence number and the snapshot has the last one it includes, so records already in
+ * the snapshot are skipped if a crash came before the journal was emptied. A record cut
+ * short by a crash fails its checksum and the journal is truncated there.
+ *
+ * Record layout:
+ *  int length of the rest, long sequence, byte type, payload, int CRC32 of sequence to payload
+ *  FILL payload: long time, UTF symbol, byte side, int shares, double price
+ *  BALANCES payload: double available funds, double net worth, double borrow cost, long borrow accrued at
+ *
+ * Snapshot layout:
+ *  int magic, int version, long sequence, Portfolio in the PortfolioCodec format
+ *
+ * Version 1 snapshots held a Java serialized Portfolio and are still read.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class FileJournal implements PortfolioJournal {
+
+	private static final int MAGIC = 0x41535450; // "ASTP"
+	private static final int VERSION = 2;
+	private static final int SERIALIZED_VERSION = 1;
+
+	private static final byte FILL = 1;
+	private static final byte BALANCES = 2;
+
+	public static final long SYNC_MILLIS = 50;
+	public static final int DEFAULT_SNAPSHOT_INTERVAL = 100000;
+
+	private final File journalFile;
+	private final File snapshotFile;
+	private final int snapshotInterval;
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+	private final CRC32 crc = new CRC32();
+	private RandomAccessFile journal;
+	private ScheduledExecutorService syncer;
+	private Portfolio portfolio;
+
+	private long sequence = 0;
+	private int recordStart;
+	private long recordsSinceSnapshot = 0;
+	private long lastSync = System.nanoTime();
+	private boolean unsynced = false;
+
+	/**
+	 * @param base the path the journal and snapshot files are named after, such as "portfolio"
+	 */
+	public FileJournal(File base) {
+		this(new File(base.getPath() + ".journal"), new File(base.getPath() + ".snapshot"), DEFAULT_SNAPSHOT_INTERVAL);
+	}
+
+	/**
+	 * @param journalFile      where the records are appended
+	 * @param snapshotFile     where the snapshots are written
+	 * @param snapshotInterval records written between snapshots
+	 */
+	public FileJournal(File journalFile, File snapshotFile, int snapshotInterval) {
+		this.journalFile = journalFile;
+		this.snapshotFile = snapshotFile;
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	/**
+	 * Loads the last snapshot and replays the journal after it
+	 *
+	 * @return the Portfolio, or null if there is no snapshot
+	 * @throws IOException if the snapshot can not be read
+	 */
+	public synchronized Portfolio recover() throws IOException {
+		if (!snapshotFile.exists()) {
+			return null;
+		}
+
+		long snapshotSequence;
+		Portfolio recovered;
+
+		FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(16);
+			while (header.hasRemaining()) {
+				if (channel.read(header) == -1) {
+					throw new IOException("Portfolio snapshot ends early");
+				}
+			}
+			header.flip();
+
+			if (header.getInt() != MAGIC) {
+				throw new IOException("Not a portfolio snapshot");
+			}
+
+			int version = header.getInt();
+			snapshotSequence = header.getLong();
+
+			if (version == VERSION) {
+				recovered = new PortfolioCodec().read(channel);
+			} else if (version == SERIALIZED_VERSION) {
+				recovered = readSerialized(channel);
+			} else {
+				throw new IOException("Unsupported portfolio snapshot version " + version);
+			}
+		} finally {
+			channel.close();
+		}
+
+		sequence = snapshotSequence;
+		if (journalFile.exists()) {
+			replay(recovered, snapshotSequence);
+		}
+
+		return recovered;
+	}
+
+	/**
+	 * Starts recording a Portfolio. A snapshot is taken first, so the journal starts empty.
+	 *
+	 * @param portfolio the Portfolio
+	 * @throws IOException if the snapshot or journal can not be written
+	 */
+	public void attach(Portfolio portfolio) throws IOException {
+		synchronized (this) {
+			this.portfolio = portfolio;
+
+			if (journal == null) {
+				journal = new RandomAccessFile(journalFile, "rw");
+				journal.seek(journal.length());
+			}
+		}
+		snapshot();
+
+		portfolio.setJournal(this);
+		startSyncer();
+	}
+
+	private synchronized void startSyncer() {
+		if (syncer == null) {
+			syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Portfolio Journal Sync");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			syncer.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						sync();
+					} catch (IOException e) {
+						System.out.println("Could not sync portfolio journal: " + e.getMessage());
+					}
+				}
+			}, SYNC_MILLIS, SYNC_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public synchronized void onFill(long time, Stock stock, Side side, int shares, double price) {
+		byte[] symbol = stock.symbol.getBytes(StandardCharsets.UTF_8);
+
+		ByteBuffer record = startRecord(FILL, 8 + 2 + symbol.length + 1 + 4 + 8);
+		record.putLong(time);
+		record.putShort((short) symbol.length);
+		record.put(symbol);
+		record.put((byte) side.ordinal());
+		record.putInt(shares);
+		record.putDouble(price);
+		endRecord();
+	}
+
+	/**
+	 * Records the balances. A snapshot is only taken here, since the Portfolio has
+	 * finished applying a fill by the time its balances are recorded.
+	 */
+	@Override
+	public synchronized void onBalances(double availableFunds, double netWorth, double borrowCost, long borrowAccruedAt) {
+		ByteBuffer record = startRecord(BALANCES, 8 + 8 + 8 + 8);
+		record.putDouble(availableFunds);
+		record.putDouble(netWorth);
+		record.putDouble(borrowCost);
+		record.putLong(borrowAccruedAt);
+		endRecord();
+
+		if (recordsSinceSnapshot >= snapshotInterval) {
+			try {
+				snapshot();
+			} catch (IOException e) {
+				System.out.println("Could not snapshot portfolio: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Writes the Portfolio to the snapshot file and empties the journal
+	 *
+	 * @throws IOException if the snapshot can not be written
+	 */
+	public void snapshot() throws IOException {
+		Portfolio current;
+		synchronized (this) {
+			current = portfolio;
+		}
+
+		// Takes the Portfolio's write lock before the journal's, the order its writes take them in
+		current.beginWrite();
+		try {
+			synchronized (this) {
+				writeSnapshot();
+			}
+		} finally {
+			current.endWrite();
+		}
+	}
+
+	private void writeSnapshot() throws IOException {
+		sync();
+
+		File temporary = new File(snapshotFile.getPath() + ".tmp");
+		FileOutputStream fileOut = new FileOutputStream(temporary);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(16);
+			header.putInt(MAGIC).putInt(VERSION).putLong(sequence);
+			header.flip();
+
+			FileChannel channel = fileOut.getChannel();
+			channel.write(header);
+			new PortfolioCodec().write(portfolio, channel);
+			channel.force(true);
+		} finally {
+			fileOut.close();
+		}
+
+		Files.move(temporary.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		journal.setLength(0);
+		journal.seek(0);
+		recordsSinceSnapshot = 0;
+	}
+
+	/**
+	 * Writes the buffered records and forces them to disk
+	 *
+	 * @throws IOException if the journal can not be written
+	 */
+	public synchronized void sync() throws IOException {
+		if (journal == null) {
+			return;
+		}
+
+		flush();
+		if (unsynced) {
+			journal.getChannel().force(false);
+			unsynced = false;
+		}
+		lastSync = System.nanoTime();
+	}
+
+	/**
+	 * Syncs the journal, stops recording the Portfolio and closes the journal
+	 *
+	 * @throws IOException if the journal can not be written
+	 */
+	public void close() throws IOException {
+		Portfolio current;
+		synchronized (this) {
+			current = portfolio;
+		}
+
+		// Outside the journal's lock, since the Portfolio's is taken first
+		if (current != null) {
+			current.setJournal(null);
+		}
+		closeJournal();
+	}
+
+	private synchronized void closeJournal() throws IOException {
+		if (syncer != null) {
+			syncer.shutdown();
+			syncer = null;
+		}
+		if (journal != null) {
+			sync();
+			journal.close();
+			journal = null;
+		}
+	}
+
+	/**
+	 * Gets the sequence number of the last record written
+	 *
+	 * @return
+	 */
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Reads a Portfolio from a version 1 snapshot
+	 */
+	private Portfolio readSerialized(FileChannel channel) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(Channels.newInputStream(channel));
+		try {
+			return (Portfolio) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Portfolio snapshot is from a different program", e);
+		} finally {
+			in.close();
+		}
+	}
+
+	private ByteBuffer startRecord(byte type, int payloadLength) {
+		int length = 8 + 1 + payloadLength + 4;
+
+		if (buffer.remaining() < 4 + length) {
+			try {
+				flush();
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not write portfolio journal", e);
+			}
+		}
+
+		recordStart = buffer.position();
+		buffer.putInt(length);
+		buffer.putLong(++sequence);
+		buffer.put(type);
+		return buffer;
+	}
+
+	private void endRecord() {
+		// Checksums everything after the length
+		int start = recordStart + 4;
+
+		crc.reset();
+		crc.update(buffer.array(), start, buffer.position() - start);
+		buffer.putInt((int) crc.getValue());
+
+		recordsSinceSnapshot++;
+		if (System.nanoTime() - lastSync >= TimeUnit.MILLISECONDS.toNanos(SYNC_MILLIS)) {
+			try {
+				sync();
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not sync portfolio journal", e);
+			}
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		FileChannel channel = journal.getChannel();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+		unsynced = true;
+	}
+
+	/**
+	 * Replays the records after a snapshot and truncates the journal after the last whole record
+	 */
+	private void replay(Portfolio recovered, long snapshotSequence) throws IOException {
+		ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(journalFile.toPath()));
+		CRC32 check = new CRC32();
+		int valid = 0;
+
+		while (records.remaining() >= 4) {
+			int start = records.position();
+			int length = records.getInt();
+
+			if (length < 8 + 1 + 4 || length > records.remaining()) {
+				break;
+			}
+
+			check.reset();
+			check.update(records.array(), start + 4, length - 4);
+			if ((int) check.getValue() != records.getInt(start + length)) {
+				break;
+			}
+
+			long recordSequence = records.getLong();
+			byte type = records.get();
+
+			if (recordSequence > snapshotSequence) {
+				if (type == FILL) {
+					long time = records.getLong();
+					byte[] symbol = new byte[records.getShort()];
+					records.get(symbol);
+					Side side = Side.values()[records.get()];
+					int shares = records.getInt();
+					double price = records.getDouble();
+
+					recovered.replayFill(time, Stock.get(new String(symbol, StandardCharsets.UTF_8)), side, shares, price);
+				} else if (type == BALANCES) {
+					recovered.restoreBalances(records.getDouble(), records.getDouble(), records.getDouble(), records.getLong());
+				}
+				sequence = recordSequence;
+			}
+
+			records.position(start + 4 + length);
+			valid = records.position();
+		}
+
+		// Drops a record a crash cut short so new records follow the last whole one
+		if (valid < records.capacity()) {
+			RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+			try {
+				file.setLength(valid);
+			} finally {
+				file.close();
+			}
+		}
+	}
+}
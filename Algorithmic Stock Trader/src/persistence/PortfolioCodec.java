@@ -0,0 +1,683 @@
+package persistence;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import stocks.CostMethod;
+import stocks.Portfolio;
+import stocks.Stock;
+import stocks.TradeLog;
+import stocks.WatchList;
+import trade_types.LimitTrade;
+import trade_types.MarketOnCloseTrade;
+import trade_types.MarketTrade;
+import trade_types.OrderKind;
+import trade_types.Side;
+import trade_types.StopLimitTrade;
+import trade_types.StopTrade;
+import trade_types.Trade;
+import trade_types.TrailingStopDollarTrade;
+import trade_types.TrailingStopPercentTrade;
+
+/**
+ * Binary format of a Portfolio, read and written through NIO channels.
+ *
+ * The file is a header followed by sections, each a tag, the length of its payload and
+ * the payload. A reader skips the sections it does not know and the bytes after the
+ * fields it knows, so a later version may add sections, or add fields to the end of a
+ * section, and still be read by this one. Fields this version reads are only read while
+ * the section has bytes left, so older files that end a section early get the defaults.
+ * Removing or reordering a field needs a new FORMAT_VERSION.
+ *
+ * The trade history is written as one section per TradeLog chunk, so no section has to
+ * be held in memory whole. Its columns are varints: times and fixed point prices as the
+ * difference from the row before, which is usually a byte or two instead of eight.
+ *
+ * Layout, big-endian, strings as an unsigned short length and UTF-8 bytes:
+ *  int magic, short version, then sections of byte tag, int length, payload until END
+ *  ACCOUNT: name, double money amount, double available funds, double net worth,
+ *           byte cost method, double borrow rate, double borrow cost, long borrow accrued at
+ *  POSITIONS: int count, each symbol, int lots, each lot int shares and double price
+ *  SHORTS: int count, each symbol, int shares, double average short price
+ *  ORDERS: int count, each byte queue, byte kind, byte side, symbol, int shares, double price,
+ *          double first order price, double second order price
+ *  WATCH_LIST: int count, each symbol
+ *  HISTORY: int count, each symbol of the trade log's symbol table
+ *  HISTORY_BLOCK: int rows, byte price scale, then the columns
+ *                 varlong time differences, varint symbol indexes, byte sides, varint shares,
+ *                 varlong differences of price * 10^scale, or doubles when the scale is -1
+ *
+ * Varints are unsigned LEB128, and differences are zigzag coded first. Enums are written as
+ * their ordinals, so new constants go at the end.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class PortfolioCodec {
+
+	private static final int MAGIC = 0x41535046; // "ASPF"
+	public static final short FORMAT_VERSION = 1;
+
+	private static final byte END = 0;
+	private static final byte ACCOUNT = 1;
+	private static final byte POSITIONS = 2;
+	private static final byte SHORTS = 3;
+	private static final byte ORDERS = 4;
+	private static final byte WATCH_LIST = 5;
+	private static final byte HISTORY = 6;
+	private static final byte HISTORY_BLOCK = 7;
+
+	private static final byte WORKING = 0;
+	private static final byte CLOSE = 1;
+
+	// Tag and length before each payload
+	private static final int SECTION_HEADER = 1 + 4;
+
+	// Prices are kept to a ten thousandth of a dollar when every price of a block fits
+	private static final byte PRICE_SCALE = 4;
+	private static final double PRICE_FACTOR = 10000;
+	private static final byte RAW_PRICES = -1;
+
+	private ByteBuffer section = ByteBuffer.allocate(64 * 1024);
+
+	/**
+	 * Saves a Portfolio to a file
+	 *
+	 * @param portfolio the Portfolio
+	 * @param file      the file, replaced if it exists
+	 * @throws IOException if the file can not be written
+	 */
+	public static void save(Portfolio portfolio, File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			new PortfolioCodec().write(portfolio, channel);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Loads a Portfolio from a file
+	 *
+	 * @param file the file
+	 * @return the Portfolio
+	 * @throws IOException if the file can not be read or is not a saved Portfolio
+	 */
+	public static Portfolio load(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			return new PortfolioCodec().read(channel);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes a Portfolio to a channel
+	 *
+	 * @param portfolio the Portfolio
+	 * @param channel   the channel, left open
+	 * @throws IOException if the channel can not be written
+	 */
+	public void write(Portfolio portfolio, WritableByteChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(6);
+		header.putInt(MAGIC);
+		header.putShort(FORMAT_VERSION);
+		header.flip();
+		writeFully(channel, header);
+
+		// Holds off other writes so every section is from the same moment
+		portfolio.beginWrite();
+		try {
+			writeAccount(portfolio, channel);
+			writePositions(portfolio, channel);
+			writeShorts(portfolio, channel);
+			writeOrders(portfolio, channel);
+			writeWatchList(portfolio, channel);
+			writeHistory(portfolio.getTradeHistory(), channel);
+		} finally {
+			portfolio.endWrite();
+		}
+
+		startSection();
+		endSection(channel, END);
+	}
+
+	/**
+	 * Reads a Portfolio from a channel
+	 *
+	 * @param channel the channel, left open
+	 * @return the Portfolio
+	 * @throws IOException if the channel can not be read or does not hold a saved Portfolio
+	 */
+	public Portfolio read(ReadableByteChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(6);
+		readFully(channel, header);
+
+		if (header.getInt() != MAGIC) {
+			throw new IOException("Not a saved portfolio");
+		}
+		short version = header.getShort();
+		if (version > FORMAT_VERSION) {
+			throw new IOException("Saved portfolio is format version " + version + ", newer than " + FORMAT_VERSION);
+		}
+
+		Portfolio portfolio = null;
+		Balances balances = new Balances();
+		Stock[] historyStocks = new Stock[0];
+		ByteBuffer sectionHeader = ByteBuffer.allocate(SECTION_HEADER);
+
+		try {
+			while (true) {
+				sectionHeader.clear();
+				readFully(channel, sectionHeader);
+				byte tag = sectionHeader.get();
+				int length = sectionHeader.getInt();
+
+				if (tag == END) {
+					break;
+				}
+
+				ByteBuffer payload = readSection(channel, length);
+
+				if (tag == ACCOUNT && portfolio == null) {
+					// Held until the balances are restored, so the positions are published once instead of per lot
+					portfolio = readAccount(payload, balances);
+					portfolio.beginWrite();
+				} else if (portfolio == null) {
+					throw new IOException("Saved portfolio has no account before its " + tag + " section");
+				} else if (tag == POSITIONS) {
+					readPositions(portfolio, payload);
+				} else if (tag == SHORTS) {
+					readShorts(portfolio, payload);
+				} else if (tag == ORDERS) {
+					readOrders(portfolio, payload);
+				} else if (tag == WATCH_LIST) {
+					readWatchList(portfolio, payload);
+				} else if (tag == HISTORY) {
+					historyStocks = readHistory(payload);
+				} else if (tag == HISTORY_BLOCK) {
+					readHistoryBlock(portfolio.getTradeHistory(), historyStocks, payload);
+				}
+			}
+
+			if (portfolio == null) {
+				throw new IOException("Saved portfolio has no account");
+			}
+
+			// Setting the borrow rate restarts the borrow accrual, so the balances are restored last
+			portfolio.restoreBalances(balances.availableFunds, balances.netWorth, balances.borrowCost, balances.borrowAccruedAt);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Saved portfolio has a section shorter than its fields", e);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Saved portfolio has a value out of range", e);
+		} finally {
+			if (portfolio != null) {
+				portfolio.endWrite();
+			}
+		}
+		return portfolio;
+	}
+
+	private void writeAccount(Portfolio portfolio, WritableByteChannel channel) throws IOException {
+		startSection();
+		putString(portfolio.getAccountName());
+		room(8 * 3 + 1 + 8 * 2 + 8);
+		section.putDouble(portfolio.getMoneyAmount());
+		section.putDouble(portfolio.getAvailableFunds());
+		section.putDouble(portfolio.getNetWorth());
+		section.put((byte) portfolio.getCostMethod().ordinal());
+		section.putDouble(portfolio.getBorrowRate());
+		section.putDouble(portfolio.getBorrowCost());
+		section.putLong(portfolio.getBorrowAccruedAt());
+		endSection(channel, ACCOUNT);
+	}
+
+	private Portfolio readAccount(ByteBuffer payload, Balances balances) {
+		Portfolio portfolio = new Portfolio(getString(payload), payload.getDouble());
+		balances.availableFunds = payload.getDouble();
+		balances.netWorth = payload.getDouble();
+
+		if (payload.hasRemaining()) {
+			portfolio.setCostMethod(CostMethod.values()[payload.get()]);
+			portfolio.setBorrowRate(payload.getDouble());
+			balances.borrowCost = payload.getDouble();
+			balances.borrowAccruedAt = payload.getLong();
+		}
+		return portfolio;
+	}
+
+	private void writePositions(Portfolio portfolio, WritableByteChannel channel) throws IOException {
+		List<Trade> positions = portfolio.getStocks();
+
+		startSection();
+		room(4);
+		section.putInt(positions.size());
+
+		for (Trade position : positions) {
+			Stock stock = position.getSymbol();
+			int lots = portfolio.getLotCount(stock);
+
+			putString(stock.symbol);
+
+			// Without lots the position is one lot at its average price
+			if (lots == 0) {
+				room(4 + 12);
+				section.putInt(1);
+				section.putInt(position.getShares());
+				section.putDouble(position.getPrice());
+			} else {
+				room(4 + 12 * lots);
+				section.putInt(lots);
+				for (int i = 0; i < lots; i++) {
+					section.putInt(portfolio.getLotShares(stock, i));
+					section.putDouble(portfolio.getLotPrice(stock, i));
+				}
+			}
+		}
+		endSection(channel, POSITIONS);
+	}
+
+	private void readPositions(Portfolio portfolio, ByteBuffer payload) {
+		int count = payload.getInt();
+
+		for (int i = 0; i < count; i++) {
+			Stock stock = Stock.get(getString(payload));
+			int lots = payload.getInt();
+
+			for (int j = 0; j < lots; j++) {
+				portfolio.restoreLot(stock, payload.getInt(), payload.getDouble());
+			}
+		}
+	}
+
+	private void writeShorts(Portfolio portfolio, WritableByteChannel channel) throws IOException {
+		List<Trade> shorts = portfolio.getShortPositions();
+
+		startSection();
+		room(4);
+		section.putInt(shorts.size());
+
+		for (Trade position : shorts) {
+			putString(position.getSymbol().symbol);
+			room(12);
+			section.putInt(position.getShares());
+			section.putDouble(position.getPrice());
+		}
+		endSection(channel, SHORTS);
+	}
+
+	private void readShorts(Portfolio portfolio, ByteBuffer payload) {
+		int count = payload.getInt();
+
+		for (int i = 0; i < count; i++) {
+			Stock stock = Stock.get(getString(payload));
+			portfolio.restoreShort(stock, payload.getInt(), payload.getDouble());
+		}
+	}
+
+	private void writeOrders(Portfolio portfolio, WritableByteChannel channel) throws IOException {
+		List<Trade> working = portfolio.getWorkingOrders();
+		List<Trade> close = portfolio.getCloseOrders();
+
+		startSection();
+		room(4);
+		section.putInt(working.size() + close.size());
+
+		for (Trade order : working) {
+			putOrder(WORKING, order);
+		}
+		for (Trade order : close) {
+			putOrder(CLOSE, order);
+		}
+		endSection(channel, ORDERS);
+	}
+
+	private void putOrder(byte queue, Trade order) {
+		double first = 0;
+		double second = 0;
+
+		// The prices the order waits for, which depend on its kind
+		switch (order.getKind()) {
+		case LIMIT:
+			first = ((LimitTrade) order).getLimitPrice();
+			break;
+		case STOP:
+			first = ((StopTrade) order).getStopPrice();
+			break;
+		case STOP_LIMIT:
+			first = ((StopLimitTrade) order).getStopPrice();
+			second = ((StopLimitTrade) order).getLimitPrice();
+			break;
+		case TRAILING_STOP_DOLLAR:
+			first = ((TrailingStopDollarTrade) order).getTrailAmount();
+			break;
+		case TRAILING_STOP_PERCENT:
+			first = ((TrailingStopPercentTrade) order).getTrailPercent();
+			break;
+		default:
+			break;
+		}
+
+		room(3);
+		section.put(queue);
+		section.put((byte) order.getKind().ordinal());
+		section.put((byte) order.getSide().ordinal());
+		putString(order.getSymbol().symbol);
+		room(4 + 8 * 3);
+		section.putInt(order.getShares());
+		section.putDouble(order.getPrice());
+		section.putDouble(first);
+		section.putDouble(second);
+	}
+
+	private void readOrders(Portfolio portfolio, ByteBuffer payload) {
+		int count = payload.getInt();
+
+		for (int i = 0; i < count; i++) {
+			byte queue = payload.get();
+			OrderKind kind = OrderKind.values()[payload.get()];
+			String side = Side.values()[payload.get()].toString();
+			Stock stock = Stock.get(getString(payload));
+			int shares = payload.getInt();
+			double price = payload.getDouble();
+			double first = payload.getDouble();
+			double second = payload.getDouble();
+
+			Trade order;
+			switch (kind) {
+			case LIMIT:
+				order = new LimitTrade(side, stock, shares, first);
+				break;
+			case STOP:
+				order = new StopTrade(side, stock, shares, first);
+				break;
+			case STOP_LIMIT:
+				order = new StopLimitTrade(side, stock, shares, first, second);
+				break;
+			case TRAILING_STOP_DOLLAR:
+				order = new TrailingStopDollarTrade(side, stock, shares, first);
+				break;
+			case TRAILING_STOP_PERCENT:
+				order = new TrailingStopPercentTrade(side, stock, shares, first);
+				break;
+			case MARKET_ON_CLOSE:
+				order = new MarketOnCloseTrade(side, stock, shares);
+				break;
+			default:
+				order = new MarketTrade(side, stock, shares);
+				break;
+			}
+			order.setPrice(price);
+
+			// Working orders are put back on their trigger prices once armWorkingOrders or a quote prices them
+			if (queue == WORKING) {
+				portfolio.restoreWorkingOrder(order);
+			} else {
+				portfolio.getCloseOrders().add(order);
+			}
+		}
+	}
+
+	private void writeWatchList(Portfolio portfolio, WritableByteChannel channel) throws IOException {
+		WatchList watchList = portfolio.getWatchList();
+
+		startSection();
+		room(4);
+		section.putInt(watchList.size());
+
+		for (Stock curStock : watchList) {
+			putString(curStock.symbol);
+		}
+		endSection(channel, WATCH_LIST);
+	}
+
+	private void readWatchList(Portfolio portfolio, ByteBuffer payload) {
+		int count = payload.getInt();
+
+		// The symbols were checked when they were added, so they are not fetched again
+		for (int i = 0; i < count; i++) {
+			portfolio.getWatchList().add(Stock.get(getString(payload)));
+		}
+	}
+
+	private void writeHistory(TradeLog log, WritableByteChannel channel) throws IOException {
+		int symbols = log.getSymbolCount();
+
+		startSection();
+		room(4);
+		section.putInt(symbols);
+		for (int i = 0; i < symbols; i++) {
+			putString(log.getSymbol(i));
+		}
+		endSection(channel, HISTORY);
+
+		long rows = log.size();
+		for (long start = 0; start < rows; start += TradeLog.CHUNK_SIZE) {
+			int count = (int) Math.min(TradeLog.CHUNK_SIZE, rows - start);
+
+			// Rows are written a chunk at a time, which is also how the log reads them from its spill file
+			startSection();
+			room(4 + 1 + count * (10 + 5 + 1 + 5 + 10));
+			section.putInt(count);
+
+			boolean scaled = true;
+			for (int i = 0; i < count && scaled; i++) {
+				double price = log.getPrice(start + i);
+				scaled = Math.round(price * PRICE_FACTOR) / PRICE_FACTOR == price;
+			}
+			section.put(scaled ? PRICE_SCALE : RAW_PRICES);
+
+			long previous = 0;
+			for (int i = 0; i < count; i++) {
+				long time = log.getTime(start + i);
+				putVarLong(zigzag(time - previous));
+				previous = time;
+			}
+			for (int i = 0; i < count; i++) {
+				putVarLong(log.getStockIndex(start + i));
+			}
+			for (int i = 0; i < count; i++) {
+				section.put((byte) log.getSide(start + i).ordinal());
+			}
+			for (int i = 0; i < count; i++) {
+				putVarLong(zigzag(log.getShares(start + i)));
+			}
+
+			previous = 0;
+			for (int i = 0; i < count; i++) {
+				if (scaled) {
+					long price = Math.round(log.getPrice(start + i) * PRICE_FACTOR);
+					putVarLong(zigzag(price - previous));
+					previous = price;
+				} else {
+					section.putDouble(log.getPrice(start + i));
+				}
+			}
+			endSection(channel, HISTORY_BLOCK);
+		}
+	}
+
+	private Stock[] readHistory(ByteBuffer payload) {
+		Stock[] stocks = new Stock[payload.getInt()];
+		for (int i = 0; i < stocks.length; i++) {
+			stocks[i] = Stock.get(getString(payload));
+		}
+		return stocks;
+	}
+
+	private void readHistoryBlock(TradeLog log, Stock[] stocks, ByteBuffer payload) throws IOException {
+		int count = payload.getInt();
+		byte scale = payload.get();
+
+		if (scale != RAW_PRICES && scale != PRICE_SCALE) {
+			throw new IOException("Saved trade history has prices to 10^-" + scale);
+		}
+
+		long[] times = new long[count];
+		int[] indexes = new int[count];
+		Side[] sides = new Side[count];
+		int[] shares = new int[count];
+		Side[] sideValues = Side.values();
+
+		long previous = 0;
+		for (int i = 0; i < count; i++) {
+			previous += unzigzag(getVarLong(payload));
+			times[i] = previous;
+		}
+		for (int i = 0; i < count; i++) {
+			indexes[i] = (int) getVarLong(payload);
+		}
+		for (int i = 0; i < count; i++) {
+			sides[i] = sideValues[payload.get()];
+		}
+		for (int i = 0; i < count; i++) {
+			shares[i] = (int) unzigzag(getVarLong(payload));
+		}
+
+		previous = 0;
+		for (int i = 0; i < count; i++) {
+			double price;
+			if (scale == RAW_PRICES) {
+				price = payload.getDouble();
+			} else {
+				previous += unzigzag(getVarLong(payload));
+				price = previous / PRICE_FACTOR;
+			}
+
+			log.append(times[i], stocks[indexes[i]], sides[i], shares[i], price);
+		}
+
+		// Long histories are not held in memory while they load
+		log.spillIfNeeded();
+	}
+
+	/**
+	 * Starts a section, leaving room for its tag and length
+	 */
+	private void startSection() {
+		section.clear();
+		section.position(SECTION_HEADER);
+	}
+
+	/**
+	 * Makes room in the section being built
+	 */
+	private void room(int bytes) {
+		if (section.remaining() < bytes) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(section.capacity() * 2, section.position() + bytes));
+			section.flip();
+			larger.put(section);
+			section = larger;
+		}
+	}
+
+	/**
+	 * Fills in the tag and length of the section that was built and writes it
+	 */
+	private void endSection(WritableByteChannel channel, byte tag) throws IOException {
+		section.put(0, tag);
+		section.putInt(1, section.position() - SECTION_HEADER);
+		section.flip();
+		writeFully(channel, section);
+	}
+
+	private ByteBuffer readSection(ReadableByteChannel channel, int length) throws IOException {
+		if (length < 0) {
+			throw new IOException("Saved portfolio has a section of length " + length);
+		}
+
+		if (section.capacity() < length) {
+			section = ByteBuffer.allocate(Math.max(length, section.capacity() * 2));
+		}
+		section.clear();
+		section.limit(length);
+		readFully(channel, section);
+		return section;
+	}
+
+	private void putString(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		room(2 + bytes.length);
+		section.putShort((short) bytes.length);
+		section.put(bytes);
+	}
+
+	private static String getString(ByteBuffer payload) {
+		byte[] bytes = new byte[payload.getShort() & 0xFFFF];
+		payload.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Puts seven bits at a time, low bits first, with the high bit set on all but the last byte
+	 */
+	private void putVarLong(long value) {
+		while ((value & ~0x7FL) != 0) {
+			section.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		section.put((byte) value);
+	}
+
+	private static long getVarLong(ByteBuffer payload) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+
+		do {
+			b = payload.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+
+		return value;
+	}
+
+	/**
+	 * Maps small negative and positive numbers to small unsigned ones: 0, -1, 1, -2, 2 to 0, 1, 2, 3, 4
+	 */
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) == -1) {
+				throw new EOFException("Saved portfolio ends early");
+			}
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Balances restored after the positions are opened
+	 */
+	private static class Balances {
+		private double availableFunds;
+		private double netWorth;
+		private double borrowCost;
+		private long borrowAccruedAt;
+	}
+}
@@ -0,0 +1,160 @@
+package risk_management;
+
+/**
+ * Risk and performance metrics of a PortfolioAnalytics as of one update, which never change
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class AnalyticsSnapshot {
+
+	private final long periods;
+	private final double equity;
+	private final double totalReturn;
+	private final double sharpeRatio;
+	private final double sortinoRatio;
+	private final double maxDrawdown;
+	private final double drawdown;
+	private final double beta;
+	private final double turnover;
+	private final double[] groupLong;
+	private final double[] groupShort;
+
+	AnalyticsSnapshot(long periods, double equity, double totalReturn, double sharpeRatio, double sortinoRatio,
+			double maxDrawdown, double drawdown, double beta, double turnover, double[] groupLong, double[] groupShort) {
+		this.periods = periods;
+		this.equity = equity;
+		this.totalReturn = totalReturn;
+		this.sharpeRatio = sharpeRatio;
+		this.sortinoRatio = sortinoRatio;
+		this.maxDrawdown = maxDrawdown;
+		this.drawdown = drawdown;
+		this.beta = beta;
+		this.turnover = turnover;
+		this.groupLong = groupLong;
+		this.groupShort = groupShort;
+	}
+
+	/**
+	 * Gets the number of returns the metrics are over
+	 *
+	 * @return
+	 */
+	public long getPeriods() {
+		return periods;
+	}
+
+	/**
+	 * Gets the equity at the last mark
+	 *
+	 * @return
+	 */
+	public double getEquity() {
+		return equity;
+	}
+
+	/**
+	 * Gets the return since the first mark as a fraction of its equity
+	 *
+	 * @return
+	 */
+	public double getTotalReturn() {
+		return totalReturn;
+	}
+
+	/**
+	 * Gets the annualized Sharpe ratio, 0 until there are two returns
+	 *
+	 * @return
+	 */
+	public double getSharpeRatio() {
+		return sharpeRatio;
+	}
+
+	/**
+	 * Gets the annualized Sortino ratio, 0 until a return is negative
+	 *
+	 * @return
+	 */
+	public double getSortinoRatio() {
+		return sortinoRatio;
+	}
+
+	/**
+	 * Gets the largest fall from a peak as a fraction of the peak
+	 *
+	 * @return
+	 */
+	public double getMaxDrawdown() {
+		return maxDrawdown;
+	}
+
+	/**
+	 * Gets the fall from the peak at the last mark as a fraction of the peak
+	 *
+	 * @return
+	 */
+	public double getDrawdown() {
+		return drawdown;
+	}
+
+	/**
+	 * Gets the beta against the benchmark, 0 until the benchmark has moved
+	 *
+	 * @return
+	 */
+	public double getBeta() {
+		return beta;
+	}
+
+	/**
+	 * Gets half the value traded as a fraction of the average equity, so buying and then
+	 * selling the whole account once is a turnover of 1
+	 *
+	 * @return
+	 */
+	public double getTurnover() {
+		return turnover;
+	}
+
+	/**
+	 * Gets the value held long of a cap group at the last prices
+	 *
+	 * @param group FibRetracement.SPEC_GROUP, SMALL_GROUP or LARGE_GROUP
+	 * @return
+	 */
+	public double getLongNotional(int group) {
+		return groupLong[group];
+	}
+
+	/**
+	 * Gets the value held short of a cap group at the last prices
+	 *
+	 * @param group FibRetracement.SPEC_GROUP, SMALL_GROUP or LARGE_GROUP
+	 * @return
+	 */
+	public double getShortNotional(int group) {
+		return groupShort[group];
+	}
+
+	/**
+	 * Gets the value held long and short of a cap group as a fraction of the equity
+	 *
+	 * @param group FibRetracement.SPEC_GROUP, SMALL_GROUP or LARGE_GROUP
+	 * @return 0 before the first mark
+	 */
+	public double getGrossExposure(int group) {
+		return equity > 0 ? (groupLong[group] + groupShort[group]) / equity : 0;
+	}
+
+	/**
+	 * Gets the value held long less the value held short of a cap group as a fraction of the equity
+	 *
+	 * @param group FibRetracement.SPEC_GROUP, SMALL_GROUP or LARGE_GROUP
+	 * @return 0 before the first mark
+	 */
+	public double getNetExposure(int group) {
+		return equity > 0 ? (groupLong[group] - groupShort[group]) / equity : 0;
+	}
+}
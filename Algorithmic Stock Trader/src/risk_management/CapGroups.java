@@ -0,0 +1,114 @@
+package risk_management;
+
+import incoming_data_sources.YahooFetcher;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import stocks.Stock;
+import utilities.AlgorithmToolKit;
+import utilities.GeneralToolKit;
+import algorithms.FibRetracement;
+
+/**
+ * Cap group of each stock, looked up from its market cap once and shared by the process.
+ *
+ * Looking a group up fetches the market cap, so the pre-trade and fill paths only read
+ * the groups already known and ask for the others with lookupLater, which fetches them
+ * one at a time on a background thread with the fetcher route of the thread that asked.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class CapGroups {
+
+	// Returned by get for a stock whose group is not known yet
+	public static final int UNKNOWN = -1;
+
+	// Marks a stock whose lookup is queued
+	private static final Integer PENDING = UNKNOWN;
+
+	private static final ConcurrentHashMap<Stock, Integer> groups = new ConcurrentHashMap<Stock, Integer>();
+
+	private static final ExecutorService lookups = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Cap Group Lookup");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private CapGroups() {
+	}
+
+	/**
+	 * Gets the cap group of a stock without looking it up
+	 *
+	 * @param stock the stock
+	 * @return FibRetracement.SPEC_GROUP, SMALL_GROUP or LARGE_GROUP, or UNKNOWN
+	 */
+	public static int get(Stock stock) {
+		Integer group = groups.get(stock);
+		return group == null ? UNKNOWN : group;
+	}
+
+	/**
+	 * Sets the cap group of a stock, so it is never looked up
+	 *
+	 * @param stock the stock
+	 * @param group FibRetracement.SPEC_GROUP, SMALL_GROUP or LARGE_GROUP
+	 */
+	public static void set(Stock stock, int group) {
+		groups.put(stock, group);
+	}
+
+	/**
+	 * Gets the cap group of a stock, fetching its market cap if it is not known
+	 *
+	 * @param stock the stock
+	 * @return FibRetracement.SPEC_GROUP, SMALL_GROUP or LARGE_GROUP
+	 */
+	public static int lookup(Stock stock) {
+		int group = get(stock);
+
+		if (group == UNKNOWN) {
+			group = FibRetracement.capGroup(AlgorithmToolKit.getMarketCapAmount(stock.symbol));
+			groups.put(stock, group);
+		}
+		return group;
+	}
+
+	/**
+	 * Queues a lookup of a stock's cap group, unless it is known or already queued
+	 *
+	 * @param stock the stock
+	 */
+	public static void lookupLater(final Stock stock) {
+		if (groups.putIfAbsent(stock, PENDING) != null) {
+			return;
+		}
+
+		final YahooFetcher route = GeneralToolKit.fetcher.getRoute();
+		lookups.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (route != null) {
+					GeneralToolKit.fetcher.route(route);
+				}
+
+				try {
+					groups.put(stock, FibRetracement.capGroup(AlgorithmToolKit.getMarketCapAmount(stock.symbol)));
+				} catch (RuntimeException e) {
+					// Asked for again the next time it is needed
+					groups.remove(stock, PENDING);
+				} finally {
+					GeneralToolKit.fetcher.clearRoute();
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,339 @@
+package risk_management;
+
+import java.util.Arrays;
+
+import event_bus.QuoteListener;
+import outgoing_data_sources.OrderEventListener;
+import stocks.Portfolio;
+import stocks.Stock;
+import trade_types.Trade;
+
+/**
+ * Risk and performance metrics of an account, kept up to date as it changes instead of
+ * being worked out again from its history.
+ *
+ * Fills and quotes keep the positions and the value held of each cap group, and each
+ * mark of the equity ends a period and adds its return. Every metric is a running sum
+ * or extreme, so each update costs the same however long the account has run:
+ *
+ *   Sharpe ratio   mean over standard deviation of the returns, by Welford's method
+ *   Sortino ratio  mean over the root mean square of the negative returns
+ *   max drawdown   largest fall from the highest equity marked
+ *   beta           covariance with the benchmark's returns over their variance
+ *   turnover       half the value traded over the average equity marked
+ *   exposure       value held long and short of each cap group at the last prices
+ *
+ * Ratios are annualized by the number of periods in a year, trading days by default,
+ * with no risk free rate like Backtester. Cap groups come from CapGroups, which looks
+ * up the ones it does not know on its own thread, so a stock held before its group is
+ * known joins the group's exposure on the first fill or quote after the lookup.
+ *
+ * Updates and snapshots lock the analytics, so dashboards may take snapshots from
+ * other threads.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class PortfolioAnalytics implements OrderEventListener, QuoteListener {
+
+	public static final int TRADING_DAYS = 252;
+
+	private static final int GROUP_COUNT = 3;
+	private static final byte UNKNOWN_GROUP = -1;
+
+	private final double periodsPerYear;
+
+	// Positions indexed by Stock id
+	private int[] position = new int[16];
+	private double[] lastPrice = new double[16];
+	private byte[] capGroup = newGroups(16);
+
+	private final double[] groupLong = new double[GROUP_COUNT];
+	private final double[] groupShort = new double[GROUP_COUNT];
+
+	// Equity
+	private boolean marked = false;
+	private double firstEquity;
+	private double equity;
+	private double peak;
+	private double maxDrawdown = 0;
+	private double equitySum = 0;
+	private long marks = 0;
+
+	// Returns
+	private long periods = 0;
+	private double meanReturn = 0;
+	private double returnSquares = 0;
+	private double downsideSquares = 0;
+
+	// Returns of the periods the benchmark was marked in too
+	private double benchmark = Double.NaN;
+	private long pairedPeriods = 0;
+	private double pairedMean = 0;
+	private double benchmarkMean = 0;
+	private double benchmarkSquares = 0;
+	private double comoment = 0;
+
+	private double traded = 0;
+
+	public PortfolioAnalytics() {
+		this(TRADING_DAYS);
+	}
+
+	/**
+	 * @param periodsPerYear how many times a year the equity is marked, to annualize the ratios
+	 */
+	public PortfolioAnalytics(double periodsPerYear) {
+		this.periodsPerYear = periodsPerYear;
+	}
+
+	/**
+	 * Starts the positions from the ones a Portfolio already holds
+	 *
+	 * @param portfolio the Portfolio
+	 */
+	public void loadPositions(Portfolio portfolio) {
+		// The Portfolio is locked first, the same order as its fills
+		portfolio.beginWrite();
+		try {
+			synchronized (this) {
+				for (Trade curTrade : portfolio.getStocks()) {
+					Stock curStock = curTrade.getSymbol();
+					move(curStock, portfolio.getShareAmount(curStock), portfolio.getPriceAmount(curStock));
+				}
+				for (Trade curTrade : portfolio.getShortPositions()) {
+					Stock curStock = curTrade.getSymbol();
+					move(curStock, -portfolio.getShortShares(curStock), portfolio.getShortPrice(curStock));
+				}
+			}
+		} finally {
+			portfolio.endWrite();
+		}
+	}
+
+	@Override
+	public void onAcknowledge(Trade trade) {
+	}
+
+	@Override
+	public synchronized void onFill(Trade trade, double price, int shares) {
+		if (shares == 0) {
+			return;
+		}
+
+		traded += price * shares;
+		move(trade.getSymbol(), trade.getSide().isBuy() ? shares : -shares, price);
+	}
+
+	@Override
+	public void onReject(Trade trade, String reason) {
+	}
+
+	/**
+	 * Marks a stock to a new price, changing the value held of its cap group
+	 *
+	 * @param symbolId the Stock id
+	 * @param price    the price
+	 */
+	@Override
+	public synchronized void onQuote(int symbolId, double price) {
+		if (symbolId < position.length) {
+			mark(symbolId, price);
+		}
+	}
+
+	/**
+	 * Marks the equity, ending a period. The first mark only sets where returns start from.
+	 *
+	 * @param equity the account's value, such as its net liquidation value
+	 */
+	public void onMark(double equity) {
+		onMark(equity, Double.NaN);
+	}
+
+	/**
+	 * Marks the equity and the benchmark, ending a period. Periods without a benchmark
+	 * price, and the first one with one, are left out of the beta.
+	 *
+	 * @param equity         the account's value, such as its net liquidation value
+	 * @param benchmarkPrice the benchmark's price, or NaN if there is none
+	 */
+	public synchronized void onMark(double equity, double benchmarkPrice) {
+		equitySum += equity;
+		marks++;
+
+		if (!marked) {
+			marked = true;
+			firstEquity = equity;
+			peak = equity;
+		} else {
+			double periodReturn = this.equity == 0 ? 0 : (equity - this.equity) / this.equity;
+			addReturn(periodReturn);
+
+			if (!Double.isNaN(benchmarkPrice) && !Double.isNaN(benchmark) && benchmark != 0) {
+				addPaired(periodReturn, (benchmarkPrice - benchmark) / benchmark);
+			}
+		}
+
+		this.equity = equity;
+		if (!Double.isNaN(benchmarkPrice)) {
+			benchmark = benchmarkPrice;
+		}
+
+		if (equity > peak) {
+			peak = equity;
+		} else if (peak > 0 && (peak - equity) / peak > maxDrawdown) {
+			maxDrawdown = (peak - equity) / peak;
+		}
+	}
+
+	/**
+	 * Marks the net liquidation value of a Portfolio and the benchmark, ending a period
+	 *
+	 * @param portfolio      the Portfolio
+	 * @param benchmarkPrice the benchmark's price, or NaN if there is none
+	 */
+	public void onMark(Portfolio portfolio, double benchmarkPrice) {
+		onMark(portfolio.snapshot().getNetLiquidationValue(), benchmarkPrice);
+	}
+
+	/**
+	 * Sets the cap group of a stock, so it does not wait for CapGroups
+	 *
+	 * @param stock the stock
+	 * @param group FibRetracement.SPEC_GROUP, SMALL_GROUP or LARGE_GROUP
+	 */
+	public synchronized void setCapGroup(Stock stock, int group) {
+		int id = stock.getId();
+		ensureCapacity(id + 1);
+
+		double held = position[id] * lastPrice[id];
+		if (capGroup[id] != UNKNOWN_GROUP) {
+			hold(capGroup[id], held, -1);
+		}
+		capGroup[id] = (byte) group;
+		hold(group, held, 1);
+	}
+
+	/**
+	 * Gets the metrics as of the last update
+	 *
+	 * @return the snapshot
+	 */
+	public synchronized AnalyticsSnapshot snapshot() {
+		double sharpeRatio = 0;
+		if (periods > 1 && returnSquares > 0) {
+			sharpeRatio = meanReturn / Math.sqrt(returnSquares / (periods - 1)) * Math.sqrt(periodsPerYear);
+		}
+
+		double sortinoRatio = 0;
+		if (downsideSquares > 0) {
+			sortinoRatio = meanReturn / Math.sqrt(downsideSquares / periods) * Math.sqrt(periodsPerYear);
+		}
+
+		double beta = benchmarkSquares > 0 ? comoment / benchmarkSquares : 0;
+		double turnover = equitySum > 0 ? traded / 2 / (equitySum / marks) : 0;
+
+		return new AnalyticsSnapshot(periods, equity, firstEquity == 0 ? 0 : (equity - firstEquity) / firstEquity,
+				sharpeRatio, sortinoRatio, maxDrawdown, peak > 0 ? (peak - equity) / peak : 0, beta, turnover,
+				groupLong.clone(), groupShort.clone());
+	}
+
+	private void addReturn(double periodReturn) {
+		periods++;
+
+		double delta = periodReturn - meanReturn;
+		meanReturn += delta / periods;
+		returnSquares += delta * (periodReturn - meanReturn);
+
+		if (periodReturn < 0) {
+			downsideSquares += periodReturn * periodReturn;
+		}
+	}
+
+	private void addPaired(double periodReturn, double benchmarkReturn) {
+		pairedPeriods++;
+
+		double delta = periodReturn - pairedMean;
+		pairedMean += delta / pairedPeriods;
+
+		double benchmarkDelta = benchmarkReturn - benchmarkMean;
+		benchmarkMean += benchmarkDelta / pairedPeriods;
+		benchmarkSquares += benchmarkDelta * (benchmarkReturn - benchmarkMean);
+		comoment += delta * (benchmarkReturn - benchmarkMean);
+	}
+
+	// Changes the shares held of a stock, marking it to the price
+	private void move(Stock stock, int shares, double price) {
+		int id = stock.getId();
+		ensureCapacity(id + 1);
+
+		mark(id, price);
+		int group = knowGroup(stock);
+
+		if (group != UNKNOWN_GROUP) {
+			hold(group, position[id] * price, -1);
+		}
+		position[id] += shares;
+		if (group != UNKNOWN_GROUP) {
+			hold(group, position[id] * price, 1);
+		}
+	}
+
+	// Updates the value held of a stock's group for a new price
+	private void mark(int id, double price) {
+		if (position[id] != 0 && capGroup[id] == UNKNOWN_GROUP) {
+			knowGroup(Stock.get(id));
+		}
+
+		if (position[id] != 0 && capGroup[id] != UNKNOWN_GROUP) {
+			hold(capGroup[id], position[id] * lastPrice[id], -1);
+			hold(capGroup[id], position[id] * price, 1);
+		}
+		lastPrice[id] = price;
+	}
+
+	// Adds the value of a stock to its group's long or short side, negative when short, or takes it out
+	private void hold(int group, double value, int sign) {
+		if (value > 0) {
+			groupLong[group] += sign * value;
+		} else {
+			groupShort[group] -= sign * value;
+		}
+	}
+
+	// Stocks held before their group is known are added to it once CapGroups has looked it up
+	private int knowGroup(Stock stock) {
+		int id = stock.getId();
+
+		if (capGroup[id] == UNKNOWN_GROUP) {
+			int group = CapGroups.get(stock);
+			if (group == CapGroups.UNKNOWN) {
+				CapGroups.lookupLater(stock);
+				return UNKNOWN_GROUP;
+			}
+			setCapGroup(stock, group);
+		}
+		return capGroup[id];
+	}
+
+	private static byte[] newGroups(int length) {
+		byte[] groups = new byte[length];
+		Arrays.fill(groups, UNKNOWN_GROUP);
+		return groups;
+	}
+
+	private void ensureCapacity(int size) {
+		if (position.length < size) {
+			int length = Math.max(size, position.length * 2);
+
+			position = Arrays.copyOf(position, length);
+			lastPrice = Arrays.copyOf(lastPrice, length);
+
+			byte[] grownGroups = newGroups(length);
+			System.arraycopy(capGroup, 0, grownGroups, 0, capGroup.length);
+			capGroup = grownGroups;
+		}
+	}
+}
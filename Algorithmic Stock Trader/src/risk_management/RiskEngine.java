@@ -0,0 +1,446 @@
+package risk_management;
+
+import java.util.Arrays;
+
+import event_bus.RiskCheck;
+import outgoing_data_sources.OrderEventListener;
+import stocks.Portfolio;
+import stocks.Stock;
+import trade_types.Trade;
+import utilities.GeneralToolKit;
+
+/**
+ * Pre-trade risk checks with a constant cost per order.
+ *
+ * Every limit is checked against counters that fills, quotes and approvals keep up to
+ * date, so a check never walks the Portfolio. Position, notional and cost are kept in
+ * arrays indexed by Stock id and notional is also summed per cap group:
+ *
+ *   max position         shares held of one stock, long or short
+ *   max symbol notional  value held of one stock at its last price
+ *   max group notional   value held of each cap group at the last prices
+ *   max order rate       orders per second, as a token bucket
+ *   max daily loss       realized loss since the session opened
+ *
+ * Orders that reduce a position always pass, the order rate included, and only approved
+ * orders that add to a position take a token from it. Cap groups come from CapGroups,
+ * which is asked to look a stock up the first time a quote or position shows it. With
+ * group limits set, an order for a stock whose group is still being looked up is rejected.
+ *
+ * The engine is synchronized, since a Portfolio approves orders and tells it about fills
+ * inside its writes while quotes arrive from other threads.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class RiskEngine implements RiskCheck, OrderEventListener {
+
+	// Reasons returned by check
+	public static final int APPROVED = 0;
+	public static final int MAX_POSITION = 1;
+	public static final int MAX_SYMBOL_NOTIONAL = 2;
+	public static final int MAX_GROUP_NOTIONAL = 3;
+	public static final int MAX_ORDER_RATE = 4;
+	public static final int MAX_DAILY_LOSS = 5;
+	public static final int UNKNOWN_CAP_GROUP = 6;
+
+	private static final String[] REASONS = { "approved", "max position", "max symbol notional",
+			"max group notional", "max order rate", "max daily loss", "cap group not known yet" };
+	private static final int GROUP_COUNT = 3;
+	private static final byte UNKNOWN_GROUP = -1;
+
+	// Limits
+	private int maxPosition = Integer.MAX_VALUE;
+	private double maxSymbolNotional = Double.MAX_VALUE;
+	private final double[] maxGroupNotional = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+	private boolean groupLimited = false;
+	private double maxOrdersPerSecond = Double.MAX_VALUE;
+	private double maxDailyLoss = Double.MAX_VALUE;
+
+	// Counters indexed by Stock id
+	private int[] position = new int[16];
+	private double[] averageCost = new double[16];
+	private double[] lastPrice = new double[16];
+	private double[] notional = new double[16];
+	private byte[] capGroup = newGroups(16);
+
+	// Shares approved this batch but not yet filled, indexed by Stock id
+	private int[] pending = new int[16];
+	private int[] pendingIds = new int[16];
+	private boolean[] pendingListed = new boolean[16];
+	private int pendingCount = 0;
+
+	private final double[] groupNotional = new double[GROUP_COUNT];
+	private final double[] groupPending = new double[GROUP_COUNT];
+	private double dailyRealized = 0;
+	private long nextSessionOpen = Long.MIN_VALUE;
+
+	// Token bucket for the order rate
+	private double tokens = 0;
+	private long lastRefill = Long.MIN_VALUE;
+
+	private long approvals = 0;
+	private final long[] rejections = new long[REASONS.length];
+
+	/**
+	 * Starts the counters from the positions a Portfolio already holds
+	 *
+	 * @param portfolio the Portfolio
+	 */
+	public void loadPositions(Portfolio portfolio) {
+		// The Portfolio is locked first, the same order as its fills
+		portfolio.beginWrite();
+		try {
+			synchronized (this) {
+				for (Trade curTrade : portfolio.getStocks()) {
+					Stock curStock = curTrade.getSymbol();
+					int id = curStock.getId();
+					ensureCapacity(id + 1);
+
+					position[id] = portfolio.getShareAmount(curStock);
+					averageCost[id] = portfolio.getPriceAmount(curStock);
+					if (groupLimited) {
+						knowGroup(curStock);
+					}
+					mark(id, lastPrice[id] > 0 ? lastPrice[id] : averageCost[id]);
+				}
+			}
+		} finally {
+			portfolio.endWrite();
+		}
+	}
+
+	@Override
+	public synchronized Trade[] approve(Trade[] trades) {
+		for (int i = 0; i < trades.length; i++) {
+			if (trades[i] != null) {
+				int reason = check(trades[i]);
+
+				if (reason != APPROVED) {
+					System.out.println("Risk check rejected " + trades[i].getOrderType().toLowerCase() + " of "
+							+ trades[i].getShares() + " shares of " + trades[i].getSymbol().symbol + ": " + REASONS[reason]);
+					trades[i] = null;
+				}
+			}
+		}
+		clearPending();
+
+		return trades;
+	}
+
+	/**
+	 * Checks one order against every limit. An approved order counts against the
+	 * limits of later orders until clearPending is called.
+	 *
+	 * @param trade the order
+	 * @return APPROVED, or the first limit it breaks
+	 */
+	public synchronized int check(Trade trade) {
+		int reason = checkLimits(trade);
+
+		if (reason == APPROVED) {
+			approvals++;
+		} else {
+			rejections[reason]++;
+		}
+		return reason;
+	}
+
+	/**
+	 * Forgets the orders approved since the last call that have not filled
+	 */
+	public synchronized void clearPending() {
+		for (int i = 0; i < pendingCount; i++) {
+			pending[pendingIds[i]] = 0;
+			pendingListed[pendingIds[i]] = false;
+		}
+		pendingCount = 0;
+		Arrays.fill(groupPending, 0);
+	}
+
+	private int checkLimits(Trade trade) {
+		long now = GeneralToolKit.clock().currentTimeMillis();
+		rollSession(now);
+
+		int id = trade.getSymbol().getId();
+		ensureCapacity(id + 1);
+
+		int current = position[id] + pending[id];
+		int projected = current + signedShares(trade);
+
+		// Orders that only bring a position closer to flat always pass, whatever the order rate
+		boolean adding = Math.abs(projected) > Math.abs(current) || Integer.signum(projected) == -Integer.signum(current);
+
+		// Order rate, a token is taken once every other limit has passed
+		boolean rateLimited = adding && maxOrdersPerSecond != Double.MAX_VALUE;
+		if (rateLimited) {
+			if (lastRefill == Long.MIN_VALUE) {
+				tokens = maxOrdersPerSecond;
+			} else {
+				tokens = Math.min(maxOrdersPerSecond, tokens + (now - lastRefill) * maxOrdersPerSecond / 1000);
+			}
+			lastRefill = now;
+
+			if (tokens < 1) {
+				return MAX_ORDER_RATE;
+			}
+		}
+		double groupAdded = 0;
+		int group = UNKNOWN_GROUP;
+
+		if (adding) {
+			if (dailyRealized < 0 && -dailyRealized >= maxDailyLoss) {
+				return MAX_DAILY_LOSS;
+			}
+			if (Math.abs(projected) > maxPosition) {
+				return MAX_POSITION;
+			}
+
+			double price = priceOf(trade, id);
+			double projectedNotional = Math.abs(projected) * price;
+			if (projectedNotional > maxSymbolNotional) {
+				return MAX_SYMBOL_NOTIONAL;
+			}
+
+			// Without group limits the group is never needed
+			if (groupLimited) {
+				group = knowGroup(trade.getSymbol());
+				if (group == UNKNOWN_GROUP) {
+					return UNKNOWN_CAP_GROUP;
+				}
+
+				groupAdded = projectedNotional - Math.abs(current) * price;
+				if (groupNotional[group] + groupPending[group] + groupAdded > maxGroupNotional[group]) {
+					return MAX_GROUP_NOTIONAL;
+				}
+			}
+		}
+
+		if (rateLimited) {
+			tokens--;
+		}
+		if (group != UNKNOWN_GROUP) {
+			groupPending[group] += groupAdded;
+		}
+
+		if (!pendingListed[id]) {
+			pendingListed[id] = true;
+			pendingIds[pendingCount++] = id;
+		}
+		pending[id] += signedShares(trade);
+
+		return APPROVED;
+	}
+
+	@Override
+	public synchronized void onQuote(int symbolId, double price) {
+		ensureCapacity(symbolId + 1);
+		if (capGroup[symbolId] == UNKNOWN_GROUP && groupLimited) {
+			knowGroup(Stock.get(symbolId));
+		}
+		mark(symbolId, price);
+	}
+
+	@Override
+	public void onAcknowledge(Trade trade) {
+	}
+
+	@Override
+	public synchronized void onFill(Trade trade, double price, int shares) {
+		rollSession(GeneralToolKit.clock().currentTimeMillis());
+
+		int id = trade.getSymbol().getId();
+		ensureCapacity(id + 1);
+
+		if (shares == 0) {
+			return;
+		}
+
+		int delta = isBuy(trade) ? shares : -shares;
+		int before = position[id];
+		int after = before + delta;
+
+		if (before == 0 || Integer.signum(before) == Integer.signum(delta)) {
+			// Shares that open or add to a position move the average cost
+			averageCost[id] = (averageCost[id] * Math.abs(before) + price * shares) / Math.abs(after);
+		} else {
+			// Shares that close a position realize against the average cost
+			int closed = Math.min(Math.abs(before), shares);
+			dailyRealized += (price - averageCost[id]) * closed * Integer.signum(before);
+
+			if (after == 0) {
+				averageCost[id] = 0;
+			} else if (Integer.signum(after) != Integer.signum(before)) {
+				averageCost[id] = price;
+			}
+		}
+		position[id] = after;
+
+		mark(id, price);
+	}
+
+	@Override
+	public void onReject(Trade trade, String reason) {
+	}
+
+	/**
+	 * Sets the cap group of a stock, so it is never looked up
+	 *
+	 * @param stock the stock
+	 * @param group FibRetracement.SPEC_GROUP, SMALL_GROUP or LARGE_GROUP
+	 */
+	public synchronized void setCapGroup(Stock stock, int group) {
+		int id = stock.getId();
+		ensureCapacity(id + 1);
+
+		double held = notional[id];
+		if (capGroup[id] != UNKNOWN_GROUP) {
+			groupNotional[capGroup[id]] -= held;
+		}
+		capGroup[id] = (byte) group;
+		groupNotional[group] += held;
+	}
+
+	// Updates the notional of a stock and its group for a new price
+	private void mark(int id, double price) {
+		lastPrice[id] = price;
+
+		double held = Math.abs(position[id]) * price;
+		if (capGroup[id] != UNKNOWN_GROUP) {
+			groupNotional[capGroup[id]] += held - notional[id];
+		}
+		notional[id] = held;
+	}
+
+	// Stocks held before their group is known are added to it once CapGroups has looked it up
+	private int knowGroup(Stock stock) {
+		int id = stock.getId();
+
+		if (capGroup[id] == UNKNOWN_GROUP) {
+			int group = CapGroups.get(stock);
+			if (group == CapGroups.UNKNOWN) {
+				CapGroups.lookupLater(stock);
+				return UNKNOWN_GROUP;
+			}
+			setCapGroup(stock, group);
+		}
+		return capGroup[id];
+	}
+
+	// The order's own price if it has one, otherwise the last price seen
+	private double priceOf(Trade trade, int id) {
+		return trade.getPrice() > 0 ? trade.getPrice() : lastPrice[id];
+	}
+
+	// Daily loss starts over at each session's open
+	private void rollSession(long now) {
+		if (now >= nextSessionOpen) {
+			long open = GeneralToolKit.calendar.nextOpen(now);
+
+			if (nextSessionOpen != Long.MIN_VALUE) {
+				dailyRealized = 0;
+			}
+			nextSessionOpen = open < 0 ? Long.MAX_VALUE : open;
+		}
+	}
+
+	private static boolean isBuy(Trade trade) {
+		return trade.getSide().isBuy();
+	}
+
+	private static int signedShares(Trade trade) {
+		return isBuy(trade) ? trade.getShares() : -trade.getShares();
+	}
+
+	private static byte[] newGroups(int length) {
+		byte[] groups = new byte[length];
+		Arrays.fill(groups, UNKNOWN_GROUP);
+		return groups;
+	}
+
+	private void ensureCapacity(int size) {
+		if (position.length < size) {
+			int length = Math.max(size, position.length * 2);
+
+			position = Arrays.copyOf(position, length);
+			averageCost = Arrays.copyOf(averageCost, length);
+			lastPrice = Arrays.copyOf(lastPrice, length);
+			notional = Arrays.copyOf(notional, length);
+			pending = Arrays.copyOf(pending, length);
+			pendingIds = Arrays.copyOf(pendingIds, length);
+			pendingListed = Arrays.copyOf(pendingListed, length);
+
+			byte[] grownGroups = newGroups(length);
+			System.arraycopy(capGroup, 0, grownGroups, 0, capGroup.length);
+			capGroup = grownGroups;
+		}
+	}
+
+	public synchronized void setMaxPosition(int maxPosition) {
+		this.maxPosition = maxPosition;
+	}
+
+	public synchronized void setMaxSymbolNotional(double maxSymbolNotional) {
+		this.maxSymbolNotional = maxSymbolNotional;
+	}
+
+	/**
+	 * Sets the most that may be held of one cap group
+	 *
+	 * @param group       FibRetracement.SPEC_GROUP, SMALL_GROUP or LARGE_GROUP
+	 * @param maxNotional the value
+	 */
+	public synchronized void setMaxGroupNotional(int group, double maxNotional) {
+		maxGroupNotional[group] = maxNotional;
+		groupLimited = true;
+	}
+
+	public synchronized void setMaxOrdersPerSecond(double maxOrdersPerSecond) {
+		this.maxOrdersPerSecond = maxOrdersPerSecond;
+	}
+
+	public synchronized void setMaxDailyLoss(double maxDailyLoss) {
+		this.maxDailyLoss = maxDailyLoss;
+	}
+
+	/**
+	 * Gets the shares held of a stock, negative when short
+	 *
+	 * @param stock the stock
+	 * @return
+	 */
+	public synchronized int getPosition(Stock stock) {
+		int id = stock.getId();
+		return id < position.length ? position[id] : 0;
+	}
+
+	/**
+	 * Gets the value held of a cap group at the last prices
+	 *
+	 * @param group FibRetracement.SPEC_GROUP, SMALL_GROUP or LARGE_GROUP
+	 * @return
+	 */
+	public synchronized double getGroupNotional(int group) {
+		return groupNotional[group];
+	}
+
+	/**
+	 * Gets the profit realized since the session opened, negative for a loss
+	 *
+	 * @return
+	 */
+	public synchronized double getDailyRealized() {
+		return dailyRealized;
+	}
+
+	/**
+	 * Gets the number of orders a reason was returned for
+	 *
+	 * @param reason APPROVED or one of the limits
+	 * @return
+	 */
+	public synchronized long getCount(int reason) {
+		return reason == APPROVED ? approvals : rejections[reason];
+	}
+}
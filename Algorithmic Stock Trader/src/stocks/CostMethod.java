@@ -0,0 +1,20 @@
+package stocks;
+
+/**
+ * How the shares sold of a position are matched against the shares bought
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public enum CostMethod {
+
+	// Every share sold costs the average price paid
+	AVERAGE,
+
+	// Shares sold come out of the oldest lots first
+	FIFO,
+
+	// Shares sold come out of the newest lots first
+	LIFO
+}
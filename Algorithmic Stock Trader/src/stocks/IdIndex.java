@@ -0,0 +1,149 @@
+package stocks;
+
+import java.util.Arrays;
+
+/**
+ * Maps Stock ids to small numbers in an open addressing table. Its size follows the
+ * stocks put in it instead of the highest id handed out, so it stays small when each of
+ * many Portfolios only uses a few of the stocks the process knows.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+class IdIndex {
+
+	private static final int EMPTY = -1;
+
+	private int[] keys;
+	private int[] values;
+	private int size = 0;
+	private int mask;
+
+	/**
+	 * @param expected the number of ids expected, so the table does not have to grow
+	 */
+	IdIndex(int expected) {
+		int capacity = 8;
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * Gets the number put for an id
+	 *
+	 * @param id the Stock id
+	 * @return the number, or -1 if none was put
+	 */
+	int get(int id) {
+		for (int slot = hash(id) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+			if (keys[slot] == id) {
+				return values[slot];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Puts the number of an id, replacing the one it had
+	 *
+	 * @param id    the Stock id
+	 * @param value the number, not negative
+	 */
+	void put(int id, int value) {
+		int slot = hash(id) & mask;
+		for (; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+			if (keys[slot] == id) {
+				values[slot] = value;
+				return;
+			}
+		}
+
+		// Keeps the table at most half full so probes stay short
+		if ((size + 1) * 2 > keys.length) {
+			grow();
+			put(id, value);
+			return;
+		}
+
+		keys[slot] = id;
+		values[slot] = value;
+		size++;
+	}
+
+	/**
+	 * Takes an id out
+	 *
+	 * @param id the Stock id
+	 * @return the number it had, or -1 if none was put
+	 */
+	int remove(int id) {
+		int slot = hash(id) & mask;
+		for (; keys[slot] != id; slot = (slot + 1) & mask) {
+			if (keys[slot] == EMPTY) {
+				return -1;
+			}
+		}
+		int value = values[slot];
+
+		// Moves back every key that probed past the removed one
+		int gap = slot;
+		for (int next = (gap + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+			int home = hash(keys[next]) & mask;
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				gap = next;
+			}
+		}
+		keys[gap] = EMPTY;
+		size--;
+		return value;
+	}
+
+	/**
+	 * Takes every id out, keeping the table's size
+	 */
+	void clear() {
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+	}
+
+	/**
+	 * Gets the number of ids put
+	 *
+	 * @return
+	 */
+	int size() {
+		return size;
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+
+		allocate(oldKeys.length * 2);
+		size = 0;
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	// Ids are handed out in order, so they are mixed to spread runs of them over the table
+	private static int hash(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -1,18 +1,41 @@
 package stocks;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 
+import event_bus.RiskCheck;
 import outgoing_data_sources.DummyService;
+import outgoing_data_sources.OrderEventListener;
+import outgoing_data_sources.OrderGateway;
 import trade_types.MarketTrade;
+import trade_types.Side;
 import trade_types.Trade;
 import utilities.GeneralToolKit;
 
 /**
  * Represents a Trader's Portfolio
  * 
+ * Writes take a lock, so strategies and fills on different threads change it one at a time.
+ * Trades pass the Portfolio's RiskCheck, if it has one, and are sent out through its
+ * OrderGateway, and change it as their fills come back, which may be on the gateway's own thread.
+ * A write that changes the balances or positions publishes an immutable snapshot of them
+ * when it ends, and threads that are not writing read the snapshot without locking.
+ * Quotes only mark the positions, so their totals are published when the snapshot is next read. The lists returned
+ * by getStocks, getWorkingOrders and the like are the Portfolio's own and should only be
+ * used inside a write.
+ * 
+ * Fills are applied by its Settlement, which takes the write for each one, and working
+ * orders are kept by its WorkingOrders, which is only used inside a write.
+ * 
  * @author Steven Shaw
  * @email  sps5688@rit.edu
  *
@@ -20,81 +43,1396 @@ import utilities.GeneralToolKit;
 @SuppressWarnings("serial")
 public class Portfolio implements Serializable {
 
-	private List<Trade> positions = new ArrayList<Trade>();
-	private List<Trade> tradeHistory = new ArrayList<Trade>();
-	private ArrayList<String> watchList = new ArrayList<String>();
-	private double moneyAmount;
-	private double availableFunds;
-	private double netWorth;
-	private String accountName;
+	private List<Trade> positions = new ArrayList<Trade>();
+	private transient PositionBook positionBook;
+	private CostMethod costMethod = CostMethod.AVERAGE;
+
+	// Open lots of the positions, one Trade per lot, only filled in while the Portfolio is saved
+	private List<Trade> lots;
+	private TradeLog history = new TradeLog();
+
+	// Trade history of Portfolios saved before the trade log, moved into it when they are loaded
+	private List<Trade> tradeHistory;
+
+	// Watch list of Portfolios saved before watch lists were sets, moved into it when they are loaded
+	private ArrayList<String> watchList;
+	private WatchList watched = new WatchList();
+	private List<Trade> workingOrders = new ArrayList<Trade>();
+	private List<Trade> closeOrders = new ArrayList<Trade>();
+
+	// The working orders on their trigger engine, built the first time a write needs them
+	private transient WorkingOrders working;
+	private transient volatile RiskCheck riskCheck;
+
+	// Prints fills, rejections and margin calls when set, which backtests running many Portfolios leave off
+	private transient volatile boolean verbose;
+
+	// Sends the Portfolio's Trades out, and the settlement applies the fills that come back
+	private transient OrderGateway gateway;
+	private transient Settlement settlement = new Settlement(this);
+	private transient PortfolioJournal journal;
+	private transient boolean replaying;
+
+	// Writes hold the lock, and each one that finishes publishes a snapshot for the threads not writing
+	private transient ReentrantLock writeLock = new ReentrantLock();
+	private transient volatile PortfolioSnapshot snapshot;
+	private transient PortfolioSnapshot.Holdings holdings;
+	private transient IdIndex workingStocks;
+	private transient IdIndex watchedStocks;
+	private transient long writes;
+
+	// Set when the current write changes the balances, and when quotes have marked the positions since the last snapshot
+	private transient boolean dirty;
+	private transient volatile boolean marked;
+
+	// Stocks the current write changed the positions or working orders of, for the position listener
+	private transient PositionListener positionListener;
+	private transient List<Stock> changedStocks;
+
+	// Short positions, one Trade per stock priced at the average short price
+	private List<Trade> shortPositions = new ArrayList<Trade>();
+	private transient ShortBook shortBook;
+	private transient boolean marginCall;
+	private double borrowRate = DEFAULT_BORROW_RATE;
+	private double borrowCost;
+	private long borrowAccruedAt;
+
+	// Margin deposited on a short sale and the equity a short must keep, as fractions of its value
+	public static final double INITIAL_MARGIN = .50;
+	public static final double MAINTENANCE_MARGIN = .30;
+
+	// Yearly cost of borrowing the shares sold short, as a fraction of their value
+	public static final double DEFAULT_BORROW_RATE = .03;
+	private static final double YEAR_MILLIS = 365.0 * 24 * 60 * 60 * 1000;
+
+	// Charged on each sale and each cover, for both sides of the round trip
+	public static final double COMMISSION = 20.0;
+
+	private double moneyAmount;
+	private double availableFunds;
+	private double netWorth;
+	private String accountName;
+
+	public Portfolio(String accountName, double funds) {
+		moneyAmount = funds;
+		availableFunds = funds;
+		netWorth = funds;
+		this.accountName = accountName;
+		listenToWatchList();
+	}
+
+	/**
+	 * Has the snapshot's watch list copied again when the next write ends, after the watch list changes
+	 */
+	private void listenToWatchList() {
+		watched.addListener(new WatchListListener() {
+			@Override
+			public void onAdded(Stock stock) {
+				watchedStocks = null;
+			}
+
+			@Override
+			public void onRemoved(Stock stock) {
+				watchedStocks = null;
+			}
+		});
+	}
+
+	/**
+	 * Retrieves the trader's currently owned stocks
+	 * 
+	 * @return List of Trades
+	 */
+	public List<Trade> getStocks() {
+		return positions;
+	}
+
+	/**
+	 * Retrieves every Trade the trader has made, oldest first
+	 * 
+	 * @return the trade log
+	 */
+	public TradeLog getTradeHistory() {
+		if (history == null) {
+			history = new TradeLog();
+
+			// Older saves did not record when their Trades filled
+			if (tradeHistory != null) {
+				for (Trade curTrade : tradeHistory) {
+					history.append(0, curTrade);
+				}
+				tradeHistory = null;
+				history.spillIfNeeded();
+			}
+		}
+		return history;
+	}
+
+	/**
+	 * Processes the new Trade
+	 * 
+	 * @param newTrade the trade to be processed
+	 */
+	public void addStockTransaction(Trade newTrade) {
+		sendOrders(new Trade[] { newTrade });
+	}
+
+	/**
+	 * Sends Trades out through the order gateway as one batch, once the risk check has
+	 * approved them. Each fill changes the Portfolio when the gateway reports it, which
+	 * for a synchronous gateway is before this returns.
+	 * 
+	 * @param trades the Trades, which may contain nulls
+	 */
+	public void sendOrders(Trade[] trades) {
+		if (trades == null) {
+			return;
+		}
+		trades = approve(trades);
+
+		OrderGateway curGateway = getOrderGateway();
+		boolean submitted = false;
+		for (Trade curTrade : trades) {
+			if (curTrade != null) {
+				curGateway.submit(curTrade);
+				submitted = true;
+			}
+		}
+
+		if (submitted) {
+			curGateway.flush();
+		}
+	}
+
+	/**
+	 * Passes Trades through the risk check, against the positions as they are now
+	 * 
+	 * @param trades the Trades, which may contain nulls
+	 * @return the Trades that pass, with rejected ones set to null
+	 */
+	public Trade[] approve(Trade[] trades) {
+		RiskCheck curCheck = riskCheck;
+		if (curCheck == null) {
+			return trades;
+		}
+
+		// Locked in the same order as the fills the check listens to
+		beginWrite();
+		try {
+			return curCheck.approve(trades);
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Sets whether fills, rejections and margin calls are printed to the console
+	 * 
+	 * @param verbose true to print them, off until set
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Determines if fills, rejections and margin calls are printed to the console
+	 * 
+	 * @return
+	 */
+	public boolean isVerbose() {
+		return verbose;
+	}
+
+	/**
+	 * Sets the check every Trade passes before it is sent
+	 * 
+	 * @param check the check, or null to send Trades unchecked
+	 */
+	public void setRiskCheck(RiskCheck check) {
+		riskCheck = check;
+	}
+
+	/**
+	 * Gets the check every Trade passes before it is sent
+	 * 
+	 * @return the check, or null if there is none
+	 */
+	public RiskCheck getRiskCheck() {
+		return riskCheck;
+	}
+
+	/**
+	 * Sets the gateway the Portfolio's Trades are sent through. Its events are delivered
+	 * to the Portfolio from then on.
+	 * 
+	 * @param gateway the gateway
+	 */
+	public synchronized void setOrderGateway(OrderGateway gateway) {
+		gateway.setListener(settlement);
+		this.gateway = gateway;
+	}
+
+	/**
+	 * Gets the gateway the Portfolio's Trades are sent through, a DummyService unless another was set
+	 * 
+	 * @return
+	 */
+	public synchronized OrderGateway getOrderGateway() {
+		if (gateway == null) {
+			setOrderGateway(new DummyService());
+		}
+		return gateway;
+	}
+
+	/**
+	 * Applies a fill as if the order gateway had reported it. A sale or cover is cut to the
+	 * shares held and a purchase or short sale to the shares the funds pay for; the Trade
+	 * itself is not changed.
+	 * 
+	 * @param trade  the filled Trade
+	 * @param price  average price of the fill
+	 * @param shares shares filled
+	 */
+	public void settleFill(Trade trade, double price, int shares) {
+		settlement.onFill(trade, price, shares);
+	}
+
+	/**
+	 * Journals a fill and applies it to the trade history and the positions, inside a write
+	 * 
+	 * @param time   when it filled, in milliseconds
+	 * @param filled the Portfolio's copy of the fill
+	 */
+	void recordFill(long time, Trade filled) {
+		if (journal != null) {
+			journal.onFill(time, filled.getSymbol(), filled.getSide(), filled.getShares(), filled.getPrice());
+		}
+		applyFill(time, filled);
+	}
+
+	/**
+	 * Moves the money of a settled fill and journals the balances, inside a write
+	 * 
+	 * @param fundsChange    added to the available funds
+	 * @param netWorthChange added to the net worth
+	 */
+	void settleBalances(double fundsChange, double netWorthChange) {
+		availableFunds += fundsChange;
+		netWorth += netWorthChange;
+		dirty = true;
+		journalBalances();
+	}
+
+	/**
+	 * Applies a fill read back from a journal, without sending it out again.
+	 * Borrow cost is not charged while replaying, since the journal's balances already include it.
+	 * 
+	 * @param time   when it filled, in milliseconds
+	 * @param stock  the stock
+	 * @param side   the side
+	 * @param shares shares filled
+	 * @param price  the fill price
+	 */
+	public void replayFill(long time, Stock stock, Side side, int shares, double price) {
+		beginWrite();
+		try {
+			Trade filled = new MarketTrade(side.toString(), stock, shares);
+			filled.setPrice(price);
+
+			replaying = true;
+			try {
+				applyFill(time, filled);
+			} finally {
+				replaying = false;
+			}
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Restores the balances read back from a journal
+	 * 
+	 * @param availableFunds  the available funds
+	 * @param netWorth        the net worth
+	 * @param borrowCost      the total borrow cost charged
+	 * @param borrowAccruedAt when the borrow cost was last charged, in milliseconds
+	 */
+	public void restoreBalances(double availableFunds, double netWorth, double borrowCost, long borrowAccruedAt) {
+		beginWrite();
+		try {
+			this.availableFunds = availableFunds;
+			this.netWorth = netWorth;
+			this.borrowCost = borrowCost;
+			this.borrowAccruedAt = borrowAccruedAt;
+			dirty = true;
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Sets the journal told about every fill and balance change
+	 * 
+	 * @param journal the journal, or null to stop recording
+	 */
+	public void setJournal(PortfolioJournal journal) {
+		beginWrite();
+		try {
+			this.journal = journal;
+			journalBalances();
+		} finally {
+			endWrite();
+		}
+	}
+
+	private void journalBalances() {
+		if (journal != null) {
+			journal.onBalances(availableFunds, netWorth, borrowCost, borrowAccruedAt);
+		}
+	}
+
+	/**
+	 * Applies an executed Trade to the trade history and the positions
+	 * 
+	 * @param time     when it filled, in milliseconds
+	 * @param newTrade the executed Trade
+	 */
+	private void applyFill(long time, Trade newTrade) {
+		holdings = null;
+		changed(newTrade.getSymbol());
+
+		// The log copies the fill, so later changes to the Trade do not change the history
+		getTradeHistory().append(time, newTrade);
+
+		// Short sales and covers change the short positions instead
+		if (newTrade.getSide().isShort()) {
+			updateShortPosition(newTrade);
+			return;
+		}
+
+		Stock stock = newTrade.getSymbol();
+		PositionBook book = getPositionBook();
+
+		// If stock is already owned
+		if (book.getListIndex(stock.getId()) != -1) {
+			// Updates share amount if already owned
+			updatePosition(stock, newTrade.getShares(), newTrade.getSide(), newTrade.getPrice());
+		} else {
+			// If not owned, add to positions list
+			if (newTrade.getSide() == Side.BUY) {
+				book.buy(stock.getId(), newTrade.getShares(), newTrade.getPrice());
+				book.setListIndex(stock.getId(), positions.size());
+				positions.add(newTrade);
+			}
+		}
+	}
+
+	/**
+	 * Gets the position book, loading it with the positions after the Portfolio is deserialized
+	 */
+	private PositionBook getPositionBook() {
+		if (positionBook == null) {
+			positionBook = new PositionBook(positions.size(), getCostMethod());
+
+			// Saved lots keep the order they were bought in, otherwise each position is one lot
+			List<Trade> opened = lots != null && !lots.isEmpty() ? lots : positions;
+			for (Trade curTrade : opened) {
+				positionBook.buy(curTrade.getSymbol().getId(), curTrade.getShares(), curTrade.getPrice());
+			}
+			for (int i = 0; i < positions.size(); i++) {
+				positionBook.setListIndex(positions.get(i).getSymbol().getId(), i);
+			}
+			lots = null;
+		}
+		return positionBook;
+	}
+
+	/**
+	 * Saves the open lots with the Portfolio, since the position book is not saved
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		beginWrite();
+		try {
+			PositionBook book = getPositionBook();
+
+			if (book.getCostMethod() != CostMethod.AVERAGE) {
+				lots = new ArrayList<Trade>();
+
+				for (Trade position : positions) {
+					Stock stock = position.getSymbol();
+					for (int i = 0; i < book.getLotCount(stock.getId()); i++) {
+						Trade lot = new MarketTrade("Buy", stock, book.getLotShares(stock.getId(), i));
+						lot.setPrice(book.getLotPrice(stock.getId(), i));
+						lots.add(lot);
+					}
+				}
+			}
+
+			out.defaultWriteObject();
+			lots = null;
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Gets the number of open lots of an owned stock
+	 * 
+	 * @param symbol the stock for lookup
+	 * @return 0 unless the cost method keeps lots
+	 */
+	public int getLotCount(Stock symbol) {
+		return getPositionBook().getLotCount(symbol.getId());
+	}
+
+	/**
+	 * Gets the shares left in an open lot of an owned stock
+	 * 
+	 * @param symbol the stock for lookup
+	 * @param lot    the lot, 0 for the oldest
+	 * @return
+	 */
+	public int getLotShares(Stock symbol, int lot) {
+		return getPositionBook().getLotShares(symbol.getId(), lot);
+	}
+
+	/**
+	 * Gets the price paid for an open lot of an owned stock
+	 * 
+	 * @param symbol the stock for lookup
+	 * @param lot    the lot, 0 for the oldest
+	 * @return
+	 */
+	public double getLotPrice(Stock symbol, int lot) {
+		return getPositionBook().getLotPrice(symbol.getId(), lot);
+	}
+
+	/**
+	 * Opens a lot of a stock read back from a save, without recording a Trade or charging for it
+	 * 
+	 * @param stock  the stock
+	 * @param shares shares in the lot
+	 * @param price  the price paid
+	 */
+	public void restoreLot(Stock stock, int shares, double price) {
+		beginWrite();
+		try {
+			PositionBook book = getPositionBook();
+			int id = stock.getId();
+
+			holdings = null;
+			changed(stock);
+			book.buy(id, shares, price);
+			if (book.getListIndex(id) == -1) {
+				book.setListIndex(id, positions.size());
+				positions.add(new MarketTrade("Buy", stock, 0));
+			}
+
+			Trade position = positions.get(book.getListIndex(id));
+			position.setShares(book.getShares(id));
+			position.setPrice(book.getAverageCost(id));
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Opens a short position read back from a save, without recording a Trade or charging for it
+	 * 
+	 * @param stock  the stock
+	 * @param shares shares short
+	 * @param price  the average price they were sold short at
+	 */
+	public void restoreShort(Stock stock, int shares, double price) {
+		beginWrite();
+		try {
+			Trade saved = new MarketTrade("Sell Short", stock, shares);
+			saved.setPrice(price);
+
+			holdings = null;
+			changed(stock);
+			getShortBook().open(stock.getId(), shares, price);
+			getShortPositions().add(saved);
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Puts back a working order read from a save, left unarmed until armWorkingOrders or a quote prices it
+	 * 
+	 * @param order the working order
+	 */
+	public void restoreWorkingOrder(Trade order) {
+		beginWrite();
+		try {
+			if (working != null) {
+				working.restore(order);
+			} else {
+				workingOrders.add(order);
+			}
+
+			changed(order.getSymbol());
+			workingStocks = null;
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Creates the write lock and the fill listener list, which are not saved
+	 * 
+	 * @param in
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		writeLock = new ReentrantLock();
+		settlement = new Settlement(this);
+
+		if (watched == null) {
+			watched = new WatchList();
+			for (String curSymbol : watchList) {
+				watched.add(Stock.get(curSymbol));
+			}
+			watchList = null;
+		}
+		listenToWatchList();
+	}
+
+	/**
+	 * Sets how the shares sold of a position are matched against the shares bought.
+	 * Positions already open become one lot at their average price.
+	 * 
+	 * @param method
+	 */
+	public void setCostMethod(CostMethod method) {
+		beginWrite();
+		try {
+			getPositionBook().setCostMethod(method);
+			costMethod = method;
+			holdings = null;
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Gets how the shares sold of a position are matched against the shares bought
+	 * 
+	 * @return
+	 */
+	public CostMethod getCostMethod() {
+		// Portfolios saved before cost methods always used the average price
+		if (costMethod == null) {
+			costMethod = CostMethod.AVERAGE;
+		}
+		return costMethod;
+	}
+
+	/**
+	 * Applies a fill to the position of an owned stock
+	 * 
+	 * @param stock  the stock
+	 * @param amount shares filled
+	 * @param side   Side.BUY adds the shares, any other side removes them
+	 * @param price  the fill price
+	 */
+	private void updatePosition(Stock stock, int amount, Side side, double price) {
+		holdings = null;
+		changed(stock);
+
+		PositionBook book = getPositionBook();
+		int id = stock.getId();
+		int index = book.getListIndex(id);
+
+		if (index == -1) {
+			return;
+		}
+
+		if (side == Side.BUY) {
+			book.buy(id, amount, price);
+		} else {
+			book.sell(id, Math.min(amount, book.getShares(id)), price);
+		}
+
+		// If no shares are left, remove from positions list
+		// Otherwise, update share amount and the average price paid
+		if (book.getShares(id) == 0) {
+			removeStock(stock);
+		} else {
+			Trade position = positions.get(index);
+			position.setShares(book.getShares(id));
+			position.setPrice(book.getAverageCost(id));
+		}
+	}
+
+	/**
+	 * Starts a write. Writes from other threads wait until it ends, and until then this
+	 * thread reads the Portfolio itself instead of its last snapshot. Writes may nest,
+	 * so a caller can make several changes, and the reads between them, one write.
+	 */
+	public void beginWrite() {
+		writeLock.lock();
+	}
+
+	/**
+	 * Ends a write. When the outermost write ends a snapshot is published for the other threads
+	 * if it changed the balances or positions, and the position listener is told which stocks
+	 * it changed. Trade history past what is kept in memory is spilled once the lock is released.
+	 */
+	public void endWrite() {
+		boolean outermost = writeLock.getHoldCount() == 1;
+
+		try {
+			if (outermost) {
+				if (dirty || holdings == null || workingStocks == null || watchedStocks == null
+						|| snapshot == null) {
+					publish();
+				}
+				notifyChanged();
+			}
+		} finally {
+			writeLock.unlock();
+		}
+
+		// Older fills are spilled after the lock is released, so the next write does not wait on the file
+		if (outermost && history != null) {
+			history.spillIfNeeded();
+		}
+	}
+
+	/**
+	 * Sets the listener told which stocks each write changed the positions or working orders of
+	 * 
+	 * @param listener the listener, or null to stop telling one
+	 */
+	public void setPositionListener(PositionListener listener) {
+		beginWrite();
+		try {
+			positionListener = listener;
+			changedStocks = null;
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Determines if the Portfolio holds a stock long or short or has working orders for it,
+	 * which are the stocks whose quotes change it. Threads that are not writing read the snapshot.
+	 * 
+	 * @param stock the stock for lookup
+	 * @return
+	 */
+	public boolean isFollowing(Stock stock) {
+		if (!isWriting()) {
+			return snapshot().isFollowing(stock);
+		}
+
+		int id = stock.getId();
+		if (getPositionBook().getListIndex(id) != -1 || getShortBook().getShares(id) != 0) {
+			return true;
+		}
+		return workingOrders != null && !workingOrders.isEmpty() && getWorking().isWorking(stock);
+	}
+
+	private void changed(Stock stock) {
+		if (positionListener != null) {
+			if (changedStocks == null) {
+				changedStocks = new ArrayList<Stock>();
+			}
+			changedStocks.add(stock);
+		}
+	}
+
+	private void notifyChanged() {
+		if (changedStocks == null || changedStocks.isEmpty()) {
+			return;
+		}
+
+		Stock[] changed = changedStocks.toArray(new Stock[changedStocks.size()]);
+		changedStocks.clear();
+		for (Stock curStock : changed) {
+			positionListener.onPositionChanged(this, curStock);
+		}
+	}
+
+	/**
+	 * Gets the balances and positions as of the last write, without locking.
+	 * The getters of the Portfolio read it too when called from a thread that is not writing.
+	 * 
+	 * @return the snapshot
+	 */
+	public PortfolioSnapshot snapshot() {
+		PortfolioSnapshot current = snapshot;
+
+		// Portfolios that have not been written since they were created or loaded publish one now
+		if (current == null) {
+			beginWrite();
+			endWrite();
+			current = snapshot;
+		} else if (marked && !isWriting() && writeLock.tryLock()) {
+			// Totals of the quotes since the last snapshot, unless a writer has the lock, which is not waited for
+			try {
+				if (marked) {
+					publish();
+				}
+				current = snapshot;
+			} finally {
+				writeLock.unlock();
+			}
+		}
+		return current;
+	}
+
+	private boolean isWriting() {
+		return writeLock.isHeldByCurrentThread();
+	}
+
+	/**
+	 * Publishes the balances, copying the positions only if a fill has changed them since the last snapshot
+	 */
+	private void publish() {
+		PositionBook book = getPositionBook();
+		ShortBook shorts = getShortBook();
+
+		if (holdings == null) {
+			holdings = copyHoldings();
+		}
+		if (workingStocks == null) {
+			workingStocks = WorkingOrders.count(workingOrders);
+		}
+		if (watchedStocks == null) {
+			watchedStocks = new IdIndex(watched.size());
+			for (int i = 0; i < watched.size(); i++) {
+				watchedStocks.put(watched.get(i).getId(), i);
+			}
+		}
+
+		dirty = false;
+		marked = false;
+		snapshot = new PortfolioSnapshot(++writes, moneyAmount, availableFunds, netWorth, book.getMarketValue(),
+				book.getUnrealized() + shorts.getUnrealized(), book.getRealizedTotal() + shorts.getRealized(),
+				shorts.getMarketValue(), shorts.getEntryValue() * (1 + INITIAL_MARGIN), shorts.getUnrealized(),
+				borrowCost, marginCall, holdings, workingStocks,
+				watchedStocks);
+	}
+
+	private PortfolioSnapshot.Holdings copyHoldings() {
+		PositionBook book = getPositionBook();
+		Stock[] stocks = new Stock[positions.size()];
+		int[] shares = new int[stocks.length];
+		double[] averageCost = new double[stocks.length];
+
+		for (int i = 0; i < stocks.length; i++) {
+			stocks[i] = positions.get(i).getSymbol();
+			shares[i] = book.getShares(stocks[i].getId());
+			averageCost[i] = book.getAverageCost(stocks[i].getId());
+		}
+
+		List<Trade> shorts = getShortPositions();
+		Stock[] shortStocks = new Stock[shorts.size()];
+		int[] shortShares = new int[shortStocks.length];
+		double[] shortPrice = new double[shortStocks.length];
+
+		for (int i = 0; i < shortStocks.length; i++) {
+			shortStocks[i] = shorts.get(i).getSymbol();
+			shortShares[i] = shortBook.getShares(shortStocks[i].getId());
+			shortPrice[i] = shortBook.getEntryPrice(shortStocks[i].getId());
+		}
+
+		return new PortfolioSnapshot.Holdings(stocks, shares, averageCost, shortStocks, shortShares, shortPrice);
+	}
+
+	/**
+	 * Starts telling a listener about every Trade the Portfolio executes. Fills are told
+	 * inside the write that applies them.
+	 * 
+	 * @param listener the listener
+	 */
+	public void addFillListener(OrderEventListener listener) {
+		settlement.addListener(listener);
+	}
+
+	/**
+	 * Stops telling a listener about the Trades the Portfolio executes
+	 * 
+	 * @param listener the listener
+	 */
+	public void removeFillListener(OrderEventListener listener) {
+		settlement.removeListener(listener);
+	}
+
+	/**
+	 * Adds a limit, stop, stop limit or trailing stop Trade that waits
+	 * until the price reaches it
+	 * 
+	 * @param newTrade the trade to be worked
+	 */
+	public void addWorkingOrder(Trade newTrade) {
+		// Fetched before the write, so other writes do not wait on it
+		double curPrice = Double.parseDouble(GeneralToolKit.fetcher.getLastTradePriceOnly(newTrade.getSymbol().symbol));
+		addWorkingOrder(newTrade, curPrice);
+	}
+
+	private void addWorkingOrder(Trade newTrade, double curPrice) {
+		beginWrite();
+		try {
+			getWorking().add(newTrade, curPrice);
+			changed(newTrade.getSymbol());
+			workingStocks = null;
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Prices the working orders the Portfolio was loaded with and puts them on their trigger
+	 * prices, fetching the prices in one request outside the write. Loaders call it once the
+	 * Portfolio is read; orders it does not arm are armed by the first quote of their stock.
+	 */
+	public void armWorkingOrders() {
+		List<Stock> stocks;
+
+		beginWrite();
+		try {
+			stocks = getWorking().getUnarmedStocks();
+		} finally {
+			endWrite();
+		}
+		if (stocks.isEmpty()) {
+			return;
+		}
+
+		double[] prices = GeneralToolKit.getLastTradePrices(symbolsOf(stocks));
+
+		beginWrite();
+		try {
+			for (int i = 0; i < prices.length; i++) {
+				if (working.arm(stocks.get(i), prices[i])) {
+					changed(stocks.get(i));
+					workingStocks = null;
+				}
+			}
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Cancels a working Trade
+	 * 
+	 * @param toCancel the trade to cancel
+	 * @return if the trade was working
+	 */
+	public boolean cancelWorkingOrder(Trade toCancel) {
+		beginWrite();
+		try {
+			if (!getWorking().cancel(toCancel)) {
+				return false;
+			}
+
+			changed(toCancel.getSymbol());
+			workingStocks = null;
+			return true;
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Checks the working Trades against the current prices
+	 * 
+	 * @return a market Trade for each working Trade that triggered
+	 */
+	public Trade[] checkWorkingOrders() {
+		List<Stock> stocks = new ArrayList<Stock>();
+
+		beginWrite();
+		try {
+			boolean[] checked = new boolean[Stock.count()];
+
+			// Each stock with working orders is fetched once
+			for (int i = 0; i < getWorkingOrders().size(); i++) {
+				Stock curStock = workingOrders.get(i).getSymbol();
+
+				if (!checked[curStock.getId()]) {
+					checked[curStock.getId()] = true;
+					stocks.add(curStock);
+				}
+			}
+		} finally {
+			endWrite();
+		}
+
+		// Prices are fetched in one request without holding up other writes
+		double[] prices = GeneralToolKit.getLastTradePrices(symbolsOf(stocks));
+
+		beginWrite();
+		try {
+			for (int i = 0; i < prices.length; i++) {
+				onQuote(stocks.get(i), prices[i]);
+			}
+			return takeTriggeredOrders();
+		} finally {
+			endWrite();
+		}
+	}
+
+	private static String[] symbolsOf(List<Stock> stocks) {
+		String[] symbols = new String[stocks.size()];
+		for (int i = 0; i < symbols.length; i++) {
+			symbols[i] = stocks.get(i).symbol;
+		}
+		return symbols;
+	}
+
+	/**
+	 * Checks the working Trades of a stock against a new price.
+	 * Trades that trigger are kept until takeTriggeredOrders is called.
+	 * 
+	 * @param stock the stock
+	 * @param price its new price
+	 * @return if there are triggered Trades waiting to be taken
+	 */
+	public boolean onQuote(Stock stock, double price) {
+		beginWrite();
+		try {
+			// Portfolios without working orders never build a trigger engine
+			if (working != null || (workingOrders != null && !workingOrders.isEmpty())) {
+				if (getWorking().onPrice(stock, price)) {
+					changed(stock);
+					workingStocks = null;
+				}
+			}
+			getPositionBook().mark(stock.getId(), price);
+			marked = true;
+
+			ShortBook book = getShortBook();
+			if (book.getCount() > 0) {
+				book.mark(stock.getId(), price);
+				accrueBorrowCost();
+				checkMargin();
+			}
+			return working != null && working.hasTriggered();
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Marks every long and short position to its current price, fetched in one request
+	 */
+	public void markToMarket() {
+		List<Stock> stocks = new ArrayList<Stock>();
+
+		beginWrite();
+		try {
+			for (Trade curTrade : positions) {
+				stocks.add(curTrade.getSymbol());
+			}
+			for (Trade curTrade : getShortPositions()) {
+				stocks.add(curTrade.getSymbol());
+			}
+		} finally {
+			endWrite();
+		}
+
+		// Prices are fetched without holding up other writes
+		double[] prices = GeneralToolKit.getLastTradePrices(symbolsOf(stocks));
+
+		beginWrite();
+		try {
+			for (int i = 0; i < prices.length; i++) {
+				getPositionBook().mark(stocks.get(i).getId(), prices[i]);
+				getShortBook().mark(stocks.get(i).getId(), prices[i]);
+			}
+			dirty = true;
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Gets the value of the long positions at the last prices
+	 * 
+	 * @return
+	 */
+	public double getMarketValue() {
+		return isWriting() ? getPositionBook().getMarketValue() : snapshot().getMarketValue();
+	}
+
+	/**
+	 * Gets the profit of the long and short positions at the last prices, negative for a loss
+	 * 
+	 * @return
+	 */
+	public double getUnrealized() {
+		return isWriting() ? getPositionBook().getUnrealized() + getShortBook().getUnrealized() : snapshot().getUnrealized();
+	}
+
+	/**
+	 * Gets the profit of the positions closed since the Portfolio was loaded, negative for a loss.
+	 * Commissions and borrow cost are not taken out.
+	 * 
+	 * @return
+	 */
+	public double getRealized() {
+		return isWriting() ? getPositionBook().getRealizedTotal() + getShortBook().getRealized() : snapshot().getRealized();
+	}
+
+	/**
+	 * Gets the value of the long and short positions together at the last prices
+	 * 
+	 * @return
+	 */
+	public double getGrossExposure() {
+		if (isWriting()) {
+			return getPositionBook().getMarketValue() + getShortBook().getMarketValue();
+		}
+
+		PortfolioSnapshot current = snapshot();
+		return current.getMarketValue() + current.getShortMarketValue();
+	}
 
-	public Portfolio(String accountName, double funds) {
-		moneyAmount = funds;
-		availableFunds = funds;
-		netWorth = funds;
-		this.accountName = accountName;
+	/**
+	 * Gets the value of the long positions less the short positions at the last prices
+	 * 
+	 * @return
+	 */
+	public double getNetExposure() {
+		if (isWriting()) {
+			return getPositionBook().getMarketValue() - getShortBook().getMarketValue();
+		}
+
+		PortfolioSnapshot current = snapshot();
+		return current.getMarketValue() - current.getShortMarketValue();
 	}
 
 	/**
-	 * Retrieves the trader's currently owned stocks
+	 * Gets what the Portfolio would be worth if every position were closed at the last prices:
+	 * the available funds, the long positions and the margin held less the cost of covering the shorts
 	 * 
-	 * @return List of Trades
+	 * @return
 	 */
-	public List<Trade> getStocks() {
-		return positions;
+	public double getNetLiquidationValue() {
+		if (isWriting()) {
+			return availableFunds + getPositionBook().getMarketValue() + getMarginHeld() - getShortBook().getMarketValue();
+		}
+		return snapshot().getNetLiquidationValue();
 	}
 
 	/**
-	 * Processes the new Trade
+	 * Moves a filled short sale or cover between the available funds and the margin held.
+	 * A short sale holds its proceeds and deposits the initial margin from the available
+	 * funds. A cover pays for the shares out of the margin it releases, so the short's
+	 * profit or loss ends up in the available funds.
 	 * 
-	 * @param newTrade the trade to be processed
+	 * @param filled the executed Trade
 	 */
-	public void addStockTransaction(Trade newTrade) {
-		// Sends trade through outgoing service and updates stock price
-		DummyService service = new DummyService();
-		newTrade = service.executeOrder(newTrade);
+	private void updateShortPosition(Trade filled) {
+		accrueBorrowCost();
 
-		// Searches positions list
-		boolean found = false;
-		for (int i = 0; i < positions.size(); i++) {
-			// If stock is already owned
-			if (positions.get(i).getSymbol().symbol.equals(newTrade.getSymbol().symbol)) {
-				
-				// Creates a new object so trade history does not have the same object address
-				// Currently only Market Trades are implemented
-				Trade existingTrade = null;
-				if(newTrade.getTradeType().equals("market")){
-					existingTrade = new MarketTrade(newTrade.getOrderType(), newTrade.getSymbol(), newTrade.getShares());
-				}else if(newTrade.getTradeType().equals("market on close")){
-					existingTrade = new MarketTrade(newTrade.getOrderType(), newTrade.getSymbol(), newTrade.getShares());
-				}else if(newTrade.getTradeType().equals("limit")){
-					existingTrade = new MarketTrade(newTrade.getOrderType(), newTrade.getSymbol(), newTrade.getShares());
-				}else if(newTrade.getTradeType().equals("stop limit")){
-					existingTrade = new MarketTrade(newTrade.getOrderType(), newTrade.getSymbol(), newTrade.getShares());
-				}else if(newTrade.getTradeType().equals("stop")){
-					existingTrade = new MarketTrade(newTrade.getOrderType(), newTrade.getSymbol(), newTrade.getShares());
-				}else if(newTrade.getTradeType().equals("trailing stop dolar")){
-					existingTrade = new MarketTrade(newTrade.getOrderType(), newTrade.getSymbol(), newTrade.getShares());
-				}else if(newTrade.getTradeType().equals("trailing stop percent")){
-					existingTrade = new MarketTrade(newTrade.getOrderType(), newTrade.getSymbol(), newTrade.getShares());
-				}
-				
-				existingTrade.setPrice(newTrade.getPrice());
-				tradeHistory.add(existingTrade);
-				
-				// Updates share amount if already owned
-				updateShareAmount(existingTrade.getSymbol(), existingTrade.getShares(), existingTrade.getOrderType());
-				
-				found = true;
-				break;
+		ShortBook book = getShortBook();
+		Stock stock = filled.getSymbol();
+		int id = stock.getId();
+		double price = filled.getPrice();
+
+		if (filled.getSide() == Side.SELL_SHORT) {
+			book.open(id, filled.getShares(), price);
+			availableFunds -= price * filled.getShares() * INITIAL_MARGIN;
+		} else {
+			int covered = Math.min(filled.getShares(), book.getShares(id));
+			double entry = book.getEntryPrice(id);
+
+			book.cover(id, covered, price);
+			availableFunds += entry * covered * (1 + INITIAL_MARGIN) - price * covered;
+		}
+
+		// Keeps the saved short positions in step with the book
+		Trade saved = null;
+		for (Trade curTrade : getShortPositions()) {
+			if (curTrade.getSymbol() == stock) {
+				saved = curTrade;
+			}
+		}
+		if (saved == null) {
+			saved = new MarketTrade("Sell Short", stock, 0);
+			shortPositions.add(saved);
+		}
+		saved.setShares(book.getShares(id));
+		saved.setPrice(book.getEntryPrice(id));
+		if (saved.getShares() == 0) {
+			shortPositions.remove(saved);
+		}
+
+		checkMargin();
+	}
+
+	/**
+	 * Charges the cost of borrowing the shorted shares since the last charge
+	 */
+	private void accrueBorrowCost() {
+		if (replaying) {
+			return;
+		}
+
+		long now = GeneralToolKit.clock().currentTimeMillis();
+		double shortValue = getShortBook().getMarketValue();
+
+		if (borrowAccruedAt != 0 && now > borrowAccruedAt && shortValue > 0) {
+			double cost = shortValue * borrowRate * (now - borrowAccruedAt) / YEAR_MILLIS;
+
+			borrowCost += cost;
+			availableFunds -= cost;
+			netWorth -= cost;
+			dirty = true;
+		}
+		borrowAccruedAt = now;
+	}
+
+	/**
+	 * Warns once when the equity of the shorts falls below the maintenance margin
+	 */
+	private void checkMargin() {
+		double shortValue = shortBook.getMarketValue();
+		double equity = getMarginHeld() - shortValue;
+		boolean call = shortValue > 0 && equity < shortValue * MAINTENANCE_MARGIN;
+
+		if (call && !marginCall && verbose) {
+			System.out.println("Margin call: short equity of $" + equity + " is below the maintenance margin of $"
+					+ (shortValue * MAINTENANCE_MARGIN));
+		}
+		if (call != marginCall) {
+			marginCall = call;
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Gets the short book, loading it with the short positions after the Portfolio is deserialized
+	 */
+	private ShortBook getShortBook() {
+		if (shortBook == null) {
+			shortBook = new ShortBook();
+
+			for (Trade curTrade : getShortPositions()) {
+				shortBook.open(curTrade.getSymbol().getId(), curTrade.getShares(), curTrade.getPrice());
 			}
 		}
+		return shortBook;
+	}
+
+	/**
+	 * Gets the stocks the Trader is short, one Trade per stock priced at the average short price
+	 * 
+	 * @return List of Trades
+	 */
+	public List<Trade> getShortPositions() {
+		// Portfolios saved before short selling do not have the list
+		if (shortPositions == null) {
+			shortPositions = new ArrayList<Trade>();
+		}
+		return shortPositions;
+	}
+
+	/**
+	 * Gets the number of shares the Trader is short of a stock
+	 * 
+	 * @param symbol the stock for lookup
+	 * @return number of shares
+	 */
+	public int getShortShares(Stock symbol) {
+		return isWriting() ? getShortBook().getShares(symbol.getId()) : snapshot().getShortShares(symbol);
+	}
+
+	/**
+	 * Gets the average price a stock was sold short at
+	 * 
+	 * @param symbol the stock for lookup
+	 * @return the price, 0 if the stock is not short
+	 */
+	public double getShortPrice(Stock symbol) {
+		return isWriting() ? getShortBook().getEntryPrice(symbol.getId()) : snapshot().getShortPrice(symbol);
+	}
+
+	/**
+	 * Gets the Trader's position in a stock, negative when short
+	 * 
+	 * @param symbol the stock for lookup
+	 * @return the shares owned less the shares short
+	 */
+	public int getPosition(Stock symbol) {
+		if (isWriting()) {
+			return getShareAmount(symbol) - getShortShares(symbol);
+		}
+
+		PortfolioSnapshot current = snapshot();
+		return current.getShares(symbol) - current.getShortShares(symbol);
+	}
+
+	/**
+	 * Gets the money held against the short positions: their proceeds and the initial margin
+	 * 
+	 * @return
+	 */
+	public double getMarginHeld() {
+		return isWriting() ? getShortBook().getEntryValue() * (1 + INITIAL_MARGIN) : snapshot().getMarginHeld();
+	}
+
+	/**
+	 * Gets the value of the short positions at the last prices
+	 * 
+	 * @return
+	 */
+	public double getShortMarketValue() {
+		return isWriting() ? getShortBook().getMarketValue() : snapshot().getShortMarketValue();
+	}
+
+	/**
+	 * Gets the profit of the short positions at the last prices, negative for a loss
+	 * 
+	 * @return
+	 */
+	public double getShortUnrealized() {
+		return isWriting() ? getShortBook().getUnrealized() : snapshot().getShortUnrealized();
+	}
+
+	/**
+	 * Determines if the equity of the short positions is below the maintenance margin
+	 * 
+	 * @return
+	 */
+	public boolean isMarginCall() {
+		return isWriting() ? marginCall : snapshot().isMarginCall();
+	}
+
+	/**
+	 * Sets the yearly cost of borrowing shares sold short
+	 * 
+	 * @param rate fraction of the shorted value per year
+	 */
+	public void setBorrowRate(double rate) {
+		beginWrite();
+		try {
+			accrueBorrowCost();
+			borrowRate = rate;
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Gets the yearly cost of borrowing shares sold short
+	 * 
+	 * @return fraction of the shorted value per year
+	 */
+	public double getBorrowRate() {
+		return borrowRate;
+	}
+
+	/**
+	 * Gets the total borrow cost charged
+	 * 
+	 * @return
+	 */
+	public double getBorrowCost() {
+		return isWriting() ? borrowCost : snapshot().getBorrowCost();
+	}
+
+	/**
+	 * Gets when the borrow cost was last charged
+	 * 
+	 * @return the time in milliseconds, 0 if it has not been charged
+	 */
+	public long getBorrowAccruedAt() {
+		return borrowAccruedAt;
+	}
+
+	/**
+	 * Gets the Trades that are waiting for their price
+	 * 
+	 * @return List of Trades
+	 */
+	public List<Trade> getWorkingOrders() {
+		return workingOrders;
+	}
+
+	/**
+	 * Queues a market on close Trade for the closing auction
+	 * 
+	 * @param newTrade the trade to queue
+	 */
+	public void addCloseOrder(Trade newTrade) {
+		beginWrite();
+		try {
+			getCloseOrders().add(newTrade);
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Gets the Trades waiting for the closing auction
+	 * 
+	 * @return List of Trades
+	 */
+	public List<Trade> getCloseOrders() {
+		// Portfolios saved before market on close orders were queued do not have the list
+		if (closeOrders == null) {
+			closeOrders = new ArrayList<Trade>();
+		}
+		return closeOrders;
+	}
+
+	/**
+	 * Empties the Trades waiting for the closing auction
+	 * 
+	 * @return the Trades, in the order they were queued
+	 */
+	public Trade[] takeCloseOrders() {
+		beginWrite();
+		try {
+			Trade[] queued = getCloseOrders().toArray(new Trade[closeOrders.size()]);
+			closeOrders.clear();
+			return queued;
+		} finally {
+			endWrite();
+		}
+	}
+
+	/**
+	 * Empties the triggered orders into the Trades to send. Limit and stop limit orders
+	 * go on as limit Trades at their limit price; stops and trailing stops become market Trades.
+	 * 
+	 * @return a Trade for each working Trade that triggered
+	 */
+	public Trade[] takeTriggeredOrders() {
+		beginWrite();
+		try {
+			return working == null ? new Trade[0] : working.takeTriggered();
+		} finally {
+			endWrite();
+		}
+	}
 
-		// If not owned, add to positions list
-		if (found == false) {
-			tradeHistory.add(newTrade);
-			positions.add(newTrade);
+	/**
+	 * Gets the working orders on their trigger engine, inside a write. After the Portfolio is
+	 * deserialized its orders wait unarmed until armWorkingOrders or a quote of their stock prices them.
+	 */
+	private WorkingOrders getWorking() {
+		if (working == null) {
+			if (workingOrders == null) {
+				workingOrders = new ArrayList<Trade>();
+			}
+			working = new WorkingOrders(workingOrders);
 		}
+		return working;
 	}
 
 	/**
@@ -103,10 +1441,29 @@ public class Portfolio implements Serializable {
 	 * @param toRemove Stock that will be removed
 	 */
 	public void removeStock(Stock toRemove) {
-		for (int i = 0; i < positions.size(); i++) {
-			if (positions.get(i).getSymbol() == toRemove) {
-				positions.remove(positions.get(i));
+		beginWrite();
+		try {
+			PositionBook book = getPositionBook();
+			int id = toRemove.getId();
+			int index = book.getListIndex(id);
+
+			holdings = null;
+			changed(toRemove);
+			if (index == -1) {
+				return;
+			}
+
+			// Moves the last position into the gap so nothing has to shift
+			Trade last = positions.remove(positions.size() - 1);
+			if (index < positions.size()) {
+				positions.set(index, last);
+				book.setListIndex(last.getSymbol().getId(), index);
 			}
+
+			book.sell(id, book.getShares(id), book.getAverageCost(id));
+			book.setListIndex(id, -1);
+		} finally {
+			endWrite();
 		}
 	}
 
@@ -116,7 +1473,7 @@ public class Portfolio implements Serializable {
 	 * @return
 	 */
 	public int getPositionsSize() {
-		return positions.size();
+		return isWriting() ? positions.size() : snapshot().getPositionCount();
 	}
 
 	/**
@@ -125,7 +1482,13 @@ public class Portfolio implements Serializable {
 	 * @param amount
 	 */
 	public void setMoneyAmount(double amount) {
-		moneyAmount = amount;
+		beginWrite();
+		try {
+			moneyAmount = amount;
+			dirty = true;
+		} finally {
+			endWrite();
+		}
 	}
 
 	/**
@@ -134,7 +1497,7 @@ public class Portfolio implements Serializable {
 	 * @return
 	 */
 	public double getMoneyAmount() {
-		return moneyAmount;
+		return isWriting() ? moneyAmount : snapshot().getMoneyAmount();
 	}
 
 	/**
@@ -143,7 +1506,12 @@ public class Portfolio implements Serializable {
 	 * @param name
 	 */
 	public void setAccountName(String name) {
-		accountName = name;
+		beginWrite();
+		try {
+			accountName = name;
+		} finally {
+			endWrite();
+		}
 	}
 	
 	/**
@@ -161,7 +1529,14 @@ public class Portfolio implements Serializable {
 	 * @param amount
 	 */
 	public void setAvailableFunds(double amount) {
-		availableFunds = amount;
+		beginWrite();
+		try {
+			availableFunds = amount;
+			dirty = true;
+			journalBalances();
+		} finally {
+			endWrite();
+		}
 	}
 
 	/**
@@ -170,7 +1545,7 @@ public class Portfolio implements Serializable {
 	 * @return
 	 */
 	public double getAvailableFunds() {
-		return availableFunds;
+		return isWriting() ? availableFunds : snapshot().getAvailableFunds();
 	}
 
 	/**
@@ -179,7 +1554,14 @@ public class Portfolio implements Serializable {
 	 * @param amount
 	 */
 	public void updateAvailableFunds(double amount) {
-		availableFunds += amount;
+		beginWrite();
+		try {
+			availableFunds += amount;
+			dirty = true;
+			journalBalances();
+		} finally {
+			endWrite();
+		}
 	}
 
 	/**
@@ -208,8 +1590,8 @@ public class Portfolio implements Serializable {
 	 * 
 	 */
 	public void printWatchList() {
-		for (String curStock : watchList) {
-			System.out.print(curStock + " ");
+		for (Stock curStock : watched) {
+			System.out.print(curStock.symbol + " ");
 		}
 		System.out.println();
 	}
@@ -220,29 +1602,73 @@ public class Portfolio implements Serializable {
 	 * @param symbol
 	 */
 	public void addToWatchList(String symbol) {
+		if(symbol == null){
+			return;
+		}
+
+		// Stocks already watched are not looked up again, and no Stock is made for a symbol that fails
+		Stock known = Stock.find(symbol);
+		if(known != null && isWatching(known)){
+			return;
+		}
+
 		if(GeneralToolKit.verifySymbol(symbol)){
-			watchList.add(symbol);	
+			beginWrite();
+			try {
+				watched.add(Stock.get(symbol));
+			} finally {
+				endWrite();
+			}
 		}
 	}
 
 	/**
-	 * Gets the number of shares that the Trader owns of a stock
+	 * Adds several symbols to the Trader's watch list, verifying them with one request
 	 * 
-	 * @param symbol the stock for lookup
-	 * @return number of shares
+	 * @param symbols
+	 * @return the number of stocks added
 	 */
-	public int getShareAmount(Stock symbol) {
-		Trade curTrade;
-		int shareTotal = 0;
+	public int addToWatchList(String[] symbols) {
+		List<String> toVerify = new ArrayList<String>();
+		Set<String> seen = new HashSet<String>();
 
-		for (int i = 0; i < positions.size(); i++) {
-			curTrade = positions.get(i);
+		// Only stocks not watched yet are looked up, each once, and Stocks are only made for those that pass
+		for (String curSymbol : symbols) {
+			if (curSymbol != null) {
+				Stock known = Stock.find(curSymbol.trim());
+				if ((known == null || !isWatching(known)) && seen.add(curSymbol.trim().toLowerCase())) {
+					toVerify.add(curSymbol.trim());
+				}
+			}
+		}
+		if (toVerify.isEmpty()) {
+			return 0;
+		}
+
+		boolean[] valid = GeneralToolKit.verifySymbols(toVerify.toArray(new String[toVerify.size()]));
+		int added = 0;
 
-			if (curTrade.getSymbol() == symbol) {
-				shareTotal += curTrade.getShares();
+		beginWrite();
+		try {
+			for (int i = 0; i < valid.length; i++) {
+				if (valid[i] && watched.add(Stock.get(toVerify.get(i)))) {
+					added++;
+				}
 			}
+		} finally {
+			endWrite();
 		}
-		return shareTotal;
+		return added;
+	}
+
+	/**
+	 * Gets the number of shares that the Trader owns of a stock
+	 * 
+	 * @param symbol the stock for lookup
+	 * @return number of shares
+	 */
+	public int getShareAmount(Stock symbol) {
+		return isWriting() ? getPositionBook().getShares(symbol.getId()) : snapshot().getShares(symbol);
 	}
 
 	/**
@@ -252,25 +1678,22 @@ public class Portfolio implements Serializable {
 	 * @return average priced paid
 	 */
 	public double getPriceAmount(Stock symbol) {
-		Trade curTrade;
-		double prices = 0.0;
-		int count = 0;
-
-		// Adds up all the prices and counts how many times it was bought
-		for (int i = 0; i < positions.size(); i++) {
-			curTrade = positions.get(i);
-
-			if (curTrade.getSymbol().symbol.equals(symbol.symbol)) {
-				prices += curTrade.getPrice();
-				count++;
-			}
-		}
+		return isWriting() ? getPositionBook().getAverageCost(symbol.getId()) : snapshot().getAverageCost(symbol);
+	}
 
-		// Computes average price
-		if (count != 0) {
-			return (prices / count);
-		} else {
-			return 0;
+	/**
+	 * Gets the profit made selling a stock, negative for a loss. Only sales since
+	 * the Portfolio was loaded are counted.
+	 * 
+	 * @param symbol the stock for lookup
+	 * @return
+	 */
+	public double getRealizedAmount(Stock symbol) {
+		beginWrite();
+		try {
+			return getPositionBook().getRealized(symbol.getId());
+		} finally {
+			endWrite();
 		}
 	}
 
@@ -278,22 +1701,33 @@ public class Portfolio implements Serializable {
 	 * Prints the Trader's transactions
 	 */
 	public void printTradeHistory() {
-		Trade curTrade;
-		int curShares;
-		Stock curStock;
-		double curPrice;
-		String curOrderType;
+		for (long row = 0; row != -1;) {
+			row = printTradeHistory(null, row, 100);
+		}
+	}
 
-		// Iterates through tradeHistory list and prints out information
-		for (int i = 0; i < tradeHistory.size(); i++) {
-			curTrade = tradeHistory.get(i);
-			curOrderType = curTrade.getOrderType();
-			curShares = curTrade.getShares();
-			curStock = curTrade.getSymbol();
-			curPrice = curTrade.getPrice();
+	/**
+	 * Prints a page of the Trader's transactions
+	 * 
+	 * @param stock    the stock to print, or null for every stock
+	 * @param fromRow  the first row of the trade log to look at
+	 * @param pageSize the most transactions to print
+	 * @return the row the next page starts at, -1 after the last page
+	 */
+	public long printTradeHistory(Stock stock, long fromRow, int pageSize) {
+		TradeLog log = getTradeHistory();
+		long[] rows = new long[pageSize];
+		int found = log.find(stock, Long.MIN_VALUE, Long.MAX_VALUE, fromRow, rows);
+
+		// Iterates through the page and prints out information
+		for (int i = 0; i < found; i++) {
+			long time = log.getTime(rows[i]);
 
-			System.out.println(curOrderType + " " + curStock.symbol + " " + curShares + " " + curPrice);
+			System.out.println((time == 0 ? "" : new Date(time) + " ") + log.getSide(rows[i]) + " "
+					+ log.getStock(rows[i]).symbol + " " + log.getShares(rows[i]) + " " + log.getPrice(rows[i]));
 		}
+
+		return found < pageSize ? -1 : rows[found - 1] + 1;
 	}
 
 	/**
@@ -304,41 +1738,43 @@ public class Portfolio implements Serializable {
 	 * @param orderType
 	 */
 	public void updateShareAmount(Stock toUpdate, int shareAmount, String orderType) {
-		int shares = 0;
-		int newShares = 0;
+		updateShareAmount(toUpdate, shareAmount, Side.fromName(orderType));
+	}
 
-		// Searches for stock to update
-		for (int i = 0; i < positions.size(); i++) {
-			if (positions.get(i).getSymbol() == toUpdate) {
-				shares = positions.get(i).getShares();
-
-				if (orderType.equals("Buy")) {
-					newShares = shares + shareAmount;
-					
-					// Updates share amount
-					positions.get(i).setShares(newShares);
-				} else {
-					newShares = shares - shareAmount;
-
-					// If no shares are left, remove from positions list
-					// Otherwise, update share amount
-					if (newShares == 0) {
-						removeStock(toUpdate);
-					} else {
-						positions.get(i).setShares(newShares);
-					}
-				}
-			}
+	/**
+	 * Updates share amount for an already owned stock
+	 * 
+	 * @param toUpdate
+	 * @param shareAmount
+	 * @param side        Side.BUY adds the shares, any other side removes them
+	 */
+	public void updateShareAmount(Stock toUpdate, int shareAmount, Side side) {
+		beginWrite();
+		try {
+			// Without a price the shares change at the average price paid
+			updatePosition(toUpdate, shareAmount, side, getPriceAmount(toUpdate));
+		} finally {
+			endWrite();
 		}
 	}
 
 	/**
-	 * Returns the Trader's watch list
+	 * Returns the Trader's watch list, which is changed inside writes
+	 * 
+	 * @return
+	 */
+	public WatchList getWatchList() {
+		return watched;
+	}
+
+	/**
+	 * Determines if a stock is on the Trader's watch list. Threads that are not writing read the snapshot.
 	 * 
+	 * @param stock the stock for lookup
 	 * @return
 	 */
-	public ArrayList<String> getWatchList() {
-		return watchList;
+	public boolean isWatching(Stock stock) {
+		return isWriting() ? watched.contains(stock) : snapshot().isWatching(stock);
 	}
 
 	/**
@@ -347,12 +1783,15 @@ public class Portfolio implements Serializable {
 	 * @param symbol
 	 */
 	public void removeFromWatchList(String symbol) {
-		if(GeneralToolKit.verifySymbol(symbol)){
-			for (int i = 0; i < watchList.size(); i++) {
-				if (watchList.get(i).equals(symbol)) {
-					watchList.remove(watchList.get(i));
-				}
-			}	
+		// Only watched stocks can be removed, so symbols without a Stock are not watched
+		Stock known = symbol == null ? null : Stock.find(symbol);
+		if(known != null){
+			beginWrite();
+			try {
+				watched.remove(known);
+			} finally {
+				endWrite();
+			}
 		}
 	}
 
@@ -362,26 +1801,36 @@ public class Portfolio implements Serializable {
 	 * @param amount
 	 */
 	public void updateNetWorth(double amount) {
-		netWorth += amount;
+		beginWrite();
+		try {
+			netWorth += amount;
+			dirty = true;
+			journalBalances();
+		} finally {
+			endWrite();
+		}
 	}
 
 	/**
-	 * Returns the trader's net worth
+	 * Returns the trader's net worth, which changes as positions are closed.
+	 * getNetLiquidationValue also counts the open positions at their last prices.
 	 * 
 	 * @return
 	 */
 	public double getNetWorth() {
-		return netWorth;
+		return isWriting() ? netWorth : snapshot().getNetWorth();
 	}
 
 	/**
-	 * Returns the percent change from when the Trader started
+	 * Returns the percent change of the net liquidation value from when the Trader started
 	 * 
 	 * @return
 	 */
 	public String getPercentChange() {
 		StringBuilder result = new StringBuilder();
-		double difference = netWorth - moneyAmount;
+		PortfolioSnapshot current = isWriting() ? null : snapshot();
+		double startAmount = current == null ? moneyAmount : current.getMoneyAmount();
+		double difference = (current == null ? getNetLiquidationValue() : current.getNetLiquidationValue()) - startAmount;
 
 		if (difference < 0) {
 			result.append("-");
@@ -391,7 +1840,7 @@ public class Portfolio implements Serializable {
 			result.append("");
 		}
 
-		double percentChange = ((moneyAmount - netWorth) / netWorth) * 100;
+		double percentChange = (Math.abs(difference) / startAmount) * 100;
 		result.append(Double.toString(percentChange) + "%");
 
 		return result.toString();
@@ -0,0 +1,38 @@
+package stocks;
+
+import trade_types.Side;
+
+/**
+ * Receives every change to a Portfolio that has to survive a crash, in the order they happen.
+ *
+ * Fills are recorded as they are applied. The balances are recorded as absolute values
+ * whenever they change, so replaying a journal only has to keep the last ones.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public interface PortfolioJournal {
+
+	/**
+	 * Called when a fill is applied to the Portfolio
+	 *
+	 * @param time   when it filled, in milliseconds
+	 * @param stock  the stock
+	 * @param side   the side
+	 * @param shares shares filled
+	 * @param price  the fill price
+	 */
+	public void onFill(long time, Stock stock, Side side, int shares, double price);
+
+	/**
+	 * Called when the Portfolio's balances change
+	 *
+	 * @param availableFunds   the available funds
+	 * @param netWorth         the net worth
+	 * @param borrowCost       the total borrow cost charged
+	 * @param borrowAccruedAt  when the borrow cost was last charged, in milliseconds
+	 */
+	public void onBalances(double availableFunds, double netWorth, double borrowCost, long borrowAccruedAt);
+
+}
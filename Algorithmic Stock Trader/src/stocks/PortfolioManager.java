@@ -0,0 +1,430 @@
+package stocks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import trade_types.Trade;
+import utilities.AlgorithmToolKit;
+
+/**
+ * Holds many Portfolios in one process, such as one per simulated user or strategy.
+ *
+ * Each account has a number that stays the same while it is held. For every stock the
+ * manager keeps the set of accounts that hold it long or short or have working orders
+ * for it, and each account keeps the sets up to date as its writes end. A quote is
+ * only given to the accounts in its stock's set, so it costs the same however many
+ * accounts do not follow the stock.
+ *
+ * Accounts may be written on any thread. The manager locks itself only to change or copy
+ * its tables, and always after the Portfolio, so quotes are given out without holding it.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class PortfolioManager {
+
+	private static final int EMPTY = -1;
+
+	// Indexed by account number, numbers that were freed are reused before new ones
+	private Portfolio[] accounts = new Portfolio[16];
+	private int[] freeNumbers = new int[16];
+	private int freeCount = 0;
+	private int used = 0;
+
+	// Account number of each account name, by the name it was added with
+	private final Map<String, Integer> numbers = new HashMap<String, Integer>();
+
+	// Accounts following each stock, indexed by Stock id
+	private AccountSet[] followers = new AccountSet[16];
+
+	// Accounts whose working orders triggered, not yet executed
+	private final List<Integer> triggered = new ArrayList<Integer>();
+	private boolean[] isTriggered = new boolean[16];
+
+	/**
+	 * Account numbers in an open addressing table, removed by shifting the entries after them back
+	 */
+	private static final class AccountSet {
+		int[] table;
+		int size;
+		int mask;
+
+		AccountSet() {
+			table = new int[4];
+			Arrays.fill(table, EMPTY);
+			mask = table.length - 1;
+		}
+
+		void add(int number) {
+			int slot = hash(number) & mask;
+			for (; table[slot] != EMPTY; slot = (slot + 1) & mask) {
+				if (table[slot] == number) {
+					return;
+				}
+			}
+
+			// Keeps the table at most half full so probes stay short
+			if ((size + 1) * 2 > table.length) {
+				grow();
+				add(number);
+				return;
+			}
+
+			table[slot] = number;
+			size++;
+		}
+
+		void remove(int number) {
+			int slot = hash(number) & mask;
+			for (; table[slot] != number; slot = (slot + 1) & mask) {
+				if (table[slot] == EMPTY) {
+					return;
+				}
+			}
+
+			// Moves back every entry that probed past the removed one
+			int gap = slot;
+			for (int next = (gap + 1) & mask; table[next] != EMPTY; next = (next + 1) & mask) {
+				int home = hash(table[next]) & mask;
+				if (((next - home) & mask) >= ((next - gap) & mask)) {
+					table[gap] = table[next];
+					gap = next;
+				}
+			}
+			table[gap] = EMPTY;
+			size--;
+		}
+
+		private void grow() {
+			int[] old = table;
+			table = new int[old.length * 2];
+			Arrays.fill(table, EMPTY);
+			mask = table.length - 1;
+			size = 0;
+
+			for (int number : old) {
+				if (number != EMPTY) {
+					add(number);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Keeps the sets of one account up to date, told by the account as its writes end
+	 */
+	private final class Indexer implements PositionListener {
+		private final int number;
+
+		Indexer(int number) {
+			this.number = number;
+		}
+
+		@Override
+		public void onPositionChanged(Portfolio portfolio, Stock stock) {
+			index(number, portfolio, stock);
+		}
+	}
+
+	/**
+	 * Creates and adds an account
+	 *
+	 * @param accountName the account name, not held by another account
+	 * @param funds       the money it starts with
+	 * @return the new Portfolio
+	 */
+	public Portfolio addAccount(String accountName, double funds) {
+		Portfolio portfolio = new Portfolio(accountName, funds);
+		addAccount(portfolio);
+		return portfolio;
+	}
+
+	/**
+	 * Adds an account, such as one that was loaded
+	 *
+	 * @param portfolio the Portfolio, whose account name is not held by another account
+	 * @return the account number
+	 */
+	public int addAccount(Portfolio portfolio) {
+		int number;
+
+		synchronized (this) {
+			if (numbers.containsKey(portfolio.getAccountName())) {
+				throw new IllegalArgumentException("Account " + portfolio.getAccountName() + " is already held");
+			}
+
+			number = freeCount > 0 ? freeNumbers[--freeCount] : used++;
+			if (number >= accounts.length) {
+				accounts = Arrays.copyOf(accounts, accounts.length * 2);
+				isTriggered = Arrays.copyOf(isTriggered, accounts.length);
+			}
+			accounts[number] = portfolio;
+			numbers.put(portfolio.getAccountName(), number);
+		}
+
+		// Listening from inside the write, so no change slips in between the two
+		portfolio.beginWrite();
+		try {
+			portfolio.setPositionListener(new Indexer(number));
+			for (Stock curStock : followed(portfolio)) {
+				index(number, portfolio, curStock);
+			}
+		} finally {
+			portfolio.endWrite();
+		}
+		return number;
+	}
+
+	/**
+	 * Removes an account
+	 *
+	 * @param accountName the account name
+	 * @return the Portfolio, or null if no account has the name
+	 */
+	public Portfolio removeAccount(String accountName) {
+		Portfolio portfolio = getAccount(accountName);
+
+		if (portfolio == null) {
+			return null;
+		}
+
+		portfolio.beginWrite();
+		try {
+			portfolio.setPositionListener(null);
+
+			synchronized (this) {
+				Integer number = numbers.get(accountName);
+
+				// Removed by another thread in the meantime
+				if (number == null || accounts[number] != portfolio) {
+					return null;
+				}
+
+				numbers.remove(accountName);
+				for (Stock curStock : followed(portfolio)) {
+					AccountSet set = stock(curStock.getId(), false);
+					if (set != null) {
+						set.remove(number);
+					}
+				}
+
+				if (isTriggered[number]) {
+					isTriggered[number] = false;
+					triggered.remove(number);
+				}
+				accounts[number] = null;
+
+				if (freeCount == freeNumbers.length) {
+					freeNumbers = Arrays.copyOf(freeNumbers, freeCount * 2);
+				}
+				freeNumbers[freeCount++] = number;
+			}
+		} finally {
+			portfolio.endWrite();
+		}
+		return portfolio;
+	}
+
+	/**
+	 * Gets an account by name
+	 *
+	 * @param accountName the account name
+	 * @return the Portfolio, or null if no account has the name
+	 */
+	public synchronized Portfolio getAccount(String accountName) {
+		Integer number = numbers.get(accountName);
+		return number == null ? null : accounts[number];
+	}
+
+	/**
+	 * Gets an account by number
+	 *
+	 * @param number the account number
+	 * @return the Portfolio, or null if no account has the number
+	 */
+	public synchronized Portfolio getAccount(int number) {
+		return number >= 0 && number < accounts.length ? accounts[number] : null;
+	}
+
+	/**
+	 * Gets the number of accounts held
+	 *
+	 * @return
+	 */
+	public synchronized int getAccountCount() {
+		return numbers.size();
+	}
+
+	/**
+	 * Gets the accounts that hold a stock long or short or have working orders for it
+	 *
+	 * @param stock the stock for lookup
+	 * @return the Portfolios, in no order
+	 */
+	public synchronized List<Portfolio> getFollowers(Stock stock) {
+		List<Portfolio> found = new ArrayList<Portfolio>();
+		AccountSet set = stock(stock.getId(), false);
+
+		if (set != null) {
+			for (int number : set.table) {
+				if (number != EMPTY) {
+					found.add(accounts[number]);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Gets the number of accounts that hold a stock long or short or have working orders for it
+	 *
+	 * @param stock the stock for lookup
+	 * @return
+	 */
+	public synchronized int getFollowerCount(Stock stock) {
+		AccountSet set = stock(stock.getId(), false);
+		return set == null ? 0 : set.size;
+	}
+
+	/**
+	 * Gives a quote to every account following its stock. Accounts whose working orders
+	 * trigger are kept until executeTriggeredOrders is called.
+	 *
+	 * @param stock the stock
+	 * @param price its new price
+	 * @return the number of accounts given the quote
+	 */
+	public int onQuote(Stock stock, double price) {
+		int[] following;
+		Portfolio[] portfolios;
+
+		synchronized (this) {
+			AccountSet set = stock(stock.getId(), false);
+			if (set == null || set.size == 0) {
+				return 0;
+			}
+
+			following = new int[set.size];
+			portfolios = new Portfolio[set.size];
+			int count = 0;
+			for (int number : set.table) {
+				if (number != EMPTY) {
+					following[count] = number;
+					portfolios[count++] = accounts[number];
+				}
+			}
+		}
+
+		for (int i = 0; i < following.length; i++) {
+			if (portfolios[i].onQuote(stock, price)) {
+				markTriggered(following[i], portfolios[i]);
+			}
+		}
+		return following.length;
+	}
+
+	/**
+	 * Executes the Trades that triggered in each account since the last call
+	 *
+	 * @return the number of accounts that had Trades
+	 */
+	public int executeTriggeredOrders() {
+		Portfolio[] pending = takeTriggeredAccounts();
+
+		for (Portfolio curPortfolio : pending) {
+			AlgorithmToolKit.processTriggeredOrders(curPortfolio, curPortfolio.takeTriggeredOrders());
+		}
+		return pending.length;
+	}
+
+	/**
+	 * Takes the accounts whose working orders triggered since the last call, for a caller
+	 * that executes their Trades itself
+	 *
+	 * @return the accounts, whose Trades are taken with takeTriggeredOrders
+	 */
+	public synchronized Portfolio[] takeTriggeredAccounts() {
+		Portfolio[] pending = new Portfolio[triggered.size()];
+
+		for (int i = 0; i < pending.length; i++) {
+			int number = triggered.get(i);
+			pending[i] = accounts[number];
+			isTriggered[number] = false;
+		}
+		triggered.clear();
+		return pending;
+	}
+
+	private synchronized void markTriggered(int number, Portfolio portfolio) {
+		// Accounts removed while the quote was given out are left alone
+		if (accounts[number] == portfolio && !isTriggered[number]) {
+			isTriggered[number] = true;
+			triggered.add(number);
+		}
+	}
+
+	/**
+	 * Adds an account to a stock's set or removes it, by whether it follows the stock.
+	 * Called while the account is being written.
+	 */
+	private void index(int number, Portfolio portfolio, Stock stock) {
+		boolean following = portfolio.isFollowing(stock);
+
+		synchronized (this) {
+			if (accounts[number] != portfolio) {
+				return;
+			}
+
+			if (following) {
+				stock(stock.getId(), true).add(number);
+			} else {
+				AccountSet set = stock(stock.getId(), false);
+				if (set != null) {
+					set.remove(number);
+				}
+			}
+		}
+	}
+
+	private AccountSet stock(int id, boolean create) {
+		if (id >= followers.length) {
+			if (!create) {
+				return null;
+			}
+			followers = Arrays.copyOf(followers, Math.max(followers.length * 2, id + 1));
+		}
+
+		if (followers[id] == null && create) {
+			followers[id] = new AccountSet();
+		}
+		return followers[id];
+	}
+
+	/**
+	 * Gets every stock an account holds long or short or has working orders for, called while it is being written
+	 */
+	private static List<Stock> followed(Portfolio portfolio) {
+		List<Stock> stocks = new ArrayList<Stock>();
+
+		for (Trade curTrade : portfolio.getStocks()) {
+			stocks.add(curTrade.getSymbol());
+		}
+		for (Trade curTrade : portfolio.getShortPositions()) {
+			stocks.add(curTrade.getSymbol());
+		}
+		for (Trade curTrade : portfolio.getWorkingOrders()) {
+			stocks.add(curTrade.getSymbol());
+		}
+		return stocks;
+	}
+
+	// Account numbers are handed out in order, so they are mixed to spread runs of them over the table
+	private static int hash(int number) {
+		int h = number * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,302 @@
+package stocks;
+
+/**
+ * Balances and positions of a Portfolio as of one write, which never change.
+ *
+ * A Portfolio publishes a new snapshot when a write that changed it finishes. Threads that
+ * are not writing read the latest one without locking, and every value they read from it is
+ * from the same moment. Quotes only change the totals, so they are published when the
+ * snapshot is next read and share the positions of the snapshot before them.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class PortfolioSnapshot {
+
+	private final long version;
+	private final double moneyAmount;
+	private final double availableFunds;
+	private final double netWorth;
+	private final double marketValue;
+	private final double unrealized;
+	private final double realized;
+	private final double shortMarketValue;
+	private final double marginHeld;
+	private final double shortUnrealized;
+	private final double borrowCost;
+	private final boolean marginCall;
+	private final Holdings holdings;
+	private final IdIndex working;
+	private final IdIndex watching;
+
+	PortfolioSnapshot(long version, double moneyAmount, double availableFunds, double netWorth, double marketValue,
+			double unrealized, double realized, double shortMarketValue, double marginHeld, double shortUnrealized,
+			double borrowCost, boolean marginCall, Holdings holdings, IdIndex working,
+			IdIndex watching) {
+		this.version = version;
+		this.moneyAmount = moneyAmount;
+		this.availableFunds = availableFunds;
+		this.netWorth = netWorth;
+		this.marketValue = marketValue;
+		this.unrealized = unrealized;
+		this.realized = realized;
+		this.shortMarketValue = shortMarketValue;
+		this.marginHeld = marginHeld;
+		this.shortUnrealized = shortUnrealized;
+		this.borrowCost = borrowCost;
+		this.marginCall = marginCall;
+		this.holdings = holdings;
+		this.working = working;
+		this.watching = watching;
+	}
+
+	/**
+	 * Gets the number of writes published before this snapshot
+	 *
+	 * @return
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the money the Trader started with
+	 *
+	 * @return
+	 */
+	public double getMoneyAmount() {
+		return moneyAmount;
+	}
+
+	/**
+	 * Gets the money left to spend
+	 *
+	 * @return
+	 */
+	public double getAvailableFunds() {
+		return availableFunds;
+	}
+
+	/**
+	 * Gets the net worth, which changes as positions are closed
+	 *
+	 * @return
+	 */
+	public double getNetWorth() {
+		return netWorth;
+	}
+
+	/**
+	 * Gets the value of the long positions at the last prices
+	 *
+	 * @return
+	 */
+	public double getMarketValue() {
+		return marketValue;
+	}
+
+	/**
+	 * Gets the profit of the long and short positions at the last prices, negative for a loss
+	 *
+	 * @return
+	 */
+	public double getUnrealized() {
+		return unrealized;
+	}
+
+	/**
+	 * Gets the profit of the shares sold and covered since the Portfolio was loaded
+	 *
+	 * @return
+	 */
+	public double getRealized() {
+		return realized;
+	}
+
+	/**
+	 * Gets the value of the short positions at the last prices
+	 *
+	 * @return
+	 */
+	public double getShortMarketValue() {
+		return shortMarketValue;
+	}
+
+	/**
+	 * Gets the money held against the short positions
+	 *
+	 * @return
+	 */
+	public double getMarginHeld() {
+		return marginHeld;
+	}
+
+	/**
+	 * Gets the profit of the short positions at the last prices, negative for a loss
+	 *
+	 * @return
+	 */
+	public double getShortUnrealized() {
+		return shortUnrealized;
+	}
+
+	/**
+	 * Gets the total borrow cost charged
+	 *
+	 * @return
+	 */
+	public double getBorrowCost() {
+		return borrowCost;
+	}
+
+	/**
+	 * Determines if the equity of the short positions was below the maintenance margin
+	 *
+	 * @return
+	 */
+	public boolean isMarginCall() {
+		return marginCall;
+	}
+
+	/**
+	 * Gets the available funds, the long positions and the margin held, less what it costs to cover the shorts
+	 *
+	 * @return
+	 */
+	public double getNetLiquidationValue() {
+		return availableFunds + marketValue + marginHeld - shortMarketValue;
+	}
+
+	/**
+	 * Gets the number of stocks owned
+	 *
+	 * @return
+	 */
+	public int getPositionCount() {
+		return holdings.stocks.length;
+	}
+
+	/**
+	 * Gets an owned stock, in the order of the Portfolio's positions
+	 *
+	 * @param position the position
+	 * @return
+	 */
+	public Stock getStock(int position) {
+		return holdings.stocks[position];
+	}
+
+	/**
+	 * Gets the shares owned of a stock
+	 *
+	 * @param stock the stock for lookup
+	 * @return 0 if it is not owned
+	 */
+	public int getShares(Stock stock) {
+		int slot = holdings.slotOf(stock);
+		return slot == -1 ? 0 : holdings.shares[slot];
+	}
+
+	/**
+	 * Gets the average price paid for a stock
+	 *
+	 * @param stock the stock for lookup
+	 * @return 0 if it is not owned
+	 */
+	public double getAverageCost(Stock stock) {
+		int slot = holdings.slotOf(stock);
+		return slot == -1 ? 0 : holdings.averageCost[slot];
+	}
+
+	/**
+	 * Gets the shares short of a stock
+	 *
+	 * @param stock the stock for lookup
+	 * @return 0 if it is not short
+	 */
+	public int getShortShares(Stock stock) {
+		int slot = holdings.shortSlots.get(stock.getId());
+		return slot == -1 ? 0 : holdings.shortShares[slot];
+	}
+
+	/**
+	 * Gets the average price a stock was sold short at
+	 *
+	 * @param stock the stock for lookup
+	 * @return 0 if it is not short
+	 */
+	public double getShortPrice(Stock stock) {
+		int slot = holdings.shortSlots.get(stock.getId());
+		return slot == -1 ? 0 : holdings.shortPrice[slot];
+	}
+
+	/**
+	 * Gets the number of working orders for a stock
+	 *
+	 * @param stock the stock for lookup
+	 * @return 0 if it has none
+	 */
+	public int getWorkingCount(Stock stock) {
+		return Math.max(working.get(stock.getId()), 0);
+	}
+
+	/**
+	 * Determines if the Portfolio held a stock long or short or had working orders for it
+	 *
+	 * @param stock the stock for lookup
+	 * @return
+	 */
+	public boolean isFollowing(Stock stock) {
+		int id = stock.getId();
+		return holdings.slots.get(id) != -1 || holdings.shortSlots.get(id) != -1 || working.get(id) > 0;
+	}
+
+	/**
+	 * Determines if a stock was on the watch list
+	 *
+	 * @param stock the stock for lookup
+	 * @return
+	 */
+	public boolean isWatching(Stock stock) {
+		return watching.get(stock.getId()) != -1;
+	}
+
+	/**
+	 * Long and short positions copied out of the books, shared by snapshots until a fill changes them
+	 */
+	static class Holdings {
+
+		private final Stock[] stocks;
+		private final int[] shares;
+		private final double[] averageCost;
+		private final IdIndex slots;
+
+		private final int[] shortShares;
+		private final double[] shortPrice;
+		private final IdIndex shortSlots;
+
+		Holdings(Stock[] stocks, int[] shares, double[] averageCost, Stock[] shortStocks, int[] shortShares,
+				double[] shortPrice) {
+			this.stocks = stocks;
+			this.shares = shares;
+			this.averageCost = averageCost;
+			this.shortShares = shortShares;
+			this.shortPrice = shortPrice;
+
+			slots = new IdIndex(stocks.length);
+			for (int i = 0; i < stocks.length; i++) {
+				slots.put(stocks[i].getId(), i);
+			}
+
+			shortSlots = new IdIndex(shortStocks.length);
+			for (int i = 0; i < shortStocks.length; i++) {
+				shortSlots.put(shortStocks[i].getId(), i);
+			}
+		}
+
+		private int slotOf(Stock stock) {
+			return slots.get(stock.getId());
+		}
+	}
+}
@@ -0,0 +1,475 @@
+package stocks;
+
+import java.util.Arrays;
+
+/**
+ * Long positions of a Portfolio in an open addressing hash table keyed by Stock id.
+ *
+ * Each stock traded gets a row in parallel arrays holding its shares, cost basis,
+ * realized profit and the index of its Trade in the Portfolio's positions list, so a
+ * fill or a lookup is constant time however many positions are held. A Portfolio only
+ * holds rows for the stocks it has traded, which keeps it small when there are many
+ * more Stocks than positions. Rows are kept when a position is closed so its realized
+ * profit is still there.
+ *
+ * The last price of each stock is kept too, and the cost and market value of every open
+ * position and the realized profit are running totals, so marking a stock to a new
+ * price only changes its own part of them and the totals are read in constant time.
+ *
+ * With CostMethod.FIFO or CostMethod.LIFO each row also keeps its open lots in a ring
+ * of parallel arrays, so a sale only touches the lots it uses up.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class PositionBook {
+
+	private static final int EMPTY = -1;
+
+	// Stock id of each slot, EMPTY if the slot is free
+	private int[] keys;
+	private int[] shares;
+	private double[] costBasis;
+	private double[] realized;
+	private double[] lastPrice;
+	private int[] listIndex;
+
+	private double costTotal = 0;
+	private double marketValue = 0;
+	private double realizedTotal = 0;
+
+	// Open lots of each slot, oldest first from lotHead, when lots are kept
+	private int[][] lotShares;
+	private double[][] lotPrice;
+	private int[] lotHead;
+	private int[] lotCount;
+
+	private CostMethod method;
+	private int size = 0;
+	private int mask;
+
+	public PositionBook() {
+		this(16, CostMethod.AVERAGE);
+	}
+
+	/**
+	 * @param expected the number of stocks expected, so the table does not have to grow
+	 * @param method   how shares sold are matched against shares bought
+	 */
+	public PositionBook(int expected, CostMethod method) {
+		this.method = method;
+
+		int capacity = 16;
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * Changes how shares sold are matched against shares bought. Each position
+	 * becomes one lot at its average price.
+	 *
+	 * @param method
+	 */
+	public void setCostMethod(CostMethod method) {
+		if (method == this.method) {
+			return;
+		}
+		this.method = method;
+
+		boolean keepLots = method != CostMethod.AVERAGE;
+		lotShares = keepLots ? new int[keys.length][] : null;
+		lotPrice = keepLots ? new double[keys.length][] : null;
+		lotHead = keepLots ? new int[keys.length] : null;
+		lotCount = keepLots ? new int[keys.length] : null;
+
+		if (keepLots) {
+			for (int slot = 0; slot < keys.length; slot++) {
+				if (keys[slot] != EMPTY && shares[slot] > 0) {
+					pushLot(slot, shares[slot], costBasis[slot] / shares[slot]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets how shares sold are matched against shares bought
+	 *
+	 * @return
+	 */
+	public CostMethod getCostMethod() {
+		return method;
+	}
+
+	/**
+	 * Adds bought shares to a stock's position
+	 *
+	 * @param id     the Stock id
+	 * @param amount shares bought
+	 * @param price  the price they were bought at
+	 */
+	public void buy(int id, int amount, double price) {
+		int slot = insert(id);
+
+		if (shares[slot] == 0) {
+			lastPrice[slot] = price;
+		}
+
+		shares[slot] += amount;
+		costBasis[slot] += price * amount;
+		costTotal += price * amount;
+		marketValue += lastPrice[slot] * amount;
+		markSlot(slot, price);
+
+		if (lotCount != null) {
+			pushLot(slot, amount, price);
+		}
+	}
+
+	/**
+	 * Removes sold shares from a stock's position, at its average cost or from its lots
+	 *
+	 * @param id     the Stock id
+	 * @param amount shares sold, at most the shares owned
+	 * @param price  the price they were sold at
+	 * @return the profit of the shares sold, negative for a loss
+	 */
+	public double sell(int id, int amount, double price) {
+		int slot = find(id);
+		if (slot == EMPTY || shares[slot] == 0) {
+			return 0;
+		}
+
+		markSlot(slot, price);
+
+		amount = Math.min(amount, shares[slot]);
+		double cost = lotCount != null ? takeLots(slot, amount) : costBasis[slot] / shares[slot] * amount;
+		double result = price * amount - cost;
+
+		// A closed position takes its whole cost basis out, so rounding does not pile up in the total
+		shares[slot] -= amount;
+		costTotal -= shares[slot] == 0 ? costBasis[slot] : cost;
+		costBasis[slot] = shares[slot] == 0 ? 0 : costBasis[slot] - cost;
+		marketValue -= price * amount;
+		realized[slot] += result;
+		realizedTotal += result;
+		return result;
+	}
+
+	/**
+	 * Marks a stock to a new price
+	 *
+	 * @param id    the Stock id
+	 * @param price the price
+	 */
+	public void mark(int id, double price) {
+		int slot = find(id);
+		if (slot != EMPTY) {
+			markSlot(slot, price);
+		}
+	}
+
+	/**
+	 * Gets the last price a stock was marked or filled at
+	 *
+	 * @param id the Stock id
+	 * @return the price, 0 if the stock has not been traded
+	 */
+	public double getLastPrice(int id) {
+		int slot = find(id);
+		return slot == EMPTY ? 0 : lastPrice[slot];
+	}
+
+	/**
+	 * Gets what was paid for every open position
+	 *
+	 * @return
+	 */
+	public double getCostTotal() {
+		return costTotal;
+	}
+
+	/**
+	 * Gets the value of every open position at the last prices
+	 *
+	 * @return
+	 */
+	public double getMarketValue() {
+		return marketValue;
+	}
+
+	/**
+	 * Gets the profit of every open position at the last prices, negative for a loss
+	 *
+	 * @return
+	 */
+	public double getUnrealized() {
+		return marketValue - costTotal;
+	}
+
+	/**
+	 * Gets the profit made selling every stock, negative for a loss
+	 *
+	 * @return
+	 */
+	public double getRealizedTotal() {
+		return realizedTotal;
+	}
+
+	/**
+	 * Gets the number of open lots of a stock
+	 *
+	 * @param id the Stock id
+	 * @return 0 unless lots are kept
+	 */
+	public int getLotCount(int id) {
+		int slot = find(id);
+		return slot == EMPTY || lotCount == null ? 0 : lotCount[slot];
+	}
+
+	/**
+	 * Gets the shares left in an open lot of a stock
+	 *
+	 * @param id  the Stock id
+	 * @param lot the lot, 0 for the oldest
+	 * @return
+	 */
+	public int getLotShares(int id, int lot) {
+		int slot = find(id);
+		return lotShares[slot][(lotHead[slot] + lot) % lotShares[slot].length];
+	}
+
+	/**
+	 * Gets the price paid for an open lot of a stock
+	 *
+	 * @param id  the Stock id
+	 * @param lot the lot, 0 for the oldest
+	 * @return
+	 */
+	public double getLotPrice(int id, int lot) {
+		int slot = find(id);
+		return lotPrice[slot][(lotHead[slot] + lot) % lotPrice[slot].length];
+	}
+
+	/**
+	 * Gets the shares owned of a stock
+	 *
+	 * @param id the Stock id
+	 * @return
+	 */
+	public int getShares(int id) {
+		int slot = find(id);
+		return slot == EMPTY ? 0 : shares[slot];
+	}
+
+	/**
+	 * Gets what was paid for the shares owned of a stock
+	 *
+	 * @param id the Stock id
+	 * @return
+	 */
+	public double getCostBasis(int id) {
+		int slot = find(id);
+		return slot == EMPTY ? 0 : costBasis[slot];
+	}
+
+	/**
+	 * Gets the average price paid for the shares owned of a stock
+	 *
+	 * @param id the Stock id
+	 * @return the price, 0 if none are owned
+	 */
+	public double getAverageCost(int id) {
+		int slot = find(id);
+		return slot == EMPTY || shares[slot] == 0 ? 0 : costBasis[slot] / shares[slot];
+	}
+
+	/**
+	 * Gets the profit made selling a stock, negative for a loss
+	 *
+	 * @param id the Stock id
+	 * @return
+	 */
+	public double getRealized(int id) {
+		int slot = find(id);
+		return slot == EMPTY ? 0 : realized[slot];
+	}
+
+	/**
+	 * Sets where a stock's Trade is in the positions list
+	 *
+	 * @param id    the Stock id
+	 * @param index the index, -1 once the stock has no Trade
+	 */
+	public void setListIndex(int id, int index) {
+		listIndex[insert(id)] = index;
+	}
+
+	/**
+	 * Gets where a stock's Trade is in the positions list
+	 *
+	 * @param id the Stock id
+	 * @return the index, -1 if the stock has no Trade
+	 */
+	public int getListIndex(int id) {
+		int slot = find(id);
+		return slot == EMPTY ? -1 : listIndex[slot];
+	}
+
+	/**
+	 * Gets the number of stocks with a row, open or closed
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void markSlot(int slot, double price) {
+		marketValue += (price - lastPrice[slot]) * shares[slot];
+		lastPrice[slot] = price;
+	}
+
+	private void pushLot(int slot, int amount, double price) {
+		if (lotShares[slot] == null) {
+			lotShares[slot] = new int[4];
+			lotPrice[slot] = new double[4];
+		} else if (lotCount[slot] == lotShares[slot].length) {
+			// Unrolls the ring into arrays twice the size
+			int length = lotShares[slot].length;
+			int[] grownShares = new int[length * 2];
+			double[] grownPrice = new double[length * 2];
+
+			for (int i = 0; i < length; i++) {
+				grownShares[i] = lotShares[slot][(lotHead[slot] + i) % length];
+				grownPrice[i] = lotPrice[slot][(lotHead[slot] + i) % length];
+			}
+			lotShares[slot] = grownShares;
+			lotPrice[slot] = grownPrice;
+			lotHead[slot] = 0;
+		}
+
+		int tail = (lotHead[slot] + lotCount[slot]) % lotShares[slot].length;
+		lotShares[slot][tail] = amount;
+		lotPrice[slot][tail] = price;
+		lotCount[slot]++;
+	}
+
+	/**
+	 * Takes shares out of the lots of a slot, oldest first for FIFO and newest first for LIFO
+	 *
+	 * @return what was paid for the shares taken
+	 */
+	private double takeLots(int slot, int amount) {
+		int[] ringShares = lotShares[slot];
+		double[] ringPrice = lotPrice[slot];
+		double cost = 0;
+
+		while (amount > 0 && lotCount[slot] > 0) {
+			int lot = method == CostMethod.FIFO ? lotHead[slot]
+					: (lotHead[slot] + lotCount[slot] - 1) % ringShares.length;
+			int taken = Math.min(amount, ringShares[lot]);
+
+			cost += ringPrice[lot] * taken;
+			ringShares[lot] -= taken;
+			amount -= taken;
+
+			if (ringShares[lot] == 0) {
+				if (method == CostMethod.FIFO) {
+					lotHead[slot] = (lotHead[slot] + 1) % ringShares.length;
+				}
+				lotCount[slot]--;
+			}
+		}
+		return cost;
+	}
+
+	private int find(int id) {
+		for (int slot = hash(id) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+			if (keys[slot] == id) {
+				return slot;
+			}
+		}
+		return EMPTY;
+	}
+
+	private int insert(int id) {
+		int slot = hash(id) & mask;
+		for (; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+			if (keys[slot] == id) {
+				return slot;
+			}
+		}
+
+		// Keeps the table at most half full so probes stay short
+		if ((size + 1) * 2 > keys.length) {
+			grow();
+			return insert(id);
+		}
+
+		keys[slot] = id;
+		listIndex[slot] = -1;
+		size++;
+		return slot;
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		int[] oldShares = shares;
+		double[] oldCostBasis = costBasis;
+		double[] oldRealized = realized;
+		double[] oldLastPrice = lastPrice;
+		int[] oldListIndex = listIndex;
+		int[][] oldLotShares = lotShares;
+		double[][] oldLotPrice = lotPrice;
+		int[] oldLotHead = lotHead;
+		int[] oldLotCount = lotCount;
+
+		allocate(oldKeys.length * 2);
+		size = 0;
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = insert(oldKeys[i]);
+				shares[slot] = oldShares[i];
+				costBasis[slot] = oldCostBasis[i];
+				realized[slot] = oldRealized[i];
+				lastPrice[slot] = oldLastPrice[i];
+				listIndex[slot] = oldListIndex[i];
+
+				if (lotCount != null) {
+					lotShares[slot] = oldLotShares[i];
+					lotPrice[slot] = oldLotPrice[i];
+					lotHead[slot] = oldLotHead[i];
+					lotCount[slot] = oldLotCount[i];
+				}
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		shares = new int[capacity];
+		costBasis = new double[capacity];
+		realized = new double[capacity];
+		lastPrice = new double[capacity];
+		listIndex = new int[capacity];
+		mask = capacity - 1;
+
+		if (method != CostMethod.AVERAGE) {
+			lotShares = new int[capacity][];
+			lotPrice = new double[capacity][];
+			lotHead = new int[capacity];
+			lotCount = new int[capacity];
+		}
+	}
+
+	// Ids are handed out in order, so they are mixed to spread runs of them over the table
+	private static int hash(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
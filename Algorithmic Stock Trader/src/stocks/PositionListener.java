@@ -0,0 +1,25 @@
+package stocks;
+
+/**
+ * Told which stocks a write changed the positions or working orders of, once the write ends.
+ *
+ * A stock may be reported when nothing that matters about it changed, so listeners
+ * check the Portfolio instead of keeping count.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public interface PositionListener {
+
+	/**
+	 * Called when a write that changed a stock's long or short position or working orders ends.
+	 * The write has not let go of the Portfolio yet, so the Portfolio can be read but other
+	 * Portfolios should not be written.
+	 *
+	 * @param portfolio the Portfolio
+	 * @param stock     the stock
+	 */
+	public void onPositionChanged(Portfolio portfolio, Stock stock);
+
+}
@@ -0,0 +1,191 @@
+package stocks;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import outgoing_data_sources.OrderEventListener;
+import trade_types.MarketTrade;
+import trade_types.Side;
+import trade_types.Trade;
+import utilities.GeneralToolKit;
+
+/**
+ * Applies the fills a Portfolio's order gateway reports to the Portfolio.
+ *
+ * Locking: each fill is settled in one write of the Portfolio, which the settlement takes
+ * itself, so the gateway may report from any thread without holding anything. The fill
+ * listeners are told inside that write and must not write other Portfolios. Fills and
+ * rejections are printed only after the write ends, and only for a verbose Portfolio.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+class Settlement implements OrderEventListener {
+
+	// Rounding allowed when working out the shares the available funds pay for
+	private static final double FUNDS_TOLERANCE = 1e-9;
+
+	private final Portfolio portfolio;
+	private final List<OrderEventListener> fillListeners = new CopyOnWriteArrayList<OrderEventListener>();
+
+	/**
+	 * @param portfolio the Portfolio the fills change
+	 */
+	Settlement(Portfolio portfolio) {
+		this.portfolio = portfolio;
+	}
+
+	void addListener(OrderEventListener listener) {
+		fillListeners.add(listener);
+	}
+
+	void removeListener(OrderEventListener listener) {
+		fillListeners.remove(listener);
+	}
+
+	@Override
+	public void onAcknowledge(Trade trade) {
+		for (OrderEventListener curListener : fillListeners) {
+			curListener.onAcknowledge(trade);
+		}
+	}
+
+	@Override
+	public void onReject(Trade trade, String reason) {
+		if (portfolio.isVerbose()) {
+			System.out.println("Order to " + trade.getOrderType().toLowerCase() + " " + trade.getShares() + " shares of "
+					+ trade.getSymbol().symbol + " was rejected: " + reason);
+		}
+
+		for (OrderEventListener curListener : fillListeners) {
+			curListener.onReject(trade, reason);
+		}
+	}
+
+	/**
+	 * Applies a fill: records it, changes the positions and moves the money. A sale is
+	 * paid its proceeds less the commission, a purchase pays for its shares and a cover
+	 * pays the commission, with the profit of a sale or cover added to the net worth.
+	 * A fill of no shares changes nothing, so it is not charged a commission.
+	 *
+	 * A sale or cover of more shares than are held is cut to the shares held before any
+	 * money moves, and one of a stock that is not held is rejected. A purchase or short sale
+	 * is cut to the shares the available funds still pay for, since they were approved
+	 * outside this write. The Trade itself is not changed, the Portfolio keeps a copy of the fill.
+	 *
+	 * @param trade  the filled Trade
+	 * @param price  average price of the fill
+	 * @param shares shares filled
+	 */
+	@Override
+	public void onFill(Trade trade, double price, int shares) {
+		if (shares <= 0) {
+			return;
+		}
+
+		// Printed once the write ends, so the console does not hold up other writes
+		StringBuilder report = portfolio.isVerbose() ? new StringBuilder() : null;
+		String rejection = null;
+
+		portfolio.beginWrite();
+		try {
+			Stock stock = trade.getSymbol();
+			Side side = trade.getSide();
+
+			if (side == Side.SELL || side == Side.BUY_TO_COVER) {
+				int held = side == Side.SELL ? portfolio.getShareAmount(stock) : portfolio.getShortShares(stock);
+				if (held == 0) {
+					rejection = "No shares of " + stock.symbol + " are " + (side == Side.SELL ? "held" : "short");
+					return;
+				}
+				shares = Math.min(shares, held);
+			} else {
+				// Checked again here, since Trades approved on other threads may have spent the funds since
+				double perShare = side == Side.BUY ? price : price * Portfolio.INITIAL_MARGIN;
+				if (perShare > 0) {
+					int affordable = (int) Math.min(shares, Math.floor(portfolio.getAvailableFunds() / perShare + FUNDS_TOLERANCE));
+					if (affordable <= 0) {
+						rejection = "Not enough funds for " + shares + " shares of " + stock.symbol;
+						return;
+					}
+					shares = affordable;
+				}
+			}
+
+			Trade filled = new MarketTrade(side.toString(), stock, shares);
+			filled.setPrice(price);
+
+			double realizedBefore = portfolio.getRealizedAmount(stock);
+			int heldBefore = portfolio.getShareAmount(stock);
+			double shortPrice = portfolio.getShortPrice(stock);
+
+			for (OrderEventListener curListener : fillListeners) {
+				curListener.onFill(trade, price, shares);
+			}
+			portfolio.recordFill(GeneralToolKit.clock().currentTimeMillis(), filled);
+
+			double result;
+			switch (side) {
+			case BUY:
+				portfolio.settleBalances(-price * shares, 0);
+
+				if (report != null) {
+					report.append("Buying " + shares + " shares of " + stock.symbol + " at " + price + "\n");
+					report.append("Trade costs $" + (price * shares) + "\n");
+					report.append("Funds after buying: $" + portfolio.getAvailableFunds() + "\n");
+				}
+				break;
+			case SELL:
+				// The position book matches the shares sold against what was paid for them, and only those are paid for
+				result = portfolio.getRealizedAmount(stock) - realizedBefore;
+				shares = heldBefore - portfolio.getShareAmount(stock);
+
+				portfolio.settleBalances(price * shares - Portfolio.COMMISSION, result - Portfolio.COMMISSION);
+
+				if (report != null) {
+					report.append("Selling " + shares + " shares of " + stock.symbol + " at $" + price + "\n");
+					if (result < 0) {
+						report.append("Result of trade: Loss of $" + (-result) + "\n");
+					} else if (result > 0) {
+						report.append("Result of trade: Gain of $" + result + "\n");
+					} else {
+						report.append("Result of trade: Even\n");
+					}
+					report.append("Funds after selling: $" + portfolio.getAvailableFunds() + "\n");
+				}
+				break;
+			case SELL_SHORT:
+				// The short book took the margin out of the available funds
+				portfolio.settleBalances(0, 0);
+
+				if (report != null) {
+					report.append("Selling short " + shares + " shares of " + stock.symbol + " at " + price + "\n");
+					report.append("Margin deposited: $" + (price * shares * Portfolio.INITIAL_MARGIN) + "\n");
+					report.append("Funds after selling short: $" + portfolio.getAvailableFunds() + "\n");
+				}
+				break;
+			case BUY_TO_COVER:
+				// The cover's own fill price decides the result
+				result = (shortPrice - price) * shares;
+
+				portfolio.settleBalances(-Portfolio.COMMISSION, result - Portfolio.COMMISSION);
+
+				if (report != null) {
+					report.append("Buying to cover " + shares + " shares of " + stock.symbol + " at $" + price + "\n");
+					report.append("Result of trade: " + (result < 0 ? "Loss" : "Gain") + " of $" + Math.abs(result) + "\n");
+					report.append("Funds after covering: $" + portfolio.getAvailableFunds() + "\n");
+				}
+				break;
+			}
+		} finally {
+			portfolio.endWrite();
+		}
+
+		if (rejection != null) {
+			onReject(trade, rejection);
+		} else if (report != null) {
+			System.out.print(report);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package stocks;
+
+import java.util.Arrays;
+
+/**
+ * Short positions of a Portfolio kept in arrays, with a slot for each stock that has been short.
+ *
+ * The value the shorts were opened at and their value at the last prices are kept as
+ * running totals, so marking a stock to a new price, the unrealized profit and the
+ * margin requirement are all constant time however many stocks are short.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class ShortBook {
+
+	// Slot of each Stock id in the arrays
+	private final IdIndex slots = new IdIndex(4);
+	private int[] shares = new int[4];
+	private double[] entryPrice = new double[4];
+	private double[] lastPrice = new double[4];
+
+	private double entryValue = 0;
+	private double marketValue = 0;
+	private double realized = 0;
+	private int count = 0;
+
+	/**
+	 * Adds to the short position of a stock
+	 *
+	 * @param id     the Stock id
+	 * @param amount shares sold short
+	 * @param price  the price they were sold at
+	 */
+	public void open(int id, int amount, double price) {
+		int slot = slots.get(id);
+		if (slot == -1) {
+			slot = slots.size();
+			ensureCapacity(slot + 1);
+			slots.put(id, slot);
+		}
+
+		if (shares[slot] == 0) {
+			count++;
+			lastPrice[slot] = price;
+		}
+
+		entryPrice[slot] = (entryPrice[slot] * shares[slot] + price * amount) / (shares[slot] + amount);
+		shares[slot] += amount;
+		entryValue += price * amount;
+		marketValue += lastPrice[slot] * amount;
+		mark(id, price);
+	}
+
+	/**
+	 * Buys back part of the short position of a stock
+	 *
+	 * @param id     the Stock id
+	 * @param amount shares bought to cover, at most the shares short
+	 * @param price  the price they were bought at
+	 * @return the profit of the shares covered, negative for a loss
+	 */
+	public double cover(int id, int amount, double price) {
+		mark(id, price);
+
+		int slot = slots.get(id);
+		if (slot == -1) {
+			return 0;
+		}
+
+		double result = (entryPrice[slot] - price) * amount;
+		shares[slot] -= amount;
+		entryValue -= entryPrice[slot] * amount;
+		marketValue -= price * amount;
+		realized += result;
+
+		if (shares[slot] == 0) {
+			entryPrice[slot] = 0;
+			count--;
+		}
+		return result;
+	}
+
+	/**
+	 * Marks a stock to a new price
+	 *
+	 * @param id    the Stock id
+	 * @param price the price
+	 */
+	public void mark(int id, double price) {
+		int slot = slots.get(id);
+
+		if (slot != -1) {
+			marketValue += (price - lastPrice[slot]) * shares[slot];
+			lastPrice[slot] = price;
+		}
+	}
+
+	/**
+	 * Gets the shares short of a stock
+	 *
+	 * @param id the Stock id
+	 * @return
+	 */
+	public int getShares(int id) {
+		int slot = slots.get(id);
+		return slot == -1 ? 0 : shares[slot];
+	}
+
+	/**
+	 * Gets the average price a stock was sold short at
+	 *
+	 * @param id the Stock id
+	 * @return
+	 */
+	public double getEntryPrice(int id) {
+		int slot = slots.get(id);
+		return slot == -1 ? 0 : entryPrice[slot];
+	}
+
+	/**
+	 * Gets the value every short was opened at
+	 *
+	 * @return
+	 */
+	public double getEntryValue() {
+		return entryValue;
+	}
+
+	/**
+	 * Gets the value of every short at the last prices
+	 *
+	 * @return
+	 */
+	public double getMarketValue() {
+		return marketValue;
+	}
+
+	/**
+	 * Gets the profit of every short at the last prices, negative for a loss
+	 *
+	 * @return
+	 */
+	public double getUnrealized() {
+		return entryValue - marketValue;
+	}
+
+	/**
+	 * Gets the profit of every short covered, negative for a loss
+	 *
+	 * @return
+	 */
+	public double getRealized() {
+		return realized;
+	}
+
+	/**
+	 * Gets the number of stocks that are short
+	 *
+	 * @return
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	private void ensureCapacity(int size) {
+		if (shares.length < size) {
+			int length = Math.max(size, shares.length * 2);
+
+			shares = Arrays.copyOf(shares, length);
+			entryPrice = Arrays.copyOf(entryPrice, length);
+			lastPrice = Arrays.copyOf(lastPrice, length);
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package stocks;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
@@ -17,20 +18,74 @@ import java.util.HashMap;
 public class Stock implements Serializable {
 
 	public String symbol;
+	private transient int id;
 	private static HashMap<String, Stock> singleton = new HashMap<String, Stock>();
+	private static ArrayList<Stock> byId = new ArrayList<Stock>();
 
 	private Stock(String stockSymbol) {
 		symbol = stockSymbol;
+		id = byId.size();
 		Stock.singleton.put(stockSymbol, this);
+		Stock.byId.add(this);
+	}
+
+	/**
+	 * Gets the Stock's id. Ids are handed out in order from 0 as Stocks are
+	 * created, so they can index arrays. They are only valid for the running program.
+	 * 
+	 * @return
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Gets the Stock object for an id
+	 * 
+	 * @param id
+	 * @return
+	 */
+	public static synchronized Stock get(int id) {
+		return byId.get(id);
+	}
+
+	/**
+	 * Gets the number of Stocks that have been created
+	 * 
+	 * @return
+	 */
+	public static synchronized int count() {
+		return byId.size();
+	}
+
+	/**
+	 * Replaces a deserialized Stock with the one for its symbol,
+	 * so Stocks can still be compared by reference and have an id
+	 * 
+	 * @return
+	 */
+	private Object readResolve() {
+		return Stock.get(symbol);
+	}
+	
+	/**
+	 * Gets the Stock object for a symbol without creating one, such as before the symbol is verified
+	 * 
+	 * @param stockSymbol
+	 * @return the Stock, or null if none has been created for the symbol
+	 */
+	public static synchronized Stock find(String stockSymbol) {
+		return Stock.singleton.get(stockSymbol.toLowerCase());
 	}
 	
 	/**
 	 * Gets the Stock object
+	 * Synchronized so that replays running on several threads share one Stock per symbol
 	 * 
 	 * @param stockSymbol
 	 * @return
 	 */
-	public static Stock get(String stockSymbol) {
+	public static synchronized Stock get(String stockSymbol) {
 		stockSymbol = stockSymbol.toLowerCase();
 		
 		// If symbol is already in Map, return it
@@ -0,0 +1,648 @@
+package stocks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import trade_types.MarketTrade;
+import trade_types.Side;
+import trade_types.Trade;
+
+/**
+ * Append-only history of the Trades a Portfolio has filled, stored column by column.
+ *
+ * Rows go into chunks of CHUNK_SIZE rows that hold the time, stock, side, shares and price
+ * of each fill in primitive arrays. Once more full chunks are held than the log keeps in
+ * memory, spillIfNeeded writes the oldest to a spill file and drops them, so a long running
+ * account does not keep growing the heap. Appending never spills, so the owner calls it once
+ * it no longer holds its own lock. Each chunk remembers its earliest and latest time and which
+ * stocks it holds, so queries by time range or stock skip chunks without reading them.
+ *
+ * Stocks are stored as indexes into the log's own symbol table, since Stock ids are only
+ * valid for the running program. Without a spill file set the log spills to a temporary
+ * file, and the spilled chunks are then saved with the log.
+ *
+ * The log's monitor guards its rows and tables and is only held while they are read or
+ * changed. The spill file has a lock of its own, taken before the monitor, so reads and
+ * writes of the file do not hold up appends.
+ *
+ * Spill file layout, one block of BLOCK_SIZE bytes per chunk, oldest first:
+ *  long[CHUNK_SIZE] times
+ *  int[CHUNK_SIZE] stocks
+ *  byte[CHUNK_SIZE] sides
+ *  int[CHUNK_SIZE] shares
+ *  double[CHUNK_SIZE] prices
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+@SuppressWarnings("serial")
+public class TradeLog implements Serializable {
+
+	public static final int CHUNK_SIZE = 4096;
+	public static final int DEFAULT_CHUNKS_IN_MEMORY = 8;
+	private static final int BLOCK_SIZE = CHUNK_SIZE * (8 + 4 + 1 + 4 + 8);
+
+	private final int chunksInMemory;
+
+	// Symbols in the order the log first saw them
+	private final List<String> symbols = new ArrayList<String>();
+	private transient IdIndex symbolIndex;
+	private transient List<Stock> stockTable;
+
+	// Chunks still in memory, oldest first, the last one takes new rows
+	private final List<Chunk> resident = new ArrayList<Chunk>();
+	private int spilledChunks = 0;
+	private long size = 0;
+
+	// Earliest and latest time of each chunk and a bit per stock index modulo 64
+	private long[] chunkMinTime = new long[16];
+	private long[] chunkMaxTime = new long[16];
+	private long[] chunkStocks = new long[16];
+
+	private String spillPath;
+	private boolean temporarySpill;
+	private transient RandomAccessFile spillFile;
+	private transient Object fileLock = new Object();
+
+	// Last spilled chunk read back, guarded by the monitor
+	private transient Chunk cached;
+	private transient int cachedIndex;
+
+	public TradeLog() {
+		this(DEFAULT_CHUNKS_IN_MEMORY);
+	}
+
+	/**
+	 * @param chunksInMemory full chunks kept in memory before the oldest is spilled
+	 */
+	public TradeLog(int chunksInMemory) {
+		this.chunksInMemory = chunksInMemory;
+	}
+
+	/**
+	 * Appends a filled Trade
+	 *
+	 * @param time  when it filled, in milliseconds
+	 * @param trade the Trade
+	 */
+	public void append(long time, Trade trade) {
+		append(time, trade.getSymbol(), trade.getSide(), trade.getShares(), trade.getPrice());
+	}
+
+	/**
+	 * Appends a fill
+	 *
+	 * @param time   when it filled, in milliseconds
+	 * @param stock  the stock
+	 * @param side   the side
+	 * @param shares shares filled
+	 * @param price  the fill price
+	 */
+	public synchronized void append(long time, Stock stock, Side side, int shares, double price) {
+		Chunk chunk = resident.isEmpty() ? null : resident.get(resident.size() - 1);
+
+		if (chunk == null || chunk.size == CHUNK_SIZE) {
+			chunk = new Chunk(16);
+			resident.add(chunk);
+			ensureChunkCapacity(getChunkCount());
+		}
+
+		int c = getChunkCount() - 1;
+		int index = indexOf(stock);
+
+		if (chunk.size == 0 || time < chunkMinTime[c]) {
+			chunkMinTime[c] = time;
+		}
+		if (chunk.size == 0 || time > chunkMaxTime[c]) {
+			chunkMaxTime[c] = time;
+		}
+		chunkStocks[c] |= 1L << (index & 63);
+
+		chunk.add(time, index, (byte) side.ordinal(), shares, price);
+		size++;
+	}
+
+	/**
+	 * Gets the number of rows
+	 *
+	 * @return
+	 */
+	public synchronized long size() {
+		return size;
+	}
+
+	/**
+	 * Gets when a row filled
+	 *
+	 * @param row the row, 0 for the oldest
+	 * @return the time in milliseconds
+	 */
+	public long getTime(long row) {
+		return chunkOf(row).times[(int) (row % CHUNK_SIZE)];
+	}
+
+	/**
+	 * Gets the stock of a row
+	 *
+	 * @param row the row, 0 for the oldest
+	 * @return
+	 */
+	public Stock getStock(long row) {
+		return stockAt(chunkOf(row).stocks[(int) (row % CHUNK_SIZE)]);
+	}
+
+	/**
+	 * Gets the stock of a row as an index into the log's symbol table
+	 *
+	 * @param row the row, 0 for the oldest
+	 * @return
+	 */
+	public int getStockIndex(long row) {
+		return chunkOf(row).stocks[(int) (row % CHUNK_SIZE)];
+	}
+
+	/**
+	 * Gets the number of symbols in the log's symbol table
+	 *
+	 * @return
+	 */
+	public synchronized int getSymbolCount() {
+		return symbols.size();
+	}
+
+	/**
+	 * Gets a symbol from the log's symbol table, which keeps the order the log first saw them
+	 *
+	 * @param index the index
+	 * @return
+	 */
+	public synchronized String getSymbol(int index) {
+		return symbols.get(index);
+	}
+
+	/**
+	 * Gets the side of a row
+	 *
+	 * @param row the row, 0 for the oldest
+	 * @return
+	 */
+	public Side getSide(long row) {
+		return Side.values()[chunkOf(row).sides[(int) (row % CHUNK_SIZE)]];
+	}
+
+	/**
+	 * Gets the shares filled in a row
+	 *
+	 * @param row the row, 0 for the oldest
+	 * @return
+	 */
+	public int getShares(long row) {
+		return chunkOf(row).shares[(int) (row % CHUNK_SIZE)];
+	}
+
+	/**
+	 * Gets the fill price of a row
+	 *
+	 * @param row the row, 0 for the oldest
+	 * @return
+	 */
+	public double getPrice(long row) {
+		return chunkOf(row).prices[(int) (row % CHUNK_SIZE)];
+	}
+
+	/**
+	 * Gets a row as the market Trade it filled as
+	 *
+	 * @param row the row, 0 for the oldest
+	 * @return a new Trade
+	 */
+	public Trade get(long row) {
+		Chunk chunk = chunkOf(row);
+		int i = (int) (row % CHUNK_SIZE);
+
+		Trade trade = new MarketTrade(Side.values()[chunk.sides[i]].toString(), stockAt(chunk.stocks[i]), chunk.shares[i]);
+		trade.setPrice(chunk.prices[i]);
+		return trade;
+	}
+
+	/**
+	 * Finds the next page of rows of a stock inside a time range
+	 *
+	 * @param stock    the stock, or null for every stock
+	 * @param fromTime earliest time, inclusive
+	 * @param toTime   latest time, inclusive
+	 * @param fromRow  first row to look at
+	 * @param rows     filled with the matching rows, oldest first
+	 * @return the number of rows found, less than rows.length once there are no more
+	 */
+	public int find(Stock stock, long fromTime, long toTime, long fromRow, long[] rows) {
+		int index = -1;
+		long limit;
+
+		// Rows appended after this are not looked at
+		synchronized (this) {
+			if (stock != null) {
+				index = getSymbolIndex().get(stock.getId());
+				if (index == -1) {
+					return 0;
+				}
+			}
+			limit = size;
+		}
+
+		fromRow = Math.max(fromRow, 0);
+		int count = 0;
+
+		for (int c = (int) (fromRow / CHUNK_SIZE); (long) c * CHUNK_SIZE < limit && count < rows.length; c++) {
+			// Skips chunks outside the time range or without the stock
+			synchronized (this) {
+				if (chunkMaxTime[c] < fromTime || chunkMinTime[c] > toTime) {
+					continue;
+				} else if (index != -1 && (chunkStocks[c] & (1L << (index & 63))) == 0) {
+					continue;
+				}
+			}
+
+			Chunk chunk = readChunk(c);
+			long base = (long) c * CHUNK_SIZE;
+			int start = (int) Math.max(fromRow - base, 0);
+			int end = (int) Math.min(CHUNK_SIZE, limit - base);
+
+			for (int i = start; i < end && count < rows.length; i++) {
+				if ((index == -1 || chunk.stocks[i] == index) && chunk.times[i] >= fromTime && chunk.times[i] <= toTime) {
+					rows[count++] = base + i;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Sets the file older chunks are spilled to. Chunks already spilled are copied over.
+	 * The file is kept up to date as chunks are spilled, so it belongs with the saved log.
+	 *
+	 * @param file the spill file
+	 * @throws IOException if the file can not be written
+	 */
+	public void setSpillFile(File file) throws IOException {
+		// Chunks are only spilled under the file lock, so the count does not change while they are copied
+		synchronized (fileLock) {
+			if (spillPath != null && new File(spillPath).equals(file)) {
+				return;
+			}
+
+			RandomAccessFile target = new RandomAccessFile(file, "rw");
+			int spilled = getSpilledChunkCount();
+			if (spilled > 0) {
+				FileChannel from = getSpillFile().getChannel();
+				FileChannel to = target.getChannel();
+				long length = (long) spilled * BLOCK_SIZE;
+
+				for (long copied = 0; copied < length;) {
+					copied += from.transferTo(copied, length - copied, to);
+				}
+			}
+
+			closeSpillFile();
+			if (temporarySpill) {
+				new File(spillPath).delete();
+			}
+
+			spillFile = target;
+			spillPath = file.getPath();
+			temporarySpill = false;
+		}
+
+		// A log loaded with its spilled chunks in memory spills them to the new file
+		spillIfNeeded();
+	}
+
+	/**
+	 * Gets the number of chunks, spilled or not
+	 *
+	 * @return
+	 */
+	public synchronized int getChunkCount() {
+		return spilledChunks + resident.size();
+	}
+
+	/**
+	 * Gets the number of chunks written to the spill file
+	 *
+	 * @return
+	 */
+	public synchronized int getSpilledChunkCount() {
+		return spilledChunks;
+	}
+
+	/**
+	 * Closes the spill file. It is opened again when it is next needed.
+	 */
+	public void closeSpillFile() {
+		synchronized (fileLock) {
+			if (spillFile != null) {
+				try {
+					spillFile.close();
+				} catch (IOException e) {
+					// Nothing was left to write
+				}
+				spillFile = null;
+			}
+		}
+	}
+
+	/**
+	 * Writes the oldest full chunks to the spill file until the log is back to its limit.
+	 * Each chunk is written without holding the monitor, and dropped once it is in the file.
+	 */
+	public void spillIfNeeded() {
+		synchronized (this) {
+			if (resident.size() - 1 <= chunksInMemory) {
+				return;
+			}
+		}
+
+		synchronized (fileLock) {
+			while (true) {
+				Chunk oldest;
+				int c;
+
+				// Full chunks never change, and only spills, which hold the file lock, drop them
+				synchronized (this) {
+					if (resident.size() - 1 <= chunksInMemory) {
+						return;
+					}
+					oldest = resident.get(0);
+					c = spilledChunks;
+				}
+
+				if (!spill(oldest, c)) {
+					return;
+				}
+
+				synchronized (this) {
+					resident.remove(0);
+					spilledChunks++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a full chunk to its block of the spill file, called with the file lock
+	 *
+	 * @return if it was written
+	 */
+	private boolean spill(Chunk oldest, int c) {
+		ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+
+		for (int i = 0; i < CHUNK_SIZE; i++) {
+			block.putLong(oldest.times[i]);
+		}
+		for (int i = 0; i < CHUNK_SIZE; i++) {
+			block.putInt(oldest.stocks[i]);
+		}
+		block.put(oldest.sides, 0, CHUNK_SIZE);
+		for (int i = 0; i < CHUNK_SIZE; i++) {
+			block.putInt(oldest.shares[i]);
+		}
+		for (int i = 0; i < CHUNK_SIZE; i++) {
+			block.putDouble(oldest.prices[i]);
+		}
+		block.flip();
+
+		try {
+			FileChannel channel = getSpillFile().getChannel();
+			long offset = (long) c * BLOCK_SIZE;
+
+			while (block.hasRemaining()) {
+				offset += channel.write(block, offset);
+			}
+		} catch (IOException e) {
+			// Keeps the chunk in memory and tries again on the next spill
+			System.out.println("Could not spill trade history: " + e.getMessage());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets a chunk, reading it from the spill file without holding the monitor if it was spilled
+	 */
+	private Chunk readChunk(int c) {
+		synchronized (this) {
+			if (c >= spilledChunks) {
+				return resident.get(c - spilledChunks);
+			} else if (cached != null && cachedIndex == c) {
+				return cached;
+			}
+		}
+
+		ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+		synchronized (fileLock) {
+			try {
+				FileChannel channel = getSpillFile().getChannel();
+				long offset = (long) c * BLOCK_SIZE;
+
+				while (block.hasRemaining()) {
+					int read = channel.read(block, offset + block.position());
+					if (read < 0) {
+						throw new IOException("Trade history spill file is too short");
+					}
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not read trade history", e);
+			}
+		}
+		block.flip();
+
+		Chunk chunk = new Chunk(CHUNK_SIZE);
+		for (int i = 0; i < CHUNK_SIZE; i++) {
+			chunk.times[i] = block.getLong();
+		}
+		for (int i = 0; i < CHUNK_SIZE; i++) {
+			chunk.stocks[i] = block.getInt();
+		}
+		block.get(chunk.sides, 0, CHUNK_SIZE);
+		for (int i = 0; i < CHUNK_SIZE; i++) {
+			chunk.shares[i] = block.getInt();
+		}
+		for (int i = 0; i < CHUNK_SIZE; i++) {
+			chunk.prices[i] = block.getDouble();
+		}
+		chunk.size = CHUNK_SIZE;
+
+		synchronized (this) {
+			cached = chunk;
+			cachedIndex = c;
+		}
+		return chunk;
+	}
+
+	private Chunk chunkOf(long row) {
+		synchronized (this) {
+			if (row < 0 || row >= size) {
+				throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+			}
+		}
+		return readChunk((int) (row / CHUNK_SIZE));
+	}
+
+	private RandomAccessFile getSpillFile() throws IOException {
+		if (spillFile == null) {
+			if (spillPath == null) {
+				File file = File.createTempFile("trades", ".log");
+				file.deleteOnExit();
+
+				spillPath = file.getPath();
+				temporarySpill = true;
+			}
+			spillFile = new RandomAccessFile(spillPath, "rw");
+		}
+		return spillFile;
+	}
+
+	private int indexOf(Stock stock) {
+		IdIndex byId = getSymbolIndex();
+		int index = byId.get(stock.getId());
+
+		if (index == -1) {
+			index = symbols.size();
+			symbols.add(stock.symbol);
+			stockTable.add(stock);
+			byId.put(stock.getId(), index);
+		}
+		return index;
+	}
+
+	private synchronized Stock stockAt(int index) {
+		getSymbolIndex();
+		return stockTable.get(index);
+	}
+
+	/**
+	 * Gets the symbol table index of each Stock id, loading it after the log is deserialized
+	 */
+	private IdIndex getSymbolIndex() {
+		if (symbolIndex == null) {
+			symbolIndex = new IdIndex(symbols.size());
+			stockTable = new ArrayList<Stock>();
+
+			for (int i = 0; i < symbols.size(); i++) {
+				Stock stock = Stock.get(symbols.get(i));
+				symbolIndex.put(stock.getId(), i);
+				stockTable.add(stock);
+			}
+		}
+		return symbolIndex;
+	}
+
+	private void ensureChunkCapacity(int count) {
+		if (chunkMinTime.length < count) {
+			int length = Math.max(count, chunkMinTime.length * 2);
+
+			chunkMinTime = Arrays.copyOf(chunkMinTime, length);
+			chunkMaxTime = Arrays.copyOf(chunkMaxTime, length);
+			chunkStocks = Arrays.copyOf(chunkStocks, length);
+		}
+	}
+
+	/**
+	 * Saves the spilled chunks with the log when they are only in a temporary file
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		// Holding the file lock keeps chunks from being spilled while the log is written
+		synchronized (fileLock) {
+			int spilled;
+			synchronized (this) {
+				out.defaultWriteObject();
+				spilled = spilledChunks;
+			}
+
+			if (temporarySpill) {
+				for (int c = 0; c < spilled; c++) {
+					out.writeUnshared(readChunk(c));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads the spilled chunks saved with the log back into memory.
+	 * They are spilled again as new rows are appended.
+	 *
+	 * @param in
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		fileLock = new Object();
+
+		if (temporarySpill) {
+			List<Chunk> spilled = new ArrayList<Chunk>();
+			for (int c = 0; c < spilledChunks; c++) {
+				spilled.add((Chunk) in.readUnshared());
+			}
+
+			resident.addAll(0, spilled);
+			spilledChunks = 0;
+			spillPath = null;
+			temporarySpill = false;
+		}
+	}
+
+	/**
+	 * Columns of up to CHUNK_SIZE rows, grown as rows are added
+	 */
+	private static class Chunk implements Serializable {
+
+		private long[] times;
+		private int[] stocks;
+		private byte[] sides;
+		private int[] shares;
+		private double[] prices;
+		private int size = 0;
+
+		Chunk(int capacity) {
+			times = new long[capacity];
+			stocks = new int[capacity];
+			sides = new byte[capacity];
+			shares = new int[capacity];
+			prices = new double[capacity];
+		}
+
+		void add(long time, int stock, byte side, int amount, double price) {
+			if (size == times.length) {
+				int length = Math.min(times.length * 2, CHUNK_SIZE);
+
+				times = Arrays.copyOf(times, length);
+				stocks = Arrays.copyOf(stocks, length);
+				sides = Arrays.copyOf(sides, length);
+				shares = Arrays.copyOf(shares, length);
+				prices = Arrays.copyOf(prices, length);
+			}
+
+			times[size] = time;
+			stocks[size] = stock;
+			sides[size] = side;
+			shares[size] = amount;
+			prices[size] = price;
+			size++;
+		}
+	}
+}
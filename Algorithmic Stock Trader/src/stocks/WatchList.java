@@ -0,0 +1,182 @@
+package stocks;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The stocks a Trader watches, each at most once.
+ *
+ * The stocks are kept in a list with the slot of each Stock id in an IdIndex, so adding,
+ * removing and checking for a stock are constant time. Removing a stock moves the last
+ * one into its place, like the Portfolio's positions. Listeners are told about every
+ * stock added and removed.
+ *
+ * A Portfolio changes its watch list inside its writes, and the list should be read
+ * inside them too.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+@SuppressWarnings("serial")
+public class WatchList implements Serializable, Iterable<Stock> {
+
+	private final List<Stock> stocks = new ArrayList<Stock>();
+	private transient IdIndex slots;
+	private transient List<WatchListListener> listeners = new CopyOnWriteArrayList<WatchListListener>();
+
+	/**
+	 * Adds a stock
+	 *
+	 * @param stock the stock
+	 * @return if it was not already watched
+	 */
+	public boolean add(Stock stock) {
+		IdIndex index = getSlots();
+		if (index.get(stock.getId()) != -1) {
+			return false;
+		}
+
+		index.put(stock.getId(), stocks.size());
+		stocks.add(stock);
+
+		for (WatchListListener curListener : listeners) {
+			curListener.onAdded(stock);
+		}
+		return true;
+	}
+
+	/**
+	 * Removes a stock
+	 *
+	 * @param stock the stock
+	 * @return if it was watched
+	 */
+	public boolean remove(Stock stock) {
+		IdIndex index = getSlots();
+		int slot = index.remove(stock.getId());
+		if (slot == -1) {
+			return false;
+		}
+
+		// Moves the last stock into the gap so nothing has to shift
+		Stock last = stocks.remove(stocks.size() - 1);
+		if (slot < stocks.size()) {
+			stocks.set(slot, last);
+			index.put(last.getId(), slot);
+		}
+
+		for (WatchListListener curListener : listeners) {
+			curListener.onRemoved(stock);
+		}
+		return true;
+	}
+
+	/**
+	 * Removes every stock
+	 */
+	public void clear() {
+		getSlots().clear();
+
+		for (int i = stocks.size() - 1; i >= 0; i--) {
+			Stock removed = stocks.remove(i);
+			for (WatchListListener curListener : listeners) {
+				curListener.onRemoved(removed);
+			}
+		}
+	}
+
+	/**
+	 * Determines if a stock is watched
+	 *
+	 * @param stock the stock for lookup
+	 * @return
+	 */
+	public boolean contains(Stock stock) {
+		return getSlots().get(stock.getId()) != -1;
+	}
+
+	/**
+	 * Gets a watched stock
+	 *
+	 * @param index its place in the list
+	 * @return
+	 */
+	public Stock get(int index) {
+		return stocks.get(index);
+	}
+
+	/**
+	 * Gets the number of stocks watched
+	 *
+	 * @return
+	 */
+	public int size() {
+		return stocks.size();
+	}
+
+	/**
+	 * Goes through the watched stocks, which may not be removed through it
+	 */
+	@Override
+	public Iterator<Stock> iterator() {
+		return Collections.unmodifiableList(stocks).iterator();
+	}
+
+	/**
+	 * Starts telling a listener about the stocks added and removed
+	 *
+	 * @param listener the listener
+	 */
+	public void addListener(WatchListListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Stops telling a listener about the stocks added and removed
+	 *
+	 * @param listener the listener
+	 */
+	public void removeListener(WatchListListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Gets the slot index, loading it after the watch list is deserialized
+	 */
+	private IdIndex getSlots() {
+		if (slots == null) {
+			slots = new IdIndex(stocks.size());
+
+			// Watch lists saved before it was a set may have a stock more than once
+			int kept = 0;
+			for (int i = 0; i < stocks.size(); i++) {
+				Stock curStock = stocks.get(i);
+				if (slots.get(curStock.getId()) == -1) {
+					slots.put(curStock.getId(), kept);
+					stocks.set(kept++, curStock);
+				}
+			}
+			stocks.subList(kept, stocks.size()).clear();
+		}
+		return slots;
+	}
+
+	/**
+	 * Creates the listener list, which is not saved
+	 *
+	 * @param in
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		listeners = new CopyOnWriteArrayList<WatchListListener>();
+	}
+}
@@ -0,0 +1,27 @@
+package stocks;
+
+/**
+ * Told about each stock added to or removed from a WatchList, so a feed can change
+ * what it asks for one stock at a time instead of reading the whole list again
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public interface WatchListListener {
+
+	/**
+	 * Called after a stock is added
+	 *
+	 * @param stock the stock
+	 */
+	public void onAdded(Stock stock);
+
+	/**
+	 * Called after a stock is removed
+	 *
+	 * @param stock the stock
+	 */
+	public void onRemoved(Stock stock);
+
+}
@@ -0,0 +1,229 @@
+package stocks;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import trade_types.LimitTrade;
+import trade_types.MarketTrade;
+import trade_types.StopLimitTrade;
+import trade_types.Trade;
+import trade_types.TriggerEngine;
+
+/**
+ * A Portfolio's working orders on their trigger engine, and the orders that have
+ * triggered since they were last taken.
+ *
+ * Locking: it has no lock of its own. Every method is called inside a write of the
+ * Portfolio that owns it, and nothing here fetches, so the prices come from the
+ * Portfolio's callers and no write waits on the network.
+ *
+ * The list of working orders is the Portfolio's saved list, kept in step with the engine.
+ * Orders read from a save wait beside the engine, unarmed, until a price of their stock arrives.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+class WorkingOrders {
+
+	private final List<Trade> orders;
+	private final TriggerEngine triggers = new TriggerEngine();
+	private final Map<Trade, Integer> triggerIds = new IdentityHashMap<Trade, Integer>();
+	private final List<Trade> triggered = new ArrayList<Trade>();
+	private final List<Trade> unarmed;
+
+	/**
+	 * @param orders the Portfolio's working orders, which start unarmed
+	 */
+	WorkingOrders(List<Trade> orders) {
+		this.orders = orders;
+		unarmed = new ArrayList<Trade>(orders);
+
+		triggers.setListener(new TriggerEngine.TriggerListener() {
+			@Override
+			public void onTrigger(Trade trade, double price) {
+				triggerIds.remove(trade);
+				WorkingOrders.this.orders.remove(trade);
+				triggered.add(trade);
+			}
+		});
+	}
+
+	/**
+	 * Adds a working order and puts it on its trigger price
+	 *
+	 * @param trade    the order
+	 * @param curPrice the current price of its stock
+	 */
+	void add(Trade trade, double curPrice) {
+		orders.add(trade);
+		arm(trade, curPrice);
+	}
+
+	/**
+	 * Adds a working order read from a save, unarmed until its stock is priced
+	 *
+	 * @param trade the order
+	 */
+	void restore(Trade trade) {
+		orders.add(trade);
+		unarmed.add(trade);
+	}
+
+	/**
+	 * Cancels a working order
+	 *
+	 * @param trade the order
+	 * @return if it was working
+	 */
+	boolean cancel(Trade trade) {
+		Integer id = triggerIds.remove(trade);
+
+		if (id != null) {
+			triggers.cancel(id);
+		} else if (!unarmed.remove(trade)) {
+			return false;
+		}
+
+		orders.remove(trade);
+		return true;
+	}
+
+	/**
+	 * Arms the unarmed orders of a stock and checks its orders against a new price
+	 *
+	 * @param stock the stock
+	 * @param price its new price
+	 * @return if any order of the stock triggered
+	 */
+	boolean onPrice(Stock stock, double price) {
+		int before = triggered.size();
+
+		arm(stock, price);
+		triggers.onPrice(stock.getId(), price);
+		return triggered.size() != before;
+	}
+
+	/**
+	 * Puts the unarmed orders of a stock on their trigger prices
+	 *
+	 * @param stock    the stock
+	 * @param curPrice its current price
+	 * @return if any of them triggered right away
+	 */
+	boolean arm(Stock stock, double curPrice) {
+		int before = triggered.size();
+
+		for (int i = 0; i < unarmed.size();) {
+			Trade curTrade = unarmed.get(i);
+
+			if (curTrade.getSymbol() == stock) {
+				unarmed.remove(i);
+				arm(curTrade, curPrice);
+			} else {
+				i++;
+			}
+		}
+		return triggered.size() != before;
+	}
+
+	private void arm(Trade trade, double curPrice) {
+		int id = triggers.add(trade, curPrice);
+
+		// Orders the current price already reaches trigger right away
+		if (triggers.getTrade(id) == trade) {
+			triggerIds.put(trade, id);
+		}
+	}
+
+	/**
+	 * Gets each stock with unarmed orders once
+	 *
+	 * @return the stocks
+	 */
+	List<Stock> getUnarmedStocks() {
+		List<Stock> stocks = new ArrayList<Stock>();
+		boolean[] listed = new boolean[Stock.count()];
+
+		for (Trade curTrade : unarmed) {
+			Stock curStock = curTrade.getSymbol();
+			if (!listed[curStock.getId()]) {
+				listed[curStock.getId()] = true;
+				stocks.add(curStock);
+			}
+		}
+		return stocks;
+	}
+
+	/**
+	 * Determines if a stock has orders working, armed or not
+	 *
+	 * @param stock the stock
+	 * @return
+	 */
+	boolean isWorking(Stock stock) {
+		if (triggers.getWorkingCount(stock.getId()) > 0) {
+			return true;
+		}
+
+		for (Trade curTrade : unarmed) {
+			if (curTrade.getSymbol() == stock) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	boolean hasTriggered() {
+		return !triggered.isEmpty();
+	}
+
+	/**
+	 * Empties the triggered orders into the Trades to send. Limit and stop limit orders
+	 * go on as limit Trades at their limit price; stops and trailing stops become market Trades.
+	 *
+	 * @return a Trade for each working order that triggered
+	 */
+	Trade[] takeTriggered() {
+		Trade[] toSend = new Trade[triggered.size()];
+
+		for (int i = 0; i < toSend.length; i++) {
+			Trade curTrade = triggered.get(i);
+			String side = curTrade.getOrderType();
+
+			switch (curTrade.getKind()) {
+			case LIMIT:
+				toSend[i] = new LimitTrade(side, curTrade.getSymbol(), curTrade.getShares(), ((LimitTrade) curTrade).getLimitPrice());
+				break;
+			case STOP_LIMIT:
+				toSend[i] = new LimitTrade(side, curTrade.getSymbol(), curTrade.getShares(), ((StopLimitTrade) curTrade).getLimitPrice());
+				break;
+			default:
+				toSend[i] = new MarketTrade(side, curTrade.getSymbol(), curTrade.getShares());
+				break;
+			}
+		}
+		triggered.clear();
+
+		return toSend;
+	}
+
+	/**
+	 * Counts the working orders of each stock, from the list so loaded orders do not have to be armed to count
+	 *
+	 * @param orders the working orders
+	 * @return the count of each Stock id
+	 */
+	static IdIndex count(List<Trade> orders) {
+		int size = orders == null ? 0 : orders.size();
+		IdIndex counts = new IdIndex(size);
+
+		for (int i = 0; i < size; i++) {
+			int id = orders.get(i).getSymbol().getId();
+			counts.put(id, Math.max(counts.get(id), 0) + 1);
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,60 @@
+package testing;
+
+import event_bus.EventBus;
+import event_bus.EventHandler;
+import event_bus.EventProcessor;
+import event_bus.TradingEvent;
+
+/**
+ * Measures how many quotes an EventBus moves through a chain of stages per second,
+ * along with each stage's queue depth and latency. The stages only sum prices, so
+ * the bus itself is what is timed.
+ *
+ * Usage: EventBusBenchmark [quotes] [stages] [bus size]
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class EventBusBenchmark {
+
+	public static void main(String[] args) throws InterruptedException {
+		int quoteCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		int stageCount = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int size = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+
+		EventBus bus = new EventBus(size);
+		final double[] sums = new double[stageCount];
+
+		EventProcessor previous = null;
+		for (int i = 0; i < stageCount; i++) {
+			final int stage = i;
+			EventHandler handler = new EventHandler() {
+				@Override
+				public void onEvent(TradingEvent event, long sequence, boolean endOfBatch) {
+					sums[stage] += event.getPrice();
+				}
+			};
+
+			if (previous == null) {
+				previous = bus.addStage("stage " + i, handler);
+			} else {
+				previous = bus.addStage("stage " + i, handler, previous);
+			}
+		}
+		bus.start();
+
+		long start = System.nanoTime();
+		for (int i = 0; i < quoteCount; i++) {
+			bus.publishQuote(i & 127, 10.0);
+		}
+		bus.shutdown();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.println("Quotes:            " + quoteCount);
+		System.out.println("Seconds:           " + seconds);
+		System.out.println("Quotes per second: " + (long) (quoteCount / seconds));
+		bus.printStats();
+	}
+
+}
@@ -0,0 +1,100 @@
+package testing;
+
+import incoming_data_sources.YahooFetcher;
+
+import java.util.concurrent.CountDownLatch;
+
+import outgoing_data_sources.OrderEventListener;
+import outgoing_data_sources.SimulatedBroker;
+import stocks.Stock;
+import trade_types.MarketTrade;
+import trade_types.Trade;
+import utilities.GeneralToolKit;
+
+/**
+ * Measures how many Trades a SimulatedBroker fills per second.
+ * Quotes come from a fixed fetcher, so only the gateway and the matching engine are timed.
+ *
+ * Usage: GatewayLoadTest [trades] [batch size] [symbols]
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class GatewayLoadTest {
+
+	public static void main(String[] args) throws InterruptedException {
+		int tradeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int symbolCount = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+		// Every stock trades at 10.00 - 10.02 with room for the whole order
+		GeneralToolKit.fetcher.route(new YahooFetcher() {
+			@Override
+			public String getLastTradePriceOnly(String symbol) {
+				return "10.01\n";
+			}
+
+			@Override
+			public String getBid(String symbol) {
+				return "10.00\n";
+			}
+
+			@Override
+			public String getAskPrice(String symbol) {
+				return "10.02\n";
+			}
+
+			@Override
+			public String getBidSize(String symbol) {
+				return "N/A\n";
+			}
+
+			@Override
+			public String getAskSize(String symbol) {
+				return "N/A\n";
+			}
+		});
+
+		Stock[] stocks = new Stock[symbolCount];
+		for (int i = 0; i < symbolCount; i++) {
+			stocks[i] = Stock.get("load" + i);
+		}
+
+		final CountDownLatch done = new CountDownLatch(tradeCount);
+		SimulatedBroker broker = new SimulatedBroker(batchSize, 10);
+		broker.setListener(new OrderEventListener() {
+			@Override
+			public void onAcknowledge(Trade trade) {
+			}
+
+			@Override
+			public void onFill(Trade trade, double price, int shares) {
+				done.countDown();
+			}
+
+			@Override
+			public void onReject(Trade trade, String reason) {
+				done.countDown();
+			}
+		});
+
+		long start = System.nanoTime();
+		for (int i = 0; i < tradeCount; i++) {
+			broker.submit(new MarketTrade(i % 2 == 0 ? "Buy" : "Sell", stocks[i % symbolCount], 100));
+		}
+		broker.flush();
+		done.await();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		broker.shutdown();
+		GeneralToolKit.fetcher.clearRoute();
+
+		System.out.println("Trades filled:    " + broker.getFilledCount());
+		System.out.println("Trades rejected:  " + broker.getRejectedCount());
+		System.out.println("Batches:          " + broker.getBatchCount());
+		System.out.println("Seconds:          " + seconds);
+		System.out.println("Trades per second: " + (long) (tradeCount / seconds));
+	}
+
+}
@@ -0,0 +1,80 @@
+package trade_types;
+
+import java.util.List;
+
+import stocks.Stock;
+
+/**
+ * Collects market on close Trades during the session and nets them for the closing auction.
+ *
+ * Buys and sells of a stock cancel each other, as do short sales and buys to cover,
+ * so each stock leaves the auction with at most one Trade of each pair and the whole
+ * batch needs a single price per stock.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class CloseAuction {
+
+	private final OrderNetter netter = new OrderNetter(OrderKind.MARKET_ON_CLOSE);
+
+	/**
+	 * Adds a Trade to the auction
+	 *
+	 * @param trade the Trade, any order type
+	 */
+	public void add(Trade trade) {
+		netter.add(trade);
+	}
+
+	/**
+	 * Gets the stocks with orders in the auction
+	 *
+	 * @return the symbols, in the order they were first added
+	 */
+	public String[] getSymbols() {
+		List<Stock> stocks = netter.getStocks();
+		String[] result = new String[stocks.size()];
+
+		for (int i = 0; i < result.length; i++) {
+			result[i] = stocks.get(i).symbol;
+		}
+		return result;
+	}
+
+	/**
+	 * Nets the orders and empties the auction
+	 *
+	 * @param closePrices the close price of each stock, in the order of getSymbols()
+	 * @return the net Trades, priced at the close
+	 */
+	public Trade[] close(double[] closePrices) {
+		List<Stock> stocks = netter.getStocks();
+		double[] pricesById = new double[Stock.count()];
+
+		for (int i = 0; i < stocks.size(); i++) {
+			pricesById[stocks.get(i).getId()] = closePrices[i];
+		}
+
+		Trade[] netTrades = netter.net();
+		for (Trade curTrade : netTrades) {
+			curTrade.setPrice(pricesById[curTrade.getSymbol().getId()]);
+		}
+
+		if (netter.getCrossedShares() > 0) {
+			System.out.println("Crossed " + netter.getCrossedShares() + " shares at the close");
+		}
+
+		return netTrades;
+	}
+
+	/**
+	 * Gets the number of orders added since the last close
+	 *
+	 * @return
+	 */
+	public int getOrderCount() {
+		return netter.getOrderCount();
+	}
+}
@@ -19,15 +19,26 @@ public class LimitTrade extends Trade implements Serializable {
 	private String orderType;
 	private double price;
 	private final String tradeType = "limit";
+	private double limitPrice;
 
 	public LimitTrade(String orderType, Stock symbol, int shares) {
 		super(orderType, symbol, shares);
 	}
 
+	public LimitTrade(String orderType, Stock symbol, int shares, double limitPrice) {
+		super(orderType, symbol, shares);
+		setLimitPrice(limitPrice);
+	}
+
 	@Override
 	public String getTradeType(){
 		return tradeType;
 	}
+
+	@Override
+	public OrderKind getKind(){
+		return OrderKind.LIMIT;
+	}
 	
 	/**
 	 * Sets the symbol for the trade
@@ -62,6 +73,7 @@ public class LimitTrade extends Trade implements Serializable {
 	 * @param orderType
 	 */
 	public void setOrderType(String orderType) {
+		super.setOrderType(orderType);
 		this.orderType = orderType;
 	}
 
@@ -101,4 +113,22 @@ public class LimitTrade extends Trade implements Serializable {
 		return orderType;
 	}
 
+	/**
+	 * Sets the price the trade may not be filled worse than
+	 * 
+	 * @param limitPrice
+	 */
+	public void setLimitPrice(double limitPrice) {
+		this.limitPrice = limitPrice;
+	}
+
+	/**
+	 * Gets the price the trade may not be filled worse than
+	 * 
+	 * @return
+	 */
+	public double getLimitPrice() {
+		return limitPrice;
+	}
+
 }
\ No newline at end of file
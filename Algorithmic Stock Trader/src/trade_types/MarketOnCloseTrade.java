@@ -28,6 +28,11 @@ public class MarketOnCloseTrade extends Trade implements Serializable {
 	public String getTradeType(){
 		return tradeType;
 	}
+
+	@Override
+	public OrderKind getKind(){
+		return OrderKind.MARKET_ON_CLOSE;
+	}
 	
 	/**
 	 * Sets the symbol for the trade
@@ -62,6 +67,7 @@ public class MarketOnCloseTrade extends Trade implements Serializable {
 	 * @param orderType
 	 */
 	public void setOrderType(String orderType) {
+		super.setOrderType(orderType);
 		this.orderType = orderType;
 	}
 
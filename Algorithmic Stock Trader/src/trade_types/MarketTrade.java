@@ -28,6 +28,11 @@ public class MarketTrade extends Trade implements Serializable {
 	public String getTradeType(){
 		return tradeType;
 	}
+
+	@Override
+	public OrderKind getKind(){
+		return OrderKind.MARKET;
+	}
 	
 	/**
 	 * Sets the symbol for the trade
@@ -62,6 +67,7 @@ public class MarketTrade extends Trade implements Serializable {
 	 * @param orderType
 	 */
 	public void setOrderType(String orderType) {
+		super.setOrderType(orderType);
 		this.orderType = orderType;
 	}
 
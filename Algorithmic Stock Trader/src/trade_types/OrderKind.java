@@ -0,0 +1,59 @@
+package trade_types;
+
+/**
+ * The kind of a Trade, one for each of the price types
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public enum OrderKind {
+
+	MARKET("market", false),
+	MARKET_ON_CLOSE("market on close", false),
+	LIMIT("limit", true),
+	STOP_LIMIT("stop limit", true),
+	TRAILING_STOP_DOLLAR("trailing stop dollar", true),
+	TRAILING_STOP_PERCENT("trailing stop percent", true),
+	STOP("stop", true);
+
+	private final String name;
+	private final boolean working;
+
+	private OrderKind(String name, boolean working) {
+		this.name = name;
+		this.working = working;
+	}
+
+	/**
+	 * Gets the kind of a price type
+	 *
+	 * @param priceType one of Trade.getPriceTypes()
+	 * @return the kind, or null if it is not a price type
+	 */
+	public static OrderKind fromName(String priceType) {
+		for (OrderKind kind : values()) {
+			if (kind.name.equals(priceType)) {
+				return kind;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Determines if Trades of the kind wait in a TriggerEngine instead of executing right away
+	 *
+	 * @return
+	 */
+	public boolean isWorking() {
+		return working;
+	}
+
+	/**
+	 * Gets the price type, such as "market"
+	 */
+	@Override
+	public String toString() {
+		return name;
+	}
+}
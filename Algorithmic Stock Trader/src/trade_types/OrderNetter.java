@@ -0,0 +1,201 @@
+package trade_types;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import stocks.Stock;
+
+/**
+ * Nets the Trades of one kind per stock before they are sent.
+ *
+ * Buys and sells of a stock cancel each other, as do short sales and buys to cover,
+ * so each stock leaves with at most one Trade of each pair however many orders or
+ * algorithms asked for it. A stock with a single order keeps its own Trade. Trades of
+ * other kinds pass through unchanged, ahead of the net Trades. Share counts are kept
+ * in arrays indexed by Stock id, so the arrays are reused from one net to the next.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class OrderNetter {
+
+	// Buy and Sell, then Buy to Cover and Sell Short
+	private static final Side[][] PAIRS = { { Side.BUY, Side.SELL }, { Side.BUY_TO_COVER, Side.SELL_SHORT } };
+
+	private final OrderKind kind;
+
+	// Net shares bought of each pair, the number of orders and the first order, indexed by Stock id
+	private int[][] netShares = { new int[16], new int[16] };
+	private int[][] orders = { new int[16], new int[16] };
+	private Trade[][] firstOrder = { new Trade[16], new Trade[16] };
+	private int[] crossedShares = new int[16];
+
+	// Stocks with orders, in the order they were first added
+	private final List<Stock> stocks = new ArrayList<Stock>();
+	private boolean[] listed = new boolean[16];
+	private final List<Trade> passed = new ArrayList<Trade>();
+	private int orderCount = 0;
+	private int lastCrossedShares = 0;
+
+	/**
+	 * @param kind the kind of Trade to net, such as OrderKind.MARKET
+	 */
+	public OrderNetter(OrderKind kind) {
+		this.kind = kind;
+	}
+
+	/**
+	 * Adds a Trade
+	 *
+	 * @param trade the Trade, any type, or null
+	 */
+	public void add(Trade trade) {
+		if (trade == null) {
+			return;
+		}
+		orderCount++;
+
+		Side side = trade.getSide();
+		if (trade.getKind() != kind || side == null) {
+			passed.add(trade);
+			return;
+		}
+
+		int id = trade.getSymbol().getId();
+		ensureCapacity(id + 1);
+
+		int pair = side.isShort() ? 1 : 0;
+		int before = netShares[pair][id];
+		netShares[pair][id] += side.isBuy() ? trade.getShares() : -trade.getShares();
+
+		if (orders[pair][id]++ == 0) {
+			firstOrder[pair][id] = trade;
+		}
+
+		// Shares that moved the net towards zero were crossed against opposite orders
+		int after = netShares[pair][id];
+		if ((before > 0 && after < before) || (before < 0 && after > before)) {
+			crossedShares[id] += Math.min(Math.abs(before), Math.abs(after - before));
+		}
+
+		if (!listed[id]) {
+			listed[id] = true;
+			stocks.add(trade.getSymbol());
+		}
+	}
+
+	/**
+	 * Adds every Trade of an array
+	 *
+	 * @param trades the Trades, which may contain nulls, or null
+	 */
+	public void add(Trade[] trades) {
+		if (trades != null) {
+			for (Trade curTrade : trades) {
+				add(curTrade);
+			}
+		}
+	}
+
+	/**
+	 * Gets the stocks with Trades to net, in the order they were first added
+	 *
+	 * @return
+	 */
+	public List<Stock> getStocks() {
+		return stocks;
+	}
+
+	/**
+	 * Nets the Trades and empties the netter
+	 *
+	 * @return the Trades that passed through, then the net Trades
+	 */
+	public Trade[] net() {
+		List<Trade> netTrades = new ArrayList<Trade>(passed);
+		lastCrossedShares = 0;
+
+		for (int i = 0; i < stocks.size(); i++) {
+			Stock curStock = stocks.get(i);
+			int id = curStock.getId();
+
+			for (int pair = 0; pair < PAIRS.length; pair++) {
+				int shares = netShares[pair][id];
+
+				if (orders[pair][id] == 1) {
+					netTrades.add(firstOrder[pair][id]);
+				} else if (shares != 0) {
+					netTrades.add(createTrade(PAIRS[pair][shares > 0 ? 0 : 1], curStock, Math.abs(shares)));
+				}
+
+				netShares[pair][id] = 0;
+				orders[pair][id] = 0;
+				firstOrder[pair][id] = null;
+			}
+
+			lastCrossedShares += crossedShares[id];
+			crossedShares[id] = 0;
+			listed[id] = false;
+		}
+
+		stocks.clear();
+		passed.clear();
+		orderCount = 0;
+
+		return netTrades.toArray(new Trade[netTrades.size()]);
+	}
+
+	/**
+	 * Gets the number of Trades added since the last net
+	 *
+	 * @return
+	 */
+	public int getOrderCount() {
+		return orderCount;
+	}
+
+	/**
+	 * Gets the number of shares the last net crossed against opposite orders
+	 *
+	 * @return
+	 */
+	public int getCrossedShares() {
+		return lastCrossedShares;
+	}
+
+	private Trade createTrade(Side side, Stock stock, int shares) {
+		if (kind == OrderKind.MARKET_ON_CLOSE) {
+			return new MarketOnCloseTrade(side.toString(), stock, shares);
+		}
+		return new MarketTrade(side.toString(), stock, shares);
+	}
+
+	private void ensureCapacity(int size) {
+		if (listed.length < size) {
+			int length = Math.max(size, listed.length * 2);
+
+			for (int pair = 0; pair < PAIRS.length; pair++) {
+				int[] grownShares = new int[length];
+				System.arraycopy(netShares[pair], 0, grownShares, 0, netShares[pair].length);
+				netShares[pair] = grownShares;
+
+				int[] grownOrders = new int[length];
+				System.arraycopy(orders[pair], 0, grownOrders, 0, orders[pair].length);
+				orders[pair] = grownOrders;
+
+				Trade[] grownFirst = new Trade[length];
+				System.arraycopy(firstOrder[pair], 0, grownFirst, 0, firstOrder[pair].length);
+				firstOrder[pair] = grownFirst;
+			}
+
+			int[] grownCrossed = new int[length];
+			System.arraycopy(crossedShares, 0, grownCrossed, 0, crossedShares.length);
+			crossedShares = grownCrossed;
+
+			boolean[] grownListed = new boolean[length];
+			System.arraycopy(listed, 0, grownListed, 0, listed.length);
+			listed = grownListed;
+		}
+	}
+}
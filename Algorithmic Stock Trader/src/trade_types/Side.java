@@ -0,0 +1,67 @@
+package trade_types;
+
+/**
+ * The side of a Trade, one for each of the order types
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public enum Side {
+
+	BUY("Buy", true, false),
+	SELL("Sell", false, false),
+	SELL_SHORT("Sell Short", false, true),
+	BUY_TO_COVER("Buy to Cover", true, true);
+
+	private final String name;
+	private final boolean buy;
+	private final boolean shortSide;
+
+	private Side(String name, boolean buy, boolean shortSide) {
+		this.name = name;
+		this.buy = buy;
+		this.shortSide = shortSide;
+	}
+
+	/**
+	 * Gets the side of an order type
+	 *
+	 * @param orderType one of the order types, such as "Buy"
+	 * @return the side, or null if it is not an order type
+	 */
+	public static Side fromName(String orderType) {
+		for (Side side : values()) {
+			if (side.name.equals(orderType)) {
+				return side;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Determines if the side buys shares, which Buy and Buy to Cover do
+	 *
+	 * @return
+	 */
+	public boolean isBuy() {
+		return buy;
+	}
+
+	/**
+	 * Determines if the side opens or closes a short position
+	 *
+	 * @return
+	 */
+	public boolean isShort() {
+		return shortSide;
+	}
+
+	/**
+	 * Gets the order type, such as "Buy"
+	 */
+	@Override
+	public String toString() {
+		return name;
+	}
+}
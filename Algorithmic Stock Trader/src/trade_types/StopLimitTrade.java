@@ -19,15 +19,28 @@ public class StopLimitTrade extends Trade implements Serializable {
 	private String orderType;
 	private double price;
 	private final String tradeType = "stop limit";
+	private double stopPrice;
+	private double limitPrice;
 
 	public StopLimitTrade(String orderType, Stock symbol, int shares) {
 		super(orderType, symbol, shares);
 	}
 
+	public StopLimitTrade(String orderType, Stock symbol, int shares, double stopPrice, double limitPrice) {
+		super(orderType, symbol, shares);
+		setStopPrice(stopPrice);
+		setLimitPrice(limitPrice);
+	}
+
 	@Override
 	public String getTradeType(){
 		return tradeType;
 	}
+
+	@Override
+	public OrderKind getKind(){
+		return OrderKind.STOP_LIMIT;
+	}
 	
 	/**
 	 * Sets the symbol for the trade
@@ -62,6 +75,7 @@ public class StopLimitTrade extends Trade implements Serializable {
 	 * @param orderType
 	 */
 	public void setOrderType(String orderType) {
+		super.setOrderType(orderType);
 		this.orderType = orderType;
 	}
 
@@ -101,4 +115,40 @@ public class StopLimitTrade extends Trade implements Serializable {
 		return orderType;
 	}
 
+	/**
+	 * Sets the price at which the trade becomes a limit order
+	 * 
+	 * @param stopPrice
+	 */
+	public void setStopPrice(double stopPrice) {
+		this.stopPrice = stopPrice;
+	}
+
+	/**
+	 * Gets the price at which the trade becomes a limit order
+	 * 
+	 * @return
+	 */
+	public double getStopPrice() {
+		return stopPrice;
+	}
+
+	/**
+	 * Sets the price the trade may not be filled worse than once triggered
+	 * 
+	 * @param limitPrice
+	 */
+	public void setLimitPrice(double limitPrice) {
+		this.limitPrice = limitPrice;
+	}
+
+	/**
+	 * Gets the price the trade may not be filled worse than once triggered
+	 * 
+	 * @return
+	 */
+	public double getLimitPrice() {
+		return limitPrice;
+	}
+
 }
\ No newline at end of file
@@ -19,15 +19,26 @@ public class StopTrade extends Trade implements Serializable {
 	private String orderType;
 	private double price;
 	private final String tradeType = "stop";
+	private double stopPrice;
 
 	public StopTrade(String orderType, Stock symbol, int shares) {
 		super(orderType, symbol, shares);
 	}
 
+	public StopTrade(String orderType, Stock symbol, int shares, double stopPrice) {
+		super(orderType, symbol, shares);
+		setStopPrice(stopPrice);
+	}
+
 	@Override
 	public String getTradeType(){
 		return tradeType;
 	}
+
+	@Override
+	public OrderKind getKind(){
+		return OrderKind.STOP;
+	}
 	
 	/**
 	 * Sets the symbol for the trade
@@ -62,6 +73,7 @@ public class StopTrade extends Trade implements Serializable {
 	 * @param orderType
 	 */
 	public void setOrderType(String orderType) {
+		super.setOrderType(orderType);
 		this.orderType = orderType;
 	}
 
@@ -101,4 +113,22 @@ public class StopTrade extends Trade implements Serializable {
 		return orderType;
 	}
 
+	/**
+	 * Sets the price at which the trade becomes a market order
+	 * 
+	 * @param stopPrice
+	 */
+	public void setStopPrice(double stopPrice) {
+		this.stopPrice = stopPrice;
+	}
+
+	/**
+	 * Gets the price at which the trade becomes a market order
+	 * 
+	 * @return
+	 */
+	public double getStopPrice() {
+		return stopPrice;
+	}
+
 }
\ No newline at end of file
@@ -19,6 +19,7 @@ public abstract class Trade implements Serializable {
 	private double price;
 	private String orderType;
 	private String tradeType;
+	private transient Side side;
 	private static final String[] orderTypes = {"Buy", "Sell", "Sell Short", "Buy to Cover" };
 	private static final String[] priceTypes = { "market", "market on close", "limit", "stop limit",
 												 "trailing stop dollar", "trailing stop percent", "stop"};
@@ -38,6 +39,26 @@ public abstract class Trade implements Serializable {
 		return tradeType;
 	}
 	
+	/**
+	 * Returns the kind of the trade
+	 * 
+	 * @return the kind
+	 */
+	public abstract OrderKind getKind();
+	
+	/**
+	 * Returns the side of the trade, which is found once each time the order type is set
+	 * 
+	 * @return the side, or null if the order type is not one of the order types
+	 */
+	public Side getSide(){
+		// Trades that were deserialized find their side again
+		if(side == null){
+			side = Side.fromName(getOrderType());
+		}
+		return side;
+	}
+	
 	/**
 	 * Returns the types of orders
 	 * 
@@ -90,6 +111,7 @@ public abstract class Trade implements Serializable {
 	 */
 	public void setOrderType(String orderType) {
 		this.orderType = orderType;
+		side = Side.fromName(orderType);
 	}
 
 	/**
@@ -19,15 +19,26 @@ public class TrailingStopDollarTrade extends Trade implements Serializable {
 	private String orderType;
 	private double price;
 	private final String tradeType = "trailing stop dollar";
+	private double trailAmount;
 
 	public TrailingStopDollarTrade(String orderType, Stock symbol, int shares) {
 		super(orderType, symbol, shares);
 	}
 
+	public TrailingStopDollarTrade(String orderType, Stock symbol, int shares, double trailAmount) {
+		super(orderType, symbol, shares);
+		setTrailAmount(trailAmount);
+	}
+
 	@Override
 	public String getTradeType(){
 		return tradeType;
 	}
+
+	@Override
+	public OrderKind getKind(){
+		return OrderKind.TRAILING_STOP_DOLLAR;
+	}
 	
 	/**
 	 * Sets the symbol for the trade
@@ -62,6 +73,7 @@ public class TrailingStopDollarTrade extends Trade implements Serializable {
 	 * @param orderType
 	 */
 	public void setOrderType(String orderType) {
+		super.setOrderType(orderType);
 		this.orderType = orderType;
 	}
 
@@ -101,4 +113,22 @@ public class TrailingStopDollarTrade extends Trade implements Serializable {
 		return orderType;
 	}
 
+	/**
+	 * Sets how many dollars the price may move against the trade from its best price
+	 * 
+	 * @param trailAmount
+	 */
+	public void setTrailAmount(double trailAmount) {
+		this.trailAmount = trailAmount;
+	}
+
+	/**
+	 * Gets how many dollars the price may move against the trade from its best price
+	 * 
+	 * @return
+	 */
+	public double getTrailAmount() {
+		return trailAmount;
+	}
+
 }
\ No newline at end of file
@@ -19,15 +19,26 @@ public class TrailingStopPercentTrade extends Trade implements Serializable {
 	private String orderType;
 	private double price;
 	private final String tradeType = "trailing stop percent";
+	private double trailPercent;
 
 	public TrailingStopPercentTrade(String orderType, Stock symbol, int shares) {
 		super(orderType, symbol, shares);
 	}
 
+	public TrailingStopPercentTrade(String orderType, Stock symbol, int shares, double trailPercent) {
+		super(orderType, symbol, shares);
+		setTrailPercent(trailPercent);
+	}
+
 	@Override
 	public String getTradeType(){
 		return tradeType;
 	}
+
+	@Override
+	public OrderKind getKind(){
+		return OrderKind.TRAILING_STOP_PERCENT;
+	}
 	
 	/**
 	 * Sets the symbol for the trade
@@ -62,6 +73,7 @@ public class TrailingStopPercentTrade extends Trade implements Serializable {
 	 * @param orderType
 	 */
 	public void setOrderType(String orderType) {
+		super.setOrderType(orderType);
 		this.orderType = orderType;
 	}
 
@@ -101,4 +113,22 @@ public class TrailingStopPercentTrade extends Trade implements Serializable {
 		return orderType;
 	}
 
+	/**
+	 * Sets how many percent the price may move against the trade from its best price
+	 * 
+	 * @param trailPercent
+	 */
+	public void setTrailPercent(double trailPercent) {
+		this.trailPercent = trailPercent;
+	}
+
+	/**
+	 * Gets how many percent the price may move against the trade from its best price
+	 * 
+	 * @return
+	 */
+	public double getTrailPercent() {
+		return trailPercent;
+	}
+
 }
\ No newline at end of file
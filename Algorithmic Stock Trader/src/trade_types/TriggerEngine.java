@@ -0,0 +1,616 @@
+package trade_types;
+
+/**
+ * Holds working limit, stop, stop limit and trailing stop Trades until the price reaches them.
+ *
+ * Each stock keeps its fixed trigger prices in two sorted arrays with the next price to
+ * trigger at the end: one for orders that trigger when the price rises to them (buy stops,
+ * sell limits) and one for orders that trigger when it falls to them (sell stops, buy limits).
+ * A price update pops triggered orders off the ends, so checking a stock costs
+ * O(log n + k) for k triggered orders, and adding or cancelling is a binary search.
+ *
+ * Trailing stops are grouped by the best price seen since they were placed. Newer orders have
+ * seen fewer prices, so the groups form a stack whose best prices get worse towards the top.
+ * A new best price merges the groups it passes into one, which moves every trailing stop in
+ * them at once. Inside a group the orders are sorted by their trail, smallest last, since
+ * the smallest trail triggers first. Each group also keeps the highest price at which it or
+ * a group below it triggers, so a price that triggers no trailing stop is turned away by
+ * looking at the top of the stack, and otherwise only the groups down to the lowest that
+ * triggers are visited.
+ *
+ * Prices are indexed by Stock id. Apart from growing its arrays the engine does not allocate.
+ *
+ * @author Steven Shaw
+ * @email  sps5688@rit.edu
+ *
+ */
+public class TriggerEngine {
+
+	private static final int BUY = 0;
+	private static final int SELL = 1;
+
+	private static final int INITIAL_ORDERS = 64;
+	private static final int INITIAL_ENTRIES = 8;
+
+	// Room for rounding between a group's reach and the trails it was worked out from
+	private static final double REACH_TOLERANCE = 1e-9;
+
+	/**
+	 * Receives Trades as they trigger
+	 */
+	public interface TriggerListener {
+
+		/**
+		 * Called once for every Trade that triggers. The Trade is no longer working.
+		 * The listener must not add or cancel Trades while it is being called.
+		 *
+		 * @param trade the triggered Trade
+		 * @param price the price that triggered it
+		 */
+		public void onTrigger(Trade trade, double price);
+
+	}
+
+	private TriggerListener listener;
+
+	// Working orders, indexed by order id
+	private Trade[] trades = new Trade[INITIAL_ORDERS];
+	private int[] symbols = new int[INITIAL_ORDERS];
+	private boolean[] triggeredStops = new boolean[INITIAL_ORDERS];
+	private int[] nextFree = new int[INITIAL_ORDERS];
+	private int freeHead = -1;
+	private int used = 0;
+	private int workingCount = 0;
+
+	private SymbolOrders[] books = new SymbolOrders[16];
+
+	// Reused when trailing groups are merged
+	private double[] mergeOffsets = new double[INITIAL_ENTRIES];
+	private int[] mergeOrders = new int[INITIAL_ENTRIES];
+
+	/**
+	 * Sorted trigger prices of one direction
+	 */
+	private static final class TriggerList {
+		double[] prices = new double[INITIAL_ENTRIES];
+		int[] orders = new int[INITIAL_ENTRIES];
+		int count;
+	}
+
+	/**
+	 * Trailing stops that share the best price seen since they were placed.
+	 * Prices are multiplied by the side's sign so higher is always better.
+	 */
+	private static final class TrailGroup {
+		double best;
+		// Highest signed price at which this group or one below it on the stack triggers
+		double reach;
+		final TriggerList dollar = new TriggerList();
+		final TriggerList percent = new TriggerList();
+	}
+
+	/**
+	 * Working orders of one stock
+	 */
+	private static final class SymbolOrders {
+		// Triggers once the price is at or above, lowest last
+		final TriggerList rising = new TriggerList();
+		// Triggers once the price is at or below, highest last
+		final TriggerList falling = new TriggerList();
+
+		// Stack of trailing stop groups for each side, best price worsening towards the top
+		final TrailGroup[][] groups = { new TrailGroup[INITIAL_ENTRIES], new TrailGroup[INITIAL_ENTRIES] };
+		final int[] groupCount = new int[2];
+		// Groups that were emptied, kept for reuse
+		final TrailGroup[][] spareGroups = { new TrailGroup[INITIAL_ENTRIES], new TrailGroup[INITIAL_ENTRIES] };
+		final int[] spareCount = new int[2];
+
+		double lastPrice;
+		boolean priced;
+		int working;
+	}
+
+	/**
+	 * Determines if a trade type waits in the engine instead of executing right away
+	 *
+	 * @param tradeType one of Trade.getPriceTypes()
+	 * @return if Trades of the type are worked
+	 */
+	public static boolean isWorkingType(String tradeType) {
+		OrderKind kind = OrderKind.fromName(tradeType);
+		return kind != null && kind.isWorking();
+	}
+
+	public void setListener(TriggerListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Adds a working Trade. Trades the current price already triggers trigger right away.
+	 *
+	 * @param trade the Trade, a LimitTrade, StopTrade, StopLimitTrade,
+	 *              TrailingStopDollarTrade or TrailingStopPercentTrade
+	 * @param price the current price of the stock
+	 * @return the order id of the Trade
+	 */
+	public int add(Trade trade, double price) {
+		int side = sideOf(trade);
+		int symbol = trade.getSymbol().getId();
+		SymbolOrders book = book(symbol);
+
+		int order = allocate();
+		trades[order] = trade;
+		symbols[order] = symbol;
+		triggeredStops[order] = false;
+		workingCount++;
+		book.working++;
+
+		// Trailing groups have to know the current price before a trailing stop joins them
+		updateTrailing(book, price);
+		book.lastPrice = price;
+		book.priced = true;
+
+		switch (trade.getKind()) {
+		case LIMIT:
+			addLimit(book, side, order, ((LimitTrade) trade).getLimitPrice());
+			break;
+		case STOP:
+			addStop(book, side, order, ((StopTrade) trade).getStopPrice());
+			break;
+		case STOP_LIMIT:
+			addStop(book, side, order, ((StopLimitTrade) trade).getStopPrice());
+			break;
+		case TRAILING_STOP_DOLLAR:
+			addTrailing(book, side, false, order, ((TrailingStopDollarTrade) trade).getTrailAmount(), price);
+			break;
+		case TRAILING_STOP_PERCENT:
+			addTrailing(book, side, true, order, ((TrailingStopPercentTrade) trade).getTrailPercent() / 100, price);
+			break;
+		default:
+			release(order);
+			throw new IllegalArgumentException("Trade type " + trade.getTradeType() + " does not rest");
+		}
+
+		check(book, price);
+		return order;
+	}
+
+	/**
+	 * Removes a working Trade without triggering it
+	 *
+	 * @param order the order id
+	 * @return if the order was working
+	 */
+	public boolean cancel(int order) {
+		if (order < 0 || order >= used || trades[order] == null) {
+			return false;
+		}
+
+		SymbolOrders book = books[symbols[order]];
+		if (!remove(book.rising, order) && !remove(book.falling, order)) {
+			for (int side = BUY; side <= SELL; side++) {
+				for (int i = 0; i < book.groupCount[side]; i++) {
+					TrailGroup group = book.groups[side][i];
+					if (remove(group.dollar, order) || remove(group.percent, order)) {
+						restack(book, side, i);
+						break;
+					}
+				}
+			}
+		}
+
+		release(order);
+		return true;
+	}
+
+	/**
+	 * Checks a stock's working Trades against a new price, moving trailing stops and
+	 * triggering every Trade the price reaches
+	 *
+	 * @param symbol the Stock id
+	 * @param price  the new price
+	 */
+	public void onPrice(int symbol, double price) {
+		if (symbol >= books.length || books[symbol] == null) {
+			return;
+		}
+
+		SymbolOrders book = books[symbol];
+		updateTrailing(book, price);
+		book.lastPrice = price;
+		book.priced = true;
+
+		check(book, price);
+	}
+
+	/**
+	 * Triggers every order a price reaches. Stop limits that trigger become limits,
+	 * which the same price may trigger in turn.
+	 */
+	private void check(SymbolOrders book, double price) {
+		boolean triggered = true;
+
+		while (triggered) {
+			triggered = false;
+
+			TriggerList rising = book.rising;
+			while (rising.count > 0 && rising.prices[rising.count - 1] <= price) {
+				trigger(book, rising.orders[--rising.count], price);
+				triggered = true;
+			}
+
+			TriggerList falling = book.falling;
+			while (falling.count > 0 && falling.prices[falling.count - 1] >= price) {
+				trigger(book, falling.orders[--falling.count], price);
+				triggered = true;
+			}
+		}
+
+		checkTrailing(book, BUY, -price);
+		checkTrailing(book, SELL, price);
+	}
+
+	private void trigger(SymbolOrders book, int order, double price) {
+		Trade trade = trades[order];
+
+		if (trade.getKind() == OrderKind.STOP_LIMIT && !triggeredStops[order]) {
+			// The stop turns the order into a limit order
+			triggeredStops[order] = true;
+			addLimit(book, sideOf(trade), order, ((StopLimitTrade) trade).getLimitPrice());
+			return;
+		}
+
+		release(order);
+		if (listener != null) {
+			listener.onTrigger(trade, price);
+		}
+	}
+
+	private void addLimit(SymbolOrders book, int side, int order, double limitPrice) {
+		if (side == BUY) {
+			insert(book.falling, limitPrice, order, true);
+		} else {
+			insert(book.rising, limitPrice, order, false);
+		}
+	}
+
+	private void addStop(SymbolOrders book, int side, int order, double stopPrice) {
+		if (side == BUY) {
+			insert(book.rising, stopPrice, order, false);
+		} else {
+			insert(book.falling, stopPrice, order, true);
+		}
+	}
+
+	/**
+	 * Adds a trailing stop to the group of the current price, which is the top of the stack
+	 * once the stack has been updated with that price
+	 */
+	private void addTrailing(SymbolOrders book, int side, boolean percent, int order, double trail, double price) {
+		double best = side == BUY ? -price : price;
+		int count = book.groupCount[side];
+		TrailGroup group;
+
+		if (count > 0 && book.groups[side][count - 1].best == best) {
+			group = book.groups[side][count - 1];
+		} else {
+			group = pushGroup(book, side, best);
+		}
+
+		// Smallest trail last, and after earlier orders with the same trail
+		insert(percent ? group.percent : group.dollar, trail, order, false);
+		restack(book, side, book.groupCount[side] - 1);
+	}
+
+	/**
+	 * Merges every trailing group whose best price a new price passes into one group at that price
+	 */
+	private void updateTrailing(SymbolOrders book, double price) {
+		for (int side = BUY; side <= SELL; side++) {
+			double best = side == BUY ? -price : price;
+			TrailGroup[] groups = book.groups[side];
+			int count = book.groupCount[side];
+
+			if (count == 0 || groups[count - 1].best >= best) {
+				continue;
+			}
+
+			// Groups below the new price are the top of the stack
+			TrailGroup merged = groups[--count];
+			while (count > 0 && groups[count - 1].best < best) {
+				TrailGroup lower = groups[--count];
+				merge(lower.dollar, merged.dollar);
+				merge(lower.percent, merged.percent);
+				spareGroup(book, side, merged);
+				merged = lower;
+			}
+
+			merged.best = best;
+			groups[count++] = merged;
+			book.groupCount[side] = count;
+			restack(book, side, count - 1);
+		}
+	}
+
+	/**
+	 * Triggers trailing stops whose price has moved at least their trail from their group's best price
+	 */
+	private void checkTrailing(SymbolOrders book, int side, double signedPrice) {
+		TrailGroup[] groups = book.groups[side];
+		int count = book.groupCount[side];
+
+		// Groups below the first whose reach the price is above cannot trigger
+		int lowest = count;
+		while (lowest > 0 && signedPrice - groups[lowest - 1].reach <= REACH_TOLERANCE) {
+			lowest--;
+		}
+		if (lowest == count) {
+			return;
+		}
+
+		int kept = lowest;
+		for (int i = lowest; i < count; i++) {
+			TrailGroup group = groups[i];
+			double move = group.best - signedPrice;
+
+			TriggerList dollar = group.dollar;
+			while (dollar.count > 0 && dollar.prices[dollar.count - 1] <= move) {
+				trigger(book, dollar.orders[--dollar.count], Math.abs(signedPrice));
+			}
+
+			TriggerList percent = group.percent;
+			while (percent.count > 0 && percent.prices[percent.count - 1] * Math.abs(group.best) <= move) {
+				trigger(book, percent.orders[--percent.count], Math.abs(signedPrice));
+			}
+
+			// Empty groups leave the stack
+			if (dollar.count == 0 && percent.count == 0) {
+				spareGroup(book, side, group);
+			} else {
+				groups[kept++] = group;
+			}
+		}
+
+		book.groupCount[side] = kept;
+		restack(book, side, lowest);
+	}
+
+	/**
+	 * Works out the reach of a side's groups from one of them to the top of the stack
+	 *
+	 * @param from the lowest group that changed
+	 */
+	private static void restack(SymbolOrders book, int side, int from) {
+		TrailGroup[] groups = book.groups[side];
+		double reach = from > 0 ? groups[from - 1].reach : Double.NEGATIVE_INFINITY;
+
+		for (int i = from; i < book.groupCount[side]; i++) {
+			TrailGroup group = groups[i];
+
+			// The smallest trail of each list is last and triggers first
+			if (group.dollar.count > 0) {
+				reach = Math.max(reach, group.best - group.dollar.prices[group.dollar.count - 1]);
+			}
+			if (group.percent.count > 0) {
+				reach = Math.max(reach, group.best - group.percent.prices[group.percent.count - 1] * Math.abs(group.best));
+			}
+			group.reach = reach;
+		}
+	}
+
+	private TrailGroup pushGroup(SymbolOrders book, int side, double best) {
+		TrailGroup group;
+		if (book.spareCount[side] > 0) {
+			group = book.spareGroups[side][--book.spareCount[side]];
+		} else {
+			group = new TrailGroup();
+		}
+		group.best = best;
+
+		int count = book.groupCount[side];
+		if (count == book.groups[side].length) {
+			TrailGroup[] grown = new TrailGroup[count * 2];
+			System.arraycopy(book.groups[side], 0, grown, 0, count);
+			book.groups[side] = grown;
+		}
+		book.groups[side][count] = group;
+		book.groupCount[side]++;
+
+		return group;
+	}
+
+	private void spareGroup(SymbolOrders book, int side, TrailGroup group) {
+		group.dollar.count = 0;
+		group.percent.count = 0;
+
+		int count = book.spareCount[side];
+		if (count == book.spareGroups[side].length) {
+			TrailGroup[] grown = new TrailGroup[count * 2];
+			System.arraycopy(book.spareGroups[side], 0, grown, 0, count);
+			book.spareGroups[side] = grown;
+		}
+		book.spareGroups[side][count] = group;
+		book.spareCount[side]++;
+	}
+
+	/**
+	 * Merges a list sorted with its smallest value last into another, leaving the result in the other
+	 */
+	private void merge(TriggerList into, TriggerList from) {
+		int total = into.count + from.count;
+		if (from.count == 0) {
+			return;
+		}
+
+		if (mergeOffsets.length < total) {
+			mergeOffsets = new double[Math.max(total, mergeOffsets.length * 2)];
+			mergeOrders = new int[mergeOffsets.length];
+		}
+
+		// The orders of the lower group are older, so on ties they go last and trigger first
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < total; i++) {
+			if (b == from.count || (a < into.count && into.prices[a] > from.prices[b])) {
+				mergeOffsets[i] = into.prices[a];
+				mergeOrders[i] = into.orders[a++];
+			} else {
+				mergeOffsets[i] = from.prices[b];
+				mergeOrders[i] = from.orders[b++];
+			}
+		}
+
+		ensureCapacity(into, total);
+		System.arraycopy(mergeOffsets, 0, into.prices, 0, total);
+		System.arraycopy(mergeOrders, 0, into.orders, 0, total);
+		into.count = total;
+		from.count = 0;
+	}
+
+	/**
+	 * Inserts an order into a sorted list behind the orders that trigger at the same price
+	 *
+	 * @param ascending if the list is sorted lowest first
+	 */
+	private static void insert(TriggerList list, double price, int order, boolean ascending) {
+		ensureCapacity(list, list.count + 1);
+
+		// Finds the first entry that triggers after the new one
+		int low = 0;
+		int high = list.count;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			boolean later = ascending ? list.prices[middle] < price : list.prices[middle] > price;
+
+			if (later) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		System.arraycopy(list.prices, low, list.prices, low + 1, list.count - low);
+		System.arraycopy(list.orders, low, list.orders, low + 1, list.count - low);
+		list.prices[low] = price;
+		list.orders[low] = order;
+		list.count++;
+	}
+
+	private static boolean remove(TriggerList list, int order) {
+		for (int i = list.count - 1; i >= 0; i--) {
+			if (list.orders[i] == order) {
+				System.arraycopy(list.prices, i + 1, list.prices, i, list.count - i - 1);
+				System.arraycopy(list.orders, i + 1, list.orders, i, list.count - i - 1);
+				list.count--;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void ensureCapacity(TriggerList list, int size) {
+		if (list.prices.length < size) {
+			int length = Math.max(size, list.prices.length * 2);
+			double[] prices = new double[length];
+			int[] orders = new int[length];
+			System.arraycopy(list.prices, 0, prices, 0, list.count);
+			System.arraycopy(list.orders, 0, orders, 0, list.count);
+			list.prices = prices;
+			list.orders = orders;
+		}
+	}
+
+	private static int sideOf(Trade trade) {
+		return trade.getSide().isBuy() ? BUY : SELL;
+	}
+
+	private SymbolOrders book(int symbol) {
+		if (symbol >= books.length) {
+			SymbolOrders[] grown = new SymbolOrders[Math.max(books.length * 2, symbol + 1)];
+			System.arraycopy(books, 0, grown, 0, books.length);
+			books = grown;
+		}
+
+		if (books[symbol] == null) {
+			books[symbol] = new SymbolOrders();
+		}
+		return books[symbol];
+	}
+
+	private int allocate() {
+		if (freeHead != -1) {
+			int order = freeHead;
+			freeHead = nextFree[order];
+			return order;
+		}
+
+		if (used == trades.length) {
+			int size = trades.length * 2;
+			Trade[] grownTrades = new Trade[size];
+			System.arraycopy(trades, 0, grownTrades, 0, used);
+			trades = grownTrades;
+
+			int[] grownSymbols = new int[size];
+			System.arraycopy(symbols, 0, grownSymbols, 0, used);
+			symbols = grownSymbols;
+
+			boolean[] grownStops = new boolean[size];
+			System.arraycopy(triggeredStops, 0, grownStops, 0, used);
+			triggeredStops = grownStops;
+
+			int[] grownFree = new int[size];
+			System.arraycopy(nextFree, 0, grownFree, 0, used);
+			nextFree = grownFree;
+		}
+
+		return used++;
+	}
+
+	private void release(int order) {
+		trades[order] = null;
+		nextFree[order] = freeHead;
+		freeHead = order;
+		workingCount--;
+		books[symbols[order]].working--;
+	}
+
+	/**
+	 * Gets a working Trade
+	 *
+	 * @param order the order id
+	 * @return the Trade, or null if the order is not working
+	 */
+	public Trade getTrade(int order) {
+		return order >= 0 && order < used ? trades[order] : null;
+	}
+
+	/**
+	 * Gets the number of working Trades
+	 *
+	 * @return
+	 */
+	public int getWorkingCount() {
+		return workingCount;
+	}
+
+	/**
+	 * Gets the number of working Trades of a stock
+	 *
+	 * @param symbol the Stock id
+	 * @return
+	 */
+	public int getWorkingCount(int symbol) {
+		return symbol < books.length && books[symbol] != null ? books[symbol].working : 0;
+	}
+
+	/**
+	 * Gets the last price the engine saw for a stock
+	 *
+	 * @param symbol the Stock id
+	 * @return the price, or NaN if there has not been one
+	 */
+	public double getLastPrice(int symbol) {
+		return symbol < books.length && books[symbol] != null && books[symbol].priced ? books[symbol].lastPrice
+				: Double.NaN;
+	}
+}
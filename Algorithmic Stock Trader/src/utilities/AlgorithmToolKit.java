@@ -1,9 +1,15 @@
 package utilities;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
+import algorithms.FibParameters;
 import stocks.Portfolio;
 import stocks.Stock;
+import trade_types.CloseAuction;
+import trade_types.OrderKind;
+import trade_types.Side;
 import trade_types.Trade;
 
 /**
@@ -15,6 +21,13 @@ import trade_types.Trade;
  */
 public class AlgorithmToolKit {
 
+	// Number of Fibonacci Retracement levels
+	public static final int FIB_LEVEL_COUNT = 6;
+
+	// Flags returned by fibonacciSignal
+	public static final int BUY_SIGNAL = 1;
+	public static final int SELL_SIGNAL = 2;
+
 	/**
 	 * Processes a Trade array and updates the the Trader's finances
 	 * 
@@ -22,97 +35,245 @@ public class AlgorithmToolKit {
 	 * @param newTrades   the list of Trades to be processed
 	 */
 	public static void processTradeResults(Portfolio myPortfolio, Trade[] newTrades) {
-		if (newTrades != null) {
-			
-			// Process each trade
-			for (Trade curTrade : newTrades) {
-				double availableFunds = myPortfolio.getAvailableFunds();
+		processTradeResults(myPortfolio, newTrades, FibParameters.DEFAULT.getRebuyThreshold());
+	}
+
+	/**
+	 * Executes the Trader's working orders that the current prices trigger
+	 * 
+	 * @param myPortfolio the Trader's portfolio
+	 */
+	public static void processWorkingOrders(Portfolio myPortfolio) {
+		processTriggeredOrders(myPortfolio, myPortfolio.checkWorkingOrders());
+	}
+
+	/**
+	 * Executes working orders that triggered. Their prices were chosen when they were
+	 * placed, so they are not held back by the rebuy threshold.
+	 * 
+	 * @param myPortfolio the Trader's portfolio
+	 * @param triggered   the triggered Trades
+	 */
+	public static void processTriggeredOrders(Portfolio myPortfolio, Trade[] triggered) {
+		myPortfolio.sendOrders(checkOrders(myPortfolio, triggered, null));
+	}
+
+	/**
+	 * Processes a Trade array and updates the the Trader's finances
+	 * 
+	 * @param myPortfolio    the Trader's portfolio
+	 * @param newTrades      the list of Trades to be processed
+	 * @param rebuyThreshold fraction of the price paid inside which an owned stock is not bought again
+	 */
+	public static void processTradeResults(Portfolio myPortfolio, Trade[] newTrades, double rebuyThreshold) {
+		myPortfolio.sendOrders(checkOrders(myPortfolio, newTrades, 0, rebuyThreshold, false));
+	}
+
+	/**
+	 * Checks Trades without sending them, with the default parameters' rebuy threshold
+	 * 
+	 * @param myPortfolio the Trader's portfolio
+	 * @param newTrades   the list of Trades to be processed
+	 * @return the market Trades that may be sent, priced at the last trade, with the others set to null
+	 */
+	public static Trade[] checkOrders(Portfolio myPortfolio, Trade[] newTrades) {
+		return checkOrders(myPortfolio, newTrades, FibParameters.DEFAULT.getRebuyThreshold());
+	}
+
+	/**
+	 * Places the working and market on close Trades of an array and checks the rest
+	 * against the Trader's funds and positions, without sending them
+	 * 
+	 * @param myPortfolio    the Trader's portfolio
+	 * @param newTrades      the list of Trades to be processed
+	 * @param rebuyThreshold fraction of the price paid inside which an owned stock is not bought again
+	 * @return the market Trades that may be sent, priced at the last trade, with the others set to null
+	 */
+	public static Trade[] checkOrders(Portfolio myPortfolio, Trade[] newTrades, double rebuyThreshold) {
+		return checkOrders(myPortfolio, newTrades, 0, rebuyThreshold, false);
+	}
+
+	/**
+	 * Checks triggered working orders and new Trades together, so they share the funds,
+	 * without sending them. The rebuy threshold only applies to the new Trades.
+	 * 
+	 * @param myPortfolio the Trader's portfolio
+	 * @param triggered   the triggered Trades, or null
+	 * @param newTrades   the new Trades, or null
+	 * @return the market Trades that may be sent, triggered ones first, with the others set to null
+	 */
+	public static Trade[] checkOrders(Portfolio myPortfolio, Trade[] triggered, Trade[] newTrades) {
+		return checkOrders(myPortfolio, triggered, newTrades, FibParameters.DEFAULT.getRebuyThreshold());
+	}
+
+	/**
+	 * Checks triggered working orders and new Trades together, so they share the funds,
+	 * without sending them. The rebuy threshold only applies to the new Trades.
+	 * 
+	 * @param myPortfolio    the Trader's portfolio
+	 * @param triggered      the triggered Trades, or null
+	 * @param newTrades      the new Trades, or null
+	 * @param rebuyThreshold fraction of the price paid inside which an owned stock is not bought again
+	 * @return the market Trades that may be sent, triggered ones first, with the others set to null
+	 */
+	public static Trade[] checkOrders(Portfolio myPortfolio, Trade[] triggered, Trade[] newTrades, double rebuyThreshold) {
+		int triggeredCount = triggered == null ? 0 : triggered.length;
+		int newCount = newTrades == null ? 0 : newTrades.length;
+		if (triggeredCount + newCount == 0) {
+			return null;
+		}
+
+		Trade[] trades = new Trade[triggeredCount + newCount];
+		if (triggeredCount > 0) {
+			System.arraycopy(triggered, 0, trades, 0, triggeredCount);
+		}
+		if (newCount > 0) {
+			System.arraycopy(newTrades, 0, trades, triggeredCount, newCount);
+		}
+		return checkOrders(myPortfolio, trades, triggeredCount, rebuyThreshold, false);
+	}
+
+	/**
+	 * Executes the Trader's market on close orders in one batch at the close.
+	 * Opposite orders for a stock are netted first, so each stock needs a single price
+	 * and all of the prices are fetched in one request.
+	 * 
+	 * @param myPortfolio the Trader's portfolio
+	 */
+	public static void processCloseAuction(Portfolio myPortfolio) {
+		Trade[] closeOrders = myPortfolio.takeCloseOrders();
+
+		if (closeOrders.length > 0) {
+			CloseAuction auction = new CloseAuction();
+			for (Trade curTrade : closeOrders) {
+				auction.add(curTrade);
+			}
+
+			double[] closePrices = GeneralToolKit.getLastTradePrices(auction.getSymbols());
+			myPortfolio.sendOrders(checkOrders(myPortfolio, auction.close(closePrices), 0, 0, true));
+		}
+	}
+
+	/**
+	 * Places the working and market on close Trades of an array and checks the rest
+	 * 
+	 * @param myPortfolio    the Trader's portfolio
+	 * @param newTrades      the list of Trades to be processed
+	 * @param triggeredCount number of Trades at the start of the list that are triggered working orders
+	 * @param rebuyThreshold fraction of the price paid inside which an owned stock is not bought again
+	 * @param atClose        if the Trades come from the closing auction and are already priced
+	 * @return the market Trades that may be sent, with the others set to null
+	 */
+	private static Trade[] checkOrders(Portfolio myPortfolio, Trade[] newTrades, int triggeredCount, double rebuyThreshold, boolean atClose) {
+		if (newTrades == null) {
+			return null;
+		}
+
+		// Orders are placed and priced before the Portfolio is locked, so no other write waits on the fetches
+		Trade[] marketTrades = new Trade[newTrades.length];
+		double[] curPrices = new double[newTrades.length];
+		for (int i = 0; i < newTrades.length; i++) {
+			Trade curTrade = newTrades[i];
+
+			if (curTrade == null) {
+				continue;
+			}
+
+			// Limit, stop and trailing stop trades wait until their price is reached, triggered ones are sent
+			if (curTrade.getKind().isWorking() && i >= triggeredCount) {
+				if (myPortfolio.isVerbose()) {
+					System.out.println("Working " + curTrade.getTradeType() + " order to " + curTrade.getOrderType().toLowerCase()
+							+ " " + curTrade.getShares() + " shares of " + curTrade.getSymbol().symbol);
+				}
+				myPortfolio.addWorkingOrder(curTrade);
+			} else if (!atClose && curTrade.getKind() == OrderKind.MARKET_ON_CLOSE) {
+				// Market on close trades wait for the closing auction
+				if (myPortfolio.isVerbose()) {
+					System.out.println("Queuing " + curTrade.getOrderType().toLowerCase() + " of " + curTrade.getShares()
+							+ " shares of " + curTrade.getSymbol().symbol + " for the close");
+				}
+				myPortfolio.addCloseOrder(curTrade);
+			} else {
+				marketTrades[i] = curTrade;
+				curPrices[i] = atClose ? curTrade.getPrice() : Double.parseDouble(GeneralToolKit.fetcher.getLastTradePriceOnly(curTrade.getSymbol().symbol));
+			}
+		}
+
+		Trade[] approved = new Trade[marketTrades.length];
+
+		// The checks read the funds and positions in one write, counting the Trades approved before them
+		myPortfolio.beginWrite();
+		try {
+			double availableFunds = myPortfolio.getAvailableFunds();
+			Map<Stock, Integer> sharesLeft = new IdentityHashMap<Stock, Integer>();
+
+			for (int i = 0; i < marketTrades.length; i++) {
+				Trade curTrade = marketTrades[i];
 
 				// If there is a transaction to make
 				if (curTrade != null) {
-					double transactionCost;
-					double result = 0;
 					double pricePaid = myPortfolio.getPriceAmount(curTrade.getSymbol());
-					double curPrice = Double.parseDouble(GeneralToolKit.fetcher.getLastTradePriceOnly(curTrade.getSymbol().symbol));
-
-					transactionCost = curPrice * (curTrade.getShares());
-					String symbol = curTrade.getSymbol().symbol;
-					int originalShares = myPortfolio.getShareAmount(Stock.get(symbol));
-
-					if (curTrade.getOrderType().equals("Buy")) {
-
-						// If the Stock is already owned
-						if (pricePaid != 0) {
-							// If its within 10%, don't buy again
-							double threshold = pricePaid * .10;
-							
-							// If the Stock is not within the 10% threshold
-							if ( (pricePaid > curPrice && (pricePaid - curPrice) >= threshold) || (pricePaid < curPrice && (curPrice - pricePaid) >= threshold) ) {
-								if ((availableFunds - transactionCost) > 0) {
-									availableFunds -= transactionCost;
-									
-									System.out.println("Buying " + curTrade.getShares() + " shares of " + curTrade.getSymbol().symbol + " at " + curPrice);
-									System.out.println("Trade costs $" + transactionCost);
-									
-									curTrade.setPrice(curPrice);
-									myPortfolio.setAvailableFunds(availableFunds);
-									myPortfolio.addStockTransaction(curTrade);
-									
-									System.out.println("Funds after buying: $" + availableFunds);
-								}
-							} 
-						} else {
-							// Stock not already owned
-							if ((availableFunds - transactionCost) > 0) {
-								availableFunds -= transactionCost;
-								
-								System.out.println("Buying " + curTrade.getShares() + " shares of " + curTrade.getSymbol().symbol + " at " + curPrice);
-								System.out.println("Trade costs $" + transactionCost);
-								
-								curTrade.setPrice(curPrice);
-								myPortfolio.setAvailableFunds(availableFunds);
-								myPortfolio.addStockTransaction(curTrade);
-								
-								System.out.println("Funds after buying: $" + availableFunds);
-							}
-						}
-					} else if (curTrade.getOrderType().equals("Sell")) {
-						pricePaid = myPortfolio.getPriceAmount(Stock.get(symbol));
+					double curPrice = curPrices[i];
+					double transactionCost = curPrice * (curTrade.getShares());
+					Side side = curTrade.getSide();
 
-						// Verification that the stock is owned
-						if (pricePaid != 0) {
-							// Determines the result of the trade
-							if (pricePaid > curPrice) {
-								result = (pricePaid * originalShares) - (curPrice * originalShares);
-								
-								System.out.println("Selling " + curTrade.getShares() + " shares of " + curTrade.getSymbol().symbol + " at $" + curPrice);
-								System.out.println("Result of trade: Loss of $" + result);
-								
-								result *= -1; // Makes it negative
-							} else if (pricePaid < curPrice) {
-								result = (curPrice * originalShares) - (pricePaid * originalShares);
-								System.out.println("Result of trade: Gain of $" + result);
-							} else {
-								System.out.println("Result of trade: Even");
-							}
+					// The risk check values the order at the price it was checked at
+					curTrade.setPrice(curPrice);
+
+					if (side == Side.BUY) {
+						boolean outsideThreshold = true;
 
-							result -= 20.0; // Buy and Sell Commission
-							availableFunds += result;
+						// If the Stock is already owned and the order was not placed at a price of its own
+						if (pricePaid != 0 && i >= triggeredCount) {
+							// If its within the rebuy threshold, don't buy again. A threshold of 0 leaves nothing inside
+							outsideThreshold = Math.abs(curPrice - pricePaid) >= pricePaid * rebuyThreshold;
+						}
 
-							double moneyAmountToSet = (pricePaid * originalShares);
-							availableFunds += moneyAmountToSet;
+						if (outsideThreshold && (availableFunds - transactionCost) > 0) {
+							availableFunds -= transactionCost;
+							approved[i] = curTrade;
+						}
+					} else if (side == Side.SELL) {
+						Integer left = sharesLeft.get(curTrade.getSymbol());
+						int originalShares = left != null ? left : myPortfolio.getShareAmount(curTrade.getSymbol());
 
-							System.out.println("Funds after selling: $" + availableFunds);
-							myPortfolio.addStockTransaction(curTrade);
+						// Verification that the stock is owned
+						if (originalShares > 0) {
+							if (curTrade.getShares() > originalShares) {
+								curTrade.setShares(originalShares);
+							}
+							sharesLeft.put(curTrade.getSymbol(), originalShares - curTrade.getShares());
+							approved[i] = curTrade;
+						}
+					} else if (side == Side.SELL_SHORT) {
+						// The initial margin comes out of the available funds
+						double margin = transactionCost * Portfolio.INITIAL_MARGIN;
 
-							// Updates Trader's finances
-							myPortfolio.updateNetWorth(result);
-							myPortfolio.setAvailableFunds(availableFunds);
+						if ((availableFunds - margin) > 0) {
+							availableFunds -= margin;
+							approved[i] = curTrade;
+						}
+					} else if (side == Side.BUY_TO_COVER) {
+						Integer left = sharesLeft.get(curTrade.getSymbol());
+						int shortShares = left != null ? left : myPortfolio.getShortShares(curTrade.getSymbol());
+
+						// Verification that the stock is short
+						if (shortShares > 0) {
+							if (curTrade.getShares() > shortShares) {
+								curTrade.setShares(shortShares);
+							}
+							sharesLeft.put(curTrade.getSymbol(), shortShares - curTrade.getShares());
+							approved[i] = curTrade;
 						}
 					}
 				}
 			}
+		} finally {
+			myPortfolio.endWrite();
 		}
+
+		// Executing waits on the broker, so the Trades are sent after the lock is released
+		return approved;
 	}
 	
 	/**
@@ -123,21 +284,77 @@ public class AlgorithmToolKit {
 	 * @return the computed levels
 	 */
 	public static ArrayList<Double> calcFibRetrace(double high, double low) {
-		double difference = high - low;
+		double[] computed = calcFibRetrace(high, low, new double[FIB_LEVEL_COUNT]);
 		ArrayList<Double> levels = new ArrayList<Double>();
 
+		for (double level : computed) {
+			levels.add(level);
+		}
+
+		return levels;
+	}
+
+	/**
+	 * Computes the Fibonacci Retracement levels into an existing array
+	 * so that callers evaluating many bars do not allocate.
+	 * 
+	 * @param  high the high price number
+	 * @param  low the low price number
+	 * @param  levels array of at least FIB_LEVEL_COUNT entries to fill
+	 * @return the filled levels array
+	 */
+	public static double[] calcFibRetrace(double high, double low, double[] levels) {
+		double difference = high - low;
+
 		// Calculates the fibonacci retracement levels
 		// 23.6%, 38.2%, 50%, 61.8% and 100%.
-		levels.add(low);
-		levels.add(low + (difference * .236));
-		levels.add(low + (difference * .382));
-		levels.add(low + (difference * .50));
-		levels.add(low + (difference * .618));
-		levels.add(high);
+		levels[0] = low;
+		levels[1] = low + (difference * .236);
+		levels[2] = low + (difference * .382);
+		levels[3] = low + (difference * .50);
+		levels[4] = low + (difference * .618);
+		levels[5] = high;
 
 		return levels;
 	}
 
+	/**
+	 * Determines the move for a price against a set of Fibonacci Retracement levels.
+	 * 
+	 * A price within the threshold above a level is a potential support,
+	 * a price within the threshold below a level is a potential resistance.
+	 * Heavy volume at a support or light volume at a resistance is a sell,
+	 * light volume at a support or heavy volume at a resistance is a buy.
+	 * 
+	 * @param curPrice          the current price
+	 * @param levels            the Fibonacci Retracement levels
+	 * @param threshold         distance from a level that triggers a move
+	 * @param approximateVolume the approximated end of day volume
+	 * @param averageVolume     the average daily volume
+	 * @return BUY_SIGNAL and/or SELL_SIGNAL flags, 0 if there is no move
+	 */
+	public static int fibonacciSignal(double curPrice, double[] levels, double threshold,
+			double approximateVolume, double averageVolume) {
+		boolean heavyVolume = approximateVolume >= averageVolume;
+		int signal = 0;
+
+		for (int i = 0; i < FIB_LEVEL_COUNT; i++) {
+			double level = levels[i];
+
+			if (curPrice >= level) {
+				// Support Case
+				if (curPrice <= (level + threshold)) {
+					signal |= heavyVolume ? SELL_SIGNAL : BUY_SIGNAL;
+				}
+			} else if (curPrice >= (level - threshold)) {
+				// Resistance Case
+				signal |= heavyVolume ? BUY_SIGNAL : SELL_SIGNAL;
+			}
+		}
+
+		return signal;
+	}
+
 	/**
 	 * Calculates the high, low, and the threshold values
 	 * that will be used by in Fibonacci computation
@@ -189,10 +406,24 @@ public class AlgorithmToolKit {
 	 * @return the High, Low, and Threshold amounts
 	 */
 	public static String[] calculateHighAndLow_HDAILY(String symbol) {
+		return calculateHighAndLow_HDAILY(symbol, .0009);
+	}
+
+	/**
+	 * Calculates the high, low, and the threshold values
+	 * that will be used by in Fibonacci computation
+	 * 
+	 * Uses the Stock's high and low of the day as the values
+	 * 
+	 * @param symbol          the Stock
+	 * @param thresholdFactor fraction of the current price used as the threshold
+	 * @return the High, Low, and Threshold amounts
+	 */
+	public static String[] calculateHighAndLow_HDAILY(String symbol, double thresholdFactor) {
 		String[] values = new String[3];
 		
 		// Threshold needs to be extremely small because the values are closer togather
-		double threshold = Double.parseDouble(GeneralToolKit.fetcher.getLastTradePriceOnly(symbol)) * .0009;
+		double threshold = Double.parseDouble(GeneralToolKit.fetcher.getLastTradePriceOnly(symbol)) * thresholdFactor;
 		
 		values[0] = GeneralToolKit.fetcher.getDaysLow(symbol);
 		values[1] = GeneralToolKit.fetcher.getDaysHigh(symbol);
@@ -234,30 +465,8 @@ public class AlgorithmToolKit {
 	 * @return
 	 */
 	public static double approximateVolume(String symbol) {
-		int endOfDay = 16;
-		String time = GeneralToolKit.fetcher.getLastTradeWithTime(symbol).split(" ")[0];
-		time = time.replace("\"", "");
-
-		int hour = Integer.parseInt(time.split(":")[0]);
-
-		// Not using min yet in implementation
-		// int min = Integer.parseInt(time.split(":")[1]);
-
-		switch (hour) {
-		case 1:
-			hour = 13;
-			break;
-		case 2:
-			hour = 14;
-			break;
-		case 3:
-			hour = 15;
-			break;
-		default:
-			break;
-		}
-
-		int hoursLeft = endOfDay - hour;
+		// Assumes the rest of the 6.5 hour session trades at the same rate
+		double hoursLeft = GeneralToolKit.hoursUntilClose();
 		double curVolume = Float.parseFloat(GeneralToolKit.fetcher.getVolume(symbol));
 		double approxVolume = curVolume + (curVolume * ((hoursLeft / 6.5)));
 
@@ -1,10 +1,16 @@
 package utilities;
 
-import incoming_data_sources.YahooFetcher;
+import incoming_data_sources.RoutedFetcher;
 
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import market_time.ExchangeCalendar;
+import market_time.MarketClock;
+import market_time.RealTimeClock;
+
 
 import stocks.Portfolio;
 import stocks.Stock;
@@ -20,7 +26,15 @@ import trade_types.Trade;
  */
 public class GeneralToolKit {
 
-	public static final YahooFetcher fetcher = new YahooFetcher();
+	// Stock data source, can be routed to a replay of history per thread
+	public static final RoutedFetcher fetcher = new RoutedFetcher();
+
+	// Trading sessions used for market hours
+	public static final ExchangeCalendar calendar = ExchangeCalendar.getDefault();
+
+	// Clock the engine runs on, can be replaced per thread
+	private static volatile MarketClock clock = new RealTimeClock();
+	private static final ThreadLocal<MarketClock> routedClock = new ThreadLocal<MarketClock>();
 
 	/**
 	 * Sells all of the Stocks in the Trader's portfolio
@@ -28,21 +42,61 @@ public class GeneralToolKit {
 	 * @param portfolio the Trader's portfolio
 	 */
 	public static void sellAllStocks(Portfolio portfolio) {
-		List<Trade> positions = portfolio.getStocks();
-		Trade[] sellTrades = new Trade[positions.size()];
+		Trade[] sellTrades;
 
-		// For each stock in the portfolio, construct a new Sell Trade
-		for (int i = 0; i < positions.size(); i++) {
-			Trade curTrade = positions.get(i);
-			Trade sellTrade = new MarketTrade("Sell", Stock.get(curTrade.getSymbol().symbol), curTrade.getShares());
+		portfolio.beginWrite();
+		try {
+			List<Trade> positions = portfolio.getStocks();
+			sellTrades = new Trade[positions.size()];
 
-			sellTrades[i] = sellTrade;
+			// For each stock in the portfolio, construct a new Sell Trade
+			for (int i = 0; i < positions.size(); i++) {
+				Trade curTrade = positions.get(i);
+				Trade sellTrade = new MarketTrade("Sell", Stock.get(curTrade.getSymbol().symbol), curTrade.getShares());
+
+				sellTrades[i] = sellTrade;
+			}
+		} finally {
+			portfolio.endWrite();
 		}
 
-		// Processes new trades and updates the Trader's finances
+		// Processes new trades and updates the Trader's finances, which fetches prices without holding the lock
 		AlgorithmToolKit.processTradeResults(portfolio, sellTrades);
 	}
 	
+	/**
+	 * Retrieves the last trade price of several stocks in one request
+	 * 
+	 * @param symbols the stocks to look up
+	 * @return the price of each stock, in order
+	 */
+	public static double[] getLastTradePrices(String[] symbols) {
+		return getLastTradePrices(symbols, new double[symbols.length]);
+	}
+
+	/**
+	 * Retrieves the last trade price of several stocks in one request into an existing array
+	 * 
+	 * @param symbols the stocks to look up
+	 * @param prices  array of at least as many entries as symbols to fill
+	 * @return the filled prices array, in the order of the symbols
+	 */
+	public static double[] getLastTradePrices(String[] symbols, double[] prices) {
+		String response = symbols.length == 0 ? null : fetcher.getMultipleSymbolData(symbols, new String[] { "l1" });
+		String[] lines = response == null ? new String[0] : response.split("\n");
+
+		for (int i = 0; i < symbols.length; i++) {
+			try {
+				prices[i] = Double.parseDouble(lines[i].trim());
+			} catch (Exception e) {
+				// Missing from the batch, asks for the stock alone
+				prices[i] = Double.parseDouble(fetcher.getLastTradePriceOnly(symbols[i]));
+			}
+		}
+
+		return prices;
+	}
+
 	/**
 	 * Verifies that a stock is valid
 	 * 
@@ -50,38 +104,139 @@ public class GeneralToolKit {
 	 * @return is the symbol is valid or not
 	 */
 	public static boolean verifySymbol(String symbol){
+		boolean validSymbol = isWellFormed(symbol);
+		
+		// Check that it has a price
+		if(validSymbol){
+			try{
+				if(Double.parseDouble(fetcher.getLastTradePriceOnly(symbol)) != 0){
+					validSymbol = true;		
+				}else{
+					validSymbol = false;
+				}
+			}catch(NumberFormatException e) {
+				validSymbol = false;
+			}catch(NullPointerException e){
+				validSymbol = false;
+			}		
+		}
+		
+		return validSymbol;
+	}
+	
+	/**
+	 * Verifies several stocks with one request for their prices
+	 * 
+	 * @param symbols the stocks to verify
+	 * @return if each symbol is valid, in order
+	 */
+	public static boolean[] verifySymbols(String[] symbols) {
+		boolean[] valid = new boolean[symbols.length];
+		List<String> wellFormed = new ArrayList<String>();
+
+		for (int i = 0; i < symbols.length; i++) {
+			if (isWellFormed(symbols[i])) {
+				wellFormed.add(symbols[i]);
+			}
+		}
+
+		if (wellFormed.isEmpty()) {
+			return valid;
+		}
+
+		String response = fetcher.getMultipleSymbolData(wellFormed.toArray(new String[wellFormed.size()]), new String[] { "l1" });
+
+		// The batch failed, asks for each stock alone
+		if (response == null) {
+			for (int i = 0; i < symbols.length; i++) {
+				valid[i] = verifySymbol(symbols[i]);
+			}
+			return valid;
+		}
+
+		// A stock missing from the batch is not valid, instead of being asked for alone like getLastTradePrices
+		String[] lines = response.split("\n");
+		int line = 0;
+		for (int i = 0; i < symbols.length; i++) {
+			if (isWellFormed(symbols[i])) {
+				try {
+					valid[i] = line < lines.length && Double.parseDouble(lines[line].trim()) != 0;
+				} catch (NumberFormatException e) {
+					valid[i] = false;
+				}
+				line++;
+			}
+		}
+
+		return valid;
+	}
+	
+	/**
+	 * Checks a symbol for null, "", a space and punctuation, without looking it up
+	 */
+	private static boolean isWellFormed(String symbol){
 		String[] invalidChars = { "!", "@", "$", "%", "^", "&", "*", "(", ")", "-", "_",
 								  "+", "=", "{", "}", "[", "]", "|", "\\", ":", ";", "\"",
 								  "'", ",", "<", ".", ">", "/", "?", "~", "`" };
-		boolean validSymbol = true;
+		
+		if(symbol == null || symbol.equals("") || symbol.equals(" ")){
+			return false;
+		}
 		
 		// Check invalid characters
 		for(int i = 0; i < invalidChars.length; i++){
 			if(symbol.equals(invalidChars[i])){
-				validSymbol = false;
-			}
-		}
-		
-		// Check for null, "", a space, and numbers
-		if(validSymbol){
-			if(symbol != null && !symbol.equals("") && !symbol.equals(" ")){
-				try{
-					if(Double.parseDouble(fetcher.getLastTradePriceOnly(symbol)) != 0){
-						validSymbol = true;		
-					}else{
-						validSymbol = false;
-					}
-				}catch(NumberFormatException e) {
-					validSymbol = false;
-				}catch(NullPointerException e){
-					validSymbol = false;
-				}		
-			}else{
-				validSymbol = false;
+				return false;
 			}
 		}
 		
-		return validSymbol;
+		return true;
+	}
+	
+	/**
+	 * Gets the clock the engine runs on.
+	 * A thread that routed its own clock gets that clock, every other thread gets the shared one.
+	 * 
+	 * @return the clock
+	 */
+	public static MarketClock clock() {
+		MarketClock routed = routedClock.get();
+		return routed == null ? clock : routed;
+	}
+
+	/**
+	 * Replaces the clock shared by every thread
+	 * 
+	 * @param newClock the clock to use
+	 */
+	public static void setClock(MarketClock newClock) {
+		clock = newClock;
+	}
+
+	/**
+	 * Uses a different clock on the current thread, such as a simulated clock for a replay
+	 * 
+	 * @param threadClock the clock to use
+	 */
+	public static void routeClock(MarketClock threadClock) {
+		routedClock.set(threadClock);
+	}
+
+	/**
+	 * Gets the clock the current thread routed, so work handed
+	 * to another thread can run on the same clock
+	 * 
+	 * @return the clock, or null if the thread uses the shared clock
+	 */
+	public static MarketClock getClockRoute() {
+		return routedClock.get();
+	}
+
+	/**
+	 * Returns the current thread to the shared clock
+	 */
+	public static void clearClockRoute() {
+		routedClock.remove();
 	}
 	
 	/**
@@ -89,44 +244,42 @@ public class GeneralToolKit {
 	 * 
 	 * @return
 	 */
-	@SuppressWarnings("deprecation")
 	public static boolean isMarketOpen() {
-		Date dt = new Date();
-		int currentHour = dt.getHours();
-		int currentMin = dt.getMinutes();
-		int currentDay = dt.getDay();
+		long now = clock().currentTimeMillis();
 
-		if (currentDay == 0 || currentDay == 6) {
-			System.out.println("Weekend, Market Closed");
-			return false;
-		} else if (currentHour >= 16) { // After 4pm
-			System.out.println("After 4pm, Market Closed");
-			return false;
-		} else if (currentHour < 9) { // Before 9am
-			System.out.println("Before 9:30am, Market Closed");
-			return false;
-		} else if (currentHour == 9 && currentMin < 30) { // Before 9:30am
-			System.out.println("Before 9:30am, Market Closed");
+		if (!calendar.isOpen(now)) {
+			long nextOpen = calendar.nextOpen(now);
+			SimpleDateFormat format = new SimpleDateFormat("EEE MMM d h:mm a z");
+			format.setTimeZone(ExchangeCalendar.EXCHANGE_TIME_ZONE);
+
+			System.out.println("Market Closed" + (nextOpen == -1 ? "" : ", opens " + format.format(new Date(nextOpen))));
 			return false;
 		}
 		return true;
 	}
 
 	/**
-	 * Determines if the current time is greater than or equal to 3:50 pm
+	 * Determines if the current time is within the last ten minutes of the session
+	 * (3:50 pm on a regular day)
 	 * 
 	 * @return boolean var indicating if the time is past 3:50 pm
 	 */
-	@SuppressWarnings("deprecation")
 	public static boolean isPastThreefifty() {
-		Date dt = new Date();
-		int currentHour = dt.getHours();
-		int currentMin = dt.getMinutes();
+		long now = clock().currentTimeMillis();
+		long close = calendar.sessionClose(now);
 
-		if (currentHour == 15 && currentMin >= 50) {
-			return true;
-		}
+		return close != -1 && now >= close - (10 * 60 * 1000);
+	}
+
+	/**
+	 * Gets the number of hours left in the current session
+	 * 
+	 * @return hours until the close, 0 if the market is closed
+	 */
+	public static double hoursUntilClose() {
+		long now = clock().currentTimeMillis();
+		long close = calendar.sessionClose(now);
 
-		return false;
+		return close == -1 ? 0 : (close - now) / (60 * 60 * 1000.0);
 	}
 }
\ No newline at end of file
@@ -1,25 +1,48 @@
 package views;
 
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Scanner;
 
 
 import algorithms.Algorithm;
 import algorithms.FibRetracement;
 
+import event_bus.TradingPipeline;
+
+import market_time.MarketClock;
+import market_time.SessionScheduler;
+
+import outgoing_data_sources.FillModel;
+import outgoing_data_sources.FillModels;
+import outgoing_data_sources.SimulatedBroker;
+
+import persistence.FileJournal;
+
+import risk_management.AnalyticsSnapshot;
+import risk_management.PortfolioAnalytics;
+import risk_management.RiskEngine;
+
 import stocks.Portfolio;
+import stocks.PortfolioManager;
 import stocks.Stock;
+import trade_types.LimitTrade;
+import trade_types.MarketOnCloseTrade;
 import trade_types.MarketTrade;
+import trade_types.OrderKind;
+import trade_types.StopLimitTrade;
+import trade_types.StopTrade;
 import trade_types.Trade;
+import trade_types.TrailingStopDollarTrade;
+import trade_types.TrailingStopPercentTrade;
+import trade_types.TriggerEngine;
 import utilities.AlgorithmToolKit;
 import utilities.GeneralToolKit;
 
@@ -34,16 +57,148 @@ import utilities.GeneralToolKit;
 public class ConsoleView {
 
 	private Portfolio currentPortfolio;
+	private PortfolioManager accounts = new PortfolioManager();
+	private FileJournal journal;
+	private RiskEngine riskEngine = new RiskEngine();
 	private Scanner in = new Scanner(System.in);
 	private List<Class<? extends Algorithm>> availableAlgorithms = new ArrayList<Class<? extends Algorithm>>();
+	
+	// Wakes the simulation every 10 seconds while the market is open
+	private static final long CYCLE_MILLIS = 10000;
+	private SessionScheduler scheduler = new SessionScheduler(GeneralToolKit.calendar, CYCLE_MILLIS);
+	
+	// Cycles in a year of six and a half hour sessions, since the simulation marks its analytics every cycle
+	private static final double CYCLES_PER_YEAR = PortfolioAnalytics.TRADING_DAYS * 6.5 * 60 * 60 * 1000 / CYCLE_MILLIS;
+	
+	// A simulation runs the closing auction on its own last cycle
+	private volatile boolean simulating = false;
+	
+	// Transactions printed before asking to see more
+	private static final int TRADE_HISTORY_PAGE = 20;
+	
+	// Risk limits read at start up, and those used when the file does not set them
+	private static final File RISK_LIMITS = new File("risk.properties");
+	private static final double DEFAULT_SYMBOL_FRACTION = .25;
+	private static final double DEFAULT_DAILY_LOSS_FRACTION = .05;
+	private static final double DEFAULT_ORDERS_PER_SECOND = 10;
 
-	public ConsoleView(Portfolio portfolioToUse) {
+	public ConsoleView(Portfolio portfolioToUse, FileJournal journal) {
 		currentPortfolio = portfolioToUse;
+		this.journal = journal;
+		
+		// Fills and the algorithm's reasoning are printed here, and kept quiet in backtests
+		currentPortfolio.setVerbose(true);
+		
+		// Older trade history is kept next to the saved portfolio
+		try {
+			currentPortfolio.getTradeHistory().setSpillFile(new File("portfolio.history"));
+		} catch (IOException e) {
+			System.out.println("Trade history will spill to a temporary file: " + e.getMessage());
+		}
+		
+		// Every fill is journaled as it happens, so a crash does not lose the session
+		try {
+			journal.attach(currentPortfolio);
+		} catch (IOException e) {
+			System.out.println("Portfolio will not be journaled: " + e.getMessage());
+		}
+		
+		// Every order passes the pre-trade risk limits first, whether entered here or made by an algorithm
+		riskEngine.loadPositions(currentPortfolio);
+		loadRiskLimits();
+		currentPortfolio.addFillListener(riskEngine);
+		currentPortfolio.setRiskCheck(riskEngine);
+		
+		// Quotes only reach the accounts that hold their stock or have working orders for it
+		accounts.addAccount(currentPortfolio);
+		
+		// Market on close orders entered here execute at the close even without a simulation
+		Thread closingAuction = new Thread(new ClosingAuction(), "Closing Auction");
+		closingAuction.setDaemon(true);
+		closingAuction.start();
 		
 		// List of Algorithms to use
 		availableAlgorithms.add(FibRetracement.class);
 	}
 
+	/**
+	 * Sets the risk limits from risk.properties, with the defaults for any it does not set.
+	 * The notional and loss limits are fractions of the net liquidation value at start up.
+	 */
+	private void loadRiskLimits() {
+		Properties limits = new Properties();
+		if (RISK_LIMITS.exists()) {
+			try {
+				FileInputStream input = new FileInputStream(RISK_LIMITS);
+				try {
+					limits.load(input);
+				} finally {
+					input.close();
+				}
+			} catch (IOException e) {
+				System.out.println("Risk limits will be the defaults: " + e.getMessage());
+			}
+		}
+		
+		double netLiquidationValue = currentPortfolio.getNetLiquidationValue();
+		riskEngine.setMaxSymbolNotional(netLiquidationValue * riskLimit(limits, "maxSymbolFraction", DEFAULT_SYMBOL_FRACTION));
+		riskEngine.setMaxDailyLoss(netLiquidationValue * riskLimit(limits, "maxDailyLossFraction", DEFAULT_DAILY_LOSS_FRACTION));
+		riskEngine.setMaxOrdersPerSecond(riskLimit(limits, "maxOrdersPerSecond", DEFAULT_ORDERS_PER_SECOND));
+	}
+	
+	/**
+	 * Reads one risk limit, falling back to its default when it is missing or not a number
+	 */
+	private static double riskLimit(Properties limits, String name, double defaultValue) {
+		String value = limits.getProperty(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			System.out.println("Risk limit " + name + " is not a number, using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Runs the closing auction on the last cycle of every session
+	 */
+	private class ClosingAuction implements Runnable {
+		@Override
+		public void run() {
+			MarketClock clock = GeneralToolKit.clock();
+			
+			try {
+				long now = clock.currentTimeMillis();
+				for (long auction = scheduler.nextLastCycle(now); auction != -1; auction = scheduler.nextLastCycle(now)) {
+					clock.sleep(auction - now);
+					
+					if (!simulating) {
+						System.out.println("\nRunning closing auction");
+						try {
+							AlgorithmToolKit.processCloseAuction(currentPortfolio);
+						} catch (RuntimeException e) {
+							System.out.println("Closing auction failed: " + e.getMessage());
+						}
+					}
+					
+					// Waits out the session so its auction only runs once
+					now = clock.currentTimeMillis();
+					long close = GeneralToolKit.calendar.sessionClose(now);
+					if (close != -1) {
+						clock.sleep(close - now);
+					}
+					now = clock.currentTimeMillis();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
 	/**
 	 * Menu for Buying and Selling Stocks
 	 */
@@ -122,7 +277,7 @@ public class ConsoleView {
 			} else if (menuChoice.equals("7")) {
 				simulationMenu();
 			} else if (menuChoice.equals("8")) {
-				serializeData(currentPortfolio);
+				serializeData();
 				System.exit(0);
 			} else {
 				System.out.println("Invalid choice");
@@ -177,10 +332,23 @@ public class ConsoleView {
 	 * Menu to view the account balance
 	 */
 	private void balanceMenu() {
+		currentPortfolio.markToMarket();
+		
 		System.out.println();
 		System.out.println(currentPortfolio.getAccountName() + " " + currentPortfolio.getPercentChange());
 		System.out.println("===================================");
 		System.out.println("Available Funds: $" + currentPortfolio.getAvailableFunds());
+		System.out.println("Net Liquidation Value: $" + currentPortfolio.getNetLiquidationValue());
+		System.out.println("Market Value: $" + currentPortfolio.getMarketValue());
+		System.out.println("Unrealized Profit: $" + currentPortfolio.getUnrealized());
+		System.out.println("Realized Profit: $" + currentPortfolio.getRealized());
+		
+		if (!currentPortfolio.getShortPositions().isEmpty()) {
+			System.out.println("Margin Held: $" + currentPortfolio.getMarginHeld());
+			System.out.println("Short Value: $" + currentPortfolio.getShortMarketValue());
+			System.out.println("Short Profit: $" + currentPortfolio.getShortUnrealized());
+			System.out.println("Borrow Cost: $" + currentPortfolio.getBorrowCost());
+		}
 		System.out.println("===================================");
 
 		mainMenu();
@@ -287,8 +455,30 @@ public class ConsoleView {
 					mainMenu();
 				}
 				
-				if(!priceType.equals("market")){
-					System.out.println("Only market orders are implemented, using market order.");	
+				// Market on close orders wait for the closing auction
+				if(priceType.equals("market on close")){
+					if(GeneralToolKit.isPastThreefifty()){
+						System.out.println("Market on close orders must be entered before 3:50 pm");
+					}else{
+						currentPortfolio.addCloseOrder(new MarketOnCloseTrade("Buy", Stock.get(whatToBuy), shareNum));
+						System.out.println("Order will execute at the close");
+					}
+					
+					System.out.println("===================================");
+					mainMenu();
+				}
+				
+				// Limit, stop and trailing stop orders wait until their price is reached
+				if(TriggerEngine.isWorkingType(priceType)){
+					Trade newTrade = createTrade("Buy", priceType, Stock.get(whatToBuy), shareNum);
+					
+					if(newTrade != null){
+						currentPortfolio.addWorkingOrder(newTrade);
+						System.out.println("Order is working until its price is reached");
+					}
+					
+					System.out.println("===================================");
+					mainMenu();
 				}
 
 				// Data verified
@@ -297,29 +487,12 @@ public class ConsoleView {
 				String execute = in.nextLine();
 
 				if (execute.toLowerCase().equals("y")) {
-					availableFunds -= costToPurchase;
-					System.out.println("You have $" + availableFunds + " left in your account.");
-					
-					// Currently only Market orders are implemented
-					Trade newTrade = null;
-					if(priceType.equals("market")){
-						newTrade = new MarketTrade("Buy", Stock.get(whatToBuy), shareNum);	
-					}else if(priceType.equals("market on close")){
-						newTrade = new MarketTrade("Buy", Stock.get(whatToBuy), shareNum);
-					}else if(priceType.equals("limit")){
-						newTrade = new MarketTrade("Buy", Stock.get(whatToBuy), shareNum);
-					}else if(priceType.equals("stop limit")){
-						newTrade = new MarketTrade("Buy", Stock.get(whatToBuy), shareNum);
-					}else if(priceType.equals("stop")){
-						newTrade = new MarketTrade("Buy", Stock.get(whatToBuy), shareNum);
-					}else if(priceType.equals("trailing stop dollar")){
-						newTrade = new MarketTrade("Buy", Stock.get(whatToBuy), shareNum);
-					}else if(priceType.equals("trailing stop percent")){
-						newTrade = new MarketTrade("Buy", Stock.get(whatToBuy), shareNum);
-					}
+					Trade newTrade = createTrade("Buy", priceType, Stock.get(whatToBuy), shareNum);
+					newTrade.setPrice(Double.parseDouble(curPrice));
 					
-					currentPortfolio.addStockTransaction(newTrade);
-					currentPortfolio.setAvailableFunds(availableFunds);
+					// The fill pays for the shares when the order gateway reports it
+					currentPortfolio.sendOrders(new Trade[] { newTrade });
+					System.out.println("You have $" + currentPortfolio.getAvailableFunds() + " left in your account.");
 				}else{
 					System.out.println("No action taken");
 				}
@@ -407,59 +580,51 @@ public class ConsoleView {
 					mainMenu();
 				}
 				
-				if(!priceType.equals("market")){
-					System.out.println("Only market orders are implemented, using market order.");	
+				// Market on close orders wait for the closing auction
+				if(priceType.equals("market on close")){
+					if(GeneralToolKit.isPastThreefifty()){
+						System.out.println("Market on close orders must be entered before 3:50 pm");
+					}else{
+						currentPortfolio.addCloseOrder(new MarketOnCloseTrade("Sell", Stock.get(whatToSell), shareNum));
+						System.out.println("Order will execute at the close");
+					}
+					
+					System.out.println("===================================");
+					mainMenu();
 				}
 				
-				// Data is verified, selling
-				double result = 0;
-				// Computes result of trade
-				if (pricePaid != Double.parseDouble(curPrice)) {
-					if (pricePaid > Double.parseDouble(curPrice)) {
-						result = (pricePaid * originalShares) - (Double.parseDouble(curPrice) * shareNum);
-						System.out.println("Result of trade: Loss of $" + result);
-						result *= -1; // Negates result
-					} else if (pricePaid < Double.parseDouble(curPrice)) {
-						result = (Double.parseDouble(curPrice) * shareNum) - (pricePaid * originalShares);
-						System.out.println("Result of trade: Gain of $" + result);
+				// Limit, stop and trailing stop orders wait until their price is reached
+				if(TriggerEngine.isWorkingType(priceType)){
+					Trade newTrade = createTrade("Sell", priceType, Stock.get(whatToSell), shareNum);
+					
+					if(newTrade != null){
+						currentPortfolio.addWorkingOrder(newTrade);
+						System.out.println("Order is working until its price is reached");
 					}
+					
+					System.out.println("===================================");
+					mainMenu();
+				}
+				
+				// Data is verified, estimates the result at the average price paid
+				double result = (Double.parseDouble(curPrice) - pricePaid) * shareNum;
+				if (result < 0) {
+					System.out.println("Estimated result of trade: Loss of $" + (-result));
+				} else if (result > 0) {
+					System.out.println("Estimated result of trade: Gain of $" + result);
 				} else {
-					System.out.println("Result of trade: Even");
+					System.out.println("Estimated result of trade: Even");
 				}
 
-				result -= 20.0; // Buying and Selling Commission
-
 				System.out.print("Execute trade (Y/N): ");
 				String execute = in.nextLine();
 
-				double availableFunds = currentPortfolio.getAvailableFunds();
-
 				// Executes Trade
 				if (execute.toLowerCase().equals("y")) {
-					availableFunds += result;
-					System.out.println("You have $" + availableFunds + " left in your account");
+					Trade newTrade = createTrade("Sell", priceType, Stock.get(whatToSell), shareNum);
 					
-					// Currently only Market orders are implemented
-					Trade newTrade = null;
-					if(priceType.equals("market")){
-						newTrade = new MarketTrade("Sell", Stock.get(whatToSell), Integer.parseInt(shareAmount));
-					}else if(priceType.equals("market on close")){
-						newTrade = new MarketTrade("Sell", Stock.get(whatToSell), Integer.parseInt(shareAmount));
-					}else if(priceType.equals("limit")){
-						newTrade = new MarketTrade("Sell", Stock.get(whatToSell), Integer.parseInt(shareAmount));
-					}else if(priceType.equals("stop limit")){
-						newTrade = new MarketTrade("Sell", Stock.get(whatToSell), Integer.parseInt(shareAmount));
-					}else if(priceType.equals("stop")){
-						newTrade = new MarketTrade("Sell", Stock.get(whatToSell), Integer.parseInt(shareAmount));
-					}else if(priceType.equals("trailing stop dollar")){
-						newTrade = new MarketTrade("Sell", Stock.get(whatToSell), Integer.parseInt(shareAmount));
-					}else if(priceType.equals("trailing stop percent")){
-						newTrade = new MarketTrade("Sell", Stock.get(whatToSell), Integer.parseInt(shareAmount));
-					}
-					
-					currentPortfolio.addStockTransaction(newTrade);
-					currentPortfolio.updateNetWorth(result);
-					currentPortfolio.setAvailableFunds(availableFunds);
+					AlgorithmToolKit.processTradeResults(currentPortfolio, new Trade[] { newTrade });
+					System.out.println("You have $" + currentPortfolio.getAvailableFunds() + " left in your account");
 				}else{
 					System.out.println("No action taken");
 				}
@@ -472,20 +637,220 @@ public class ConsoleView {
 		mainMenu();
 	}
 
+	/**
+	 * Creates a Trade of a price type, prompting for the prices it needs
+	 * 
+	 * @param orderType one of the order types
+	 * @param priceType one of Trade.getPriceTypes()
+	 * @param stock     the stock to trade
+	 * @param shares    number of shares
+	 * @return the Trade, or null if an entered price is invalid
+	 */
+	private Trade createTrade(String orderType, String priceType, Stock stock, int shares) {
+		OrderKind kind = OrderKind.fromName(priceType);
+		if(kind == null){
+			kind = OrderKind.MARKET;
+		}
+		
+		try{
+			switch(kind){
+			case LIMIT:
+				return new LimitTrade(orderType, stock, shares, promptPrice("Enter limit price: "));
+			case STOP:
+				return new StopTrade(orderType, stock, shares, promptPrice("Enter stop price: "));
+			case STOP_LIMIT:
+				double stopPrice = promptPrice("Enter stop price: ");
+				return new StopLimitTrade(orderType, stock, shares, stopPrice, promptPrice("Enter limit price: "));
+			case TRAILING_STOP_DOLLAR:
+				return new TrailingStopDollarTrade(orderType, stock, shares, promptPrice("Enter trail amount: $"));
+			case TRAILING_STOP_PERCENT:
+				return new TrailingStopPercentTrade(orderType, stock, shares, promptPrice("Enter trail percent: "));
+			default:
+				break;
+			}
+		}catch(NumberFormatException e){
+			System.out.println("Invalid price");
+			return null;
+		}
+		
+		return new MarketTrade(orderType, stock, shares);
+	}
+	
+	/**
+	 * Prompts for a positive price
+	 * 
+	 * @param prompt
+	 * @return the entered price
+	 * @throws NumberFormatException if the entry is not a positive number
+	 */
+	private double promptPrice(String prompt) {
+		System.out.print(prompt);
+		double price = Double.parseDouble(in.nextLine());
+		
+		if(price <= 0){
+			throw new NumberFormatException();
+		}
+		return price;
+	}
+
+	/**
+	 * Menu to sell a Stock short
+	 */
 	private void sellShortMenu(){
+		System.out.println();
+		System.out.println(currentPortfolio.getAccountName() + " " + currentPortfolio.getPercentChange());
 		System.out.println("===================================");
-		System.out.println("Not implemented yet.");
+
+		if (GeneralToolKit.isMarketOpen()) {
+			System.out.print("Enter in symbol: ");
+			String whatToShort = in.nextLine();
+			
+			if(GeneralToolKit.verifySymbol(whatToShort)){
+				String curPrice = GeneralToolKit.fetcher.getLastTradePriceOnly(whatToShort);
+
+				System.out.println("Current price is: " + curPrice);
+				System.out.print("Enter amount of shares to sell short: ");
+				int shareNum = promptShares();
+				
+				// Verifying Trader has enough funds for the initial margin
+				double margin = Double.parseDouble(curPrice) * shareNum * Portfolio.INITIAL_MARGIN;
+				if (margin > currentPortfolio.getAvailableFunds()) {
+					System.out.println("Not enough funds for the margin of $" + margin);
+					mainMenu();
+				}
+				
+				System.out.println("Margin to deposit: $" + margin);
+				placeOrder("Sell Short", Stock.get(whatToShort), shareNum);
+			}else{
+				System.out.println("Invalid Symbol");
+			}
+		}
+		
 		System.out.println("===================================");
 		mainMenu();
 	}
 	
+	/**
+	 * Menu to buy back a Stock sold short
+	 */
 	private void buyToCoverMenu(){
+		System.out.println();
+		System.out.println(currentPortfolio.getAccountName() + " " + currentPortfolio.getPercentChange());
 		System.out.println("===================================");
-		System.out.println("Not implemented yet.");
+
+		if (GeneralToolKit.isMarketOpen()) {
+			System.out.print("Enter in symbol: ");
+			String whatToCover = in.nextLine();
+			
+			if(GeneralToolKit.verifySymbol(whatToCover)){
+				int shortShares = currentPortfolio.getShortShares(Stock.get(whatToCover));
+
+				if (shortShares == 0) {
+					System.out.println(whatToCover + " is not short in portfolio");
+					mainMenu();
+				}
+				
+				System.out.println("Current price is: " + GeneralToolKit.fetcher.getLastTradePriceOnly(whatToCover));
+				System.out.println("Short " + shortShares + " shares at " + currentPortfolio.getShortPrice(Stock.get(whatToCover)));
+				System.out.print("Enter amount of shares to buy to cover: ");
+				int shareNum = promptShares();
+				
+				// Verifies that trader is short the entered amount of shares
+				if (shareNum > shortShares) {
+					System.out.println("You are not short that many shares of " + whatToCover);
+					mainMenu();
+				}
+				
+				placeOrder("Buy to Cover", Stock.get(whatToCover), shareNum);
+			}else{
+				System.out.println("Invalid Symbol");
+			}
+		}
+		
 		System.out.println("===================================");
 		mainMenu();
 	}
 	
+	/**
+	 * Prompts for a positive number of shares
+	 * 
+	 * @return the entered number of shares
+	 */
+	private int promptShares() {
+		int shareNum = 0;
+		
+		try{
+			shareNum = Integer.parseInt(in.nextLine());
+		}catch(NumberFormatException e){
+			shareNum = 0;
+		}
+		
+		if(shareNum <= 0){
+			System.out.println("Invalid number of shares");
+			mainMenu();
+		}
+		return shareNum;
+	}
+	
+	/**
+	 * Prompts for a price type and places an order of it
+	 * 
+	 * @param orderType one of the order types
+	 * @param stock     the stock to trade
+	 * @param shareNum  number of shares
+	 */
+	private void placeOrder(String orderType, Stock stock, int shareNum) {
+		System.out.println("Price types: ");
+		
+		String[] priceTypes = Trade.getPriceTypes();
+		for(int i = 0; i < priceTypes.length; i++){
+			System.out.println("  " + priceTypes[i]);
+		}
+		
+		// Prompt for price type
+		System.out.print("\nEnter in price type: ");
+		String priceType = in.nextLine();
+		
+		OrderKind kind = OrderKind.fromName(priceType);
+		if(kind == null){
+			System.out.println("Invalid price type");
+			return;
+		}
+		
+		// Market on close orders wait for the closing auction
+		if(kind == OrderKind.MARKET_ON_CLOSE){
+			if(GeneralToolKit.isPastThreefifty()){
+				System.out.println("Market on close orders must be entered before 3:50 pm");
+			}else{
+				currentPortfolio.addCloseOrder(new MarketOnCloseTrade(orderType, stock, shareNum));
+				System.out.println("Order will execute at the close");
+			}
+			return;
+		}
+		
+		Trade newTrade = createTrade(orderType, priceType, stock, shareNum);
+		if(newTrade == null){
+			return;
+		}
+		
+		// Limit, stop and trailing stop orders wait until their price is reached
+		if(kind.isWorking()){
+			currentPortfolio.addWorkingOrder(newTrade);
+			System.out.println("Order is working until its price is reached");
+			return;
+		}
+		
+		System.out.print("Execute trade (Y/N): ");
+		String execute = in.nextLine();
+
+		if (execute.toLowerCase().equals("y")) {
+			AlgorithmToolKit.processTradeResults(currentPortfolio, new Trade[] { newTrade });
+			System.out.println("You have $" + currentPortfolio.getAvailableFunds() + " left in your account");
+		}else{
+			System.out.println("No action taken");
+		}
+	}
+	
 	/**
 	 * Transaction history Menu
 	 */
@@ -493,8 +858,24 @@ public class ConsoleView {
 		System.out.println();
 		System.out.println(currentPortfolio.getAccountName() + " " + currentPortfolio.getPercentChange());
 		System.out.println("===================================");
+		System.out.print("Enter symbol, or nothing for every stock: ");
+		String symbol = in.nextLine().trim();
+		Stock stock = symbol.isEmpty() ? null : Stock.get(symbol);
+		
 		System.out.println("Transaction History:");
-		currentPortfolio.printTradeHistory();
+		
+		// Prints a page at a time
+		long row = 0;
+		while(row != -1){
+			row = currentPortfolio.printTradeHistory(stock, row, TRADE_HISTORY_PAGE);
+			
+			if(row != -1){
+				System.out.print("Enter for more, q to stop: ");
+				if(in.nextLine().toLowerCase().equals("q")){
+					break;
+				}
+			}
+		}
 		System.out.println("===================================");
 
 		mainMenu();
@@ -506,8 +887,6 @@ public class ConsoleView {
 	@SuppressWarnings("rawtypes")
 	private void simulationMenu() {
 		float duration = 0;
-		float elapsedTimeHour;
-		long elapsedTimeMillis;
 		boolean notOver = true;
 		long start;
 		Portfolio portfolioToUse = null;
@@ -581,36 +960,76 @@ public class ConsoleView {
 					e.printStackTrace();
 				}
 				
+				// Choose how the simulated broker fills orders
+				System.out.println("\nFill models: " + FillModels.NAMES);
+				System.out.print("Enter a fill model (blank for engine): ");
+				choice = in.nextLine();
+				
+				FillModel fillModel = null;
+				if (!choice.trim().isEmpty()) {
+					try {
+						fillModel = FillModels.forName(choice);
+					} catch (IllegalArgumentException e) {
+						System.out.println(e.getMessage() + ", using the matching engine");
+					}
+				}
+				
 				// Performs algorithm until simulation is over
-				Trade[] newTrades;
-				start = System.currentTimeMillis();
+				start = GeneralToolKit.clock().currentTimeMillis();
+				long end = start + (long) (duration * 60 * 60 * 1000L);
 				System.out.println("\nBeginning Simulation");
 				algorithmToExecute.setup(portfolioToUse);
 				
+				// Quotes, the algorithm, working orders and results run as stages of one pipeline
+				// The Portfolio's risk check approves the algorithm's orders too, and a simulated broker fills them
+				TradingPipeline pipeline = new TradingPipeline(algorithmToExecute, currentPortfolio, 1024);
+				pipeline.setOrderGateway(new SimulatedBroker(64, 0, fillModel));
+				pipeline.setPortfolioManager(accounts);
+				if (algorithmToExecute instanceof FibRetracement) {
+					pipeline.setRebuyThreshold(((FibRetracement) algorithmToExecute).getParameters().getRebuyThreshold());
+				}
+				
+				// The simulation's risk and performance are kept up to date as it trades
+				PortfolioAnalytics analytics = new PortfolioAnalytics(CYCLES_PER_YEAR);
+				analytics.loadPositions(currentPortfolio);
+				currentPortfolio.addFillListener(analytics);
+				pipeline.addQuoteListener(analytics);
+				analytics.onMark(currentPortfolio, Double.NaN);
+				
+				pipeline.start();
+				simulating = true;
+				
 				while (notOver) {
 					System.out.println("Executing Algorithm");
-					newTrades = algorithmToExecute.evaluate();
+					pipeline.runCycle();
+					analytics.onMark(currentPortfolio, Double.NaN);
 					
-					System.out.println("\nProcessing results");
-					AlgorithmToolKit.processTradeResults(currentPortfolio, newTrades);
-
-					// Updates time
-					elapsedTimeMillis = System.currentTimeMillis() - start;
-					elapsedTimeHour = elapsedTimeMillis / (60 * 60 * 1000F);
-
-					// Determines if simulation is over
-					if (elapsedTimeHour >= duration) {
-						break;
+					// Market on close orders execute together on the session's last cycle
+					if (scheduler.isLastCycle(GeneralToolKit.clock().currentTimeMillis())) {
+						System.out.println("\nRunning closing auction");
+						AlgorithmToolKit.processCloseAuction(currentPortfolio);
 					}
 
-					// Sleeps to ensure connections are not lost
+					// Sleeps until the next cycle, skipping straight to the next open after the close
+					// The simulation is over once the next cycle would be past the duration
 					try {
-						Thread.sleep(10000);
+						notOver = scheduler.awaitNextCycle(GeneralToolKit.clock(), end);
 					} catch (InterruptedException e) {
 						e.printStackTrace();
+						notOver = false;
 					}
 				}
 
+				simulating = false;
+				try {
+					pipeline.shutdown();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+				pipeline.printStats();
+				currentPortfolio.removeFillListener(analytics);
+				printAnalytics(analytics.snapshot());
+				
 				System.out.println("\nEnding Simulation");
 				
 				System.out.println("===================================");
@@ -623,21 +1042,30 @@ public class ConsoleView {
 	}
 
 	/**
-	 * Saves the Trader's portfolio for for future use
+	 * Prints the metrics of a simulation
 	 * 
-	 * @param toSerialize the portfolio to save
+	 * @param metrics the simulation's analytics
 	 */
-	private void serializeData(Portfolio toSerialize) {
+	private void printAnalytics(AnalyticsSnapshot metrics) {
+		System.out.println("\nSimulation Analytics");
+		System.out.println("-----------------------------------");
+		System.out.println("Total return: " + (metrics.getTotalReturn() * 100) + "%");
+		System.out.println("Sharpe ratio: " + metrics.getSharpeRatio());
+		System.out.println("Sortino ratio: " + metrics.getSortinoRatio());
+		System.out.println("Max drawdown: " + (metrics.getMaxDrawdown() * 100) + "%");
+		System.out.println("Turnover: " + metrics.getTurnover());
+		System.out.println("Spec exposure: " + metrics.getGrossExposure(FibRetracement.SPEC_GROUP));
+		System.out.println("Small cap exposure: " + metrics.getGrossExposure(FibRetracement.SMALL_GROUP));
+		System.out.println("Large cap exposure: " + metrics.getGrossExposure(FibRetracement.LARGE_GROUP));
+	}
+
+	/**
+	 * Saves the Trader's portfolio for for future use by taking a snapshot and closing the journal
+	 */
+	private void serializeData() {
 		try {
-			FileOutputStream fileOut = new FileOutputStream("portfolio.ser");
-			ObjectOutputStream out = new ObjectOutputStream(fileOut);
-			
-			out.writeObject(toSerialize);
-			
-			out.close();
-			fileOut.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			journal.snapshot();
+			journal.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -659,19 +1087,31 @@ public class ConsoleView {
 		System.out.println("Welcome to the Algorithmic Stock Trading Simulator!");
 		System.out.println("---------------------------------------------------\n");
 		
-		// Determines if there is already a portfolio to use
+		// Determines if there is already a portfolio to use, from the journal or else from the last save before it
+		FileJournal journal = new FileJournal(new File("portfolio"));
 		try {
-			f_in = new FileInputStream("portfolio.ser");
-			obj_in = new ObjectInputStream(f_in);
-			obj = obj_in.readObject();
-		}catch (Exception e) { } // Can ignore
+			obj = journal.recover();
+		} catch (IOException e) {
+			System.out.println("Could not recover portfolio: " + e.getMessage());
+		}
+		
+		if (obj == null) {
+			try {
+				f_in = new FileInputStream("portfolio.ser");
+				obj_in = new ObjectInputStream(f_in);
+				obj = obj_in.readObject();
+			}catch (Exception e) { } // Can ignore
+		}
 
 		// If a portfolio is found, use it. Else, construct a new one
 		if (obj instanceof Portfolio) {
 			Portfolio portfolio = (Portfolio) obj;
 			
+			// The saved working orders are priced before the program starts, outside any write
+			portfolio.armWorkingOrders();
+			
 			// Starts program
-			application = new ConsoleView(portfolio);
+			application = new ConsoleView(portfolio, journal);
 			application.mainMenu();
 		} else {
 			System.out.print("Enter account name: ");
@@ -703,13 +1143,11 @@ public class ConsoleView {
 			// Creates Portfolio
 			Portfolio portfolio = new Portfolio(accountName, money);
 
-			// Adds stocks to watchlist
-			for (String curStock : watchList) {
-				portfolio.addToWatchList(curStock);
-			}
+			// Adds stocks to watchlist, checked in one request
+			portfolio.addToWatchList(watchList);
 
 			// Starts Program
-			application = new ConsoleView(portfolio);
+			application = new ConsoleView(portfolio, journal);
 			application.mainMenu();
 		}
 	}